@@ -0,0 +1,350 @@
+package aggregation;
+
+import com.mongodb.client.model.Projections;
+import database.AggregateGenerations;
+import database.MongoDatabaseHandler;
+import database.NlpLayerStore;
+import database.Workload;
+import org.bson.Document;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.*;
+
+/**
+ * Vergleicht die $facet-Pipelines aus {@link AllSpeechAggregation} und {@link SessionAggregation} mit der
+ * Berechnung in Java ({@link SingleScanAggregation}) auf einem {@link SyntheticCorpus}. Beide Wege laufen
+ * gegen dieselbe lokale Datenbank, danach werden die Einträge "all" und "sessions" feldweise verglichen.
+ * Pro Lauf werden Laufzeit, CPU-Zeit dieses Prozesses und des MongoDB-Servers (falls serverStatus
+ * erlaubt ist) sowie die Heap-Spitze ausgegeben.
+ *
+ * Start über das Maven-Profil: mvn -P aggregation-benchmark verify -Dbenchmark.config=benchmark.properties
+ * Die Datenbank wird geleert; ihr Name muss daher "bench" enthalten, sonst bricht der Benchmark ab
+ * (außer mit -Dbenchmark.force=true). Weitere Parameter siehe {@link #main}.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class AggregationBenchmark {
+
+    private static final List<String> COMPARED_TYPES = List.of("all", "sessions");
+    private static final double SCORE_TOLERANCE = 1e-9;
+    private static final int MAX_REPORTED_DIFFERENCES = 20;
+
+    private final MongoDatabaseHandler dbHandler;
+
+    /**
+     * Ergebnis eines gemessenen Laufs.
+     */
+    static class Measurement {
+        final String name;
+        final long wallMs;
+        final long cpuMs;
+        final long serverCpuMs;
+        final long peakHeapMb;
+
+        Measurement(String name, long wallMs, long cpuMs, long serverCpuMs, long peakHeapMb) {
+            this.name = name;
+            this.wallMs = wallMs;
+            this.cpuMs = cpuMs;
+            this.serverCpuMs = serverCpuMs;
+            this.peakHeapMb = peakHeapMb;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-22s Laufzeit %7d ms | CPU %7d ms | Server-CPU %7s ms | Heap-Spitze %5d MB",
+                    name, wallMs, cpuMs, serverCpuMs >= 0 ? String.valueOf(serverCpuMs) : "n/a", peakHeapMb);
+        }
+    }
+
+    /**
+     * Konstruktor für den Benchmark.
+     *
+     * @param dbHandler Verbindung zur Benchmark-Datenbank
+     * @author Ibrahim Garhiou
+     */
+    public AggregationBenchmark(MongoDatabaseHandler dbHandler) {
+        this.dbHandler = dbHandler;
+    }
+
+    /**
+     * Führt beide Implementierungen mehrmals aus und vergleicht die Ergebnisse des letzten Laufs.
+     *
+     * @param runs Anzahl der Läufe je Implementierung, der erste dient auch zum Aufwärmen
+     * @return Anzahl der gefundenen Unterschiede
+     * @author Ibrahim Garhiou
+     */
+    public int run(int runs) {
+        List<Measurement> measurements = new ArrayList<>();
+        Map<String, Document> pipelineResult = null;
+        Map<String, Document> javaResult = null;
+
+        for (int run = 1; run <= runs; run++) {
+            measurements.add(measure("Pipelines #" + run, () -> {
+                new AllSpeechAggregation(dbHandler).aggregate();
+                new SessionAggregation(dbHandler).aggregateAllSessions();
+            }));
+            pipelineResult = snapshot();
+
+            measurements.add(measure("Java (SingleScan) #" + run, () -> new SingleScanAggregation(dbHandler).aggregateAll()));
+            javaResult = snapshot();
+        }
+
+        System.out.println();
+        System.out.println("[AggregationBenchmark] Messungen:");
+        measurements.forEach(measurement -> System.out.println("  " + measurement));
+
+        List<String> differences = diff(pipelineResult, javaResult);
+        System.out.println("[AggregationBenchmark] Verglichene Einträge: Pipelines " + pipelineResult.size()
+                + ", Java " + javaResult.size() + ", Unterschiede: " + differences.size());
+        differences.stream().limit(MAX_REPORTED_DIFFERENCES).forEach(difference -> System.out.println("  " + difference));
+        if (differences.size() > MAX_REPORTED_DIFFERENCES) {
+            System.out.println("  ... und " + (differences.size() - MAX_REPORTED_DIFFERENCES) + " weitere");
+        }
+        return differences.size();
+    }
+
+    /**
+     * Leert die vom Benchmark beschriebenen Collections.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void reset() {
+        for (String collection : List.of("rede", NlpLayerStore.COLLECTION, AggregateGenerations.COLLECTION,
+                AggregateGenerations.POINTER_COLLECTION, AggregateGenerations.GENERATIONS_COLLECTION)) {
+            dbHandler.getCollection(collection).drop();
+        }
+        new AggregateGenerations(dbHandler).ensureIndexes();
+    }
+
+    private Measurement measure(String name, Runnable action) {
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+
+        long cpuBefore = processCpuNanos();
+        long serverCpuBefore = serverCpuMicros();
+        long start = System.nanoTime();
+        action.run();
+        long wallMs = (System.nanoTime() - start) / 1_000_000;
+        long cpuMs = (processCpuNanos() - cpuBefore) / 1_000_000;
+        long serverCpuAfter = serverCpuMicros();
+        long serverCpuMs = serverCpuBefore >= 0 && serverCpuAfter >= 0 ? (serverCpuAfter - serverCpuBefore) / 1000 : -1;
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) peakHeap += pool.getPeakUsage().getUsed();
+        return new Measurement(name, wallMs, cpuMs, serverCpuMs, peakHeap / (1024 * 1024));
+    }
+
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        return os instanceof com.sun.management.OperatingSystemMXBean
+                ? ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime()
+                : 0;
+    }
+
+    // CPU-Zeit des Servers aus serverStatus.extra_info (nur unter Linux und mit clusterMonitor-Rechten)
+    private long serverCpuMicros() {
+        try {
+            Document extraInfo = dbHandler.getDatabase().runCommand(new Document("serverStatus", 1))
+                    .get("extra_info", Document.class);
+            if (extraInfo == null || !(extraInfo.get("user_time_us") instanceof Number)) return -1;
+            return ((Number) extraInfo.get("user_time_us")).longValue()
+                    + ((Number) extraInfo.getOrDefault("system_time_us", 0L)).longValue();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private Map<String, Document> snapshot() {
+        Map<String, Document> entries = new TreeMap<>();
+        Document filter = new AggregateGenerations(dbHandler).current(
+                new Document("type", new Document("$in", COMPARED_TYPES)));
+        for (Document entry : dbHandler.findDocuments(AggregateGenerations.COLLECTION, filter, Workload.ANALYTIC)
+                .projection(Projections.include("type", "value", "nlpAggregation"))) {
+            entries.put(entry.getString("type") + ":" + entry.get("value"), entry.get("nlpAggregation", Document.class));
+        }
+        return entries;
+    }
+
+    /**
+     * Vergleicht zwei Ergebnisse feldweise. Scores werden mit Toleranz verglichen, Zähler exakt.
+     * Bei den 100 häufigsten Named Entities dürfen sich Einträge mit der kleinsten Anzahl unterscheiden,
+     * da die Reihenfolge bei Gleichstand nicht festgelegt ist.
+     *
+     * @return Beschreibung aller Unterschiede
+     * @author Ibrahim Garhiou
+     */
+    static List<String> diff(Map<String, Document> expected, Map<String, Document> actual) {
+        List<String> differences = new ArrayList<>();
+        Set<String> keys = new TreeSet<>(expected.keySet());
+        keys.addAll(actual.keySet());
+
+        for (String key : keys) {
+            Document left = expected.get(key);
+            Document right = actual.get(key);
+            if (left == null || right == null) {
+                differences.add(key + ": nur in " + (left == null ? "Java" : "Pipelines"));
+                continue;
+            }
+            compareTopics(key, left, right, differences);
+            compareCounts(key, "namedEntitiesByType", left, right, differences);
+            compareCounts(key, "pos_tags", left, right, differences);
+            compareTopEntities(key, left, right, differences);
+
+            int[] leftSentiment = SentimentHistogram.fromDocument(left.get("sentiment"));
+            int[] rightSentiment = SentimentHistogram.fromDocument(right.get("sentiment"));
+            for (int bin = 0; bin < SentimentHistogram.BINS; bin++) {
+                if (leftSentiment[bin] != rightSentiment[bin]) {
+                    differences.add(key + ": sentiment[" + SentimentHistogram.center(bin) + "] "
+                            + leftSentiment[bin] + " != " + rightSentiment[bin]);
+                }
+            }
+        }
+        return differences;
+    }
+
+    private static void compareTopics(String key, Document left, Document right, List<String> differences) {
+        Map<Object, Document> leftTopics = byId(left.get("topics"));
+        Map<Object, Document> rightTopics = byId(right.get("topics"));
+        Set<Object> topics = new HashSet<>(leftTopics.keySet());
+        topics.addAll(rightTopics.keySet());
+
+        for (Object topic : topics) {
+            Document l = leftTopics.get(topic);
+            Document r = rightTopics.get(topic);
+            if (l == null || r == null) {
+                differences.add(key + ": topics[" + topic + "] fehlt in " + (l == null ? "Pipelines" : "Java"));
+                continue;
+            }
+            for (String field : List.of("averageScore", "totalScore")) {
+                if (!approximatelyEqual(l.get(field), r.get(field))) {
+                    differences.add(key + ": topics[" + topic + "]." + field + " " + l.get(field) + " != " + r.get(field));
+                }
+            }
+        }
+    }
+
+    private static void compareCounts(String key, String field, Document left, Document right, List<String> differences) {
+        Map<Object, Integer> leftCounts = counts(left.get(field));
+        Map<Object, Integer> rightCounts = counts(right.get(field));
+        if (!leftCounts.equals(rightCounts)) {
+            Set<Object> ids = new HashSet<>(leftCounts.keySet());
+            ids.addAll(rightCounts.keySet());
+            for (Object id : ids) {
+                if (!Objects.equals(leftCounts.get(id), rightCounts.get(id))) {
+                    differences.add(key + ": " + field + "[" + id + "] " + leftCounts.get(id) + " != " + rightCounts.get(id));
+                }
+            }
+        }
+    }
+
+    private static void compareTopEntities(String key, Document left, Document right, List<String> differences) {
+        Map<Object, Integer> leftCounts = counts(left.get("namedEntitiesByText"));
+        Map<Object, Integer> rightCounts = counts(right.get("namedEntitiesByText"));
+        if (leftCounts.size() != rightCounts.size()) {
+            differences.add(key + ": namedEntitiesByText hat " + leftCounts.size() + " != " + rightCounts.size() + " Einträge");
+            return;
+        }
+
+        int floor = Math.min(minimum(leftCounts), minimum(rightCounts));
+        List<Integer> leftValues = new ArrayList<>(leftCounts.values());
+        List<Integer> rightValues = new ArrayList<>(rightCounts.values());
+        Collections.sort(leftValues);
+        Collections.sort(rightValues);
+        if (!leftValues.equals(rightValues)) {
+            differences.add(key + ": namedEntitiesByText hat unterschiedliche Anzahlen");
+        }
+        leftCounts.forEach((id, count) -> {
+            if (count > floor && !count.equals(rightCounts.get(id))) {
+                differences.add(key + ": namedEntitiesByText[" + id + "] " + count + " != " + rightCounts.get(id));
+            }
+        });
+    }
+
+    private static int minimum(Map<Object, Integer> counts) {
+        return counts.values().stream().mapToInt(Integer::intValue).min().orElse(0);
+    }
+
+    private static boolean approximatelyEqual(Object left, Object right) {
+        if (!(left instanceof Number) || !(right instanceof Number)) return Objects.equals(left, right);
+        double l = ((Number) left).doubleValue();
+        double r = ((Number) right).doubleValue();
+        return Math.abs(l - r) <= SCORE_TOLERANCE * Math.max(1.0, Math.max(Math.abs(l), Math.abs(r)));
+    }
+
+    private static Map<Object, Document> byId(Object list) {
+        Map<Object, Document> result = new HashMap<>();
+        if (list instanceof List) {
+            for (Object item : (List<?>) list) {
+                if (item instanceof Document entry) result.put(entry.get("_id"), entry);
+            }
+        }
+        return result;
+    }
+
+    private static Map<Object, Integer> counts(Object list) {
+        Map<Object, Integer> result = new HashMap<>();
+        byId(list).forEach((id, entry) -> result.put(id, ((Number) entry.get("count")).intValue()));
+        return result;
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        return Integer.parseInt(System.getProperty(name, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * Erzeugt den Korpus und startet den Vergleich. Parameter als System-Properties:
+     * benchmark.config (Konfigurationsdatei im Classpath), benchmark.speeches, benchmark.sessions,
+     * benchmark.speakers, benchmark.tokens, benchmark.entities, benchmark.sentiments, benchmark.topics,
+     * benchmark.seed, benchmark.runs, benchmark.force und benchmark.failOnDiff.
+
+     * Fehler werden nicht abgefangen, damit "-P aggregation-benchmark" bei einem abgebrochenen Lauf fehlschlägt.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static void main(String[] args) throws Exception {
+        MongoDatabaseHandler dbHandler = new MongoDatabaseHandler(System.getProperty("benchmark.config", "mongodb.properties"));
+        int differences;
+        try {
+            String database = dbHandler.getConfig().getMongoDatabase();
+            if (!database.toLowerCase().contains("bench") && !Boolean.getBoolean("benchmark.force")) {
+                throw new IllegalStateException("Die Datenbank \"" + database + "\" wird geleert. Bitte eine eigene "
+                        + "Benchmark-Datenbank konfigurieren (Name mit \"bench\") oder -Dbenchmark.force=true setzen.");
+            }
+
+            SyntheticCorpus corpus = new SyntheticCorpus(
+                    intProperty("benchmark.speeches", 5000),
+                    intProperty("benchmark.sessions", 50),
+                    intProperty("benchmark.speakers", 300),
+                    intProperty("benchmark.tokens", 300),
+                    intProperty("benchmark.entities", 25),
+                    intProperty("benchmark.sentiments", 15),
+                    intProperty("benchmark.topics", 6),
+                    Long.parseLong(System.getProperty("benchmark.seed", "42")));
+
+            AggregationBenchmark benchmark = new AggregationBenchmark(dbHandler);
+            benchmark.reset();
+            long start = System.currentTimeMillis();
+            int written = corpus.write(dbHandler);
+            System.out.println("[AggregationBenchmark] " + written + " synthetische Reden geschrieben in "
+                    + (System.currentTimeMillis() - start) + " ms");
+
+            differences = benchmark.run(intProperty("benchmark.runs", 3));
+        } finally {
+            dbHandler.close();
+        }
+
+        // Schlägt den Maven-Lauf fehl, wenn die Ergebnisse abweichen
+        if (differences > 0 && Boolean.parseBoolean(System.getProperty("benchmark.failOnDiff", "true"))) {
+            throw new IllegalStateException(differences + " Unterschiede zwischen Pipelines und Java-Aggregation");
+        }
+    }
+}
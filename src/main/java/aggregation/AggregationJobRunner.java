@@ -0,0 +1,341 @@
+package aggregation;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import database.AggregateGenerations;
+import database.Lease;
+import database.MongoDatabaseHandler;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Führt die Aggregation pro Entität (Sitzung, Redner oder Topic) als fortsetzbaren Job aus.
+ *
+ * Die Entitäten werden auf einen Pool mit fester Thread-Anzahl verteilt. Jede fertige Entität wird in
+ * "aggregation_checkpoints" vermerkt, der Job selbst mit Fortschritt in "aggregation_jobs". Bricht ein
+ * Lauf ab, setzt der nächste Lauf desselben Typs den offenen Job fort und überspringt alle Entitäten
+ * mit Checkpoint. Alle Einträge landen in der Generation des Jobs, die erst am Ende veröffentlicht wird
+ * (siehe {@link AggregateGenerations}). Die Generation bleibt bis dahin beim Aufräumen erhalten, auch wenn
+ * andere Läufe zwischendurch veröffentlichen; ihre übrigen Einträge werden beim Veröffentlichen nachgezogen.
+ * Ein Redner-Job schreibt vor dem Veröffentlichen auch die Parteien neu, siehe {@link PartyAggregation#writeFromSpeeches}.
+ *
+ * Pro Typ läuft nur ein Runner gleichzeitig, abgesichert durch eine {@link Lease} "aggregation_job/<Typ>".
+ *
+ * @author Ibrahim Garhiou
+ */
+public class AggregationJobRunner {
+
+    public static final String JOB_COLLECTION = "aggregation_jobs";
+    public static final String CHECKPOINT_COLLECTION = "aggregation_checkpoints";
+
+    private static final int LOG_INTERVAL = 50;
+    private static final long LOCK_LEASE_MS = 60_000;
+
+    /**
+     * Art des Jobs, entspricht dem "type" in "aggregated_data".
+     */
+    public enum JobType {
+        SESSIONS("sessions"),
+        SPEAKERS("speakers"),
+        TOPICS("topics");
+
+        private final String aggregateType;
+
+        JobType(String aggregateType) {
+            this.aggregateType = aggregateType;
+        }
+
+        public String getAggregateType() {
+            return aggregateType;
+        }
+    }
+
+    /**
+     * Status eines Jobs.
+     */
+    public enum Status {
+        RUNNING, FAILED, DONE, ABANDONED
+    }
+
+    private final MongoDatabaseHandler dbHandler;
+    private final AggregateGenerations generations;
+    private final int parallelism;
+
+    /**
+     * Konstruktor mit einem Thread pro Prozessor.
+     *
+     * @param dbHandler Verbindung zur MongoDB
+     * @author Ibrahim Garhiou
+     */
+    public AggregationJobRunner(MongoDatabaseHandler dbHandler) {
+        this(dbHandler, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Konstruktor mit fester Anzahl an Worker-Threads.
+     *
+     * @param dbHandler Verbindung zur MongoDB
+     * @param parallelism Anzahl gleichzeitig aggregierter Entitäten
+     * @author Ibrahim Garhiou
+     */
+    public AggregationJobRunner(MongoDatabaseHandler dbHandler, int parallelism) {
+        this.dbHandler = dbHandler;
+        this.generations = new AggregateGenerations(dbHandler);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Startet einen neuen Job des Typs oder setzt einen offenen fort. Läuft bereits ein Runner für
+     * denselben Typ, wird nichts gestartet.
+     *
+     * @param type Art des Jobs
+     * @return Das abschließende Job-Dokument mit Fortschritt, bzw. der laufende Job
+     * @author Ibrahim Garhiou
+     */
+    public Document run(JobType type) {
+        String lockName = "aggregation_job/" + type.getAggregateType();
+        try (Lease lease = Lease.tryAcquire(dbHandler, lockName, dbHandler.getConfig().getNodeId(), LOCK_LEASE_MS)) {
+            if (lease == null) {
+                System.out.println("[AggregationJobRunner] Für " + type.getAggregateType() + " läuft bereits ein Job, übersprungen.");
+                Document running = dbHandler.getCollection(JOB_COLLECTION).find(Filters.eq("type", type.getAggregateType()))
+                        .sort(Sorts.descending("startedAt")).first();
+                return running != null ? progress(running) : new Document("type", type.getAggregateType());
+            }
+            return runLocked(type);
+        }
+    }
+
+    private Document runLocked(JobType type) {
+        Document job = resumeOrCreate(type);
+        String jobId = job.getString("_id");
+        long generation = job.getLong("generation");
+
+        Map<String, Runnable> tasks = tasks(type, generation);
+        Set<String> done = completedEntities(jobId);
+        List<String> pending = new ArrayList<>();
+        for (String entity : tasks.keySet()) {
+            if (!done.contains(entity)) pending.add(entity);
+        }
+
+        int completed = tasks.size() - pending.size();
+        dbHandler.getCollection(JOB_COLLECTION).updateOne(Filters.eq("_id", jobId), Updates.combine(
+                Updates.set("status", Status.RUNNING.name()),
+                Updates.set("total", tasks.size()),
+                Updates.set("completed", completed),
+                Updates.set("failed", 0),
+                Updates.set("resumedAt", new Date()),
+                Updates.set("completedAtResume", completed),
+                Updates.set("updatedAt", new Date())));
+        System.out.println("[AggregationJobRunner] Job " + jobId + " (" + type.getAggregateType() + "): "
+                + pending.size() + " von " + tasks.size() + " Entitäten offen, " + parallelism + " Threads");
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        ExecutorCompletionService<String> completion = new ExecutorCompletionService<>(pool);
+        for (String entity : pending) {
+            completion.submit(() -> {
+                long start = System.currentTimeMillis();
+                tasks.get(entity).run();
+                checkpoint(jobId, entity, System.currentTimeMillis() - start);
+                return entity;
+            });
+        }
+
+        List<String> failed = new ArrayList<>();
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                try {
+                    completion.take().get();
+                } catch (ExecutionException e) {
+                    System.err.println("[AggregationJobRunner] Fehler in Job " + jobId + ": " + e.getCause().getMessage());
+                    e.getCause().printStackTrace();
+                    failed.add(e.getCause().getMessage());
+                    dbHandler.getCollection(JOB_COLLECTION).updateOne(Filters.eq("_id", jobId), Updates.inc("failed", 1));
+                }
+                if ((i + 1) % LOG_INTERVAL == 0) {
+                    logProgress(jobId);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.add("unterbrochen");
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Fehlgeschlagene Entitäten haben keinen Checkpoint und werden beim nächsten Lauf wiederholt
+        Status status = Status.FAILED;
+        if (failed.isEmpty()) {
+            status = generations.publishOwned(generation, owned(type, generation)) ? Status.DONE : Status.ABANDONED;
+        }
+        dbHandler.getCollection(JOB_COLLECTION).updateOne(Filters.eq("_id", jobId), Updates.combine(
+                Updates.set("status", status.name()),
+                Updates.set("updatedAt", new Date())));
+        if (status != Status.FAILED) {
+            dbHandler.getCollection(CHECKPOINT_COLLECTION).deleteMany(Filters.eq("jobId", jobId));
+        }
+
+        Document result = progress(dbHandler.getCollection(JOB_COLLECTION).find(Filters.eq("_id", jobId)).first());
+        System.out.println("[AggregationJobRunner] Job " + jobId + " beendet: " + result.toJson());
+        return result;
+    }
+
+    /**
+     * Typen, die der Job veröffentlicht. Ein Redner-Job berechnet vorher die Parteien in seiner Generation
+     * neu, da sie aus den Rednern zusammengesetzt werden.
+     */
+    private Bson owned(JobType type, long generation) {
+        if (type != JobType.SPEAKERS) return Filters.eq("type", type.getAggregateType());
+        new PartyAggregation(dbHandler).writeFromSpeeches(generation, null);
+        return Filters.in("type", type.getAggregateType(), PartyAggregation.TYPE);
+    }
+
+    /**
+     * Liefert die zuletzt gestarteten Jobs mit Durchsatz und geschätzter Restdauer.
+     *
+     * @param dbHandler Verbindung zur MongoDB
+     * @param limit Maximale Anzahl
+     * @author Ibrahim Garhiou
+     */
+    public static List<Document> recentJobs(MongoDatabaseHandler dbHandler, int limit) {
+        List<Document> jobs = new ArrayList<>();
+        for (Document job : dbHandler.getCollection(JOB_COLLECTION).find().sort(Sorts.descending("startedAt")).limit(limit)) {
+            jobs.add(progress(job));
+        }
+        return jobs;
+    }
+
+    /**
+     * Ergänzt ein Job-Dokument um Prozent, Durchsatz (Entitäten pro Sekunde seit dem letzten Start)
+     * und geschätzte Restdauer in Sekunden.
+     *
+     * @author Ibrahim Garhiou
+     */
+    static Document progress(Document job) {
+        int total = job.getInteger("total", 0);
+        int completed = job.getInteger("completed", 0);
+        int completedAtResume = job.getInteger("completedAtResume", 0);
+        Date resumedAt = job.getDate("resumedAt");
+        Date end = Status.RUNNING.name().equals(job.getString("status")) ? new Date() : job.getDate("updatedAt");
+
+        double throughput = 0;
+        if (resumedAt != null && end != null) {
+            double seconds = Math.max(end.getTime() - resumedAt.getTime(), 1) / 1000.0;
+            throughput = (completed - completedAtResume) / seconds;
+        }
+
+        Document result = new Document(job)
+                .append("percent", total > 0 ? Math.round(1000.0 * completed / total) / 10.0 : 0.0)
+                .append("throughputPerSecond", Math.round(throughput * 100) / 100.0);
+        result.append("etaSeconds", throughput > 0 ? Math.round((total - completed) / throughput) : null);
+        return result;
+    }
+
+    private Document resumeOrCreate(JobType type) {
+        Document open = dbHandler.getCollection(JOB_COLLECTION)
+                .find(Filters.and(Filters.eq("type", type.getAggregateType()),
+                        Filters.in("status", Status.RUNNING.name(), Status.FAILED.name())))
+                .sort(Sorts.descending("startedAt"))
+                .first();
+
+        if (open != null) {
+            // Offene Generationen werden nicht aufgeräumt; fehlt sie trotzdem (Job aus älterer Version), neu beginnen
+            if (generations.isOpen(open.getLong("generation"))) {
+                System.out.println("[AggregationJobRunner] Setze Job " + open.getString("_id") + " fort.");
+                return open;
+            }
+            dbHandler.getCollection(JOB_COLLECTION).updateOne(Filters.eq("_id", open.get("_id")),
+                    Updates.set("status", Status.ABANDONED.name()));
+            dbHandler.getCollection(CHECKPOINT_COLLECTION).deleteMany(Filters.eq("jobId", open.get("_id")));
+        }
+
+        long generation = generations.beginFrom(Filters.ne("type", type.getAggregateType()));
+        generations.retain(generation);
+        Document job = new Document("_id", new ObjectId().toHexString())
+                .append("type", type.getAggregateType())
+                .append("generation", generation)
+                .append("status", Status.RUNNING.name())
+                .append("startedAt", new Date());
+        dbHandler.getCollection(JOB_COLLECTION).replaceOne(Filters.eq("_id", job.get("_id")), job, new ReplaceOptions().upsert(true));
+        return job;
+    }
+
+    /**
+     * Eine Aufgabe pro Entität, jeweils mit Schreibzugriff auf die Generation des Jobs.
+     */
+    private Map<String, Runnable> tasks(JobType type, long generation) {
+        Map<String, Runnable> tasks = new LinkedHashMap<>();
+        switch (type) {
+            case SESSIONS -> {
+                SessionAggregation aggregation = new SessionAggregation(dbHandler);
+                for (String session : aggregation.sessionIndices()) {
+                    tasks.put(session, () -> aggregation.aggregateSession(session, generation));
+                }
+            }
+            case SPEAKERS -> {
+                SpeakerAggregation aggregation = new SpeakerAggregation(dbHandler);
+                for (String speaker : aggregation.speakerNames()) {
+                    tasks.put(speaker, () -> aggregation.aggregateSpeaker(speaker, generation));
+                }
+            }
+            case TOPICS -> {
+                TopicAggregation aggregation = new TopicAggregation(dbHandler);
+                aggregation.topicAssignments().forEach((topic, speechIds) ->
+                        tasks.put(topic, () -> aggregation.aggregateSingleTopic(topic, speechIds, generation)));
+            }
+        }
+        return tasks;
+    }
+
+    private Set<String> completedEntities(String jobId) {
+        Set<String> done = new HashSet<>();
+        for (Document checkpoint : dbHandler.getCollection(CHECKPOINT_COLLECTION).find(Filters.eq("jobId", jobId))) {
+            done.add(checkpoint.getString("entity"));
+        }
+        return done;
+    }
+
+    private void checkpoint(String jobId, String entity, long durationMs) {
+        Document checkpoint = new Document("_id", jobId + "/" + entity)
+                .append("jobId", jobId)
+                .append("entity", entity)
+                .append("durationMs", durationMs)
+                .append("completedAt", new Date());
+        dbHandler.getCollection(CHECKPOINT_COLLECTION).replaceOne(Filters.eq("_id", checkpoint.get("_id")), checkpoint, new ReplaceOptions().upsert(true));
+        dbHandler.getCollection(JOB_COLLECTION).updateOne(Filters.eq("_id", jobId),
+                Updates.combine(Updates.inc("completed", 1), Updates.set("updatedAt", new Date())));
+    }
+
+    private void logProgress(String jobId) {
+        Document progress = progress(dbHandler.getCollection(JOB_COLLECTION).find(Filters.eq("_id", jobId)).first());
+        System.out.println("[AggregationJobRunner] " + progress.getString("type") + ": "
+                + progress.getInteger("completed") + "/" + progress.getInteger("total")
+                + " (" + progress.getDouble("percent") + " %), "
+                + progress.getDouble("throughputPerSecond") + "/s, Restdauer " + progress.get("etaSeconds") + " s");
+    }
+
+    /**
+     * Startet oder setzt einen Job fort, z.B. "speakers" oder "sessions 4" (Typ, Threads).
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static void main(String[] args) {
+        try {
+            MongoDatabaseHandler dbHandler = new MongoDatabaseHandler("mongodb.properties");
+            JobType type = args.length > 0 ? JobType.valueOf(args[0].toUpperCase()) : JobType.SPEAKERS;
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            new AggregationJobRunner(dbHandler, threads).run(type);
+            dbHandler.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
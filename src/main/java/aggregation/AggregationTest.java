@@ -7,8 +7,11 @@ import database.MongoDatabaseHandler;
 /**
  * Hauptklasse zum Ausführen verschiedener NLP-Aggregationen über die MongoDB-Datenbank.
  * Je nach aktivierten Methoden können hier verschiedene Aggregationsklassen aufgerufen werden:
+ * Standardmäßig rechnet {@link IncrementalAggregation} nur neue oder geänderte Reden ein,
+ * {@link SingleScanAggregation} berechnet alle Einträge in einem Durchlauf neu.
  *
  * @author Luana Schäfer
+ * @modifiedBy Ibrahim Garhiou
  */
 public class AggregationTest {
     public static void main(String[] args) {
@@ -30,9 +33,17 @@ public class AggregationTest {
             //new SpeakerAggregation(dbHandler).aggregateAllSpeakers();
             //System.out.println("Aggregation für ALLE Redner abgeschlossen!");
 
-            System.out.println("Starte Aggregation für alle Topics");
-            topicAggregation.aggregateAllTopics();
-            System.out.println("Aggregation für alle Topics abgeschlossen!");
+            //System.out.println("Starte Aggregation für alle Topics");
+            //topicAggregation.aggregateAllTopics();
+            //System.out.println("Aggregation für alle Topics abgeschlossen!");
+
+            //System.out.println("Starte Aggregation für alle Reden, Sitzungen, Redner und Topics in einem Durchlauf");
+            //new SingleScanAggregation(dbHandler).aggregateAll();
+            //System.out.println("Aggregation abgeschlossen!");
+
+            System.out.println("Starte inkrementelle Aggregation für neue oder geänderte Reden");
+            new IncrementalAggregation(dbHandler).aggregate();
+            System.out.println("Aggregation abgeschlossen!");
 
 
             dbHandler.close();
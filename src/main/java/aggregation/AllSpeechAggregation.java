@@ -3,7 +3,11 @@ package aggregation;
 import com.mongodb.client.model.Accumulators;
 import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Field;
+import database.AggregateGenerations;
 import database.MongoDatabaseHandler;
+import database.NlpLayerStore;
+import database.SpeechDeduplicator;
+import database.Workload;
 import com.mongodb.client.AggregateIterable;
 import org.bson.Document;
 import org.bson.conversions.Bson;
@@ -44,6 +48,7 @@ public class AllSpeechAggregation {
      * verarbeitet und zusammengefasst. Die Ergebnisse werden in der Collection "aggregated_data" gespeichert.
      *
      * Implementiert von Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     public void aggregate() {
         System.out.println("🔵 [AllSpeechAggregation] Starte Aggregation für alle Reden...");
@@ -52,13 +57,10 @@ public class AllSpeechAggregation {
         List<Bson> topicsPipeline = Arrays.asList(
                 Aggregates.match(new Document("nlpResults.topics", new Document("$exists", true))),
                 Aggregates.unwind("$nlpResults.topics"),
-                // Konvertiere `score` von String zu Double
-                Aggregates.addFields(new Field<>("nlpResults.topics.numericScore",
-                        new Document("$toDouble", "$nlpResults.topics.score"))),
                 Aggregates.group(
                         "$nlpResults.topics.value",
-                        Accumulators.avg("averageScore", "$nlpResults.topics.numericScore"),
-                        Accumulators.sum("totalScore", "$nlpResults.topics.numericScore")
+                        Accumulators.avg("averageScore", "$nlpResults.topics.score"),
+                        Accumulators.sum("totalScore", "$nlpResults.topics.score")
                 ),
                 Aggregates.sort(new Document("averageScore", -1))
         );
@@ -103,12 +105,10 @@ public class AllSpeechAggregation {
                         new Document("$slice", Arrays.asList("$nlpResults.sentiment", 1, 1000)) // Skip 1. Element, nehme den Rest
                 )),
                 Aggregates.unwind("$filteredSentiment"),
-                // Konvertiere den Wert `sentiment.sentiment` sicher in Double
-                Aggregates.addFields(new Field<>("numericSentiment", new Document("$toDouble", "$filteredSentiment.sentiment"))),
                 // Runde auf zwei Nachkommastellen
                 Aggregates.project(
                         new Document("roundedSentiment",
-                                new Document("$round", Arrays.asList("$numericSentiment", 2)))
+                                new Document("$round", Arrays.asList("$filteredSentiment.sentiment", 2)))
                 ),
                 // Zähle, wie oft jeder gerundete Wert vorkommt
                 Aggregates.group("$roundedSentiment", Accumulators.sum("count", 1)),
@@ -117,7 +117,12 @@ public class AllSpeechAggregation {
 
 
         // Pipeline
-        List<Bson> pipeline = Arrays.asList(
+        List<Bson> pipeline = new ArrayList<>();
+        // Nur gültige Reden, überholte Fassungen nicht mitzählen
+        pipeline.add(Aggregates.match(SpeechDeduplicator.canonical()));
+        // NLP-Layer aus rede_nlp anhängen
+        pipeline.addAll(NlpLayerStore.lookupStages());
+        pipeline.addAll(Arrays.asList(
                 Aggregates.facet(
                         new Facet("topics", topicsPipeline),
                         new Facet("namedEntitiesByType", namedEntitiesByTypePipeline),
@@ -134,23 +139,27 @@ public class AllSpeechAggregation {
                                 .append("sentiment", "$sentiment")
                                 .append("pos_tags", "$pos_tags"))
                 )
-        );
+        ));
 
         System.out.println("[AllSpeechAggregation] Führe Aggregation in MongoDB aus...");
 
-        AggregateIterable<Document> result = dbHandler.aggregateDocuments("rede", pipeline);
+        AggregateIterable<Document> result = dbHandler.aggregateDocuments("rede", pipeline, Workload.ANALYTIC);
         List<Document> aggregatedDocs = new ArrayList<>();
 
         for (Document doc : result) {
             doc.remove("_id");
-            aggregatedDocs.add(doc);
+            aggregatedDocs.add(SentimentHistogram.pack(doc));
         }
 
         System.out.println("[AllSpeechAggregation] Aggregation abgeschlossen. Speichere " + aggregatedDocs.size() + " Dokumente...");
 
         if (!aggregatedDocs.isEmpty()) {
-            dbHandler.insertDocuments("aggregated_data", aggregatedDocs);
-            System.out.println("[AllSpeechAggregation] Daten erfolgreich gespeichert!");
+            // Eine neue Generation mit allen übrigen Einträgen, danach atomar umschalten
+            if (new AggregateGenerations(dbHandler).replaceEntries(aggregatedDocs)) {
+                System.out.println("[AllSpeechAggregation] Daten erfolgreich gespeichert!");
+            } else {
+                System.err.println("[AllSpeechAggregation] Daten konnten nicht veröffentlicht werden.");
+            }
         } else {
             System.out.println("[AllSpeechAggregation] Keine Daten zum Speichern gefunden.");
         }
@@ -0,0 +1,238 @@
+package aggregation;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import database.AggregateGenerations;
+import database.MongoDatabaseHandler;
+import database.Workload;
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import java.util.*;
+
+/**
+ * Die drei {@link HyperLogLog}-Skizzen einer Entität: verschiedene Lemmata, verschiedene Named-Entity-Texte
+ * und verschiedene Bigramme. Sie werden in {@link NlpAccumulator} mitgeführt und in "aggregated_data"
+ * serialisiert neben der Aggregation gespeichert ("distinctSketches"), die Schätzungen zusätzlich als
+ * Zahlen ("distinct").
+ *
+ * Die Token-Layer enthalten meist kein Lemma; dann wird die kleingeschriebene Wortform verwendet.
+ * Satzzeichen (POS-Tags mit "$") zählen weder als Lemma noch als Teil eines Bigramms.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class DistinctSketches {
+
+    public static final String FIELD = AggregateGenerations.SKETCHES;
+    public static final String ESTIMATES_FIELD = "distinct";
+
+    private final HyperLogLog lemmas;
+    private final HyperLogLog namedEntities;
+    private final HyperLogLog bigrams;
+
+    public DistinctSketches() {
+        this(new HyperLogLog(), new HyperLogLog(), new HyperLogLog());
+    }
+
+    private DistinctSketches(HyperLogLog lemmas, HyperLogLog namedEntities, HyperLogLog bigrams) {
+        this.lemmas = lemmas;
+        this.namedEntities = namedEntities;
+        this.bigrams = bigrams;
+    }
+
+    /**
+     * Hashes der Werte einer Rede, je Skizze ein Array. Wird eine Rede in mehrere Entitäten
+     * eingerechnet, müssen die Werte so nur einmal gehasht werden.
+     *
+     * @param nlpResults Das Feld "nlpResults" der Rede, darf null sein
+     * @return {lemmas, namedEntities, bigrams}
+     * @author Ibrahim Garhiou
+     */
+    public static long[][] hashes(Document nlpResults) {
+        if (nlpResults == null) return new long[][]{new long[0], new long[0], new long[0]};
+
+        List<Long> lemmaHashes = new ArrayList<>();
+        List<Long> bigramHashes = new ArrayList<>();
+        String previous = null;
+        for (Document token : annotations(nlpResults, "tokens")) {
+            String pos = token.getString("pos");
+            String lemma = lemmaOf(token);
+            if (lemma == null || (pos != null && pos.startsWith("$"))) {
+                // Satzzeichen trennen Bigramme
+                previous = null;
+                continue;
+            }
+            lemmaHashes.add(HyperLogLog.hash(lemma));
+            if (previous != null) bigramHashes.add(HyperLogLog.hash(previous + " " + lemma));
+            previous = lemma;
+        }
+
+        List<Long> entityHashes = new ArrayList<>();
+        for (Document entity : annotations(nlpResults, "namedEntities")) {
+            String text = entity.getString("text");
+            if (text != null && !text.isBlank()) entityHashes.add(HyperLogLog.hash(text.trim()));
+        }
+
+        return new long[][]{toArray(lemmaHashes), toArray(entityHashes), toArray(bigramHashes)};
+    }
+
+    /**
+     * Rechnet die Werte einer Rede ein.
+     *
+     * @param nlpResults Das Feld "nlpResults" der Rede, darf null sein
+     * @author Ibrahim Garhiou
+     */
+    public void add(Document nlpResults) {
+        addHashes(hashes(nlpResults));
+    }
+
+    /**
+     * Rechnet mit {@link #hashes} vorberechnete Werte ein.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void addHashes(long[][] hashes) {
+        for (long hash : hashes[0]) lemmas.addHash(hash);
+        for (long hash : hashes[1]) namedEntities.addHash(hash);
+        for (long hash : hashes[2]) bigrams.addHash(hash);
+    }
+
+    /**
+     * Vereinigt andere Skizzen mit diesen.
+     *
+     * @return diese Skizzen
+     * @author Ibrahim Garhiou
+     */
+    public DistinctSketches merge(DistinctSketches other) {
+        lemmas.merge(other.lemmas);
+        namedEntities.merge(other.namedEntities);
+        bigrams.merge(other.bigrams);
+        return this;
+    }
+
+    /**
+     * Geschätzte Anzahlen verschiedener Lemmata, Named Entities und Bigramme.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public Document estimates() {
+        return new Document("lemmas", lemmas.estimate())
+                .append("namedEntities", namedEntities.estimate())
+                .append("bigrams", bigrams.estimate());
+    }
+
+    public Document toDocument() {
+        return new Document("precision", HyperLogLog.PRECISION)
+                .append("lemmas", new Binary(lemmas.toBytes()))
+                .append("namedEntities", new Binary(namedEntities.toBytes()))
+                .append("bigrams", new Binary(bigrams.toBytes()));
+    }
+
+    /**
+     * Liest Skizzen aus {@link #toDocument()}. Fehlen sie oder wurden sie mit einer anderen Präzision
+     * gespeichert, ergeben sich leere Skizzen.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static DistinctSketches fromDocument(Document doc) {
+        if (doc == null || !Objects.equals(doc.get("precision"), HyperLogLog.PRECISION)) return new DistinctSketches();
+        return new DistinctSketches(read(doc, "lemmas"), read(doc, "namedEntities"), read(doc, "bigrams"));
+    }
+
+    /**
+     * Prüft, ob ein Eintrag aus "aggregated_data" lesbare Skizzen hat. Einträge aus den $facet-Pipelines
+     * und aus Läufen vor der Einführung der Skizzen haben keine, sie ergäben sonst eine Anzahl von 0.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static boolean hasSketches(Document entry) {
+        Document doc = entry.get(FIELD, Document.class);
+        return doc != null && Objects.equals(doc.get("precision"), HyperLogLog.PRECISION);
+    }
+
+    /**
+     * Vereinigt die gespeicherten Skizzen mehrerer Einträge aus "aggregated_data", z.B. mehrerer Redner.
+     *
+     * @param entries Einträge mit dem Feld {@link #FIELD}
+     * @return Die vereinigten Skizzen
+     * @author Ibrahim Garhiou
+     */
+    public static DistinctSketches union(Collection<Document> entries) {
+        DistinctSketches union = new DistinctSketches();
+        for (Document entry : entries) {
+            union.merge(fromDocument(entry.get(FIELD, Document.class)));
+        }
+        return union;
+    }
+
+    /**
+     * Schätzt die Anzahl verschiedener Werte über die Vereinigung mehrerer Entitäten eines Typs
+     * der aktuellen Generation, z.B. wie viele verschiedene Lemmata zwei Redner zusammen verwenden.
+     *
+     * @param dbHandler Verbindung zur MongoDB
+     * @param type Typ in "aggregated_data", z.B. "speakers" oder "party"
+     * @param values Werte der Entitäten
+     * Entitäten ohne Skizzen (siehe {@link #hasSketches}) stehen unter "withoutSketches" und zählen nicht
+     * zur Vereinigung, "complete" ist dann false. Hat keine der Entitäten Skizzen, ist "distinct" null,
+     * die Anzahl also unbekannt.
+     *
+     * @return {type, values, found, withoutSketches, complete, distinct} oder null, wenn keine der Entitäten existiert
+     * @author Ibrahim Garhiou
+     */
+    public static Document unionOf(MongoDatabaseHandler dbHandler, String type, Collection<String> values) {
+        Document filter = new AggregateGenerations(dbHandler).current(new Document("type", type)
+                .append("value", new Document("$in", new ArrayList<>(values))));
+        List<Document> entries = dbHandler.findDocuments(AggregateGenerations.COLLECTION, filter, Workload.INTERACTIVE)
+                .projection(Projections.include("value", FIELD))
+                .into(new ArrayList<>());
+        if (entries.isEmpty()) return null;
+
+        List<String> found = new ArrayList<>();
+        List<String> withoutSketches = new ArrayList<>();
+        List<Document> sketched = new ArrayList<>();
+        for (Document entry : entries) {
+            found.add(entry.getString("value"));
+            if (hasSketches(entry)) {
+                sketched.add(entry);
+            } else {
+                withoutSketches.add(entry.getString("value"));
+            }
+        }
+        return new Document("type", type)
+                .append("values", new ArrayList<>(values))
+                .append("found", found)
+                .append("withoutSketches", withoutSketches)
+                .append("complete", withoutSketches.isEmpty())
+                .append(ESTIMATES_FIELD, sketched.isEmpty() ? null : union(sketched).estimates());
+    }
+
+    private static HyperLogLog read(Document doc, String field) {
+        Object value = doc.get(field);
+        return HyperLogLog.fromBytes(value instanceof Binary ? ((Binary) value).getData()
+                : value instanceof byte[] ? (byte[]) value : null);
+    }
+
+    private static String lemmaOf(Document token) {
+        Object value = token.get("lemma");
+        String lemma = value instanceof String ? (String) value : null;
+        if (lemma == null || lemma.isBlank()) lemma = token.getString("text");
+        return lemma != null && !lemma.isBlank() ? lemma.trim().toLowerCase(Locale.GERMAN) : null;
+    }
+
+    private static long[] toArray(List<Long> values) {
+        long[] result = new long[values.size()];
+        for (int i = 0; i < result.length; i++) result[i] = values.get(i);
+        return result;
+    }
+
+    private static List<Document> annotations(Document nlpResults, String layer) {
+        Object value = nlpResults.get(layer);
+        if (!(value instanceof List)) return Collections.emptyList();
+
+        List<Document> result = new ArrayList<>();
+        for (Object item : (List<?>) value) {
+            if (item instanceof Document) result.add((Document) item);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+package aggregation;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog-Skizze zum Schätzen der Anzahl verschiedener Werte mit festem Speicher.
+ *
+ * Mit 2^12 Registern zu je einem Byte beträgt der Standardfehler etwa 1,6 %. Zwei Skizzen werden
+ * vereinigt, indem pro Register das Maximum genommen wird; so lassen sich Skizzen beliebiger Entitäten
+ * nachträglich zusammenführen. Entfernen ist nicht möglich.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class HyperLogLog {
+
+    public static final int PRECISION = 12;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(new byte[REGISTERS]);
+    }
+
+    private HyperLogLog(byte[] registers) {
+        this.registers = registers;
+    }
+
+    /**
+     * Fügt einen Wert hinzu.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void add(String value) {
+        addHash(hash(value));
+    }
+
+    /**
+     * Fügt einen bereits mit {@link #hash} berechneten Wert hinzu, z.B. wenn derselbe Wert in mehrere
+     * Skizzen eingeht.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - PRECISION));
+        // Position der ersten 1 in den restlichen Bits, höchstens 64 - PRECISION + 1
+        int rank = Math.min(Long.numberOfLeadingZeros(hash << PRECISION), 64 - PRECISION) + 1;
+        if (rank > registers[index]) registers[index] = (byte) rank;
+    }
+
+    /**
+     * Vereinigt eine andere Skizze mit dieser.
+     *
+     * @return diese Skizze
+     * @author Ibrahim Garhiou
+     */
+    public HyperLogLog merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i]) registers[i] = other.registers[i];
+        }
+        return this;
+    }
+
+    /**
+     * Geschätzte Anzahl verschiedener Werte. Bei kleinen Mengen wird über die leeren Register gezählt
+     * (Linear Counting), da die Rohschätzung dort zu hoch ausfällt.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public long estimate() {
+        double sum = 0;
+        int empty = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) empty++;
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && empty > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / empty);
+        }
+        return Math.round(estimate);
+    }
+
+    public byte[] toBytes() {
+        return registers.clone();
+    }
+
+    /**
+     * Liest eine Skizze aus {@link #toBytes()}. Ungültige Daten ergeben eine leere Skizze.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length != REGISTERS) return new HyperLogLog();
+        return new HyperLogLog(Arrays.copyOf(bytes, REGISTERS));
+    }
+
+    /**
+     * 64-Bit-Hash eines Werts: FNV-1a über die Zeichen, danach der Finalizer von MurmurHash3, damit auch
+     * die oberen Bits für den Registerindex gleichmäßig verteilt sind.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,446 @@
+package aggregation;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import database.AggregateGenerations;
+import database.IngestSequence;
+import database.Lease;
+import database.MongoDatabaseHandler;
+import database.SpeechDeduplicator;
+import database.Workload;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import utils.AbgeordnetenDirectory;
+
+import java.util.*;
+
+/**
+ * Inkrementelle Aggregation für "aggregated_data" anhand der {@link IngestSequence}.
+ *
+ * Für jede Entität (alle Reden, Sitzung, Redner, Topic, Partei) wird der Zustand ihres {@link NlpAccumulator}
+ * in "aggregation_state" gespeichert, für jede Rede ihr eigener Beitrag in "aggregation_contribution".
+ * Ein Lauf liest nur Reden mit einer Ingest-Nummer oberhalb des gespeicherten Stands ("watermark"):
+ * der alte Beitrag einer Rede wird von den betroffenen Zuständen abgezogen, der neue addiert.
+ * Zurückgestufte Reden (superseded) werden nur abgezogen. Anschließend werden nur die berührten
+ * Einträge in "aggregated_data" neu geschrieben, die übrigen werden serverseitig in die neue
+ * Generation übernommen (siehe {@link AggregateGenerations}). Die Zusammenfassungen pro Rede in
+ * "rede_summary" ({@link SpeechSummaryStore}) werden im selben Durchgang aktualisiert.
+ *
+ * Parteien werden nicht aus den Beiträgen der Reden berechnet, sondern aus den Änderungen ihrer Redner:
+ * der vorherige Zustand eines Redners wird abgezogen, der neue addiert (siehe {@link PartyAggregation}).
+ *
+ * Gibt es noch keinen Stand, werden alle gültigen Reden einmal eingerechnet.
+ *
+ * Reden werden vom Primary mit Read Concern "majority" gelesen und nur bis zur höchsten Ingest-Nummer,
+ * unter der keine Reservierung mehr offen ist ({@link IngestSequence#committed}). Beiträge, Zustände und
+ * Stand werden nacheinander geschrieben; vorher wird der Stand als unvollständig markiert. Bricht ein Lauf
+ * dazwischen ab oder kann seine Generation nicht veröffentlicht werden, rechnet der nächste Lauf alle Reden
+ * neu ein, statt halb geschriebene Beiträge doppelt abzuziehen.
+ *
+ * Es läuft immer nur ein Lauf gleichzeitig, auch über mehrere Prozesse hinweg, abgesichert durch die
+ * {@link Lease} "incremental_aggregation". Sonst würden zwei Läufe dieselben Zustände laden und ihre
+ * Deltas gegenseitig überschreiben.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class IncrementalAggregation {
+
+    public static final String STATE_COLLECTION = "aggregation_state";
+    public static final String CONTRIBUTION_COLLECTION = "aggregation_contribution";
+
+    private static final String WATERMARK_ID = "watermark";
+    private static final String INCOMPLETE = "incomplete";
+    private static final String ALL_VALUE = "all speeches";
+    private static final String LOCK_NAME = "incremental_aggregation";
+    private static final long LOCK_LEASE_MS = 60_000;
+    private static final int CHUNK_SIZE = 500;
+
+    private final MongoDatabaseHandler dbHandler;
+    private final SpeechSummaryStore summaries;
+
+    // Zustände der in diesem Lauf berührten Entitäten, Schlüssel "type:value"
+    private final Map<String, NlpAccumulator> states = new HashMap<>();
+    // Gespeicherte Redner-Zustände vor diesem Lauf, für die Differenz auf die Parteien
+    private final Map<String, Document> speakerBaseline = new HashMap<>();
+    private boolean rebuild;
+    // Stand nach dem letzten Lauf, alle Reden bis zu dieser Ingest-Nummer sind eingerechnet
+    private long coveredUpTo = -1L;
+    private Map<String, String> partyOfSpeaker = new HashMap<>();
+
+    /**
+     * Konstruktor für die inkrementelle Aggregation.
+     *
+     * @param dbHandler Verbindung zur MongoDB
+     * @author Ibrahim Garhiou
+     */
+    public IncrementalAggregation(MongoDatabaseHandler dbHandler) {
+        this.dbHandler = dbHandler;
+        this.summaries = new SpeechSummaryStore(dbHandler);
+    }
+
+    /**
+     * Rechnet alle seit dem letzten Lauf neuen oder geänderten Reden ein und schreibt die betroffenen
+     * Einträge nach "aggregated_data". Läuft bereits ein Lauf in einem anderen Prozess, wird nichts getan.
+     *
+     * @return Anzahl der geschriebenen oder gelöschten Einträge
+     * @author Ibrahim Garhiou
+     */
+    public int aggregate() {
+        try (Lease lease = Lease.tryAcquire(dbHandler, LOCK_NAME, dbHandler.getConfig().getNodeId(), LOCK_LEASE_MS)) {
+            if (lease == null) {
+                System.out.println("[IncrementalAggregation] Es läuft bereits eine Aggregation, übersprungen.");
+                return 0;
+            }
+            return aggregateLocked();
+        }
+    }
+
+    private int aggregateLocked() {
+        long start = System.currentTimeMillis();
+        long watermark = readWatermark();
+        // Obergrenze vor dem Lesen festhalten, spätere und noch nicht fertig geschriebene Reden folgen im nächsten Lauf
+        long upTo = IngestSequence.committed(dbHandler);
+
+        states.clear();
+        speakerBaseline.clear();
+        rebuild = watermark < 0;
+
+        if (!rebuild && dbHandler.getCollection(STATE_COLLECTION).countDocuments(Filters.eq("type", PartyAggregation.TYPE)) == 0) {
+            // Stand aus der Zeit vor den Parteien: einmalig aus den Redner-Zuständen aufbauen
+            new PartyAggregation(dbHandler).rebuildFromSpeakerStates();
+        }
+
+        Bson filter;
+        if (rebuild) {
+            System.out.println("[IncrementalAggregation] Kein Stand vorhanden, rechne alle Reden ein...");
+            dbHandler.getCollection(STATE_COLLECTION).deleteMany(new Document());
+            dbHandler.getCollection(CONTRIBUTION_COLLECTION).deleteMany(new Document());
+            summaries.ensureIndexes();
+            summaries.clear();
+            filter = SpeechDeduplicator.canonical();
+        } else if (upTo <= watermark) {
+            System.out.println("[IncrementalAggregation] Keine neuen Reden seit Stand " + watermark);
+            coveredUpTo = watermark;
+            return 0;
+        } else {
+            System.out.println("[IncrementalAggregation] Rechne Reden mit Ingest-Nummer " + (watermark + 1) + " bis " + upTo + " ein...");
+            filter = Filters.and(Filters.gt(IngestSequence.FIELD, watermark), Filters.lte(IngestSequence.FIELD, upTo));
+        }
+
+        markIncomplete();
+        int speechCount = 0;
+        try (MongoCursor<Document> cursor = dbHandler.aggregateDocuments("rede", SingleScanAggregation.scanPipeline(filter), Workload.CONSISTENT)
+                .batchSize(CHUNK_SIZE)
+                .iterator()) {
+            List<Document> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (cursor.hasNext()) {
+                chunk.add(cursor.next());
+                speechCount++;
+                if (chunk.size() == CHUNK_SIZE) {
+                    applyChunk(chunk);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                applyChunk(chunk);
+            }
+        }
+
+        int written = writeStates();
+        if (written < 0) {
+            // Stand bleibt als unvollständig markiert, der nächste Lauf rechnet alle Reden neu ein
+            System.err.println("[IncrementalAggregation] Generation konnte nicht veröffentlicht werden, Stand bleibt bei " + watermark);
+            return 0;
+        }
+        writeWatermark(upTo);
+        coveredUpTo = upTo;
+
+        System.out.println("[IncrementalAggregation] " + speechCount + " Reden eingerechnet, " + written
+                + " Einträge aktualisiert in " + (System.currentTimeMillis() - start) + " ms");
+        return written;
+    }
+
+    /**
+     * Ingest-Nummer, bis zu der der letzte Lauf alle Reden eingerechnet hat, -1 vor dem ersten Lauf.
+     * Reden mit höherer Nummer (z.B. noch offene Reservierungen) folgen erst im nächsten Lauf.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public long getCoveredUpTo() {
+        return coveredUpTo;
+    }
+
+    /**
+     * Verwirft den gespeicherten Stand, der nächste Lauf rechnet wieder alle Reden ein.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void reset() {
+        dbHandler.getCollection(STATE_COLLECTION).deleteOne(Filters.eq("_id", WATERMARK_ID));
+    }
+
+    private void applyChunk(List<Document> chunk) {
+        Map<Object, Document> previous = new HashMap<>();
+        if (!rebuild) {
+            List<Object> ids = new ArrayList<>();
+            for (Document rede : chunk) ids.add(rede.get("_id"));
+            for (Document contribution : dbHandler.getCollection(CONTRIBUTION_COLLECTION).find(Filters.in("_id", ids))) {
+                previous.put(contribution.get("_id"), contribution);
+            }
+        }
+
+        Map<Object, Document> current = new LinkedHashMap<>();
+        for (Document rede : chunk) {
+            if (!rede.getBoolean(SpeechDeduplicator.SUPERSEDED, false)) {
+                current.put(rede.get("_id"), contribution(rede));
+            }
+        }
+
+        Set<String> keys = new HashSet<>();
+        previous.values().forEach(contribution -> keys.addAll(keysOf(contribution)));
+        current.values().forEach(contribution -> keys.addAll(keysOf(contribution)));
+        loadStates(keys);
+
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        for (Document rede : chunk) {
+            Object id = rede.get("_id");
+            Document old = previous.get(id);
+            Document contribution = current.get(id);
+
+            if (old != null) apply(old, false);
+            if (contribution != null) {
+                apply(contribution, true);
+                long[][] distinctHashes = DistinctSketches.hashes(rede.get("nlpResults", Document.class));
+                for (String key : keysOf(contribution)) states.get(key).getDistinct().addHashes(distinctHashes);
+                writes.add(new ReplaceOneModel<>(Filters.eq("_id", id), contribution, new ReplaceOptions().upsert(true)));
+            } else if (old != null) {
+                writes.add(new DeleteOneModel<>(Filters.eq("_id", id)));
+            }
+        }
+
+        if (!writes.isEmpty()) {
+            dbHandler.getCollection(CONTRIBUTION_COLLECTION).bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        }
+        summaries.apply(chunk);
+    }
+
+    /**
+     * Beitrag einer einzelnen Rede zu ihren Entitäten.
+     */
+    private static Document contribution(Document rede) {
+        Document nlpResults = rede.get("nlpResults", Document.class);
+        // Ohne Skizzen: der Beitrag wird gespeichert, die Skizzen werden in applyChunk direkt ergänzt
+        NlpAccumulator entity = NlpAccumulator.forEntity();
+        entity.add(nlpResults, null);
+
+        Document contribution = new Document("_id", rede.get("_id"))
+                .append("session", SingleScanAggregation.sessionOf(rede))
+                .append("speaker", SingleScanAggregation.speakerOf(rede))
+                .append("entity", entity.toState());
+
+        String topic = SingleScanAggregation.dominantTopicOf(nlpResults);
+        if (topic != null) {
+            NlpAccumulator topicAccumulator = NlpAccumulator.forTopic();
+            topicAccumulator.add(nlpResults, null);
+            contribution.append("topic", topic).append("topicState", topicAccumulator.toState());
+        }
+        return contribution;
+    }
+
+    private static List<String> keysOf(Document contribution) {
+        List<String> keys = new ArrayList<>();
+        keys.add(key("all", ALL_VALUE));
+        if (contribution.getString("session") != null) keys.add(key("sessions", contribution.getString("session")));
+        if (contribution.getString("speaker") != null) keys.add(key("speakers", contribution.getString("speaker")));
+        if (contribution.getString("topic") != null) keys.add(key("topics", contribution.getString("topic")));
+        return keys;
+    }
+
+    private void apply(Document contribution, boolean add) {
+        NlpAccumulator entity = NlpAccumulator.fromState(contribution.get("entity", Document.class));
+        for (String key : keysOf(contribution)) {
+            if (key.startsWith("topics:")) {
+                NlpAccumulator topic = NlpAccumulator.fromState(contribution.get("topicState", Document.class));
+                combine(key, topic, add);
+            } else {
+                combine(key, entity, add);
+            }
+        }
+    }
+
+    private void combine(String key, NlpAccumulator delta, boolean add) {
+        NlpAccumulator state = states.computeIfAbsent(key,
+                k -> k.startsWith("topics:") ? NlpAccumulator.forTopic() : NlpAccumulator.forEntity());
+        if (add) {
+            state.merge(delta);
+        } else {
+            state.subtract(delta);
+        }
+    }
+
+    private void loadStates(Set<String> keys) {
+        List<String> missing = new ArrayList<>();
+        for (String key : keys) {
+            if (!states.containsKey(key)) missing.add(key);
+        }
+        if (rebuild || missing.isEmpty()) return;
+
+        for (Document stored : dbHandler.getCollection(STATE_COLLECTION).find(Filters.in("_id", missing))) {
+            states.put(stored.getString("_id"), NlpAccumulator.fromState(stored.get("state", Document.class))
+                    .withDistinct(DistinctSketches.fromDocument(stored.get(DistinctSketches.FIELD, Document.class))));
+            if ("speakers".equals(stored.getString("type"))) speakerBaseline.put(stored.getString("_id"), stored);
+        }
+    }
+
+    /**
+     * Rechnet die Änderungen der Redner in die Parteien ein: der vorherige Zustand eines Redners wird von
+     * seiner damaligen Partei abgezogen, der neue zur aktuellen Partei addiert.
+     */
+    private void applySpeakerChangesToParties() {
+        AbgeordnetenDirectory directory = AbgeordnetenDirectory.get(dbHandler);
+        Map<String, NlpAccumulator> speakerStates = new HashMap<>();
+        states.forEach((key, accumulator) -> {
+            if (key.startsWith("speakers:")) speakerStates.put(key, accumulator);
+        });
+
+        Set<String> partyKeys = new HashSet<>();
+        Map<String, String> currentParty = new HashMap<>();
+        speakerStates.keySet().forEach(key -> {
+            String party = PartyAggregation.partyOf(directory, key.substring(key.indexOf(':') + 1));
+            currentParty.put(key, party);
+            if (party != null) partyKeys.add(key(PartyAggregation.TYPE, party));
+            Document baseline = speakerBaseline.get(key);
+            if (baseline != null && baseline.getString(PartyAggregation.TYPE) != null) {
+                partyKeys.add(key(PartyAggregation.TYPE, baseline.getString(PartyAggregation.TYPE)));
+            }
+        });
+        loadStates(partyKeys);
+
+        speakerStates.forEach((key, accumulator) -> {
+            Document baseline = speakerBaseline.get(key);
+            if (baseline != null && baseline.getString(PartyAggregation.TYPE) != null) {
+                combine(key(PartyAggregation.TYPE, baseline.getString(PartyAggregation.TYPE)),
+                        NlpAccumulator.fromState(baseline.get("state", Document.class)), false);
+            }
+            if (currentParty.get(key) != null) {
+                combine(key(PartyAggregation.TYPE, currentParty.get(key)), accumulator, true);
+            }
+        });
+        partyOfSpeaker = currentParty;
+    }
+
+    /**
+     * Schreibt Zustände und Einträge und veröffentlicht die neue Generation.
+     *
+     * @return Anzahl der geschriebenen oder gelöschten Einträge, -1 wenn nicht veröffentlicht wurde
+     */
+    private int writeStates() {
+        applySpeakerChangesToParties();
+        List<WriteModel<Document>> stateWrites = new ArrayList<>();
+        List<WriteModel<Document>> dataWrites = new ArrayList<>();
+        // Einträge, die dieser Lauf schreibt oder löscht, für publishOwned
+        List<Bson> owned = new ArrayList<>();
+
+        // Neue Generation: beim Neuaufbau ohne die neu berechneten Typen, sonst mit allen bisherigen Einträgen
+        AggregateGenerations generations = new AggregateGenerations(dbHandler);
+        long generation = generations.beginFrom(rebuild
+                ? Filters.nin("type", SingleScanAggregation.ENTITY_TYPES)
+                : new Document());
+
+        states.forEach((key, accumulator) -> {
+            String type = key.substring(0, key.indexOf(':'));
+            String value = key.substring(key.indexOf(':') + 1);
+            Bson entryFilter = Filters.and(Filters.eq(AggregateGenerations.GENERATION, generation),
+                    Filters.eq("type", type), Filters.eq("value", value));
+            owned.add(Filters.and(Filters.eq("type", type), Filters.eq("value", value)));
+
+            if (accumulator.getSpeechCount() <= 0) {
+                stateWrites.add(new DeleteOneModel<>(Filters.eq("_id", key)));
+                dataWrites.add(new DeleteManyModel<>(entryFilter));
+                return;
+            }
+
+            Document state = new Document("_id", key)
+                    .append("type", type)
+                    .append("value", value)
+                    .append("state", accumulator.toState())
+                    .append(DistinctSketches.FIELD, accumulator.getDistinct().toDocument());
+            if ("speakers".equals(type)) state.append(PartyAggregation.TYPE, partyOfSpeaker.get(key));
+            stateWrites.add(new ReplaceOneModel<>(Filters.eq("_id", key), state, new ReplaceOptions().upsert(true)));
+
+            Document entry = SingleScanAggregation.entry(type, value, accumulator);
+            if ("topics".equals(type)) entry.append("speechCount", accumulator.getSpeechCount());
+            dataWrites.add(AggregateGenerations.upsert(generation, entry));
+        });
+
+        if (!stateWrites.isEmpty()) {
+            dbHandler.getCollection(STATE_COLLECTION).bulkWrite(stateWrites, new BulkWriteOptions().ordered(false));
+        }
+        if (!dataWrites.isEmpty()) {
+            dbHandler.getCollection(AggregateGenerations.COLLECTION).bulkWrite(dataWrites, new BulkWriteOptions().ordered(false));
+        }
+        // Hat zwischendurch ein anderer Lauf veröffentlicht, werden dessen übrige Einträge übernommen
+        Bson ownedFilter = rebuild ? Filters.in("type", SingleScanAggregation.ENTITY_TYPES)
+                : owned.isEmpty() ? Filters.in("_id", List.of()) : Filters.or(owned);
+        if (!generations.publishOwned(generation, ownedFilter)) return -1;
+        return states.size();
+    }
+
+    private long readWatermark() {
+        Document watermark = dbHandler.getCollection(STATE_COLLECTION).find(Filters.eq("_id", WATERMARK_ID)).first();
+        if (watermark == null) return -1L;
+        if (watermark.getBoolean(INCOMPLETE, false)) {
+            System.out.println("[IncrementalAggregation] Letzter Lauf wurde nicht abgeschlossen, rechne alle Reden neu ein");
+            return -1L;
+        }
+        return watermark.getLong("seq");
+    }
+
+    /**
+     * Markiert den Stand als unvollständig, bevor Beiträge oder Zustände geschrieben werden.
+     * Erst {@link #writeWatermark} nach allen Writes entfernt die Markierung.
+     */
+    private void markIncomplete() {
+        dbHandler.getCollection(STATE_COLLECTION).updateOne(Filters.eq("_id", WATERMARK_ID),
+                Updates.combine(Updates.set(INCOMPLETE, true), Updates.setOnInsert("seq", -1L)),
+                new UpdateOptions().upsert(true));
+    }
+
+    private void writeWatermark(long seq) {
+        Document watermark = new Document("_id", WATERMARK_ID)
+                .append("seq", seq)
+                .append("updatedAt", new Date());
+        dbHandler.getCollection(STATE_COLLECTION).replaceOne(Filters.eq("_id", WATERMARK_ID), watermark, new ReplaceOptions().upsert(true));
+    }
+
+    private static String key(String type, String value) {
+        return type + ":" + value;
+    }
+
+    /**
+     * Startet die inkrementelle Aggregation, mit "--full" wird der Stand vorher verworfen.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static void main(String[] args) {
+        try {
+            MongoDatabaseHandler dbHandler = new MongoDatabaseHandler("mongodb.properties");
+            IncrementalAggregation aggregation = new IncrementalAggregation(dbHandler);
+            if (Arrays.asList(args).contains("--full")) {
+                aggregation.reset();
+            }
+            aggregation.aggregate();
+            dbHandler.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package aggregation;
+
+import org.bson.Document;
+
+import java.util.*;
+
+/**
+ * Teilergebnis der NLP-Aggregation für eine Entität (Redner, Sitzung, Topic oder alle Reden).
+ * Reden werden mit {@link #add} eingerechnet, Teilergebnisse verschiedener Threads mit {@link #merge}
+ * zusammengeführt. {@link #toNlpAggregation()} liefert dieselbe Struktur wie die bisherigen
+ * $facet-Pipelines (topics, namedEntitiesByType, namedEntitiesByText, pos_tags), das Sentiment als
+ * {@link SentimentHistogram}.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class NlpAccumulator {
+
+    // Wie in den Pipelines: nur die 100 häufigsten Named Entities nach Text
+    private static final int NAMED_ENTITIES_BY_TEXT_LIMIT = 100;
+    // $slice [1, 1000]: der erste Sentiment-Eintrag betrifft die ganze Rede
+    private static final int SENTIMENT_SLICE_SIZE = 1000;
+
+    private final boolean topicMode;
+
+    private final Map<String, double[]> topicScores = new HashMap<>(); // {summe, anzahl numerisch, anzahl}
+    private final Map<String, int[]> namedEntitiesByType = new HashMap<>();
+    private final Map<Document, int[]> namedEntitiesByText = new HashMap<>();
+    private final Map<String, int[]> posTags = new HashMap<>();
+    private final int[] sentiment = SentimentHistogram.empty();
+    private int speechCount;
+    // Nur vereinigbar, nicht abziehbar; wird getrennt vom Zustand gespeichert
+    private DistinctSketches distinct = new DistinctSketches();
+
+    private NlpAccumulator(boolean topicMode) {
+        this.topicMode = topicMode;
+    }
+
+    /**
+     * Akkumulator für Redner, Sitzungen und alle Reden: Sentiments ohne den ersten Eintrag.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static NlpAccumulator forEntity() {
+        return new NlpAccumulator(false);
+    }
+
+    /**
+     * Akkumulator für Topics: alle Sentiments, zusätzlich Anzahl je Topic und Anzahl der Reden.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static NlpAccumulator forTopic() {
+        return new NlpAccumulator(true);
+    }
+
+    /**
+     * Rechnet die NLP-Ergebnisse einer Rede ein.
+     *
+     * @param nlpResults Das Feld "nlpResults" der Rede, darf null sein
+     * @author Ibrahim Garhiou
+     */
+    public void add(Document nlpResults) {
+        add(nlpResults, DistinctSketches.hashes(nlpResults));
+    }
+
+    /**
+     * Wie {@link #add(Document)}, mit bereits berechneten Hashes für die {@link DistinctSketches}.
+     * Geht eine Rede in mehrere Akkumulatoren ein, wird so nur einmal gehasht.
+     *
+     * @param nlpResults Das Feld "nlpResults" der Rede, darf null sein
+     * @param distinctHashes Ergebnis von {@link DistinctSketches#hashes}, null lässt die Skizzen unverändert
+     * @author Ibrahim Garhiou
+     */
+    public void add(Document nlpResults, long[][] distinctHashes) {
+        speechCount++;
+        if (distinctHashes != null) distinct.addHashes(distinctHashes);
+        if (nlpResults == null) return;
+
+        for (Document topic : annotations(nlpResults, "topics")) {
+            double[] entry = topicScores.computeIfAbsent(topic.getString("value"), k -> new double[3]);
+            Object score = topic.get("score");
+            if (score instanceof Number) {
+                entry[0] += ((Number) score).doubleValue();
+                entry[1]++;
+            }
+            entry[2]++;
+        }
+
+        for (Document entity : annotations(nlpResults, "namedEntities")) {
+            increment(namedEntitiesByType, entity.getString("type"));
+
+            Document key = new Document();
+            if (entity.get("type") != null) key.append("type", entity.get("type"));
+            if (entity.get("text") != null) key.append("text", entity.get("text"));
+            increment(namedEntitiesByText, key);
+        }
+
+        for (Document token : annotations(nlpResults, "tokens")) {
+            Object pos = token.get("pos");
+            if (pos != null) increment(posTags, pos.toString());
+        }
+
+        List<Document> sentiments = annotations(nlpResults, "sentiment");
+        int from = topicMode ? 0 : 1;
+        int to = topicMode ? sentiments.size() : Math.min(sentiments.size(), 1 + SENTIMENT_SLICE_SIZE);
+        for (int i = from; i < to; i++) {
+            Object value = sentiments.get(i).get("sentiment");
+            if (value instanceof Number) SentimentHistogram.add(sentiment, ((Number) value).doubleValue(), 1);
+        }
+    }
+
+    /**
+     * Führt ein anderes Teilergebnis in dieses zusammen.
+     *
+     * @param other Teilergebnis derselben Art
+     * @return dieser Akkumulator
+     * @author Ibrahim Garhiou
+     */
+    public NlpAccumulator merge(NlpAccumulator other) {
+        distinct.merge(other.distinct);
+        return combine(other, 1);
+    }
+
+    /**
+     * Nimmt ein zuvor eingerechnetes Teilergebnis wieder heraus, z.B. die alte Fassung einer geänderten Rede.
+     * Einträge, deren Anzahl auf 0 fällt, werden entfernt. Die {@link DistinctSketches} bleiben unverändert,
+     * bis die Entität vollständig neu berechnet wird.
+     *
+     * @param other Teilergebnis derselben Art
+     * @return dieser Akkumulator
+     * @author Ibrahim Garhiou
+     */
+    public NlpAccumulator subtract(NlpAccumulator other) {
+        return combine(other, -1);
+    }
+
+    private NlpAccumulator combine(NlpAccumulator other, int sign) {
+        other.topicScores.forEach((topic, values) -> {
+            double[] entry = topicScores.computeIfAbsent(topic, k -> new double[3]);
+            for (int i = 0; i < entry.length; i++) entry[i] += sign * values[i];
+            if (entry[2] <= 0) topicScores.remove(topic);
+        });
+        mergeCounts(namedEntitiesByType, other.namedEntitiesByType, sign);
+        mergeCounts(namedEntitiesByText, other.namedEntitiesByText, sign);
+        mergeCounts(posTags, other.posTags, sign);
+        SentimentHistogram.merge(sentiment, other.sentiment, sign);
+        speechCount += sign * other.speechCount;
+        return this;
+    }
+
+    public int getSpeechCount() {
+        return speechCount;
+    }
+
+    public DistinctSketches getDistinct() {
+        return distinct;
+    }
+
+    /**
+     * Setzt die Skizzen, z.B. nach {@link #fromState}, da sie nicht Teil des Zustands sind.
+     *
+     * @return dieser Akkumulator
+     * @author Ibrahim Garhiou
+     */
+    public NlpAccumulator withDistinct(DistinctSketches distinct) {
+        this.distinct = distinct;
+        return this;
+    }
+
+    /**
+     * Speicherbarer Zustand des Akkumulators. Schlüssel werden als Listen abgelegt, da Topic- und
+     * Entity-Namen Punkte oder $ enthalten können, die als Feldnamen nicht erlaubt sind.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public Document toState() {
+        List<Document> topics = new ArrayList<>();
+        topicScores.forEach((topic, values) -> topics.add(new Document("k", topic)
+                .append("sum", values[0]).append("scored", values[1]).append("n", values[2])));
+
+        return new Document("topicMode", topicMode)
+                .append("speechCount", speechCount)
+                .append("topics", topics)
+                .append("namedEntitiesByType", countsToState(namedEntitiesByType))
+                .append("namedEntitiesByText", countsToState(namedEntitiesByText))
+                .append("pos_tags", countsToState(posTags))
+                .append("sentiment", SentimentHistogram.toDocument(sentiment));
+    }
+
+    /**
+     * Stellt einen Akkumulator aus {@link #toState()} wieder her.
+     *
+     * @param state Der gespeicherte Zustand
+     * @author Ibrahim Garhiou
+     */
+    public static NlpAccumulator fromState(Document state) {
+        NlpAccumulator accumulator = new NlpAccumulator(state.getBoolean("topicMode", false));
+        accumulator.speechCount = state.getInteger("speechCount", 0);
+
+        for (Document topic : state.getList("topics", Document.class, Collections.emptyList())) {
+            accumulator.topicScores.put(topic.getString("k"), new double[]{
+                    topic.getDouble("sum"), topic.getDouble("scored"), topic.getDouble("n")});
+        }
+        for (Document entry : state.getList("namedEntitiesByType", Document.class, Collections.emptyList())) {
+            accumulator.namedEntitiesByType.put(entry.getString("k"), new int[]{entry.getInteger("c")});
+        }
+        for (Document entry : state.getList("namedEntitiesByText", Document.class, Collections.emptyList())) {
+            accumulator.namedEntitiesByText.put(entry.get("k", Document.class), new int[]{entry.getInteger("c")});
+        }
+        for (Document entry : state.getList("pos_tags", Document.class, Collections.emptyList())) {
+            accumulator.posTags.put(entry.getString("k"), new int[]{entry.getInteger("c")});
+        }
+        // Ältere Zustände enthalten noch eine Liste {k: Wert, c: Anzahl}
+        SentimentHistogram.merge(accumulator.sentiment, SentimentHistogram.fromDocument(state.get("sentiment")), 1);
+        return accumulator;
+    }
+
+    /**
+     * Erstellt das Feld "nlpAggregation" für aggregated_data.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public Document toNlpAggregation() {
+        List<Document> topics = new ArrayList<>();
+        topicScores.forEach((topic, values) -> {
+            Document doc = new Document("_id", topic)
+                    .append("averageScore", values[1] > 0 ? values[0] / values[1] : null)
+                    .append("totalScore", values[0]);
+            if (topicMode) doc.append("count", (int) values[2]);
+            topics.add(doc);
+        });
+        topics.sort(Comparator.comparing((Document doc) -> doc.getDouble("averageScore"),
+                Comparator.nullsLast(Comparator.reverseOrder())));
+
+        return new Document()
+                .append("topics", topics)
+                .append("namedEntitiesByType", byCountDescending(namedEntitiesByType, Integer.MAX_VALUE))
+                .append("namedEntitiesByText", byCountDescending(namedEntitiesByText, NAMED_ENTITIES_BY_TEXT_LIMIT))
+                .append("sentiment", SentimentHistogram.toDocument(sentiment))
+                .append("pos_tags", byCountDescending(posTags, Integer.MAX_VALUE));
+    }
+
+    private static List<Document> annotations(Document nlpResults, String layer) {
+        Object value = nlpResults.get(layer);
+        if (!(value instanceof List)) return Collections.emptyList();
+
+        List<Document> result = new ArrayList<>();
+        for (Object item : (List<?>) value) {
+            if (item instanceof Document) result.add((Document) item);
+        }
+        return result;
+    }
+
+    private static <K> void increment(Map<K, int[]> counts, K key) {
+        counts.computeIfAbsent(key, k -> new int[1])[0]++;
+    }
+
+    private static <K> void mergeCounts(Map<K, int[]> target, Map<K, int[]> source, int sign) {
+        source.forEach((key, count) -> {
+            int[] entry = target.computeIfAbsent(key, k -> new int[1]);
+            entry[0] += sign * count[0];
+            if (entry[0] <= 0) target.remove(key);
+        });
+    }
+
+    private static <K> List<Document> countsToState(Map<K, int[]> counts) {
+        List<Document> result = new ArrayList<>();
+        counts.forEach((key, count) -> result.add(new Document("k", key).append("c", count[0])));
+        return result;
+    }
+
+    private static <K> List<Document> byCountDescending(Map<K, int[]> counts, int limit) {
+        List<Document> result = new ArrayList<>();
+        counts.entrySet().stream()
+                .sorted((a, b) -> Integer.compare(b.getValue()[0], a.getValue()[0]))
+                .limit(limit)
+                .forEach(entry -> result.add(new Document("_id", entry.getKey()).append("count", entry.getValue()[0])));
+        return result;
+    }
+
+}
@@ -0,0 +1,217 @@
+package aggregation;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import database.AggregateGenerations;
+import database.MongoDatabaseHandler;
+import database.SpeechDeduplicator;
+import database.Workload;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import utils.AbgeordnetenDirectory;
+import utils.SpeechUtils;
+
+import java.util.*;
+
+/**
+ * Aggregationen pro Partei (type "party"). Sie werden nicht aus den Reden berechnet, sondern durch
+ * Zusammenführen der {@link NlpAccumulator} aller Redner einer Partei. Die Partei eines Redners kommt
+ * aus dem {@link AbgeordnetenDirectory} und wird mit {@link SpeechUtils#normalizePartyName} vereinheitlicht.
+ *
+ * {@link SingleScanAggregation} und {@link IncrementalAggregation} pflegen die Parteien mit, sobald sich
+ * Redner ändern. {@link SpeakerAggregation} und {@link AggregationJobRunner} haben keine Akkumulatoren und
+ * berechnen die Parteien mit {@link #writeFromSpeeches} in ihrer Generation neu. {@link #rebuildFromSpeakerStates()} baut sie aus den gespeicherten Redner-Zuständen neu
+ * auf, z.B. nachdem sich Parteizugehörigkeiten im Verzeichnis geändert haben.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class PartyAggregation {
+
+    public static final String TYPE = "party";
+
+    private static final int SCAN_BATCH_SIZE = 500;
+
+    private final MongoDatabaseHandler dbHandler;
+
+    /**
+     * Konstruktor für die Partei-Aggregation.
+     *
+     * @param dbHandler Verbindung zur MongoDB
+     * @author Ibrahim Garhiou
+     */
+    public PartyAggregation(MongoDatabaseHandler dbHandler) {
+        this.dbHandler = dbHandler;
+    }
+
+    /**
+     * Ermittelt die vereinheitlichte Partei eines Redners.
+     *
+     * @param directory Das Abgeordneten-Verzeichnis
+     * @param speaker Name des Redners
+     * @return Parteiname oder null, wenn der Redner nicht zugeordnet werden kann
+     * @author Ibrahim Garhiou
+     */
+    public static String partyOf(AbgeordnetenDirectory directory, String speaker) {
+        if (speaker == null) return null;
+        Document abgeordneter = directory.findBySpeakerName(speaker);
+        String party = abgeordneter != null ? abgeordneter.getString("party") : null;
+        return party != null && !party.isBlank() ? SpeechUtils.normalizePartyName(party) : null;
+    }
+
+    /**
+     * Führt die Akkumulatoren der Redner pro Partei zusammen. Die Redner-Akkumulatoren bleiben unverändert.
+     *
+     * @param speakers Akkumulatoren pro Rednername
+     * @param directory Das Abgeordneten-Verzeichnis
+     * @return Akkumulatoren pro Partei
+     * @author Ibrahim Garhiou
+     */
+    public static Map<String, NlpAccumulator> fromSpeakers(Map<String, NlpAccumulator> speakers, AbgeordnetenDirectory directory) {
+        Map<String, NlpAccumulator> parties = new HashMap<>();
+        speakers.forEach((speaker, accumulator) -> {
+            String party = partyOf(directory, speaker);
+            if (party != null) {
+                parties.computeIfAbsent(party, k -> NlpAccumulator.forEntity()).merge(accumulator);
+            }
+        });
+        return parties;
+    }
+
+    /**
+     * Berechnet die Parteien mit einem Durchlauf über die Reden ihrer Redner neu und schreibt sie in die
+     * Generation. Die Redner-Einträge der Generation erhalten dabei ihre Distinct-Sketches, die die
+     * $facet-Pipelines nicht liefern. Veröffentlicht wird vom Aufrufer, mit "party" unter den eigenen Typen.
+     *
+     * @param generation Offene Generation des Aufrufers
+     * @param party Nur diese Partei neu berechnen, null für alle
+     * @return Anzahl der Parteien
+     * @author Ibrahim Garhiou
+     */
+    int writeFromSpeeches(long generation, String party) {
+        AbgeordnetenDirectory directory = AbgeordnetenDirectory.get(dbHandler);
+        Bson speeches = SpeechDeduplicator.canonical();
+        if (party != null) {
+            List<String> members = new ArrayList<>();
+            for (String speaker : new SpeakerAggregation(dbHandler).speakerNames()) {
+                if (party.equals(partyOf(directory, speaker))) members.add(speaker);
+            }
+            speeches = SpeechDeduplicator.canonical(Filters.in("speaker", members));
+        }
+
+        Map<String, NlpAccumulator> speakers = new HashMap<>();
+        try (MongoCursor<Document> cursor = dbHandler.aggregateDocuments("rede", SingleScanAggregation.scanPipeline(speeches), Workload.ANALYTIC)
+                .batchSize(SCAN_BATCH_SIZE)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document rede = cursor.next();
+                String speaker = SingleScanAggregation.speakerOf(rede);
+                if (speaker == null) continue;
+                Document nlpResults = rede.get("nlpResults", Document.class);
+                speakers.computeIfAbsent(speaker, k -> NlpAccumulator.forEntity()).add(nlpResults, DistinctSketches.hashes(nlpResults));
+            }
+        }
+
+        Map<String, NlpAccumulator> parties = fromSpeakers(speakers, directory);
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        // Ohne Einschränkung verschwinden auch Parteien, die keine Redner mehr haben
+        writes.add(new DeleteManyModel<>(Filters.and(Filters.eq(AggregateGenerations.GENERATION, generation),
+                party != null ? Filters.and(Filters.eq("type", TYPE), Filters.eq("value", party)) : Filters.eq("type", TYPE))));
+        parties.forEach((name, accumulator) ->
+                writes.add(AggregateGenerations.upsert(generation, SingleScanAggregation.entry(TYPE, name, accumulator))));
+        speakers.forEach((speaker, accumulator) -> writes.add(new UpdateOneModel<>(
+                Filters.and(Filters.eq(AggregateGenerations.GENERATION, generation),
+                        Filters.eq("type", "speakers"), Filters.eq("value", speaker)),
+                Updates.combine(
+                        Updates.set(DistinctSketches.ESTIMATES_FIELD, accumulator.getDistinct().estimates()),
+                        Updates.set(DistinctSketches.FIELD, accumulator.getDistinct().toDocument())))));
+        dbHandler.getCollection(AggregateGenerations.COLLECTION).bulkWrite(writes, new BulkWriteOptions().ordered(true));
+
+        System.out.println("[PartyAggregation] " + parties.size() + " Parteien aus " + speakers.size()
+                + " Rednern in Generation " + generation + " geschrieben");
+        return parties.size();
+    }
+
+    /**
+     * Baut alle Partei-Einträge aus den Redner-Zuständen der {@link IncrementalAggregation} neu auf,
+     * ohne die Reden erneut zu lesen, und veröffentlicht sie als neue Generation.
+     *
+     * @return Anzahl der Parteien
+     * @author Ibrahim Garhiou
+     */
+    public int rebuildFromSpeakerStates() {
+        long start = System.currentTimeMillis();
+        AbgeordnetenDirectory directory = AbgeordnetenDirectory.get(dbHandler);
+        Map<String, NlpAccumulator> parties = new HashMap<>();
+        List<WriteModel<Document>> speakerWrites = new ArrayList<>();
+
+        try (MongoCursor<Document> cursor = dbHandler.getCollection(IncrementalAggregation.STATE_COLLECTION)
+                .find(Filters.eq("type", "speakers")).iterator()) {
+            while (cursor.hasNext()) {
+                Document stored = cursor.next();
+                String party = partyOf(directory, stored.getString("value"));
+                if (party != null) {
+                    parties.computeIfAbsent(party, k -> NlpAccumulator.forEntity())
+                            .merge(NlpAccumulator.fromState(stored.get("state", Document.class))
+                                    .withDistinct(DistinctSketches.fromDocument(stored.get(DistinctSketches.FIELD, Document.class))));
+                }
+                // Zuordnung merken, damit spätere inkrementelle Läufe von der richtigen Partei abziehen
+                if (!Objects.equals(party, stored.getString(TYPE))) {
+                    speakerWrites.add(new ReplaceOneModel<>(Filters.eq("_id", stored.get("_id")),
+                            stored.append(TYPE, party), new ReplaceOptions()));
+                }
+            }
+        }
+
+        if (parties.isEmpty()) {
+            System.out.println("[PartyAggregation] Keine Redner-Zustände gefunden, bitte zuerst die IncrementalAggregation ausführen.");
+            return 0;
+        }
+
+        AggregateGenerations generations = new AggregateGenerations(dbHandler);
+        long generation = generations.beginFrom(Filters.ne("type", TYPE));
+        List<WriteModel<Document>> dataWrites = new ArrayList<>();
+        List<WriteModel<Document>> stateWrites = new ArrayList<>(speakerWrites);
+        dbHandler.getCollection(IncrementalAggregation.STATE_COLLECTION).deleteMany(Filters.eq("type", TYPE));
+        parties.forEach((party, accumulator) -> {
+            dataWrites.add(AggregateGenerations.upsert(generation, SingleScanAggregation.entry(TYPE, party, accumulator)));
+            stateWrites.add(new ReplaceOneModel<>(Filters.eq("_id", TYPE + ":" + party),
+                    new Document("_id", TYPE + ":" + party).append("type", TYPE).append("value", party)
+                            .append("state", accumulator.toState())
+                            .append(DistinctSketches.FIELD, accumulator.getDistinct().toDocument()),
+                    new ReplaceOptions().upsert(true)));
+        });
+
+        dbHandler.getCollection(AggregateGenerations.COLLECTION).bulkWrite(dataWrites, new BulkWriteOptions().ordered(false));
+        dbHandler.getCollection(IncrementalAggregation.STATE_COLLECTION).bulkWrite(stateWrites, new BulkWriteOptions().ordered(false));
+        if (!generations.publishOwned(generation, Filters.eq("type", TYPE))) {
+            System.err.println("[PartyAggregation] Parteien konnten nicht veröffentlicht werden.");
+            return 0;
+        }
+
+        System.out.println("[PartyAggregation] " + parties.size() + " Parteien aus Redner-Zuständen berechnet in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return parties.size();
+    }
+
+    /**
+     * Berechnet die Partei-Einträge aus den gespeicherten Redner-Zuständen neu.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static void main(String[] args) {
+        try {
+            MongoDatabaseHandler dbHandler = new MongoDatabaseHandler("mongodb.properties");
+            new PartyAggregation(dbHandler).rebuildFromSpeakerStates();
+            dbHandler.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package aggregation;
+
+import org.bson.Document;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sentiment-Verteilung als Histogramm mit festen Bins, gespeichert als int-Array.
+ *
+ * Es gibt 201 Bins der Breite 0,01. Bin i enthält alle Werte, die auf zwei Nachkommastellen gerundet
+ * (Banker's Rounding wie $round) -1 + i * 0,01 ergeben, d.h. die Bin-Grenzen liegen bei ±0,005 um diesen
+ * Wert. Werte außerhalb von [-1, 1] zählen zum ersten bzw. letzten Bin. Histogramme werden elementweise
+ * in O(Bins) zusammengeführt.
+ *
+ * In "nlpAggregation.sentiment" wird ein Histogramm als {min, max, binWidth, counts} abgelegt, wobei
+ * min und max die Mitten des ersten und letzten Bins sind. Die früheren Listen {_id: Wert, count}
+ * werden von {@link #fromDocument} weiterhin gelesen.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class SentimentHistogram {
+
+    public static final int BINS = 201;
+    public static final double MIN = -1.0;
+    public static final double MAX = 1.0;
+    public static final double BIN_WIDTH = 0.01;
+
+    private SentimentHistogram() {
+    }
+
+    /**
+     * Leeres Histogramm.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static int[] empty() {
+        return new int[BINS];
+    }
+
+    /**
+     * Bin eines Sentiment-Werts.
+     *
+     * @throws IllegalArgumentException bei NaN, das keinem Bin zugeordnet werden kann
+     * @author Ibrahim Garhiou
+     */
+    public static int binOf(double value) {
+        if (Double.isNaN(value)) throw new IllegalArgumentException("Sentiment-Wert ist NaN");
+        if (value <= MIN) return 0;
+        if (value >= MAX) return BINS - 1;
+        return BigDecimal.valueOf(value).setScale(2, RoundingMode.HALF_EVEN).movePointRight(2).intValue() + (BINS - 1) / 2;
+    }
+
+    /**
+     * Zählt einen Sentiment-Wert in das Histogramm. NaN (z.B. aus einer fehlerhaften Analyse) wird
+     * übersprungen, statt als neutral gezählt zu werden.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static void add(int[] counts, double value, int count) {
+        if (!Double.isNaN(value)) counts[binOf(value)] += count;
+    }
+
+    /**
+     * Mitte eines Bins, also der gerundete Sentiment-Wert.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static double center(int bin) {
+        return (bin - (BINS - 1) / 2) / 100.0;
+    }
+
+    /**
+     * Addiert ein Histogramm mit Vorzeichen auf ein anderes.
+     *
+     * @param target Ziel, wird verändert
+     * @param source Zu addierendes Histogramm
+     * @param sign 1 zum Addieren, -1 zum Abziehen
+     * @author Ibrahim Garhiou
+     */
+    public static void merge(int[] target, int[] source, int sign) {
+        for (int bin = 0; bin < BINS; bin++) target[bin] += sign * source[bin];
+    }
+
+    /**
+     * Speicherbare Form für "nlpAggregation.sentiment".
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static Document toDocument(int[] counts) {
+        List<Integer> packed = new ArrayList<>(BINS);
+        for (int count : counts) packed.add(Math.max(count, 0));
+        return new Document("min", MIN)
+                .append("max", MAX)
+                .append("binWidth", BIN_WIDTH)
+                .append("counts", packed);
+    }
+
+    /**
+     * Liest ein Histogramm aus {@link #toDocument} oder aus einer Liste {_id: Wert, count}, wie sie
+     * $group-Stufen und ältere Einträge liefern.
+     *
+     * @param value Gespeicherter Wert, darf null sein
+     * @return Neues Array mit {@link #BINS} Einträgen
+     * @author Ibrahim Garhiou
+     */
+    public static int[] fromDocument(Object value) {
+        int[] counts = empty();
+        if (value instanceof Document histogram) {
+            List<?> packed = histogram.get("counts", List.class);
+            if (packed != null && packed.size() == BINS) {
+                for (int bin = 0; bin < BINS; bin++) {
+                    Object count = packed.get(bin);
+                    if (count instanceof Number) counts[bin] = ((Number) count).intValue();
+                }
+            }
+        } else if (value instanceof List<?> buckets) {
+            for (Object item : buckets) {
+                if (!(item instanceof Document bucket)) continue;
+                Object key = bucket.containsKey("_id") ? bucket.get("_id") : bucket.get("k");
+                Object count = bucket.containsKey("count") ? bucket.get("count") : bucket.get("c");
+                if (key instanceof Number && count instanceof Number) {
+                    add(counts, ((Number) key).doubleValue(), ((Number) count).intValue());
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Ersetzt die Sentiment-Liste einer von einer $facet-Pipeline erzeugten Aggregation durch das Histogramm.
+     *
+     * @param entry Eintrag mit "nlpAggregation"
+     * @return derselbe Eintrag
+     * @author Ibrahim Garhiou
+     */
+    public static Document pack(Document entry) {
+        Document nlpAggregation = entry.get("nlpAggregation", Document.class);
+        if (nlpAggregation != null) {
+            nlpAggregation.put("sentiment", toDocument(fromDocument(nlpAggregation.get("sentiment"))));
+        }
+        return entry;
+    }
+}
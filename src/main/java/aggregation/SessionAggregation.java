@@ -4,7 +4,12 @@ import com.mongodb.client.MongoCursor;
 import com.mongodb.client.model.Accumulators;
 import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Field;
+import com.mongodb.client.model.Filters;
+import database.AggregateGenerations;
 import database.MongoDatabaseHandler;
+import database.NlpLayerStore;
+import database.SpeechDeduplicator;
+import database.Workload;
 import com.mongodb.client.AggregateIterable;
 import org.bson.Document;
 import org.bson.conversions.Bson;
@@ -25,6 +30,7 @@ import java.util.*;
  */
 public class SessionAggregation {
     private final MongoDatabaseHandler dbHandler;
+    private final AggregateGenerations generations;
 
 
     /**
@@ -33,9 +39,11 @@ public class SessionAggregation {
      * @param dbHandler Verbindung zur MongoDB.
      *
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     public SessionAggregation(MongoDatabaseHandler dbHandler) {
         this.dbHandler = dbHandler;
+        this.generations = new AggregateGenerations(dbHandler);
     }
 
 
@@ -44,27 +52,27 @@ public class SessionAggregation {
      * Für jede Sitzung wird die Aggregation einzeln durchgeführt.
      * Erkennt alle vorhandenen Werte in `protocol.index` und verarbeitet diese nacheinander.
      *
+     * Für alle Entitäten auf einmal ist {@link SingleScanAggregation} deutlich schneller.
+     *
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     public void aggregateAllSessions() {
         System.out.println("[SessionAggregation] Starte Aggregation für alle Sitzungen...");
 
-        // Alle vorhandenen protocol.index-Werte ermitteln
-        MongoCollection<Document> collection = dbHandler.getCollection("rede");
-        List<String> sessionIndices = new ArrayList<>();
-
-        try (MongoCursor<String> cursor = collection.distinct("protocol.index", String.class).iterator()) {
-            while (cursor.hasNext()) {
-                sessionIndices.add(cursor.next().trim());
-            }
-        }
+        List<String> sessionIndices = sessionIndices();
 
         System.out.println("Gefundene Sitzungen: " + sessionIndices.size());
 
-        // Jede Sitzung einzeln aggregieren
+        // Jede Sitzung einzeln aggregieren, alle in eine neue Generation; erst danach umschalten
+        long generation = generations.beginFrom(Filters.ne("type", "sessions"));
         for (String sessionIndex : sessionIndices) {
             System.out.println("➡ Aggregiere Sitzung: " + sessionIndex);
-            aggregateSingleSession(sessionIndex);
+            aggregateSession(sessionIndex, generation);
+        }
+        if (!generations.publishOwned(generation, Filters.eq("type", "sessions"))) {
+            System.err.println("[SessionAggregation] Sitzungen konnten nicht veröffentlicht werden, bitte erneut starten.");
+            return;
         }
 
         System.out.println("🏁 [SessionAggregation] Alle Sitzungen verarbeitet und gespeichert.");
@@ -79,24 +87,51 @@ public class SessionAggregation {
      * @param sessionIndex Der Sitzungs-Index, für den aggregiert werden soll.
      *
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     public void aggregateSingleSession(String sessionIndex) {
+        aggregateSession(sessionIndex, -1);
+    }
+
+    /**
+     * Ermittelt alle vorhandenen Werte in `protocol.index`, nur aus gültigen Reden.
+     *
+     * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
+     */
+    List<String> sessionIndices() {
+        MongoCollection<Document> collection = dbHandler.getCollection("rede", Workload.ANALYTIC);
+        List<String> sessionIndices = new ArrayList<>();
+
+        try (MongoCursor<String> cursor = collection.distinct("protocol.index", SpeechDeduplicator.canonical(), String.class).iterator()) {
+            while (cursor.hasNext()) {
+                sessionIndices.add(cursor.next().trim());
+            }
+        }
+        return sessionIndices;
+    }
+
+    /**
+     * Wie {@link #aggregateSingleSession}, schreibt aber in die angegebene Generation.
+     *
+     * @param generation Generation des laufenden Gesamtlaufs, -1 für eine eigene Generation
+     * @author Ibrahim Garhiou
+     */
+    void aggregateSession(String sessionIndex, long generation) {
         System.out.println("🔍 Aggregation für Sitzung " + sessionIndex + " läuft...");
 
-        // Filter nur für diese eine Sitzung
-        Bson matchSession = Aggregates.match(new Document("protocol.index", sessionIndex));
+        // Filter nur für diese eine Sitzung, überholte Fassungen nicht mitzählen
+        Bson matchSession = Aggregates.match(SpeechDeduplicator.canonical(new Document("protocol.index", sessionIndex)));
 
         // Topics
         List<Bson> topicsPipeline = Arrays.asList(
                 matchSession,
                 Aggregates.match(new Document("nlpResults.topics", new Document("$exists", true))),
                 Aggregates.unwind("$nlpResults.topics"),
-                Aggregates.addFields(new Field<>("nlpResults.topics.numericScore",
-                        new Document("$toDouble", "$nlpResults.topics.score"))),
                 Aggregates.group(
                         "$nlpResults.topics.value",
-                        Accumulators.avg("averageScore", "$nlpResults.topics.numericScore"),
-                        Accumulators.sum("totalScore", "$nlpResults.topics.numericScore")
+                        Accumulators.avg("averageScore", "$nlpResults.topics.score"),
+                        Accumulators.sum("totalScore", "$nlpResults.topics.score")
                 ),
                 Aggregates.sort(new Document("averageScore", -1))
         );
@@ -143,18 +178,20 @@ public class SessionAggregation {
                 Aggregates.addFields(new Field<>("filteredSentiment",
                         new Document("$slice", Arrays.asList("$nlpResults.sentiment", 1, 1000)))),
                 Aggregates.unwind("$filteredSentiment"),
-                Aggregates.addFields(new Field<>("numericSentiment",
-                        new Document("$toDouble", "$filteredSentiment.sentiment"))),
                 Aggregates.project(
                         new Document("roundedSentiment",
-                                new Document("$round", Arrays.asList("$numericSentiment", 2)))
+                                new Document("$round", Arrays.asList("$filteredSentiment.sentiment", 2)))
                 ),
                 Aggregates.group("$roundedSentiment", Accumulators.sum("count", 1)),
                 Aggregates.sort(new Document("_id", 1))
         );
 
         // Hauptpipeline
-        List<Bson> pipeline = Arrays.asList(
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(matchSession);
+        // NLP-Layer aus rede_nlp anhängen (nur für die gefilterten Reden)
+        pipeline.addAll(NlpLayerStore.lookupStages());
+        pipeline.addAll(Arrays.asList(
                 Aggregates.facet(
                         new Facet("topics", topicsPipeline),
                         new Facet("namedEntitiesByType", namedEntitiesByTypePipeline),
@@ -171,16 +208,34 @@ public class SessionAggregation {
                                 .append("sentiment", "$sentiment")
                                 .append("pos_tags", "$pos_tags"))
                 )
-        );
+        ));
 
         // Aggregation ausführen
-        AggregateIterable<Document> result = dbHandler.aggregateDocuments("rede", pipeline);
+        AggregateIterable<Document> result = dbHandler.aggregateDocuments("rede", pipeline, Workload.ANALYTIC);
 
+        List<Document> entries = new ArrayList<>();
         for (Document doc : result) {
             doc.remove("_id");
-            dbHandler.insertDocument("aggregated_data", doc);
+            entries.add(doc);
+        }
+        save(entries, generation);
+        for (Document doc : entries) {
             System.out.println("Sitzung " + sessionIndex + " gespeichert: " + doc.toJson());
         }
     }
-}
 
+    /**
+     * Speichert die Einträge in der angegebenen Generation, ohne Generation (-1) zusammen als neue Generation.
+     *
+     * @author Ibrahim Garhiou
+     */
+    private void save(List<Document> entries, long generation) {
+        // Sentiment-Buckets der Pipeline als Histogramm mit festen Bins speichern
+        entries.forEach(SentimentHistogram::pack);
+        if (generation >= 0) {
+            entries.forEach(doc -> generations.put(generation, doc));
+        } else if (!generations.replaceEntries(entries)) {
+            System.err.println("[SessionAggregation] Einträge konnten nicht veröffentlicht werden.");
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package aggregation;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.WriteModel;
+import database.AggregateGenerations;
+import database.MongoDatabaseHandler;
+import database.NlpLayerStore;
+import database.SpeechDeduplicator;
+import database.Workload;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import utils.AbgeordnetenDirectory;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Berechnet alle Einträge in "aggregated_data" (alle Reden, Sitzungen, Redner, Topics, Parteien) mit einem
+ * einzigen Durchlauf über "rede". Bisher lief pro Redner, Sitzung und Topic eine eigene $facet-Pipeline,
+ * die die Reden jedes Mal erneut gelesen hat.
+ * Die Ergebnisse werden als neue Generation geschrieben, siehe {@link AggregateGenerations}.
+ *
+ * Die Reden werden in Blöcken gelesen. Jeder Block wird in einem Fork/Join-Pool in ein {@link Partial}
+ * mit je einem {@link NlpAccumulator} pro Entität eingerechnet, die Teilergebnisse werden anschließend
+ * paarweise zusammengeführt. Am Ende werden alle Dokumente in einem Bulk-Write ersetzt.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class SingleScanAggregation {
+
+    // Typen in "aggregated_data", die dieser Durchlauf vollständig neu berechnet
+    static final List<String> ENTITY_TYPES = List.of("all", "sessions", "speakers", "topics", PartyAggregation.TYPE);
+
+    private static final int CHUNK_SIZE = 500;
+    // Nach so vielen offenen Blöcken je Thread werden die Teilergebnisse zusammengeführt, um Speicher zu sparen
+    private static final int PENDING_CHUNKS_PER_THREAD = 4;
+
+    private final MongoDatabaseHandler dbHandler;
+    private final ForkJoinPool pool;
+
+    /**
+     * Konstruktor für die Aggregation.
+     *
+     * @param dbHandler Verbindung zur MongoDB
+     * @author Ibrahim Garhiou
+     */
+    public SingleScanAggregation(MongoDatabaseHandler dbHandler) {
+        this(dbHandler, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Konstruktor mit fester Anzahl an Worker-Threads.
+     *
+     * @param dbHandler Verbindung zur MongoDB
+     * @param parallelism Anzahl der Threads für die Akkumulation
+     * @author Ibrahim Garhiou
+     */
+    public SingleScanAggregation(MongoDatabaseHandler dbHandler, int parallelism) {
+        this.dbHandler = dbHandler;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Zwischenstand eines Blocks: Akkumulatoren für alle Reden, je Sitzung, je Redner und je Topic.
+     */
+    static class Partial {
+        final NlpAccumulator all = NlpAccumulator.forEntity();
+        final Map<String, NlpAccumulator> sessions = new HashMap<>();
+        final Map<String, NlpAccumulator> speakers = new HashMap<>();
+        final Map<String, NlpAccumulator> topics = new HashMap<>();
+
+        void add(Document rede) {
+            Document nlpResults = rede.get("nlpResults", Document.class);
+            long[][] distinctHashes = DistinctSketches.hashes(nlpResults);
+            all.add(nlpResults, distinctHashes);
+
+            String session = sessionOf(rede);
+            if (session != null) {
+                sessions.computeIfAbsent(session, k -> NlpAccumulator.forEntity()).add(nlpResults, distinctHashes);
+            }
+
+            String speaker = speakerOf(rede);
+            if (speaker != null) {
+                speakers.computeIfAbsent(speaker, k -> NlpAccumulator.forEntity()).add(nlpResults, distinctHashes);
+            }
+
+            // Jede Rede zählt nur zu ihrem dominanten Topic
+            String dominantTopic = dominantTopicOf(nlpResults);
+            if (dominantTopic != null) {
+                topics.computeIfAbsent(dominantTopic, k -> NlpAccumulator.forTopic()).add(nlpResults, distinctHashes);
+            }
+        }
+
+        Partial merge(Partial other) {
+            all.merge(other.all);
+            mergeInto(sessions, other.sessions);
+            mergeInto(speakers, other.speakers);
+            mergeInto(topics, other.topics);
+            return this;
+        }
+
+        private static void mergeInto(Map<String, NlpAccumulator> target, Map<String, NlpAccumulator> source) {
+            source.forEach((key, accumulator) -> target.merge(key, accumulator, NlpAccumulator::merge));
+        }
+    }
+
+    static String sessionOf(Document rede) {
+        Document protocol = rede.get("protocol", Document.class);
+        String session = protocol != null ? protocol.getString("index") : null;
+        return session != null ? session.trim() : null;
+    }
+
+    static String speakerOf(Document rede) {
+        String speaker = rede.getString("speaker");
+        return speaker != null && !speaker.isBlank() ? speaker : null;
+    }
+
+    static String dominantTopicOf(Document nlpResults) {
+        Object topicLayer = nlpResults != null ? nlpResults.get("topics") : null;
+        if (!(topicLayer instanceof List<?> entries)) return null;
+        List<Document> topics = new ArrayList<>(entries.size());
+        for (Object entry : entries) {
+            if (entry instanceof Document topic) topics.add(topic);
+        }
+        return TopicAggregation.highestTopic(topics);
+    }
+
+    /**
+     * Führt eine Liste von Teilergebnissen paarweise und rekursiv zusammen.
+     */
+    private static class MergeTask extends RecursiveTask<Partial> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Partial> partials;
+
+        MergeTask(List<Partial> partials) {
+            this.partials = partials;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (partials.size() == 1) return partials.get(0);
+            int middle = partials.size() / 2;
+            MergeTask left = new MergeTask(partials.subList(0, middle));
+            left.fork();
+            Partial right = new MergeTask(partials.subList(middle, partials.size())).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    /**
+     * Liest alle gültigen Reden einmal, berechnet alle Aggregationen und schreibt sie nach "aggregated_data".
+     *
+     * @return Anzahl der geschriebenen Dokumente
+     * @author Ibrahim Garhiou
+     */
+    public int aggregateAll() {
+        System.out.println("[SingleScanAggregation] Starte Aggregation mit " + pool.getParallelism() + " Threads...");
+        long start = System.currentTimeMillis();
+
+        List<ForkJoinTask<Partial>> pending = new ArrayList<>();
+        int maxPending = pool.getParallelism() * PENDING_CHUNKS_PER_THREAD;
+        Partial total = null;
+        int speechCount = 0;
+
+        try (MongoCursor<Document> cursor = dbHandler.aggregateDocuments("rede", scanPipeline(SpeechDeduplicator.canonical()), Workload.ANALYTIC)
+                .batchSize(CHUNK_SIZE)
+                .iterator()) {
+            List<Document> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (cursor.hasNext()) {
+                chunk.add(cursor.next());
+                speechCount++;
+                if (chunk.size() == CHUNK_SIZE) {
+                    pending.add(pool.submit(accumulate(chunk)));
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+                if (pending.size() >= maxPending) {
+                    total = mergePending(total, pending);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                pending.add(pool.submit(accumulate(chunk)));
+            }
+        }
+        total = mergePending(total, pending);
+
+        if (total == null) {
+            System.out.println("[SingleScanAggregation] Keine Reden gefunden.");
+            return 0;
+        }
+        System.out.println("[SingleScanAggregation] " + speechCount + " Reden gelesen in "
+                + (System.currentTimeMillis() - start) + " ms");
+
+        int written = write(total);
+        System.out.println("[SingleScanAggregation] " + written + " Dokumente gespeichert nach "
+                + (System.currentTimeMillis() - start) + " ms");
+        return written;
+    }
+
+    /**
+     * Pipeline für den Durchlauf über die gefilterten Reden: nur die benötigten Felder und Layer.
+     */
+    static List<Bson> scanPipeline(Bson filter) {
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(filter));
+        pipeline.add(Aggregates.project(Projections.include("speaker", "protocol.index", "protocol.date", "protocol.wp", SpeechDeduplicator.SUPERSEDED,
+                "nlpResults.topics", "nlpResults.namedEntities", "nlpResults.tokens", "nlpResults.sentiment")));
+        pipeline.addAll(NlpLayerStore.lookupStages("topics", "namedEntities", "tokens", "sentiment"));
+        return pipeline;
+    }
+
+    private Partial mergePending(Partial total, List<ForkJoinTask<Partial>> pending) {
+        List<Partial> partials = new ArrayList<>();
+        if (total != null) partials.add(total);
+        for (ForkJoinTask<Partial> task : pending) {
+            partials.add(task.join());
+        }
+        pending.clear();
+        return partials.isEmpty() ? null : pool.invoke(new MergeTask(partials));
+    }
+
+    private static RecursiveTask<Partial> accumulate(List<Document> chunk) {
+        return new RecursiveTask<>() {
+            @Override
+            protected Partial compute() {
+                Partial partial = new Partial();
+                for (Document rede : chunk) {
+                    partial.add(rede);
+                }
+                return partial;
+            }
+        };
+    }
+
+    private int write(Partial total) {
+        // Neue Generation, andere Typen werden aus der aktuellen übernommen
+        AggregateGenerations generations = new AggregateGenerations(dbHandler);
+        long generation = generations.beginFrom(Filters.nin("type", ENTITY_TYPES));
+
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        writes.add(AggregateGenerations.upsert(generation, entry("all", "all speeches", total.all)));
+        total.sessions.forEach((session, acc) -> writes.add(AggregateGenerations.upsert(generation, entry("sessions", session, acc))));
+        total.speakers.forEach((speaker, acc) -> writes.add(AggregateGenerations.upsert(generation, entry("speakers", speaker, acc))));
+        total.topics.forEach((topic, acc) -> writes.add(AggregateGenerations.upsert(generation, entry("topics", topic, acc)
+                .append("speechCount", acc.getSpeechCount()))));
+        // Parteien aus den fertigen Redner-Akkumulatoren, ohne weiteren Durchlauf
+        PartyAggregation.fromSpeakers(total.speakers, AbgeordnetenDirectory.get(dbHandler))
+                .forEach((party, acc) -> writes.add(AggregateGenerations.upsert(generation, entry(PartyAggregation.TYPE, party, acc))));
+
+        dbHandler.getCollection(AggregateGenerations.COLLECTION).bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        // Hat zwischendurch ein anderer Lauf veröffentlicht, werden dessen übrige Einträge übernommen
+        if (!generations.publishOwned(generation, Filters.in("type", ENTITY_TYPES))) {
+            System.err.println("[SingleScanAggregation] Generation " + generation + " konnte nicht veröffentlicht werden.");
+            return 0;
+        }
+        return writes.size();
+    }
+
+    static Document entry(String type, String value, NlpAccumulator accumulator) {
+        return new Document("type", type)
+                .append("value", value)
+                .append("nlpAggregation", accumulator.toNlpAggregation())
+                .append(DistinctSketches.ESTIMATES_FIELD, accumulator.getDistinct().estimates())
+                .append(DistinctSketches.FIELD, accumulator.getDistinct().toDocument());
+    }
+
+    /**
+     * Startet die vollständige Aggregation.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static void main(String[] args) {
+        try {
+            MongoDatabaseHandler dbHandler = new MongoDatabaseHandler("mongodb.properties");
+            new SingleScanAggregation(dbHandler).aggregateAll();
+            dbHandler.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
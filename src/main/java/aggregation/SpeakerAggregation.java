@@ -4,12 +4,19 @@ import com.mongodb.client.MongoCursor;
 import com.mongodb.client.model.Accumulators;
 import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Field;
+import com.mongodb.client.model.Filters;
+import database.AggregateGenerations;
 import database.MongoDatabaseHandler;
+import database.NlpLayerStore;
+import database.SpeechDeduplicator;
+import database.Workload;
 import com.mongodb.client.AggregateIterable;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import utils.AbgeordnetenDirectory;
 import com.mongodb.client.model.Facet;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -27,6 +34,7 @@ import java.util.Set;
  */
 public class SpeakerAggregation {
     private final MongoDatabaseHandler dbHandler;
+    private final AggregateGenerations generations;
 
 
     /**
@@ -35,38 +43,88 @@ public class SpeakerAggregation {
      * @param dbHandler Verbindung zur MongoDB.
      *
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     public SpeakerAggregation(MongoDatabaseHandler dbHandler) {
         this.dbHandler = dbHandler;
+        this.generations = new AggregateGenerations(dbHandler);
     }
 
 
     /**
      * Führt eine vollständige NLP-Aggregation für einen bestimmten Redner durch.
      * Es werden Topics, Named Entities, Sentiment-Werte und POS-Tags analysiert.
-     * Das Ergebnis wird als ein Dokument mit type "speakers" in der MongoDB gespeichert.
+     * Das Ergebnis wird als ein Dokument mit type "speakers" in der MongoDB gespeichert, die Partei des
+     * Redners wird in derselben Generation neu berechnet.
      *
      * @param speakerName Der Name des Redners, dessen Reden aggregiert werden sollen.
      *
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     public void aggregateSingleSpeaker(String speakerName) {
+        // Redner und seine Partei zusammen in einer neuen Generation ersetzen
+        Bson owned = Filters.and(Filters.eq("type", "speakers"), Filters.eq("value", speakerName));
+        String party = PartyAggregation.partyOf(AbgeordnetenDirectory.get(dbHandler), speakerName);
+        if (party != null) {
+            owned = Filters.or(owned, Filters.and(Filters.eq("type", PartyAggregation.TYPE), Filters.eq("value", party)));
+        }
+        long generation = generations.beginFrom(Filters.nor(owned));
+        aggregateSpeaker(speakerName, generation);
+        if (party != null) {
+            new PartyAggregation(dbHandler).writeFromSpeeches(generation, party);
+        }
+        if (!generations.publishOwned(generation, owned)) {
+            System.err.println("[SpeakerAggregation] Redner " + speakerName + " konnte nicht veröffentlicht werden.");
+        }
+    }
+
+    /**
+     * Sammelt alle eindeutigen Rednernamen der gültigen Reden aus der Collection "rede".
+     *
+     * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
+     */
+    Set<String> speakerNames() {
+        Set<String> speakerNames = new HashSet<>();
+
+        try (MongoCursor<Document> cursor = dbHandler
+                .getCollection("rede", Workload.ANALYTIC)
+                .find(SpeechDeduplicator.canonical())
+                .projection(new Document("speaker", 1))
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document doc = cursor.next();
+                String name = doc.getString("speaker");
+                if (name != null && !name.isBlank()) {
+                    speakerNames.add(name);
+                }
+            }
+        }
+        return speakerNames;
+    }
+
+    /**
+     * Wie {@link #aggregateSingleSpeaker}, schreibt aber in die angegebene Generation.
+     *
+     * @param generation Generation des laufenden Gesamtlaufs, -1 für eine eigene Generation
+     * @author Ibrahim Garhiou
+     */
+    void aggregateSpeaker(String speakerName, long generation) {
         System.out.println("[SpeakerAggregation] Starte Aggregation für Speaker: " + speakerName);
 
-        // Filter für einen bestimmten Speaker
-        Bson matchSpeaker = Aggregates.match(new Document("speaker", speakerName));
+        // Filter für einen bestimmten Speaker, überholte Fassungen nicht mitzählen
+        Bson matchSpeaker = Aggregates.match(SpeechDeduplicator.canonical(new Document("speaker", speakerName)));
 
         // Topics-Aggregation
         List<Bson> topicsPipeline = Arrays.asList(
                 matchSpeaker,
                 Aggregates.match(new Document("nlpResults.topics", new Document("$exists", true))),
                 Aggregates.unwind("$nlpResults.topics"),
-                Aggregates.addFields(new Field<>("nlpResults.topics.numericScore",
-                        new Document("$toDouble", "$nlpResults.topics.score"))),
                 Aggregates.group(
                         "$nlpResults.topics.value",
-                        Accumulators.avg("averageScore", "$nlpResults.topics.numericScore"),
-                        Accumulators.sum("totalScore", "$nlpResults.topics.numericScore")
+                        Accumulators.avg("averageScore", "$nlpResults.topics.score"),
+                        Accumulators.sum("totalScore", "$nlpResults.topics.score")
                 ),
                 Aggregates.sort(new Document("averageScore", -1))
         );
@@ -113,18 +171,20 @@ public class SpeakerAggregation {
                 Aggregates.addFields(new Field<>("filteredSentiment",
                         new Document("$slice", Arrays.asList("$nlpResults.sentiment", 1, 1000)))),
                 Aggregates.unwind("$filteredSentiment"),
-                Aggregates.addFields(new Field<>("numericSentiment",
-                        new Document("$toDouble", "$filteredSentiment.sentiment"))),
                 Aggregates.project(
                         new Document("roundedSentiment",
-                                new Document("$round", Arrays.asList("$numericSentiment", 2)))
+                                new Document("$round", Arrays.asList("$filteredSentiment.sentiment", 2)))
                 ),
                 Aggregates.group("$roundedSentiment", Accumulators.sum("count", 1)),
                 Aggregates.sort(new Document("_id", 1))
         );
 
         // Hauptpipeline
-        List<Bson> pipeline = Arrays.asList(
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(matchSpeaker);
+        // NLP-Layer aus rede_nlp anhängen (nur für die gefilterten Reden)
+        pipeline.addAll(NlpLayerStore.lookupStages());
+        pipeline.addAll(Arrays.asList(
                 Aggregates.facet(
                         new Facet("topics", topicsPipeline),
                         new Facet("namedEntitiesByType", namedEntitiesByTypePipeline),
@@ -141,14 +201,18 @@ public class SpeakerAggregation {
                                 .append("sentiment", "$sentiment")
                                 .append("pos_tags", "$pos_tags"))
                 )
-        );
+        ));
 
         // Aggregation ausführen
-        AggregateIterable<Document> result = dbHandler.aggregateDocuments("rede", pipeline);
+        AggregateIterable<Document> result = dbHandler.aggregateDocuments("rede", pipeline, Workload.ANALYTIC);
 
+        List<Document> entries = new ArrayList<>();
         for (Document doc : result) {
             doc.remove("_id");
-            dbHandler.insertDocument("aggregated_data", doc);
+            entries.add(doc);
+        }
+        save(entries, generation);
+        for (Document doc : entries) {
             System.out.println("Speaker " + speakerName + " gespeichert: " + doc.toJson());
         }
     }
@@ -158,36 +222,47 @@ public class SpeakerAggregation {
      * Sammelt alle eindeutigen Rednernamen aus der Datenbank und führt die Aggregation für jeden einzeln aus.
      * Die Methode sucht nach Dokumenten mit einem "speaker"-Feld in der Collection "rede".
      *
+     * Für alle Entitäten auf einmal ist {@link SingleScanAggregation} deutlich schneller.
+     *
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     public void aggregateAllSpeakers() {
-        Set<String> speakerNames = new HashSet<>();
-
-        MongoCursor<Document> cursor = dbHandler
-                .getCollection("rede")
-                .find()
-                .projection(new Document("speaker", 1))
-                .iterator();
-
-        while (cursor.hasNext()) {
-            Document doc = cursor.next();
-            String name = doc.getString("speaker");
-            if (name != null && !name.isBlank()) {
-                speakerNames.add(name);
-            }
-        }
+        Set<String> speakerNames = speakerNames();
 
         if (speakerNames.isEmpty()) {
             System.out.println("Keine Redner in der Datenbank gefunden!");
             return;
         }
 
+        // Alle Redner in eine neue Generation schreiben, erst danach umschalten
+        long generation = generations.beginFrom(Filters.ne("type", "speakers"));
         for (String name : speakerNames) {
             System.out.println("Aggregiere Redner: " + name);
-            aggregateSingleSpeaker(name);
+            aggregateSpeaker(name, generation);
+        }
+        // Parteien setzen sich aus den Rednern zusammen und werden mit ihnen veröffentlicht
+        new PartyAggregation(dbHandler).writeFromSpeeches(generation, null);
+        if (!generations.publishOwned(generation, Filters.in("type", "speakers", PartyAggregation.TYPE))) {
+            System.err.println("[SpeakerAggregation] Redner konnten nicht veröffentlicht werden, bitte erneut starten.");
+            return;
         }
 
         System.out.println("Aggregation für alle Redner abgeschlossen.");
     }
-}
 
+    /**
+     * Speichert die Einträge in der angegebenen Generation, ohne Generation (-1) zusammen als neue Generation.
+     *
+     * @author Ibrahim Garhiou
+     */
+    private void save(List<Document> entries, long generation) {
+        // Sentiment-Buckets der Pipeline als Histogramm mit festen Bins speichern
+        entries.forEach(SentimentHistogram::pack);
+        if (generation >= 0) {
+            entries.forEach(doc -> generations.put(generation, doc));
+        } else if (!generations.replaceEntries(entries)) {
+            System.err.println("[SpeakerAggregation] Einträge konnten nicht veröffentlicht werden.");
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package aggregation;
+
+import org.bson.Document;
+
+import java.util.*;
+
+/**
+ * Kompakte, zusammenführbare Zusammenfassung der NLP-Ergebnisse einer oder mehrerer Reden.
+ *
+ * Statt der Annotationen enthält sie nur feste Zähler: POS-Tags als int-Array über das STTS-Tagset,
+ * ein Sentiment-Histogramm mit 201 Klassen (-1,00 bis 1,00 in Schritten von 0,01), eine Top-k-Skizze
+ * der Named Entities (Space-Saving) und Summen der Topic-Scores. Beliebige Teilmengen von Reden werden
+ * aggregiert, indem ihre Zusammenfassungen mit {@link #merge} addiert werden; {@link #toNlpAggregation()}
+ * liefert dieselbe Struktur wie {@link NlpAccumulator#forEntity()}.
+ *
+ * Named Entities sind ab einer gewissen Menge nur noch geschätzt: die Zählung ist eine Obergrenze,
+ * deren maximaler Fehler in der Skizze mitgeführt wird.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class SpeechSummary {
+
+    // STTS-Tagset, wie es die NLP-Pipeline liefert; unbekannte Tags werden separat gezählt
+    public static final List<String> POS_TAGS = List.of(
+            "$(", "$,", "$.", "ADJA", "ADJD", "ADV", "APPO", "APPR", "APPRART", "APZR", "ART", "CARD", "FM",
+            "ITJ", "KOKOM", "KON", "KOUI", "KOUS", "NE", "NN", "NNE", "PAV", "PDAT", "PDS", "PIAT", "PIS",
+            "PPER", "PPOSAT", "PPOSS", "PRELAT", "PRELS", "PRF", "PROAV", "PTKA", "PTKANT", "PTKNEG", "PTKVZ",
+            "PTKZU", "PWAT", "PWAV", "PWS", "TRUNC", "VAFIN", "VAIMP", "VAINF", "VAPP", "VMFIN", "VMINF",
+            "VMPP", "VVFIN", "VVIMP", "VVINF", "VVIZU", "VVPP", "XY");
+    public static final int SENTIMENT_BINS = SentimentHistogram.BINS;
+
+    // Kapazität der Entity-Skizze je Rede und nach dem Zusammenführen
+    static final int SPEECH_ENTITY_CAPACITY = 64;
+    static final int MERGED_ENTITY_CAPACITY = 1024;
+
+    static final Map<String, Integer> POS_INDEX = new HashMap<>();
+    static {
+        for (int i = 0; i < POS_TAGS.size(); i++) POS_INDEX.put(POS_TAGS.get(i), i);
+    }
+    private static final int NAMED_ENTITIES_BY_TEXT_LIMIT = 100;
+    private static final int SENTIMENT_SLICE_SIZE = 1000;
+
+    int speechCount;
+    final int[] pos = new int[POS_TAGS.size()];
+    final Map<String, int[]> otherPos = new HashMap<>();
+    final int[] sentiment = SentimentHistogram.empty();
+    final Map<String, int[]> entityTypes = new HashMap<>();
+    final EntitySketch entities = new EntitySketch();
+    final Map<String, double[]> topics = new HashMap<>(); // {summe, anzahl numerisch, anzahl}
+
+    /**
+     * Leere Zusammenfassung, z.B. als Startwert für {@link #merge}.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public SpeechSummary() {
+    }
+
+    /**
+     * Erstellt die Zusammenfassung einer einzelnen Rede.
+     *
+     * @param nlpResults Das Feld "nlpResults" der Rede, darf null sein
+     * @author Ibrahim Garhiou
+     */
+    public static SpeechSummary of(Document nlpResults) {
+        SpeechSummary summary = new SpeechSummary();
+        summary.speechCount = 1;
+        if (nlpResults == null) return summary;
+
+        for (Document topic : annotations(nlpResults, "topics")) {
+            double[] entry = summary.topics.computeIfAbsent(topic.getString("value"), k -> new double[3]);
+            Object score = topic.get("score");
+            if (score instanceof Number) {
+                entry[0] += ((Number) score).doubleValue();
+                entry[1]++;
+            }
+            entry[2]++;
+        }
+
+        for (Document entity : annotations(nlpResults, "namedEntities")) {
+            String type = entity.getString("type");
+            summary.entityTypes.computeIfAbsent(type, k -> new int[1])[0]++;
+            summary.entities.increment(type, entity.getString("text"));
+        }
+        summary.entities.truncate(SPEECH_ENTITY_CAPACITY);
+
+        for (Document token : annotations(nlpResults, "tokens")) {
+            Object tag = token.get("pos");
+            if (tag == null) continue;
+            Integer index = POS_INDEX.get(tag.toString());
+            if (index != null) {
+                summary.pos[index]++;
+            } else {
+                summary.otherPos.computeIfAbsent(tag.toString(), k -> new int[1])[0]++;
+            }
+        }
+
+        // Wie NlpAccumulator.forEntity(): ohne den ersten Eintrag, der die ganze Rede betrifft
+        List<Document> sentiments = annotations(nlpResults, "sentiment");
+        for (int i = 1; i < Math.min(sentiments.size(), 1 + SENTIMENT_SLICE_SIZE); i++) {
+            // Nicht migrierte Werte (Strings) wie im NlpAccumulator überspringen, NaN überspringt add
+            Object value = sentiments.get(i).get("sentiment");
+            if (value instanceof Number) SentimentHistogram.add(summary.sentiment, ((Number) value).doubleValue(), 1);
+        }
+        return summary;
+    }
+
+    /**
+     * Addiert eine andere Zusammenfassung zu dieser.
+     *
+     * @param other Die hinzuzufügende Zusammenfassung
+     * @return diese Zusammenfassung
+     * @author Ibrahim Garhiou
+     */
+    public SpeechSummary merge(SpeechSummary other) {
+        speechCount += other.speechCount;
+        for (int i = 0; i < pos.length; i++) pos[i] += other.pos[i];
+        SentimentHistogram.merge(sentiment, other.sentiment, 1);
+        other.otherPos.forEach((tag, count) -> otherPos.computeIfAbsent(tag, k -> new int[1])[0] += count[0]);
+        other.entityTypes.forEach((type, count) -> entityTypes.computeIfAbsent(type, k -> new int[1])[0] += count[0]);
+        other.topics.forEach((topic, values) -> {
+            double[] entry = topics.computeIfAbsent(topic, k -> new double[3]);
+            for (int i = 0; i < entry.length; i++) entry[i] += values[i];
+        });
+        entities.merge(other.entities, MERGED_ENTITY_CAPACITY);
+        return this;
+    }
+
+    public int getSpeechCount() {
+        return speechCount;
+    }
+
+    /**
+     * Erstellt das Feld "nlpAggregation" in derselben Form wie die gespeicherten Aggregationen.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public Document toNlpAggregation() {
+        List<Document> topicList = new ArrayList<>();
+        topics.forEach((topic, values) -> topicList.add(new Document("_id", topic)
+                .append("averageScore", values[1] > 0 ? values[0] / values[1] : null)
+                .append("totalScore", values[0])));
+        topicList.sort(Comparator.comparing((Document doc) -> doc.getDouble("averageScore"),
+                Comparator.nullsLast(Comparator.reverseOrder())));
+
+        List<Document> byType = new ArrayList<>();
+        entityTypes.entrySet().stream()
+                .sorted((a, b) -> Integer.compare(b.getValue()[0], a.getValue()[0]))
+                .forEach(entry -> byType.add(new Document("_id", entry.getKey()).append("count", entry.getValue()[0])));
+
+        List<Document> byText = new ArrayList<>();
+        entities.counters.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]))
+                .limit(NAMED_ENTITIES_BY_TEXT_LIMIT)
+                .forEach(entry -> {
+                    Document doc = new Document("_id", entityKey(entry.getKey())).append("count", entry.getValue()[0]);
+                    // Nur geschätzte Zählungen tragen ihren maximalen Fehler, exakte bleiben wie bisher
+                    if (entry.getValue()[1] > 0) doc.append("error", entry.getValue()[1]);
+                    byText.add(doc);
+                });
+
+        Map<String, Integer> posCounts = new HashMap<>();
+        for (int i = 0; i < pos.length; i++) {
+            if (pos[i] > 0) posCounts.put(POS_TAGS.get(i), pos[i]);
+        }
+        otherPos.forEach((tag, count) -> posCounts.put(tag, count[0]));
+        List<Document> posList = new ArrayList<>();
+        posCounts.entrySet().stream()
+                .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
+                .forEach(entry -> posList.add(new Document("_id", entry.getKey()).append("count", entry.getValue())));
+
+        return new Document()
+                .append("topics", topicList)
+                .append("namedEntitiesByType", byType)
+                .append("namedEntitiesByText", byText)
+                .append("sentiment", SentimentHistogram.toDocument(sentiment))
+                .append("pos_tags", posList);
+    }
+
+    /**
+     * Speicherform: POS-Tags dicht, Sentiment als flache Liste aus (Klasse, Anzahl)-Paaren,
+     * Schlüssel mit beliebigem Text als Listen, da sie als Feldnamen nicht erlaubt wären.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public Document toDocument() {
+        List<Integer> posList = new ArrayList<>(pos.length);
+        for (int count : pos) posList.add(count);
+
+        List<Integer> sentimentPairs = new ArrayList<>();
+        for (int i = 0; i < sentiment.length; i++) {
+            if (sentiment[i] > 0) {
+                sentimentPairs.add(i);
+                sentimentPairs.add(sentiment[i]);
+            }
+        }
+
+        List<Document> entityList = new ArrayList<>();
+        entities.counters.forEach((key, values) -> entityList.add(new Document("t", key.get(0))
+                .append("x", key.get(1)).append("c", values[0]).append("e", values[1])));
+
+        List<Document> topicList = new ArrayList<>();
+        topics.forEach((topic, values) -> topicList.add(new Document("k", topic)
+                .append("sum", values[0]).append("scored", values[1]).append("n", values[2])));
+
+        return new Document("speechCount", speechCount)
+                .append("pos", posList)
+                .append("posOther", counts(otherPos))
+                .append("sentiment", sentimentPairs)
+                .append("entityTypes", counts(entityTypes))
+                .append("entities", entityList)
+                .append("entityFloor", entities.floor)
+                .append("topics", topicList);
+    }
+
+    /**
+     * Liest eine Zusammenfassung aus der Form von {@link #toDocument()}.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static SpeechSummary fromDocument(Document doc) {
+        SpeechSummary summary = new SpeechSummary();
+        summary.speechCount = doc.getInteger("speechCount", 1);
+
+        List<Integer> posList = doc.getList("pos", Integer.class, Collections.emptyList());
+        for (int i = 0; i < Math.min(posList.size(), summary.pos.length); i++) summary.pos[i] = posList.get(i);
+
+        List<Integer> pairs = doc.getList("sentiment", Integer.class, Collections.emptyList());
+        for (int i = 0; i + 1 < pairs.size(); i += 2) summary.sentiment[pairs.get(i)] = pairs.get(i + 1);
+
+        for (Document entry : doc.getList("posOther", Document.class, Collections.emptyList())) {
+            summary.otherPos.put(entry.getString("k"), new int[]{entry.getInteger("c")});
+        }
+        for (Document entry : doc.getList("entityTypes", Document.class, Collections.emptyList())) {
+            summary.entityTypes.put(entry.getString("k"), new int[]{entry.getInteger("c")});
+        }
+        for (Document entry : doc.getList("entities", Document.class, Collections.emptyList())) {
+            summary.entities.counters.put(Arrays.asList(entry.getString("t"), entry.getString("x")),
+                    new long[]{((Number) entry.get("c")).longValue(), ((Number) entry.get("e")).longValue()});
+        }
+        Object floor = doc.get("entityFloor");
+        summary.entities.floor = floor instanceof Number ? ((Number) floor).longValue() : 0L;
+
+        for (Document topic : doc.getList("topics", Document.class, Collections.emptyList())) {
+            summary.topics.put(topic.getString("k"), new double[]{
+                    topic.getDouble("sum"), topic.getDouble("scored"), topic.getDouble("n")});
+        }
+        return summary;
+    }
+
+    /**
+     * Top-k-Skizze nach Space-Saving: je (Typ, Text) eine Zählung als Obergrenze und deren maximaler
+     * Fehler. "floor" ist die höchstmögliche Zählung eines nicht mehr enthaltenen Eintrags.
+     */
+    static final class EntitySketch {
+        final Map<List<String>, long[]> counters = new HashMap<>(); // {zählung, fehler}
+        long floor;
+
+        void increment(String type, String text) {
+            counters.computeIfAbsent(Arrays.asList(type, text), k -> new long[2])[0]++;
+        }
+
+        void merge(EntitySketch other, int capacity) {
+            if (other.floor > 0) {
+                // Einträge, die nur hier vorkommen, können in der anderen Skizze bis zu floor gezählt haben
+                counters.forEach((key, values) -> {
+                    if (!other.counters.containsKey(key)) {
+                        values[0] += other.floor;
+                        values[1] += other.floor;
+                    }
+                });
+            }
+            long ownFloor = floor;
+            other.counters.forEach((key, values) -> {
+                long[] entry = counters.get(key);
+                if (entry != null) {
+                    entry[0] += values[0];
+                    entry[1] += values[1];
+                } else {
+                    counters.put(key, new long[]{values[0] + ownFloor, values[1] + ownFloor});
+                }
+            });
+            floor += other.floor;
+
+            // Erst bei doppelter Kapazität kürzen, damit nicht jede Zusammenführung sortiert
+            if (counters.size() > 2 * capacity) truncate(capacity);
+        }
+
+        void truncate(int capacity) {
+            if (counters.size() <= capacity) return;
+            List<Map.Entry<List<String>, long[]>> sorted = new ArrayList<>(counters.entrySet());
+            sorted.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+            for (int i = capacity; i < sorted.size(); i++) {
+                floor = Math.max(floor, sorted.get(i).getValue()[0]);
+                counters.remove(sorted.get(i).getKey());
+            }
+        }
+    }
+
+    private static Document entityKey(List<String> key) {
+        Document id = new Document();
+        if (key.get(0) != null) id.append("type", key.get(0));
+        if (key.get(1) != null) id.append("text", key.get(1));
+        return id;
+    }
+
+    private static List<Document> counts(Map<String, int[]> counts) {
+        List<Document> result = new ArrayList<>();
+        counts.forEach((key, count) -> result.add(new Document("k", key).append("c", count[0])));
+        return result;
+    }
+
+    private static List<Document> annotations(Document nlpResults, String layer) {
+        Object value = nlpResults.get(layer);
+        if (!(value instanceof List)) return Collections.emptyList();
+
+        List<Document> result = new ArrayList<>();
+        for (Object item : (List<?>) value) {
+            if (item instanceof Document) result.add((Document) item);
+        }
+        return result;
+    }
+}
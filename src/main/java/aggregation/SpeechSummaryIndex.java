@@ -0,0 +1,431 @@
+package aggregation;
+
+import com.mongodb.client.MongoCursor;
+import database.CacheInvalidationListener;
+import database.MongoDatabaseHandler;
+import database.Workload;
+import org.bson.Document;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Unveränderlicher In-Memory-Schnappschuss aller Zusammenfassungen aus "rede_summary" für
+ * Ad-hoc-Aggregationen mit beliebigen Filterkombinationen.
+ *
+ * Die Zusammenfassungen werden beim Laden spaltenweise abgelegt: Filterfelder als int-IDs bzw. Tage
+ * seit 1970, die Zähler jeder Rede als dünn besetzte (ID, Wert)-Listen in gemeinsamen Arrays. Eine
+ * Anfrage prüft die Filter pro Rede und addiert die Zähler der passenden Reden in dichte Arrays,
+ * ohne Objekte pro Rede anzulegen. Das Ergebnis hat dieselbe Form wie {@link SpeechSummary#toNlpAggregation()}.
+ *
+ * Wie das AbgeordnetenDirectory wird der Schnappschuss bei Änderungen an "rede_summary" neu geladen
+ * und atomar ersetzt. Ohne Change Streams (z.B. Standalone-Server) wird er spätestens nach
+ * {@link #MAX_AGE_MS} beim nächsten Zugriff im Hintergrund neu geladen.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class SpeechSummaryIndex {
+
+    private static volatile SpeechSummaryIndex current;
+
+    private static final ScheduledExecutorService REFRESHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "speech-summary-index-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final AtomicBoolean REFRESH_SCHEDULED = new AtomicBoolean(false);
+
+    private static final long REFRESH_DEBOUNCE_MS = 10000;
+    // Höchstalter des Schnappschusses, falls keine Änderungen über den ChangeStreamWatcher ankommen
+    static final long MAX_AGE_MS = 5 * 60 * 1000;
+    private static final int BATCH_SIZE = 1000;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final int NONE = -1;
+
+    private int size;
+    private long loadedAt;
+
+    // Filterspalten, -1 für fehlende Werte
+    private final Vocabulary<String> sessionValues = new Vocabulary<>();
+    private final Vocabulary<String> partyValues = new Vocabulary<>();
+    private final Vocabulary<String> speakerValues = new Vocabulary<>();
+    private final Vocabulary<String> topicValues = new Vocabulary<>();
+    private int[] session;
+    private int[] party;
+    private int[] speaker;
+    private int[] topic;
+    private int[] day;
+    // Höchstmögliche Zählung einer Named Entity, die in der Skizze der Rede nicht mehr enthalten ist
+    private long[] entityFloor;
+
+    // Zählerspalten
+    private final Vocabulary<String> posTags = new Vocabulary<>();
+    private final Vocabulary<String> entityTypeValues = new Vocabulary<>();
+    private final Vocabulary<List<String>> entityKeys = new Vocabulary<>();
+    private final Vocabulary<String> topicKeys = new Vocabulary<>();
+    private final SparseColumn posCounts = new SparseColumn(1);
+    private final SparseColumn sentimentCounts = new SparseColumn(1);
+    private final SparseColumn entityTypeCounts = new SparseColumn(1);
+    // {zählung, fehler, floor der Rede}
+    private final SparseColumn entityCounts = new SparseColumn(3);
+    private final SparseColumn topicScores = new SparseColumn(3);
+    private int[] speechCount;
+
+    private SpeechSummaryIndex(int capacity) {
+        capacity = Math.max(capacity, 16);
+        session = new int[capacity];
+        party = new int[capacity];
+        speaker = new int[capacity];
+        topic = new int[capacity];
+        day = new int[capacity];
+        entityFloor = new long[capacity];
+        speechCount = new int[capacity];
+    }
+
+    private void append(Document doc) {
+        if (size == session.length) {
+            int capacity = size * 2;
+            session = Arrays.copyOf(session, capacity);
+            party = Arrays.copyOf(party, capacity);
+            speaker = Arrays.copyOf(speaker, capacity);
+            topic = Arrays.copyOf(topic, capacity);
+            day = Arrays.copyOf(day, capacity);
+            entityFloor = Arrays.copyOf(entityFloor, capacity);
+            speechCount = Arrays.copyOf(speechCount, capacity);
+        }
+        int row = size++;
+        session[row] = sessionValues.idOf(doc.getString("session"));
+        party[row] = partyValues.idOf(doc.getString("party"));
+        speaker[row] = speakerValues.idOf(doc.getString("speaker"));
+        topic[row] = topicValues.idOf(doc.getString("topic"));
+        Date date = doc.getDate("date");
+        day[row] = date != null ? (int) date.toInstant().atZone(ZoneOffset.UTC).toLocalDate().toEpochDay() : NO_DATE;
+        add(row, SpeechSummary.fromDocument(doc.get("summary", Document.class)));
+    }
+
+    private void finish() {
+        for (SparseColumn column : List.of(posCounts, sentimentCounts, entityTypeCounts, entityCounts, topicScores)) column.close(size);
+        loadedAt = System.currentTimeMillis();
+    }
+
+    private void add(int row, SpeechSummary summary) {
+        speechCount[row] = summary.speechCount;
+        for (int i = 0; i < summary.pos.length; i++) {
+            if (summary.pos[i] > 0) posCounts.add(row, posTags.idOf(SpeechSummary.POS_TAGS.get(i)), summary.pos[i]);
+        }
+        summary.otherPos.forEach((tag, count) -> posCounts.add(row, posTags.idOf(tag), count[0]));
+        for (int bin = 0; bin < summary.sentiment.length; bin++) {
+            if (summary.sentiment[bin] > 0) sentimentCounts.add(row, bin, summary.sentiment[bin]);
+        }
+        summary.entityTypes.forEach((type, count) -> entityTypeCounts.add(row, entityTypeValues.idOf(type), count[0]));
+        entityFloor[row] = summary.entities.floor;
+        summary.entities.counters.forEach((key, values) -> entityCounts.add(row, entityKeys.idOf(key),
+                new double[]{values[0], values[1], summary.entities.floor}));
+        summary.topics.forEach((key, values) -> topicScores.add(row, topicKeys.idOf(key), values));
+    }
+
+    /**
+     * Gibt den aktuellen Schnappschuss zurück und lädt ihn beim ersten Zugriff aus der Datenbank.
+     * Ist er älter als {@link #MAX_AGE_MS}, wird er im Hintergrund neu geladen, bis dahin bleibt der
+     * bisherige gültig.
+     *
+     * @param mongoHandler MongoDB-Verbindung für den initialen Ladevorgang
+     * @return Der aktuelle Schnappschuss
+     * @author Ibrahim Garhiou
+     */
+    public static SpeechSummaryIndex get(MongoDatabaseHandler mongoHandler) {
+        SpeechSummaryIndex index = current;
+        if (index == null) {
+            synchronized (SpeechSummaryIndex.class) {
+                index = current;
+                if (index == null) {
+                    index = refresh(mongoHandler);
+                }
+            }
+        } else if (System.currentTimeMillis() - index.loadedAt > MAX_AGE_MS) {
+            scheduleRefresh(mongoHandler, 0);
+        }
+        return index;
+    }
+
+    /**
+     * Wie {@link #get}, lädt aber nie im aufrufenden Thread: fehlt der Schnappschuss noch, wird er im
+     * Hintergrund geladen und null zurückgegeben. Für Request-Threads, die nicht auf den Ladevorgang warten sollen.
+     *
+     * @param mongoHandler MongoDB-Verbindung für den Ladevorgang im Hintergrund
+     * @return Der aktuelle Schnappschuss oder null, solange er geladen wird
+     * @author Ibrahim Garhiou
+     */
+    public static SpeechSummaryIndex getIfLoaded(MongoDatabaseHandler mongoHandler) {
+        SpeechSummaryIndex index = current;
+        if (index == null || System.currentTimeMillis() - index.loadedAt > MAX_AGE_MS) {
+            scheduleRefresh(mongoHandler, 0);
+        }
+        return index;
+    }
+
+    /**
+     * Lädt den Schnappschuss im Hintergrund, z.B. beim Start der API.
+     *
+     * @param mongoHandler MongoDB-Verbindung
+     * @author Ibrahim Garhiou
+     */
+    public static void warmUp(MongoDatabaseHandler mongoHandler) {
+        scheduleRefresh(mongoHandler, 0);
+    }
+
+    /**
+     * Plant einen Refresh im Hintergrund, solange noch keiner geplant ist.
+     */
+    private static void scheduleRefresh(MongoDatabaseHandler mongoHandler, long delayMs) {
+        if (!REFRESH_SCHEDULED.compareAndSet(false, true)) return;
+        REFRESHER.schedule(() -> {
+            REFRESH_SCHEDULED.set(false);
+            try {
+                refresh(mongoHandler);
+            } catch (Exception e) {
+                System.err.println("[SpeechSummaryIndex] Refresh fehlgeschlagen: " + e.getMessage());
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Lädt alle Zusammenfassungen neu und ersetzt den Schnappschuss atomar.
+     *
+     * @param mongoHandler MongoDB-Verbindung
+     * @return Der neu aufgebaute Schnappschuss
+     * @author Ibrahim Garhiou
+     */
+    public static SpeechSummaryIndex refresh(MongoDatabaseHandler mongoHandler) {
+        long start = System.currentTimeMillis();
+        // Zeilenweise einlesen, die Dokumente selbst werden nicht im Speicher gehalten
+        SpeechSummaryIndex index = new SpeechSummaryIndex(
+                (int) mongoHandler.getCollection(SpeechSummaryStore.COLLECTION).estimatedDocumentCount());
+        try (MongoCursor<Document> cursor = mongoHandler.findDocuments(SpeechSummaryStore.COLLECTION, new Document(), Workload.ANALYTIC)
+                .batchSize(BATCH_SIZE)
+                .iterator()) {
+            while (cursor.hasNext()) index.append(cursor.next());
+        }
+        index.finish();
+        current = index;
+        System.out.println("[SpeechSummaryIndex] Schnappschuss geladen: " + index.size + " Reden, "
+                + index.entityKeys.size() + " Named Entities in " + (System.currentTimeMillis() - start) + " ms");
+        return index;
+    }
+
+    /**
+     * Erzeugt einen Listener für den ChangeStreamWatcher, der den Schnappschuss bei Änderungen an
+     * "rede_summary" neu lädt. Ein Aggregationslauf schreibt viele Zusammenfassungen kurz hintereinander,
+     * diese werden zu einem Refresh zusammengefasst.
+     *
+     * @param mongoHandler MongoDB-Verbindung für den Refresh
+     * @return Listener zur Registrierung für "rede_summary"
+     * @author Ibrahim Garhiou
+     */
+    public static CacheInvalidationListener invalidationListener(MongoDatabaseHandler mongoHandler) {
+        return event -> scheduleRefresh(mongoHandler, REFRESH_DEBOUNCE_MS);
+    }
+
+    /**
+     * Aggregiert alle Reden, die sämtliche angegebenen Filter erfüllen. Innerhalb eines Filters genügt
+     * einer der Werte, leere Filter schränken nicht ein.
+     *
+     * @param sessions Sitzungsnummern
+     * @param parties Parteien der Redner
+     * @param speakers Rednernamen
+     * @param topics Dominante Topics
+     * @param from Frühestes Sitzungsdatum (einschließlich), darf null sein
+     * @param to Spätestes Sitzungsdatum (einschließlich), darf null sein
+     * @return Dokument mit "speechCount" und "nlpAggregation"
+     * @author Ibrahim Garhiou
+     */
+    public Document query(Collection<String> sessions, Collection<String> parties, Collection<String> speakers,
+                          Collection<String> topics, LocalDate from, LocalDate to) {
+        boolean[] sessionMask = sessionValues.mask(sessions);
+        boolean[] partyMask = partyValues.mask(parties);
+        boolean[] speakerMask = speakerValues.mask(speakers);
+        boolean[] topicMask = topicValues.mask(topics);
+        int fromDay = from != null ? (int) from.toEpochDay() : NO_DATE;
+        int toDay = to != null ? (int) to.toEpochDay() : Integer.MAX_VALUE;
+        boolean dateFilter = from != null || to != null;
+
+        double[] posTotals = new double[posTags.size()];
+        double[] sentimentTotals = new double[SpeechSummary.SENTIMENT_BINS];
+        double[] entityTypeTotals = new double[entityTypeValues.size()];
+        double[] entityTotals = new double[entityKeys.size() * 3];
+        long floorTotal = 0;
+        double[] topicTotals = new double[topicKeys.size() * 3];
+        int matched = 0;
+
+        for (int row = 0; row < size; row++) {
+            if (!allowed(sessionMask, session[row]) || !allowed(partyMask, party[row])
+                    || !allowed(speakerMask, speaker[row]) || !allowed(topicMask, topic[row])) continue;
+            if (dateFilter && (day[row] == NO_DATE || day[row] < fromDay || day[row] > toDay)) continue;
+
+            matched += speechCount[row];
+            floorTotal += entityFloor[row];
+            posCounts.addTo(row, posTotals);
+            sentimentCounts.addTo(row, sentimentTotals);
+            entityTypeCounts.addTo(row, entityTypeTotals);
+            entityCounts.addTo(row, entityTotals);
+            topicScores.addTo(row, topicTotals);
+        }
+
+        SpeechSummary result = new SpeechSummary();
+        result.speechCount = matched;
+        for (int id = 0; id < posTotals.length; id++) {
+            if (posTotals[id] == 0) continue;
+            Integer index = SpeechSummary.POS_INDEX.get(posTags.valueOf(id));
+            if (index != null) {
+                result.pos[index] = (int) posTotals[id];
+            } else {
+                result.otherPos.put(posTags.valueOf(id), new int[]{(int) posTotals[id]});
+            }
+        }
+        for (int bin = 0; bin < sentimentTotals.length; bin++) result.sentiment[bin] = (int) sentimentTotals[bin];
+        for (int id = 0; id < entityTypeTotals.length; id++) {
+            if (entityTypeTotals[id] > 0) result.entityTypes.put(entityTypeValues.valueOf(id), new int[]{(int) entityTypeTotals[id]});
+        }
+        for (int id = 0; id < entityKeys.size(); id++) {
+            if (entityTotals[id * 3] == 0) continue;
+            // Wie EntitySketch.merge: Reden, in deren Skizze die Entity fehlt, können sie bis zu ihrem floor gezählt haben
+            long missing = floorTotal - (long) entityTotals[id * 3 + 2];
+            result.entities.counters.put(entityKeys.valueOf(id), new long[]{
+                    (long) entityTotals[id * 3] + missing, (long) entityTotals[id * 3 + 1] + missing});
+        }
+        result.entities.floor = floorTotal;
+        result.entities.truncate(SpeechSummary.MERGED_ENTITY_CAPACITY);
+        for (int id = 0; id < topicKeys.size(); id++) {
+            if (topicTotals[id * 3 + 2] > 0) {
+                result.topics.put(topicKeys.valueOf(id), Arrays.copyOfRange(topicTotals, id * 3, id * 3 + 3));
+            }
+        }
+
+        return new Document("speechCount", matched)
+                .append("nlpAggregation", result.toNlpAggregation());
+    }
+
+    /**
+     * Alle vorkommenden Parteien, z.B. für die Filterauswahl.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public List<String> getParties() {
+        List<String> result = new ArrayList<>(partyValues.values);
+        Collections.sort(result);
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    private static boolean allowed(boolean[] mask, int id) {
+        return mask == null || (id != NONE && mask[id]);
+    }
+
+    /**
+     * Vergibt fortlaufende IDs für Werte einer Spalte.
+     */
+    private static final class Vocabulary<K> {
+        private final Map<K, Integer> ids = new HashMap<>();
+        private final List<K> values = new ArrayList<>();
+
+        int idOf(K value) {
+            if (value == null) return NONE;
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+            return id;
+        }
+
+        K valueOf(int id) {
+            return values.get(id);
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        /**
+         * Erlaubte IDs für einen Filter, null wenn der Filter nicht einschränkt.
+         * Unbekannte Werte ergeben eine leere Maske.
+         */
+        boolean[] mask(Collection<K> allowed) {
+            if (allowed == null || allowed.isEmpty()) return null;
+            boolean[] mask = new boolean[values.size()];
+            for (K value : allowed) {
+                Integer id = ids.get(value);
+                if (id != null) mask[id] = true;
+            }
+            return mask;
+        }
+    }
+
+    /**
+     * Dünn besetzte Zähler aller Reden: die Einträge von Zeile i liegen zwischen offsets[i] und offsets[i + 1],
+     * je Eintrag eine ID und "width" Werte.
+     */
+    private static final class SparseColumn {
+        private final int width;
+        private int[] offsets = new int[16];
+        private int[] ids = new int[1024];
+        private double[] values;
+        private int entries;
+        private int lastRow = -1;
+
+        SparseColumn(int width) {
+            this.width = width;
+            this.values = new double[ids.length * width];
+        }
+
+        void add(int row, int id, double value) {
+            add(row, id, new double[]{value});
+        }
+
+        void add(int row, int id, double[] rowValues) {
+            startRow(row);
+            if (entries == ids.length) {
+                ids = Arrays.copyOf(ids, entries * 2);
+                values = Arrays.copyOf(values, entries * 2 * width);
+            }
+            ids[entries] = id;
+            System.arraycopy(rowValues, 0, values, entries * width, width);
+            entries++;
+        }
+
+        // Offsets für alle Zeilen bis einschließlich "row" setzen, auch für Zeilen ohne Einträge
+        private void startRow(int row) {
+            while (lastRow < row) {
+                lastRow++;
+                if (lastRow + 1 >= offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                offsets[lastRow] = entries;
+            }
+        }
+
+        void close(int rows) {
+            startRow(rows - 1);
+            if (rows + 1 > offsets.length) offsets = Arrays.copyOf(offsets, rows + 1);
+            offsets[rows] = entries;
+        }
+
+        void addTo(int row, double[] totals) {
+            for (int entry = offsets[row]; entry < offsets[row + 1]; entry++) {
+                int base = ids[entry] * width;
+                for (int k = 0; k < width; k++) totals[base + k] += values[entry * width + k];
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package aggregation;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import database.MongoDatabaseHandler;
+import database.SpeechDeduplicator;
+import database.Workload;
+import org.bson.Document;
+import utils.AbgeordnetenDirectory;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Speichert pro gültiger Rede eine {@link SpeechSummary} in "rede_summary", zusammen mit den Feldern,
+ * nach denen gefiltert wird: Sitzung, Redner, Partei, Datum und dominantes Topic.
+ *
+ * Die Zusammenfassungen werden von der {@link IncrementalAggregation} für neue und geänderte Reden
+ * mitgeschrieben, {@link #rebuildAll()} erstellt sie für den gesamten Bestand. Dabei werden auch die
+ * zeitlichen Rollups in {@link TrendRollups} um die Differenz zur vorherigen Zusammenfassung angepasst.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class SpeechSummaryStore {
+
+    public static final String COLLECTION = "rede_summary";
+
+    private static final int CHUNK_SIZE = 500;
+    private static final Pattern NUMERIC_DATE = Pattern.compile("(\\d{1,2})\\.(\\d{1,2})\\.(\\d{4})");
+    private static final Pattern WRITTEN_DATE = Pattern.compile("(\\d{1,2})\\.\\s*([A-Za-zäÄ]+)\\s+(\\d{4})");
+    private static final List<String> MONTHS = List.of("januar", "februar", "märz", "april", "mai", "juni",
+            "juli", "august", "september", "oktober", "november", "dezember");
+
+    private final MongoDatabaseHandler dbHandler;
+    private final TrendRollups trends;
+
+    /**
+     * Konstruktor für den Speicher der Zusammenfassungen.
+     *
+     * @param dbHandler Verbindung zur MongoDB
+     * @author Ibrahim Garhiou
+     */
+    public SpeechSummaryStore(MongoDatabaseHandler dbHandler) {
+        this.dbHandler = dbHandler;
+        this.trends = new TrendRollups(dbHandler);
+    }
+
+    /**
+     * Legt die Indizes für die Filterfelder an.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void ensureIndexes() {
+        for (String field : List.of("session", "speaker", "party", "topic", "date")) {
+            dbHandler.getCollection(COLLECTION).createIndex(Indexes.ascending(field));
+        }
+        trends.ensureIndexes();
+    }
+
+    /**
+     * Schreibt die Zusammenfassungen eines Blocks gelesener Reden. Überholte Reden werden entfernt.
+     * Die Reden müssen die Felder aus {@link SingleScanAggregation#scanPipeline} enthalten.
+     *
+     * @param chunk Die Reden mit NLP-Layern
+     * @author Ibrahim Garhiou
+     */
+    public void apply(List<Document> chunk) {
+        AbgeordnetenDirectory directory = AbgeordnetenDirectory.get(dbHandler);
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        TrendRollups.Delta delta = new TrendRollups.Delta();
+
+        // Bisherige Zusammenfassungen aus den Rollups herausrechnen
+        List<Object> ids = new ArrayList<>();
+        for (Document rede : chunk) ids.add(rede.get("_id"));
+        for (Document old : dbHandler.getCollection(COLLECTION).find(Filters.in("_id", ids))
+                .projection(Projections.include("date", "wp", "topic", "summary.speechCount", "summary.sentiment",
+                        "summary.entityTypes", "summary.topics"))) {
+            delta.add(old.getDate("date"), old.getString("wp"), old.getString("topic"),
+                    SpeechSummary.fromDocument(old.get("summary", Document.class)), -1);
+        }
+
+        for (Document rede : chunk) {
+            Object id = rede.get("_id");
+            if (rede.getBoolean(SpeechDeduplicator.SUPERSEDED, false)) {
+                writes.add(new DeleteOneModel<>(Filters.eq("_id", id)));
+                continue;
+            }
+            Document summary = summaryDocument(rede, directory);
+            delta.add(summary.getDate("date"), summary.getString("wp"), summary.getString("topic"),
+                    SpeechSummary.fromDocument(summary.get("summary", Document.class)), 1);
+            writes.add(new ReplaceOneModel<>(Filters.eq("_id", id), summary, new ReplaceOptions().upsert(true)));
+        }
+
+        if (!writes.isEmpty()) {
+            dbHandler.getCollection(COLLECTION).bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        }
+        if (!delta.isEmpty()) {
+            trends.write(delta);
+        }
+    }
+
+    /**
+     * Entfernt alle Zusammenfassungen und die daraus gebildeten Rollups.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void clear() {
+        dbHandler.getCollection(COLLECTION).deleteMany(new Document());
+        trends.clear();
+    }
+
+    /**
+     * Erstellt die Zusammenfassungen aller gültigen Reden neu.
+     *
+     * @return Anzahl der Reden
+     * @author Ibrahim Garhiou
+     */
+    public int rebuildAll() {
+        long start = System.currentTimeMillis();
+        ensureIndexes();
+        clear();
+
+        int count = 0;
+        try (MongoCursor<Document> cursor = dbHandler.aggregateDocuments("rede",
+                        SingleScanAggregation.scanPipeline(SpeechDeduplicator.canonical()), Workload.ANALYTIC)
+                .batchSize(CHUNK_SIZE)
+                .iterator()) {
+            List<Document> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (cursor.hasNext()) {
+                chunk.add(cursor.next());
+                count++;
+                if (chunk.size() == CHUNK_SIZE) {
+                    apply(chunk);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) apply(chunk);
+        }
+
+        System.out.println("[SpeechSummaryStore] " + count + " Zusammenfassungen erstellt in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return count;
+    }
+
+    private static Document summaryDocument(Document rede, AbgeordnetenDirectory directory) {
+        Document nlpResults = rede.get("nlpResults", Document.class);
+        String speaker = SingleScanAggregation.speakerOf(rede);
+        Document protocol = rede.get("protocol", Document.class);
+
+        return new Document("_id", rede.get("_id"))
+                .append("session", SingleScanAggregation.sessionOf(rede))
+                .append("speaker", speaker)
+                .append("party", PartyAggregation.partyOf(directory, speaker))
+                .append("date", protocol != null ? parseDate(protocol.getString("date")) : null)
+                .append("wp", protocol != null && protocol.get("wp") != null ? String.valueOf(protocol.get("wp")) : null)
+                .append("topic", SingleScanAggregation.dominantTopicOf(nlpResults))
+                .append("summary", SpeechSummary.of(nlpResults).toDocument());
+    }
+
+    /**
+     * Liest ein Sitzungsdatum, entweder "26.10.2017" oder "Donnerstag, 26. Oktober 2017".
+     *
+     * @param date Das Datum aus dem Protokoll
+     * @return Das Datum (UTC-Mitternacht) oder null
+     * @author Ibrahim Garhiou
+     */
+    static Date parseDate(String date) {
+        if (date == null) return null;
+        try {
+            Matcher numeric = NUMERIC_DATE.matcher(date);
+            if (numeric.find()) {
+                return toDate(Integer.parseInt(numeric.group(3)), Integer.parseInt(numeric.group(2)), Integer.parseInt(numeric.group(1)));
+            }
+            Matcher written = WRITTEN_DATE.matcher(date);
+            if (written.find()) {
+                int month = MONTHS.indexOf(written.group(2).toLowerCase()) + 1;
+                if (month > 0) {
+                    return toDate(Integer.parseInt(written.group(3)), month, Integer.parseInt(written.group(1)));
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("[SpeechSummaryStore] Ungültiges Datum: " + date);
+        }
+        return null;
+    }
+
+    private static Date toDate(int year, int month, int day) {
+        return Date.from(LocalDate.of(year, month, day).atStartOfDay(ZoneOffset.UTC).toInstant());
+    }
+
+    /**
+     * Erstellt die Zusammenfassungen aller Reden neu.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static void main(String[] args) {
+        try {
+            MongoDatabaseHandler dbHandler = new MongoDatabaseHandler("mongodb.properties");
+            new SpeechSummaryStore(dbHandler).rebuildAll();
+            dbHandler.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package aggregation;
+
+import com.mongodb.client.MongoCollection;
+import database.MongoDatabaseHandler;
+import org.bson.Document;
+
+import java.util.*;
+
+/**
+ * Erzeugt einen künstlichen Korpus in "rede" mit eingebetteten NLP-Ergebnissen (Tokens mit POS,
+ * Named Entities, Sentiment, Topics) für den {@link AggregationBenchmark}. Wörter, Entities und Topics
+ * sind annähernd Zipf-verteilt, damit die Top-100-Listen wie bei echten Daten wenige häufige und viele
+ * seltene Einträge enthalten. Mit demselben Seed entsteht immer derselbe Korpus.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class SyntheticCorpus {
+
+    private static final List<String> POS = List.of("NN", "NE", "ART", "ADJA", "APPR", "VVFIN", "VAFIN", "ADV",
+            "KON", "PPER", "PIS", "CARD", "$,", "$.");
+    private static final List<String> ENTITY_TYPES = List.of("PER", "LOC", "ORG", "MISC");
+    private static final List<String> TOPICS = List.of("Wirtschaft", "Gesundheit", "Bildung", "Verteidigung",
+            "Umwelt", "Migration", "Digitales", "Verkehr", "Soziales", "Außenpolitik", "Finanzen", "Justiz");
+    private static final int VOCABULARY_SIZE = 20000;
+    private static final int ENTITY_VOCABULARY_SIZE = 3000;
+    private static final int INSERT_BATCH_SIZE = 500;
+
+    private final int speeches;
+    private final int sessions;
+    private final int speakers;
+    private final int tokensPerSpeech;
+    private final int entitiesPerSpeech;
+    private final int sentimentsPerSpeech;
+    private final int topicsPerSpeech;
+    private final Random random;
+
+    /**
+     * Konstruktor für den Korpus.
+     *
+     * @param speeches Anzahl der Reden
+     * @param sessions Anzahl der Sitzungen
+     * @param speakers Anzahl der Redner
+     * @param tokensPerSpeech Mittlere Anzahl Tokens je Rede
+     * @param entitiesPerSpeech Mittlere Anzahl Named Entities je Rede
+     * @param sentimentsPerSpeech Mittlere Anzahl Satz-Sentiments je Rede (zusätzlich zum Gesamtwert)
+     * @param topicsPerSpeech Mittlere Anzahl Topic-Annotationen je Rede
+     * @param seed Startwert des Zufallsgenerators
+     * @author Ibrahim Garhiou
+     */
+    public SyntheticCorpus(int speeches, int sessions, int speakers, int tokensPerSpeech, int entitiesPerSpeech,
+                           int sentimentsPerSpeech, int topicsPerSpeech, long seed) {
+        this.speeches = speeches;
+        this.sessions = Math.max(1, sessions);
+        this.speakers = Math.max(1, speakers);
+        this.tokensPerSpeech = tokensPerSpeech;
+        this.entitiesPerSpeech = entitiesPerSpeech;
+        this.sentimentsPerSpeech = sentimentsPerSpeech;
+        this.topicsPerSpeech = topicsPerSpeech;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Schreibt den Korpus nach "rede". Die Collection wird vorher geleert.
+     *
+     * @param dbHandler Verbindung zur Benchmark-Datenbank
+     * @return Anzahl der geschriebenen Reden
+     * @author Ibrahim Garhiou
+     */
+    public int write(MongoDatabaseHandler dbHandler) {
+        MongoCollection<Document> collection = dbHandler.getCollection("rede");
+        collection.drop();
+
+        List<Document> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+        for (int i = 0; i < speeches; i++) {
+            batch.add(speech(i));
+            if (batch.size() == INSERT_BATCH_SIZE) {
+                collection.insertMany(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) collection.insertMany(batch);
+        return speeches;
+    }
+
+    private Document speech(int index) {
+        int session = index % sessions + 1;
+        Document protocol = new Document("index", String.valueOf(session))
+                .append("wp", "20")
+                .append("date", String.format("%02d.%02d.%d", session % 28 + 1, session % 12 + 1, 2022 + session % 3));
+
+        List<Document> tokens = new ArrayList<>();
+        int offset = 0;
+        for (int t = 0; t < around(tokensPerSpeech); t++) {
+            String pos = POS.get(zipf(POS.size()));
+            String text = pos.startsWith("$") ? (pos.equals("$,") ? "," : ".") : "wort" + zipf(VOCABULARY_SIZE);
+            tokens.add(new Document("text", text).append("pos", pos)
+                    .append("begin", offset).append("end", offset + text.length()));
+            offset += text.length() + 1;
+        }
+
+        List<Document> entities = new ArrayList<>();
+        for (int e = 0; e < around(entitiesPerSpeech); e++) {
+            int begin = random.nextInt(Math.max(1, offset));
+            entities.add(new Document("type", ENTITY_TYPES.get(zipf(ENTITY_TYPES.size())))
+                    .append("text", "Entity " + zipf(ENTITY_VOCABULARY_SIZE))
+                    .append("begin", begin).append("end", begin + 8));
+        }
+
+        // Der erste Eintrag betrifft die ganze Rede
+        List<Document> sentiments = new ArrayList<>();
+        sentiments.add(new Document("begin", 0).append("end", offset).append("sentiment", sentimentValue()));
+        for (int s = 0; s < around(sentimentsPerSpeech); s++) {
+            sentiments.add(new Document("begin", s).append("end", s + 1).append("sentiment", sentimentValue()));
+        }
+
+        List<Document> topics = new ArrayList<>();
+        for (int t = 0; t < around(topicsPerSpeech); t++) {
+            topics.add(new Document("value", TOPICS.get(zipf(TOPICS.size())))
+                    .append("score", random.nextDouble())
+                    .append("begin", 0).append("end", offset));
+        }
+
+        return new Document("_id", "benchmark-" + index)
+                .append("speaker", "Redner " + (zipf(speakers) + 1))
+                .append("protocol", protocol)
+                .append("textContent", List.of(new Document("type", "text").append("text", "Synthetische Rede " + index)))
+                .append("nlpResults", new Document("tokens", tokens)
+                        .append("namedEntities", entities)
+                        .append("sentiment", sentiments)
+                        .append("topics", topics));
+    }
+
+    // Gleichverteilt zwischen der Hälfte und dem Eineinhalbfachen des Mittelwerts
+    private int around(int mean) {
+        return mean <= 0 ? 0 : mean / 2 + random.nextInt(mean + 1);
+    }
+
+    // Annähernd Zipf-verteilter Index in [0, size)
+    private int zipf(int size) {
+        return (int) Math.min(size - 1, Math.floor(Math.pow(size + 1, random.nextDouble()) - 1));
+    }
+
+    // Häufig um 0, mit Werten auf und außerhalb der Bin-Grenzen des SentimentHistogram
+    private double sentimentValue() {
+        double value = random.nextGaussian() * 0.4;
+        return random.nextInt(10) == 0 ? Math.round(value * 200) / 200.0 : value;
+    }
+}
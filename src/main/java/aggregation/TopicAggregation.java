@@ -1,12 +1,17 @@
 package aggregation;
 
-import com.mongodb.client.MongoCursor;
 import com.mongodb.client.model.Accumulators;
 import com.mongodb.client.model.Aggregates;
-import com.mongodb.client.model.Field;
 import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.model.Facet;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import database.AggregateGenerations;
+import database.DominantTopic;
 import database.MongoDatabaseHandler;
+import database.NlpLayerStore;
+import database.SpeechDeduplicator;
+import database.Workload;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 
@@ -24,32 +29,33 @@ import java.util.*;
  */
 public class TopicAggregation {
     private final MongoDatabaseHandler dbHandler;
+    private final AggregateGenerations generations;
 
     // Map: Topic → Liste der Rede-IDs, bei denen das Topic dominant ist
     private final Map<String, List<Object>> topicToSpeechIds = new HashMap<>();
 
     public TopicAggregation(MongoDatabaseHandler dbHandler) {
         this.dbHandler = dbHandler;
+        this.generations = new AggregateGenerations(dbHandler);
     }
 
     /**
-     * Analysiert alle Reden, bestimmt das höchste Topic und sortiert die Rede-IDs nach Topic.
+     * Liest das beim Speichern materialisierte höchste Topic aller Reden und sortiert die Rede-IDs nach Topic.
+     * Der Topic-Layer selbst wird nicht mehr geladen, siehe {@link DominantTopic}. Das Feld wird beim
+     * Speichern der NLP-Layer ({@link NlpLayerStore#saveLayers}) gesetzt.
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     private void prepareTopicAssignments() {
         System.out.println("Beginne Vorbereitung: Bestimme höchste Topics für alle Reden...");
         int counter = 0;
-        MongoCursor<Document> cursor = dbHandler.getCollection("rede").find().iterator();
 
-        while (cursor.hasNext()) {
-            Document speech = cursor.next();
-            String highestTopic = determineHighestTopic(speech);
-
-            if (highestTopic != null) {
-                topicToSpeechIds
-                        .computeIfAbsent(highestTopic, k -> new ArrayList<>())
-                        .add(speech.get("_id"));
-            }
+        // Nur gültige Reden, zurückgestufte Duplikate würden sonst doppelt gezählt
+        for (Document speech : dbHandler.findDocuments("rede", SpeechDeduplicator.canonical(Filters.exists(DominantTopic.FIELD)), Workload.ANALYTIC)
+                .projection(Projections.include(DominantTopic.FIELD))) {
+            topicToSpeechIds
+                    .computeIfAbsent(speech.getString(DominantTopic.FIELD), k -> new ArrayList<>())
+                    .add(speech.get("_id"));
 
             counter++;
             if (counter % 1000 == 0) {
@@ -57,71 +63,56 @@ public class TopicAggregation {
             }
         }
 
-        cursor.close();
         System.out.println("Vorbereitung abgeschlossen. Gefundene Topics: " + topicToSpeechIds.keySet().size());
     }
 
     /**
-     * Bestimmt das höchste Topic für eine Rede basierend auf dem durchschnittlichen Score pro Topic-Wert.
-     * @author Luana Schäfer
+     * Liefert die Zuordnung Topic → Rede-IDs und bereitet sie bei Bedarf vor.
+     *
+     * @author Ibrahim Garhiou
      */
-    private String determineHighestTopic(Document speech) {
-        Object topicsObj = speech.get("nlpResults.topics");
-        List<Document> topics;
-
-        if (topicsObj instanceof List) {
-            topics = (List<Document>) topicsObj;
-        } else {
-            Document nlpResults = (Document) speech.get("nlpResults");
-            if (nlpResults == null) return null;
-            topics = (List<Document>) nlpResults.get("topics");
-        }
-
-        if (topics == null || topics.isEmpty()) return null;
-
-        Map<String, List<Double>> topicScores = new HashMap<>();
-
-        for (Document topic : topics) {
-            String value = topic.getString("value");
-            double score = 0.0;
-
-            try {
-                score = Double.parseDouble(topic.getString("score"));
-            } catch (NumberFormatException e) {
-                System.err.println("Fehler bei Score-Konvertierung für Topic '" + value + "': " + topic.getString("score"));
-                continue;
-            }
-
-            topicScores.computeIfAbsent(value, k -> new ArrayList<>()).add(score);
-        }
-
-        String highestTopic = null;
-        double highestAvgScore = 0.0;
-
-        for (Map.Entry<String, List<Double>> entry : topicScores.entrySet()) {
-            double avg = entry.getValue().stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
-            if (avg > highestAvgScore) {
-                highestAvgScore = avg;
-                highestTopic = entry.getKey();
-            }
+    Map<String, List<Object>> topicAssignments() {
+        if (topicToSpeechIds.isEmpty()) {
+            prepareTopicAssignments();
         }
+        return topicToSpeechIds;
+    }
 
-        return highestTopic;
+    /**
+     * Bestimmt das Topic mit dem höchsten durchschnittlichen Score. Dieselbe Regel wird beim Speichern
+     * für "dominantTopic" verwendet.
+     *
+     * @param topics Der Topic-Layer einer Rede
+     * @return Das dominante Topic oder null
+     * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
+     */
+    static String highestTopic(List<Document> topics) {
+        return DominantTopic.of(topics);
     }
 
     /**
      * Führt die Aggregation für alle vorbereiteten Topics durch.
+     * Für alle Entitäten auf einmal ist {@link SingleScanAggregation} deutlich schneller.
+     *
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     public void aggregateAllTopics() {
         prepareTopicAssignments();
 
+        // Alle Topics in eine neue Generation schreiben, erst danach umschalten
+        long generation = generations.beginFrom(Filters.ne("type", "topics"));
         for (Map.Entry<String, List<Object>> entry : topicToSpeechIds.entrySet()) {
             String topic = entry.getKey();
             List<Object> speechIds = entry.getValue();
 
             System.out.println("▶Aggregiere Topic: " + topic + " (Reden: " + speechIds.size() + ")");
-            aggregateSingleTopic(topic, speechIds);
+            aggregateSingleTopic(topic, speechIds, generation);
+        }
+        if (!generations.publishOwned(generation, Filters.eq("type", "topics"))) {
+            System.err.println("[TopicAggregation] Topics konnten nicht veröffentlicht werden, bitte erneut starten.");
+            return;
         }
 
         System.out.println("Alle Topic-Aggregationen abgeschlossen.");
@@ -130,8 +121,9 @@ public class TopicAggregation {
     /**
      * Führt die Aggregation für ein Topic anhand der zugehörigen Rede-IDs durch.
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
-    private void aggregateSingleTopic(String topicName, List<Object> speechIds) {
+    void aggregateSingleTopic(String topicName, List<Object> speechIds, long generation) {
         if (speechIds.isEmpty()) return;
 
         Bson matchRelevantDocuments = Aggregates.match(new Document("_id", new Document("$in", speechIds)));
@@ -139,11 +131,9 @@ public class TopicAggregation {
         List<Bson> topicsPipeline = Arrays.asList(
                 matchRelevantDocuments,
                 Aggregates.unwind("$nlpResults.topics"),
-                Aggregates.addFields(new Field<>("nlpResults.topics.numericScore",
-                        new Document("$toDouble", "$nlpResults.topics.score"))),
                 Aggregates.group("$nlpResults.topics.value",
-                        Accumulators.avg("averageScore", "$nlpResults.topics.numericScore"),
-                        Accumulators.sum("totalScore", "$nlpResults.topics.numericScore"),
+                        Accumulators.avg("averageScore", "$nlpResults.topics.score"),
+                        Accumulators.sum("totalScore", "$nlpResults.topics.score"),
                         Accumulators.sum("count", 1)),
                 Aggregates.sort(new Document("averageScore", -1))
         );
@@ -177,9 +167,8 @@ public class TopicAggregation {
         List<Bson> sentimentPipeline = Arrays.asList(
                 matchRelevantDocuments,
                 Aggregates.unwind("$nlpResults.sentiment"),
-                Aggregates.addFields(new Field<>("numericSentiment",
-                        new Document("$toDouble", "$nlpResults.sentiment.sentiment"))),
-                Aggregates.group("$numericSentiment", Accumulators.sum("count", 1)),
+                // Gerundet, damit die Anzahl der Buckets begrenzt bleibt, siehe SentimentHistogram
+                Aggregates.group(new Document("$round", Arrays.asList("$nlpResults.sentiment.sentiment", 2)), Accumulators.sum("count", 1)),
                 Aggregates.sort(new Document("_id", 1))
         );
 
@@ -188,7 +177,11 @@ public class TopicAggregation {
                 Aggregates.count("speechCount")
         );
 
-        List<Bson> pipeline = Arrays.asList(
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(matchRelevantDocuments);
+        // NLP-Layer aus rede_nlp anhängen (nur für die gefilterten Reden)
+        pipeline.addAll(NlpLayerStore.lookupStages());
+        pipeline.addAll(Arrays.asList(
                 Aggregates.facet(
                         new Facet("topics", topicsPipeline),
                         new Facet("namedEntitiesByType", namedEntitiesByTypePipeline),
@@ -207,13 +200,13 @@ public class TopicAggregation {
                                 .append("sentiment", "$sentiment")
                                 .append("pos_tags", "$pos_tags"))
                 )
-        );
+        ));
 
-        AggregateIterable<Document> result = dbHandler.aggregateDocuments("rede", pipeline);
+        AggregateIterable<Document> result = dbHandler.aggregateDocuments("rede", pipeline, Workload.ANALYTIC);
 
         for (Document doc : result) {
             doc.remove("_id");
-            dbHandler.insertDocument("aggregated_data", doc);
+            generations.put(generation, SentimentHistogram.pack(doc));
             System.out.println("Gespeichert: Topic \"" + topicName + "\" – Reden: " + speechIds.size());
         }
     }
@@ -0,0 +1,413 @@
+package aggregation;
+
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import database.MongoDatabaseHandler;
+import database.Workload;
+import org.bson.Document;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+
+/**
+ * Zeitlich gebündelte Rollups in "aggregation_trends": Sentiment-Histogramm, Topic-Scores und Anzahl der
+ * Named Entities pro Typ, jeweils pro Tag, Woche (ab Montag), Monat und Wahlperiode. Jede Ebene gibt es
+ * für alle Reden ("*") und getrennt nach dem dominanten Topic der Reden.
+ *
+ * Die Rollups werden zusammen mit den Zusammenfassungen in {@link SpeechSummaryStore} gepflegt: der alte
+ * Beitrag einer Rede wird per $inc abgezogen, der neue addiert. Eine Trendabfrage setzt jeden Zeitraum
+ * aus möglichst wenigen Buckets zusammen, ganze Monate aus Monats-Buckets, die Ränder aus Wochen und Tagen.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class TrendRollups {
+
+    public static final String COLLECTION = "aggregation_trends";
+    public static final String ALL_TOPICS = "*";
+
+    public enum Level {
+        DAY, WEEK, MONTH, WP;
+
+        String key() {
+            return name().toLowerCase();
+        }
+    }
+
+    // Obergrenze für die Anzahl der Punkte einer Zeitreihe
+    private static final int MAX_POINTS = 1000;
+
+    private final MongoDatabaseHandler dbHandler;
+
+    /**
+     * Konstruktor für die Trend-Rollups.
+     *
+     * @param dbHandler Verbindung zur MongoDB
+     * @author Ibrahim Garhiou
+     */
+    public TrendRollups(MongoDatabaseHandler dbHandler) {
+        this.dbHandler = dbHandler;
+    }
+
+    /**
+     * Legt den Index für Abfragen nach Ebene, Topic und Zeitraum an.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void ensureIndexes() {
+        dbHandler.getCollection(COLLECTION).createIndex(Indexes.ascending("level", "topic", "start"));
+    }
+
+    /**
+     * Entfernt alle Rollups.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void clear() {
+        dbHandler.getCollection(COLLECTION).deleteMany(new Document());
+    }
+
+    /**
+     * Sammelt die Änderungen eines Blocks von Reden, bevor sie mit {@link #write} gespeichert werden.
+     */
+    public static final class Delta {
+        private final Map<String, Bucket> buckets = new HashMap<>();
+
+        /**
+         * Rechnet eine Rede ein (sign = 1) oder heraus (sign = -1).
+         *
+         * @param date Datum der Sitzung, ohne Datum zählt die Rede nur zur Wahlperiode
+         * @param wp Wahlperiode, darf null sein
+         * @param topic Dominantes Topic, darf null sein
+         * @param summary Zusammenfassung der Rede
+         * @param sign 1 oder -1
+         */
+        public void add(Date date, String wp, String topic, SpeechSummary summary, int sign) {
+            List<String> topics = topic != null ? List.of(ALL_TOPICS, topic) : List.of(ALL_TOPICS);
+            for (String bucketTopic : topics) {
+                if (date != null) {
+                    LocalDate day = date.toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+                    for (Level level : List.of(Level.DAY, Level.WEEK, Level.MONTH)) {
+                        LocalDate start = periodStart(level, day);
+                        bucket(level, start.toString(), bucketTopic, toDate(start)).add(summary, sign);
+                    }
+                }
+                if (wp != null) {
+                    bucket(Level.WP, wp, bucketTopic, date).add(summary, sign);
+                }
+            }
+        }
+
+        private Bucket bucket(Level level, String period, String topic, Date start) {
+            Bucket bucket = buckets.computeIfAbsent(id(level, period, topic), k -> new Bucket(level, period, topic));
+            if (start != null && (bucket.start == null || start.before(bucket.start))) bucket.start = start;
+            return bucket;
+        }
+
+        public boolean isEmpty() {
+            return buckets.isEmpty();
+        }
+    }
+
+    /**
+     * Schreibt gesammelte Änderungen per $inc, ohne die Buckets vorher zu lesen.
+     *
+     * @param delta Die Änderungen eines Blocks
+     * @author Ibrahim Garhiou
+     */
+    public void write(Delta delta) {
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        for (Map.Entry<String, Bucket> entry : delta.buckets.entrySet()) {
+            Bucket bucket = entry.getValue();
+            Document inc = bucket.increments();
+            if (inc.isEmpty()) continue;
+
+            Document update = new Document("$inc", inc)
+                    .append("$setOnInsert", new Document("level", bucket.level.key())
+                            .append("period", bucket.period).append("topic", bucket.topic));
+            if (bucket.start != null) update.append("$min", new Document("start", bucket.start));
+            writes.add(new UpdateOneModel<>(Filters.eq("_id", entry.getKey()), update, new UpdateOptions().upsert(true)));
+        }
+        if (!writes.isEmpty()) {
+            dbHandler.getCollection(COLLECTION).bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        }
+    }
+
+    /**
+     * Zeitreihe für einen Datumsbereich. Jeder Punkt wird aus möglichst groben Buckets zusammengesetzt,
+     * die vollständig im Zeitraum des Punkts liegen.
+     *
+     * @param granularity Zeitraum eines Punkts: DAY, WEEK oder MONTH
+     * @param from Erster Tag (einschließlich), null für den ältesten Bucket
+     * @param to Letzter Tag (einschließlich), null für den neuesten Bucket
+     * @param topic Dominantes Topic oder null für alle Reden
+     * @return Dokument mit "points" und "total", oder null ohne Daten
+     * @author Ibrahim Garhiou
+     */
+    public Document trend(Level granularity, LocalDate from, LocalDate to, String topic) {
+        if (granularity == Level.WP) return byWahlperiode(topic);
+        String bucketTopic = topic != null ? topic : ALL_TOPICS;
+
+        if (from == null || to == null) {
+            LocalDate[] bounds = dayBounds(bucketTopic);
+            if (bounds == null) return null;
+            if (from == null) from = bounds[0];
+            if (to == null) to = bounds[1];
+        }
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("'to' liegt vor 'from'.");
+        }
+
+        // Zeiträume der Punkte, an den Rändern auf den angefragten Bereich gekürzt
+        List<LocalDate[]> periods = new ArrayList<>();
+        for (LocalDate start = periodStart(granularity, from); !start.isAfter(to); start = next(granularity, start)) {
+            LocalDate periodFrom = start.isBefore(from) ? from : start;
+            LocalDate periodEnd = next(granularity, start).minusDays(1);
+            periods.add(new LocalDate[]{periodFrom, periodEnd.isAfter(to) ? to : periodEnd});
+            if (periods.size() > MAX_POINTS) {
+                throw new IllegalArgumentException("Zu viele Punkte, bitte eine gröbere Auflösung wählen.");
+            }
+        }
+
+        List<List<String>> covers = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        for (LocalDate[] period : periods) {
+            List<String> cover = cover(period[0], period[1], bucketTopic);
+            covers.add(cover);
+            ids.addAll(cover);
+        }
+        Map<String, Document> loaded = load(ids);
+
+        List<Document> points = new ArrayList<>();
+        SpeechSummary total = new SpeechSummary();
+        for (int i = 0; i < periods.size(); i++) {
+            SpeechSummary point = new SpeechSummary();
+            for (String id : covers.get(i)) {
+                Document bucket = loaded.get(id);
+                if (bucket != null) addBucket(point, bucket);
+            }
+            total.merge(point);
+            points.add(trendFields(new Document("period", periodStart(granularity, periods.get(i)[0]).toString())
+                    .append("from", periods.get(i)[0].toString())
+                    .append("to", periods.get(i)[1].toString())
+                    .append("buckets", covers.get(i).size()), point));
+        }
+
+        return new Document("granularity", granularity.key())
+                .append("topic", bucketTopic)
+                .append("from", from.toString())
+                .append("to", to.toString())
+                .append("points", points)
+                .append("total", trendFields(new Document(), total));
+    }
+
+    private Document byWahlperiode(String topic) {
+        String bucketTopic = topic != null ? topic : ALL_TOPICS;
+        List<Document> points = new ArrayList<>();
+        for (Document bucket : dbHandler.findDocuments(COLLECTION,
+                        Filters.and(Filters.eq("level", Level.WP.key()), Filters.eq("topic", bucketTopic)), Workload.INTERACTIVE)
+                .sort(Sorts.ascending("period"))) {
+            SpeechSummary point = new SpeechSummary();
+            addBucket(point, bucket);
+            if (point.speechCount > 0) {
+                points.add(trendFields(new Document("period", bucket.getString("period")).append("buckets", 1), point));
+            }
+        }
+        return points.isEmpty() ? null : new Document("granularity", Level.WP.key())
+                .append("topic", bucketTopic)
+                .append("points", points);
+    }
+
+    /**
+     * Überdeckt [from, to] mit Bucket-IDs: ganze Monate, an den Rändern ganze Wochen, der Rest in Tagen.
+     */
+    static List<String> cover(LocalDate from, LocalDate to, String topic) {
+        List<String> ids = new ArrayList<>();
+        LocalDate firstMonth = periodStart(Level.MONTH, from).equals(from) ? from : next(Level.MONTH, periodStart(Level.MONTH, from));
+        LocalDate end = to.plusDays(1);
+
+        LocalDate month = firstMonth;
+        while (!next(Level.MONTH, month).isAfter(end)) {
+            ids.add(id(Level.MONTH, month.toString(), topic));
+            month = next(Level.MONTH, month);
+        }
+        if (month.equals(firstMonth)) {
+            // Kein ganzer Monat im Zeitraum
+            coverWithWeeks(from, end, topic, ids);
+        } else {
+            coverWithWeeks(from, firstMonth, topic, ids);
+            coverWithWeeks(month, end, topic, ids);
+        }
+        return ids;
+    }
+
+    // Überdeckt [from, end) mit Wochen, die vollständig darin liegen, und Tagen für den Rest
+    private static void coverWithWeeks(LocalDate from, LocalDate end, String topic, List<String> ids) {
+        LocalDate day = from;
+        while (day.isBefore(end)) {
+            if (day.getDayOfWeek() == DayOfWeek.MONDAY && !day.plusWeeks(1).isAfter(end)) {
+                ids.add(id(Level.WEEK, day.toString(), topic));
+                day = day.plusWeeks(1);
+            } else {
+                ids.add(id(Level.DAY, day.toString(), topic));
+                day = day.plusDays(1);
+            }
+        }
+    }
+
+    private LocalDate[] dayBounds(String topic) {
+        Document filter = new Document("level", Level.DAY.key()).append("topic", topic).append("speechCount", new Document("$gt", 0));
+        Document first = dbHandler.findDocuments(COLLECTION, filter, Workload.INTERACTIVE).sort(Sorts.ascending("start")).first();
+        Document last = dbHandler.findDocuments(COLLECTION, filter, Workload.INTERACTIVE).sort(Sorts.descending("start")).first();
+        if (first == null || last == null) return null;
+        return new LocalDate[]{LocalDate.parse(first.getString("period")), LocalDate.parse(last.getString("period"))};
+    }
+
+    private Map<String, Document> load(Set<String> ids) {
+        Map<String, Document> result = new HashMap<>();
+        if (ids.isEmpty()) return result;
+        for (Document bucket : dbHandler.findDocuments(COLLECTION, Filters.in("_id", ids), Workload.INTERACTIVE)) {
+            result.put(bucket.getString("_id"), bucket);
+        }
+        return result;
+    }
+
+    private static void addBucket(SpeechSummary target, Document bucket) {
+        Object count = bucket.get("speechCount");
+        target.speechCount += count instanceof Number ? ((Number) count).intValue() : 0;
+
+        Document sentiment = bucket.get("sentiment", Document.class);
+        if (sentiment != null) {
+            sentiment.forEach((bin, value) -> target.sentiment[Integer.parseInt(bin)] += ((Number) value).intValue());
+        }
+        Document entityTypes = bucket.get("entityTypes", Document.class);
+        if (entityTypes != null) {
+            entityTypes.forEach((type, value) -> {
+                if (((Number) value).intValue() == 0) return;
+                target.entityTypes.computeIfAbsent(decodeKey(type), k -> new int[1])[0] += ((Number) value).intValue();
+            });
+        }
+        Document topics = bucket.get("topics", Document.class);
+        if (topics != null) {
+            topics.forEach((topic, value) -> {
+                Document scores = (Document) value;
+                // Nach dem Abziehen aller Reden bleibt ein Topic mit n = 0 zurück
+                if (((Number) scores.get("n")).doubleValue() <= 0) return;
+                double[] entry = target.topics.computeIfAbsent(decodeKey(topic), k -> new double[3]);
+                entry[0] += ((Number) scores.get("sum")).doubleValue();
+                entry[1] += ((Number) scores.get("scored")).doubleValue();
+                entry[2] += ((Number) scores.get("n")).doubleValue();
+            });
+        }
+    }
+
+    // Nur die Felder, die von den Rollups abgedeckt werden, plus das mittlere Sentiment
+    private static Document trendFields(Document target, SpeechSummary summary) {
+        Document aggregation = summary.toNlpAggregation();
+        long sentimentCount = 0;
+        double sentimentSum = 0;
+        for (int bin = 0; bin < summary.sentiment.length; bin++) {
+            sentimentCount += summary.sentiment[bin];
+            sentimentSum += summary.sentiment[bin] * SentimentHistogram.center(bin);
+        }
+        return target.append("speechCount", summary.speechCount)
+                .append("averageSentiment", sentimentCount > 0 ? sentimentSum / sentimentCount : null)
+                .append("sentiment", aggregation.get("sentiment"))
+                .append("topics", aggregation.get("topics"))
+                .append("namedEntitiesByType", aggregation.get("namedEntitiesByType"));
+    }
+
+    static LocalDate periodStart(Level level, LocalDate day) {
+        switch (level) {
+            case WEEK:
+                return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTH:
+                return day.withDayOfMonth(1);
+            default:
+                return day;
+        }
+    }
+
+    private static LocalDate next(Level level, LocalDate start) {
+        switch (level) {
+            case WEEK:
+                return start.plusWeeks(1);
+            case MONTH:
+                return start.plusMonths(1);
+            default:
+                return start.plusDays(1);
+        }
+    }
+
+    private static String id(Level level, String period, String topic) {
+        return level.key() + ":" + period + ":" + topic;
+    }
+
+    private static Date toDate(LocalDate day) {
+        return Date.from(day.atStartOfDay(ZoneOffset.UTC).toInstant());
+    }
+
+    // Topics und Typen werden Feldnamen, "." und ein führendes "$" sind dort nicht erlaubt
+    static String encodeKey(String key) {
+        String encoded = key.replace("%", "%25").replace(".", "%2E");
+        return encoded.startsWith("$") ? "%24" + encoded.substring(1) : encoded;
+    }
+
+    static String decodeKey(String key) {
+        return key.replace("%24", "$").replace("%2E", ".").replace("%25", "%");
+    }
+
+    /**
+     * Änderung eines einzelnen Buckets innerhalb eines Blocks.
+     */
+    private static final class Bucket {
+        private final Level level;
+        private final String period;
+        private final String topic;
+        private Date start;
+        private int speechCount;
+        private final int[] sentiment = new int[SpeechSummary.SENTIMENT_BINS];
+        private final Map<String, int[]> entityTypes = new HashMap<>();
+        private final Map<String, double[]> topics = new HashMap<>();
+
+        Bucket(Level level, String period, String topic) {
+            this.level = level;
+            this.period = period;
+            this.topic = topic;
+        }
+
+        void add(SpeechSummary summary, int sign) {
+            speechCount += sign * summary.speechCount;
+            for (int bin = 0; bin < sentiment.length; bin++) sentiment[bin] += sign * summary.sentiment[bin];
+            summary.entityTypes.forEach((type, count) -> entityTypes.computeIfAbsent(type, k -> new int[1])[0] += sign * count[0]);
+            summary.topics.forEach((key, values) -> {
+                double[] entry = topics.computeIfAbsent(key, k -> new double[3]);
+                for (int i = 0; i < entry.length; i++) entry[i] += sign * values[i];
+            });
+        }
+
+        Document increments() {
+            Document inc = new Document();
+            if (speechCount != 0) inc.append("speechCount", speechCount);
+            for (int bin = 0; bin < sentiment.length; bin++) {
+                if (sentiment[bin] != 0) inc.append("sentiment." + bin, sentiment[bin]);
+            }
+            entityTypes.forEach((type, count) -> {
+                if (type != null && count[0] != 0) inc.append("entityTypes." + encodeKey(type), count[0]);
+            });
+            topics.forEach((key, values) -> {
+                if (key == null || (values[0] == 0 && values[1] == 0 && values[2] == 0)) return;
+                String field = "topics." + encodeKey(key);
+                inc.append(field + ".sum", values[0]).append(field + ".scored", values[1]).append(field + ".n", values[2]);
+            });
+            return inc;
+        }
+    }
+}
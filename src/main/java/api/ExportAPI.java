@@ -14,15 +14,22 @@ import io.swagger.v3.oas.annotations.info.Info;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.Operation;
 import org.bson.Document;
+import database.DominantTopic;
 import database.MongoDatabaseHandler;
+import database.NlpLayerStore;
+import database.SpeechDeduplicator;
+import database.Workload;
 import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import org.bson.conversions.Bson;
+import utils.AbgeordnetenDirectory;
 
 import java.io.*;
 import java.net.URLDecoder;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 /**
  * API-Klasse für den Export von Parlamentsdebatten in verschiedene Formate.
@@ -78,6 +85,7 @@ public class ExportAPI {
      *
      * @param ctx Der Javalin-Kontext für die Anfrage und Antwort
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Exportiert ein Protokoll als PDF", description = "Generiert ein PDF für ein bestimmtes Protokoll mit allen Reden und Metadaten")
     private void exportProtokollAsPDF(Context ctx) {
@@ -89,9 +97,9 @@ public class ExportAPI {
         try {
             System.out.println("Suche Reden für Protokoll mit ID: " + id);
 
-            // Finde alle Reden für Protokoll
-            Document filter = new Document("protocol.index", id);
-            FindIterable<Document> reden = mongoHandler.findDocuments("rede", filter);
+            // Finde alle gültigen Reden für Protokoll, Duplikate sind beim Import bereits markiert
+            Bson filter = SpeechDeduplicator.canonical(Filters.eq("protocol.index", id));
+            FindIterable<Document> reden = mongoHandler.findDocuments("rede", filter, Workload.ANALYTIC);
 
             String exportId = UUID.randomUUID().toString();
             exportDir = Files.createTempDirectory("latex_export_" + exportId);
@@ -109,33 +117,6 @@ public class ExportAPI {
 
             System.out.println("Gefunden: " + redenList.size() + " Reden für das Protokoll");
 
-            // Entferne doppelte Reden (behalte nur die längste Rede pro Redner weil in DB doppelt)
-            System.out.println("Bereinige doppelte Reden...");
-            Map<String, Document> bestRedePerRedner = new HashMap<>();
-
-            for (Document rede : redenList) {
-                String redner = rede.getString("speaker");
-                if (redner == null) continue;
-
-                List<Document> textContent = (List<Document>) rede.get("textContent");
-                int textSize = (textContent != null) ? textContent.size() : 0;
-
-                Document bestRede = bestRedePerRedner.get(redner);
-                if (bestRede == null) {
-                    bestRedePerRedner.put(redner, rede);
-                } else {
-                    List<Document> bestTextContent = (List<Document>) bestRede.get("textContent");
-                    int bestSize = (bestTextContent != null) ? bestTextContent.size() : 0;
-
-                    if (textSize > bestSize) {
-                        bestRedePerRedner.put(redner, rede);
-                    }
-                }
-            }
-
-            redenList = new ArrayList<>(bestRedePerRedner.values());
-            System.out.println("Nach Bereinigung: " + redenList.size() + " eindeutige Reden");
-
 
             // Lade Protokollinformationen
             Document ersteRede = redenList.get(0);
@@ -196,6 +177,7 @@ public class ExportAPI {
      *
      * @param ctx Der Javalin-Kontext für die Anfrage und Antwort
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Exportiert mehrere Protokolle als PDF", description = "Generiert ein PDF mit allen ausgewählten Protokollen")
     private void exportProtokollePDF(Context ctx) {
@@ -214,7 +196,8 @@ public class ExportAPI {
 
                 // Finde alle eindeutigen Protokoll-IDs
                 Set<String> uniqueProtocolIds = new HashSet<>();
-                FindIterable<Document> allReden = mongoHandler.findDocuments("rede", new Document());
+                FindIterable<Document> allReden = mongoHandler.findDocuments("rede", new Document(), Workload.ANALYTIC)
+                        .projection(Projections.include("protocol.index"));
 
                 // Daten protocol aus rede Einträge holen
                 for (Document rede : allReden) {
@@ -271,6 +254,7 @@ public class ExportAPI {
      *
      * @param ctx Der Javalin-Kontext für die Anfrage und Antwort
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Exportiert alle Reden eines Redners als PDF", description = "Generiert ein PDF mit allen Reden eines bestimmten Abgeordneten")
     private void exportRednerRedenPDF(Context ctx) {
@@ -291,20 +275,8 @@ public class ExportAPI {
                 nachname = nameParts[1];
             }
 
-            // Suche nach Redner in der Datenbank
-            Document rednerFilter = new Document();
-
-            // Wenn Vor- und Nachname vorhanden sind, suche gezielt
-            if (!vorname.isEmpty()) {
-                rednerFilter.append("vorname", vorname)
-                        .append("name", nachname);
-            } else {
-                // Ansonsten prüfe nur den Nachnamen
-                rednerFilter.append("name", nachname);
-            }
-
-            System.out.println("Suche Redner mit Filter: " + rednerFilter.toJson());
-            Document redner = mongoHandler.findDocuments("abgeordnete", rednerFilter).first();
+            // Suche nach Redner im Abgeordneten-Verzeichnis
+            Document redner = findRedner(vorname, nachname);
 
             if (redner == null) {
                 System.out.println("Redner '" + rednerName + "' nicht gefunden!");
@@ -322,48 +294,10 @@ public class ExportAPI {
 
             // Suche mit dem vollständigen Namen
             System.out.println("Suche Reden von " + rednerFullName + " als speaker...");
-            FindIterable<Document> reden = mongoHandler.findDocuments("rede", new Document("speaker", rednerFullName));
-            List<Document> redenList = new ArrayList<>();
-            reden.forEach(redenList::add);
-
-            // Fallback: Keine Reden gefunden
-            if (redenList.isEmpty()) {
-                System.out.println("Keine Reden für " + rednerFullName + " gefunden!");
-                ctx.status(404).result("Keine Reden für diesen Redner gefunden");
-                return;
-            }
-            System.out.println("Gefunden: " + redenList.size() + " Reden von " + rednerFullName);
-
-            // Filtere Reden nach vorhandenem textContent und wähle nur die besten für jedes Protokoll
-            List<Document> validReden = new ArrayList<>();
-            Map<String, Document> bestRedePerProtokoll = new HashMap<>();
-
-            for (Document rede : redenList) {
-                List<Document> textContent = (List<Document>) rede.get("textContent");
-                if (textContent == null || textContent.isEmpty()) {
-                    continue;
-                }
-
-                Document protocol = (Document) rede.get("protocol");
-                if (protocol == null || protocol.getString("index") == null) continue;
-
-                String protocolIndex = protocol.getString("index");
-                int textSize = textContent.size();
-
-                Document bestRede = bestRedePerProtokoll.get(protocolIndex);
-                if (bestRede == null) {
-                    bestRedePerProtokoll.put(protocolIndex, rede);
-                } else {
-                    List<Document> bestTextContent = (List<Document>) bestRede.get("textContent");
-                    int bestSize = (bestTextContent != null) ? bestTextContent.size() : 0;
-
-                    if (textSize > bestSize) {
-                        bestRedePerProtokoll.put(protocolIndex, rede);
-                    }
-                }
-            }
-
-            validReden = new ArrayList<>(bestRedePerProtokoll.values());
+            // Nur gültige Reden mit Textinhalt, Duplikate sind beim Import bereits markiert
+            List<Document> validReden = mongoHandler.findDocuments("rede",
+                            SpeechDeduplicator.canonicalWithText(Filters.eq("speaker", rednerFullName)), Workload.ANALYTIC)
+                    .into(new ArrayList<>());
 
             if (validReden.isEmpty()) {
                 System.out.println("Keine gültigen Reden mit Textinhalt für " + rednerFullName + " gefunden!");
@@ -403,11 +337,12 @@ public class ExportAPI {
 
     /**
      * Exportiert alle Reden zu einem bestimmten Thema als PDF.
-     * Führt eine Volltextsuche und eine Analyse der NLP-Topics durch,
+     * Führt eine Volltextsuche durch und ergänzt Reden, deren Haupt-Topic dem Thema entspricht,
      * um Reden zum angegebenen Thema zu finden.
      *
      * @param ctx Der Javalin-Kontext für die Anfrage und Antwort
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Exportiert Reden zu einem Thema als PDF", description = "Generiert ein PDF mit allen Reden zu einem bestimmten Thema")
     private void exportThemaRedenAsPDF(Context ctx) {
@@ -419,98 +354,24 @@ public class ExportAPI {
             List<Document> redenList = new ArrayList<>();
 
             // Volltextsuche nach dem Thema
-            Document themaFilter = new Document("$text", new Document("$search", thema));
-            FindIterable<Document> textSearchResults = mongoHandler.findDocuments("rede", themaFilter);
+            Bson themaFilter = SpeechDeduplicator.canonicalWithText(Filters.text(thema));
+            FindIterable<Document> textSearchResults = mongoHandler.findDocuments("rede", themaFilter, Workload.ANALYTIC);
             textSearchResults.forEach(redenList::add);
             System.out.println("Gefunden durch Text-Suche: " + redenList.size() + " Reden zum Thema " + thema);
 
+            // Ergänzend alle Reden mit diesem Haupt-Topic, über den Index auf "dominantTopic"
             System.out.println("Suche ergänzend anhand der NLP-Topics...");
-            FindIterable<Document> allReden = mongoHandler.findDocuments("rede", new Document());
-
-            for (Document rede : allReden) {
-                // Überspringe Reden ohne Text
-                List<Document> textContent = (List<Document>) rede.get("textContent");
-                if (textContent == null || textContent.isEmpty()) {
-                    continue;
-                }
-
-                // Überspringe Reden die schon in der Liste sind
-                boolean alreadyInList = false;
-                String redeId = rede.get("_id").toString();
-                for (Document existingRede : redenList) {
-                    String existingId = existingRede.get("_id").toString();
-                    if (existingId.equals(redeId)) {
-                        alreadyInList = true;
-                        break;
-                    }
-                }
-                if (alreadyInList) {
-                    continue;
-                }
-
-                // Prüfe NLP-Ergebnisse und berechne das Hauptthema der Rede
-                Document nlpResults = (Document) rede.get("nlpResults");
-                if (nlpResults != null) {
-                    List<Document> topics = (List<Document>) nlpResults.get("topics");
-                    if (topics != null && !topics.isEmpty()) {
-                        // Map zur Summierung der Scores pro Thema
-                        Map<String, Double> themaScores = new HashMap<>();
-
-                        // Für jedes Topic den Score zum entsprechenden Thema addieren
-                        for (Document topic : topics) {
-                            String value = topic.getString("value");
-                            if (value == null || value.isEmpty()) {
-                                continue;
-                            }
-
-                            // Score extrahieren und zum entsprechenden Thema addieren
-                            double score = 0.0;
-                            Object scoreObj = topic.get("score");
-                            if (scoreObj instanceof Double) {
-                                score = (Double) scoreObj;
-                            } else if (scoreObj instanceof String) {
-                                try {
-                                    score = Double.parseDouble((String) scoreObj);
-                                } catch (NumberFormatException e) {
-                                    continue;
-                                }
-                            } else if (scoreObj instanceof Integer) {
-                                score = ((Integer) scoreObj).doubleValue();
-                            } else if (scoreObj instanceof Float) {
-                                score = ((Float) scoreObj).doubleValue();
-                            }
-
-                            // Addiere Score zum entsprechenden Thema
-                            themaScores.put(value, themaScores.getOrDefault(value, 0.0) + score);
-                        }
-
-                        // Finde das Thema mit dem höchsten Gesamtscore
-                        String hauptThema = null;
-                        double maxScore = 0.0;
-
-                        for (Map.Entry<String, Double> entry : themaScores.entrySet()) {
-                            if (entry.getValue() > maxScore) {
-                                maxScore = entry.getValue();
-                                hauptThema = entry.getKey();
-                            }
-                        }
-
-                        // Wenn das Hauptthema mit dem gesuchten Thema übereinstimmt, füge die Rede hinzu
-                        if (hauptThema != null && thema.equalsIgnoreCase(hauptThema)) {
-                            redenList.add(rede);
-                            System.out.println("Rede hinzugefügt mit Hauptthema: " + hauptThema + " (Score: " + maxScore + ")");
-                        }
-                    }
-                }
-            }
-
-            // Filter: nur Reden mit textContent wegen DB Duplikate
-            List<Document> filteredRedenList = redenList.stream()
-                    .filter(rede -> {
-                        List<Document> textContent = (List<Document>) rede.get("textContent");
-                        return textContent != null && !textContent.isEmpty();
-                    })
-                    .collect(Collectors.toList());
+            Set<Object> foundIds = new HashSet<>();
+            redenList.forEach(rede -> foundIds.add(rede.get("_id")));
+            List<Document> topicReden = DominantTopic.findSpeeches(mongoHandler, thema, SpeechDeduplicator.canonicalWithText(new Document()), Workload.ANALYTIC)
+                    .projection(NlpLayerStore.withOnlyLayers("topics"))
+                    .into(new ArrayList<>());
+            topicReden.removeIf(rede -> !foundIds.add(rede.get("_id")));
+            new NlpLayerStore(mongoHandler).attachAll(topicReden, "topics");
+            redenList.addAll(topicReden);
+            System.out.println("Gefunden über das Haupt-Topic: " + topicReden.size() + " weitere Reden");
+
+            List<Document> filteredRedenList = redenList;
 
             if (filteredRedenList.isEmpty()) {
                 System.out.println("Keine Reden zum Thema " + thema + " gefunden!");
@@ -558,6 +419,7 @@ public class ExportAPI {
      *
      * @param ctx Der Javalin-Kontext für die Anfrage und Antwort
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Exportiert ein Protokoll als XMI", description = "Generiert eine XMI-Datei mit allen Reden und NLP-Annotationen eines Protokolls")
     private void exportProtokollAsXMI(Context ctx) {
@@ -566,8 +428,8 @@ public class ExportAPI {
 
         try {
             // Finde alle Reden für Protokoll
-            Document filter = new Document("protocol.index", id);
-            FindIterable<Document> reden = mongoHandler.findDocuments("rede", filter);
+            Bson filter = SpeechDeduplicator.canonical(Filters.eq("protocol.index", id));
+            FindIterable<Document> reden = mongoHandler.findDocuments("rede", filter, Workload.ANALYTIC);
 
             List<Document> redenList = new ArrayList<>();
             reden.forEach(redenList::add);
@@ -605,6 +467,7 @@ public class ExportAPI {
      *
      * @param ctx Der Javalin-Kontext für die Anfrage und Antwort
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Exportiert mehrere Protokolle als XMI", description = "Generiert eine XMI-Datei mit allen ausgewählten Protokollen inklusive NLP-Annotationen")
     private void exportProtokolleAsXMI(Context ctx) {
@@ -623,7 +486,8 @@ public class ExportAPI {
 
                 // Finde alle eindeutigen Protokoll-IDs
                 Set<String> uniqueProtocolIds = new HashSet<>();
-                FindIterable<Document> allReden = mongoHandler.findDocuments("rede", new Document());
+                FindIterable<Document> allReden = mongoHandler.findDocuments("rede", new Document(), Workload.ANALYTIC)
+                        .projection(Projections.include("protocol.index"));
 
                 for (Document rede : allReden) {
                     Document protocol = (Document) rede.get("protocol");
@@ -691,6 +555,7 @@ public class ExportAPI {
      *
      * @param ctx Der Javalin-Kontext für die Anfrage und Antwort
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Exportiert alle Reden eines Redners als XMI", description = "Generiert eine XMI-Datei mit allen Reden eines bestimmten Abgeordneten inklusive NLP-Annotationen")
     private void exportRednerRedenAsXMI(Context ctx) {
@@ -711,17 +576,8 @@ public class ExportAPI {
                 nachname = nameParts[1];
             }
 
-            // Suche nach Redner in der Datenbank
-            Document rednerFilter = new Document();
-            if (!vorname.isEmpty()) {
-                rednerFilter.append("vorname", vorname)
-                        .append("name", nachname);
-            } else {
-                rednerFilter.append("name", nachname);
-            }
-
-            System.out.println("Suche Redner mit Filter: " + rednerFilter.toJson());
-            Document redner = mongoHandler.findDocuments("abgeordnete", rednerFilter).first();
+            // Suche nach Redner im Abgeordneten-Verzeichnis
+            Document redner = findRedner(vorname, nachname);
 
             if (redner == null) {
                 System.out.println("Redner '" + rednerName + "' nicht gefunden!");
@@ -735,45 +591,10 @@ public class ExportAPI {
             String rednerFullName = (rednerVorname + " " + rednerNachname).trim();
             System.out.println("Redner gefunden: " + rednerFullName);
 
-            // Suche Reden mit speaker = fullName
-            FindIterable<Document> reden = mongoHandler.findDocuments("rede", new Document("speaker", rednerFullName));
-            List<Document> redenList = new ArrayList<>();
-            reden.forEach(redenList::add);
-
-            if (redenList.isEmpty()) {
-                System.out.println("Keine Reden für " + rednerFullName + " gefunden!");
-                ctx.status(404).result("Keine Reden für diesen Redner gefunden");
-                return;
-            }
-            System.out.println("Gefunden: " + redenList.size() + " Reden von " + rednerFullName);
-
-            // Filtere gültige Reden (mit Textinhalt) und nur die besten pro Protokoll
-            Map<String, Document> bestRedePerProtokoll = new HashMap<>();
-
-            for (Document rede : redenList) {
-                List<Document> textContent = (List<Document>) rede.get("textContent");
-                if (textContent == null || textContent.isEmpty()) continue;
-
-                Document protocol = (Document) rede.get("protocol");
-                if (protocol == null || protocol.getString("index") == null) continue;
-
-                String protocolIndex = protocol.getString("index");
-                int textSize = textContent.size();
-
-                Document bestRede = bestRedePerProtokoll.get(protocolIndex);
-                if (bestRede == null) {
-                    bestRedePerProtokoll.put(protocolIndex, rede);
-                } else {
-                    List<Document> bestTextContent = (List<Document>) bestRede.get("textContent");
-                    int bestSize = bestTextContent != null ? bestTextContent.size() : 0;
-
-                    if (textSize > bestSize) {
-                        bestRedePerProtokoll.put(protocolIndex, rede);
-                    }
-                }
-            }
-
-            List<Document> validReden = new ArrayList<>(bestRedePerProtokoll.values());
+            // Gültige Reden mit Textinhalt, Duplikate sind beim Import bereits markiert
+            List<Document> validReden = mongoHandler.findDocuments("rede",
+                            SpeechDeduplicator.canonicalWithText(Filters.eq("speaker", rednerFullName)), Workload.ANALYTIC)
+                    .into(new ArrayList<>());
 
             if (validReden.isEmpty()) {
                 System.out.println("Keine gültigen Reden mit Textinhalt für " + rednerFullName + " gefunden!");
@@ -811,6 +632,7 @@ public class ExportAPI {
      *
      * @param ctx Der Javalin-Kontext für die Anfrage und Antwort
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Exportiert Reden zu einem Thema als XMI", description = "Generiert eine XMI-Datei mit allen Reden zu einem bestimmten Thema inklusive NLP-Annotationen")
     private void exportThemaRedenAsXMI(Context ctx) {
@@ -818,19 +640,20 @@ public class ExportAPI {
         System.out.println("Exportiere Reden zum Thema: " + thema + " als XMI");
 
         try {
-            // Hole alle reden für deren topics
-            System.out.println("Lade alle Reden für die Themenanalyse...");
-            FindIterable<Document> allReden = mongoHandler.findDocuments("rede", new Document());
+            // Nur Reden mit diesem Haupt-Topic laden, über den Index auf "dominantTopic"
+            System.out.println("Lade die Reden zum Thema...");
+            FindIterable<Document> allReden = DominantTopic.findSpeeches(mongoHandler, thema, SpeechDeduplicator.canonicalWithText(new Document()), Workload.ANALYTIC)
+                    .projection(NlpLayerStore.withOnlyLayers("topics"));
 
             List<Document> redenList = new ArrayList<>();
             allReden.forEach(redenList::add);
 
             if (redenList.isEmpty()) {
-                System.out.println("Keine Reden in der Datenbank gefunden!");
-                ctx.status(404).result("Keine Reden gefunden");
+                System.out.println("Keine Reden zum Thema " + thema + " gefunden!");
+                ctx.status(404).result("Keine Reden zu diesem Thema gefunden");
                 return;
             }
-            System.out.println("Gefunden: " + redenList.size() + " Reden insgesamt für die Themenanalyse");
+            System.out.println("Gefunden: " + redenList.size() + " Reden zum Thema " + thema);
 
             // ThemaRedenXMIExporter zum exporten
             ThemaRedenXMIExporter xmiExporter = new ThemaRedenXMIExporter(thema, redenList, mongoHandler);
@@ -1107,6 +930,25 @@ public class ExportAPI {
         }
     }
 
+    /**
+     * Sucht einen Redner im In-Memory-Verzeichnis der Abgeordneten.
+     * Mit Vorname wird exakt nach Vor- und Nachname gesucht, sonst nur nach dem Nachnamen.
+     *
+     * @param vorname Vorname des Redners (kann leer sein)
+     * @param nachname Nachname des Redners
+     * @return Dokument des Abgeordneten oder null
+     * @author Ibrahim Garhiou
+     */
+    private Document findRedner(String vorname, String nachname) {
+        AbgeordnetenDirectory directory = AbgeordnetenDirectory.get(mongoHandler);
+        System.out.println("Suche Redner: vorname=" + vorname + ", name=" + nachname);
+
+        if (!vorname.isEmpty()) {
+            return directory.findByVornameAndName(vorname, nachname);
+        }
+        return directory.findFirstBySurname(nachname);
+    }
+
     // Macht Dateinamen sicher für das Dateisystem
     private String escapeFileName(String text) {
         if (text == null) return "";
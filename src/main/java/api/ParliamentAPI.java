@@ -4,6 +4,7 @@ import freemarker.template.Configuration;
 import freemarker.template.TemplateExceptionHandler;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.http.UnauthorizedResponse;
 import io.javalin.http.staticfiles.Location;
 import io.javalin.rendering.template.JavalinFreemarker;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
@@ -11,11 +12,31 @@ import io.swagger.v3.oas.annotations.info.Info;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.Operation;
 import org.bson.Document;
+import aggregation.AggregationJobRunner;
+import aggregation.DistinctSketches;
+import aggregation.SpeechSummaryIndex;
+import aggregation.TrendRollups;
+import database.AsyncParliamentRepository;
+import database.ChangeStreamWatcher;
+import database.MigrationRunner;
+import database.InMemoryParliamentRepository;
 import database.MongoDatabaseHandler;
-import com.mongodb.client.FindIterable;
+import database.MongoParliamentRepository;
+import database.NlpLayerStore;
+import database.ParliamentRepository;
+import database.QueryProfiler;
+import database.ReactiveMongoDatabaseHandler;
+import database.ReactiveParliamentRepository;
+import utils.AbgeordnetenDirectory;
 import utils.SpeechUtils;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -28,19 +49,70 @@ import java.util.*;
 @OpenAPIDefinition(info = @Info(title = "Multimodal Parliament Explorer API", version = "1.0", description = "REST API zur Verwaltung von Parlamentsdebatten"))
 @Tag(name = "Parliament API", description = "REST-Schnittstelle für Bundestagsdebatten")
 public class ParliamentAPI {
+    // Request-Thread, in dem die Route für den QueryProfiler gesetzt wurde
+    private static final String ROUTE_THREAD = "queryProfiler.thread";
+
     private static MongoDatabaseHandler mongoHandler;
+    private static ParliamentRepository repository;
+    private static AsyncParliamentRepository asyncRepository;
     private static ExportAPI exportAPI;
+    private static ChangeStreamWatcher changeStreamWatcher;
 
 
     /**
      * Startet die REST-API.
+     * Mit -Dstorage=memory läuft die API ohne Datenbank auf einem In-Memory-Speicher, der optional
+     * über -Dstorage.dir aus mongoexport-Dateien befüllt wird. Exporte, Trends, Ad-hoc-Aggregationen,
+     * Distinct-Schätzungen, die Parteiliste und die Admin-Endpunkte antworten dann mit 501 (Not Implemented).
      *
      * @param args Kommandozeilenargumente (nicht verwendet).
+     * @modifiedBy Ibrahim Garhiou
      */
     public static void main(String[] args) {
         try {
-            mongoHandler = new MongoDatabaseHandler("mongodb.properties");
-            exportAPI = new ExportAPI(mongoHandler);
+            if ("memory".equalsIgnoreCase(System.getProperty("storage", "mongo"))) {
+                String dataDir = System.getProperty("storage.dir");
+                repository = (dataDir != null)
+                        ? InMemoryParliamentRepository.loadFromDirectory(Path.of(dataDir))
+                        : new InMemoryParliamentRepository();
+                asyncRepository = AsyncParliamentRepository.of(repository);
+                System.out.println("Speicher: In-Memory" + (dataDir != null ? " (" + dataDir + ")" : ""));
+            } else {
+                mongoHandler = new MongoDatabaseHandler("mongodb.properties");
+                exportAPI = new ExportAPI(mongoHandler);
+                repository = new MongoParliamentRepository(mongoHandler);
+
+                // Häufig aufgerufene Routen laufen über den Reactive-Streams-Treiber und blockieren keine Threads
+                asyncRepository = mongoHandler.getConfig().isReactiveApiEnabled()
+                        ? new ReactiveParliamentRepository(new ReactiveMongoDatabaseHandler(mongoHandler.getConfig(), mongoHandler.getQueryProfiler()))
+                        : AsyncParliamentRepository.of(repository);
+                new NlpLayerStore(mongoHandler).ensureIndexes();
+
+                // Ausstehende Schema-Migrationen anwenden, die Leser erwarten z.B. numerische Scores
+                if (mongoHandler.getConfig().isAutoMigrateEnabled()) {
+                    new MigrationRunner(mongoHandler).migrate();
+                }
+
+                // Caches invalidieren, wenn andere Prozesse (z.B. die Ingestion) in die Datenbank schreiben
+                if (mongoHandler.getConfig().isChangeStreamsEnabled()) {
+                    changeStreamWatcher = new ChangeStreamWatcher(mongoHandler, mongoHandler.getConfig().getNodeId());
+                    changeStreamWatcher.register(AbgeordnetenDirectory.invalidationListener(mongoHandler), "abgeordnete", "bilder");
+                    changeStreamWatcher.register(SpeechSummaryIndex.invalidationListener(mongoHandler), "rede_summary");
+                    changeStreamWatcher.start();
+                }
+            }
+
+            // Abgeordneten-Verzeichnis vorab laden, damit die erste Anfrage nicht darauf warten muss
+            if (mongoHandler != null) {
+                AbgeordnetenDirectory.get(mongoHandler);
+            } else {
+                AbgeordnetenDirectory.get(repository);
+            }
+
+            // Zusammenfassungen für Ad-hoc-Aggregationen im Hintergrund laden, der Start wartet nicht darauf
+            if (mongoHandler != null) {
+                SpeechSummaryIndex.warmUp(mongoHandler);
+            }
 
         } catch (Exception e) {
             System.err.println("Fehler beim Laden der Datenbankverbindung");
@@ -71,6 +143,27 @@ public class ParliamentAPI {
         }).start(7070);
 
 
+        // Route für den QueryProfiler merken, damit langsame Abfragen ihrem Aufrufer zugeordnet werden. Sie liegt
+        // im Request-Thread und als Attribut der Anfrage, da after-Handler von ctx.future auf anderen Threads laufen.
+        // Eine vom letzten asynchronen Request übrig gebliebene Route wird zu Beginn jeder Anfrage entfernt.
+        app.before(ctx -> QueryProfiler.setCurrentRoute(null));
+        app.beforeMatched(ctx -> {
+            String route = ctx.method() + " " + ctx.endpointHandlerPath();
+            ctx.attribute(QueryProfiler.ROUTE_KEY, route);
+            ctx.attribute(ROUTE_THREAD, Thread.currentThread());
+            QueryProfiler.setCurrentRoute(route);
+        });
+        app.after(ctx -> {
+            // Nur im Thread entfernen, der sie gesetzt hat, nicht im Thread, der das Future abgeschlossen hat
+            if (ctx.attribute(ROUTE_THREAD) == Thread.currentThread()) {
+                QueryProfiler.setCurrentRoute(null);
+            }
+        });
+
+        // Admin-Endpunkte nur mit Token aus der Konfiguration
+        app.before("/api/admin/slow-queries", ParliamentAPI::requireAdmin);
+        app.before("/api/admin/aggregation-jobs", ParliamentAPI::requireAdmin);
+
         // Startseite
         app.get("/", ctx -> ctx.render("startseite.ftl"));
 
@@ -90,12 +183,22 @@ public class ParliamentAPI {
         app.get("/api/search", ParliamentAPI::searchSpeeches);
         app.get("/api/rede/{id}", ParliamentAPI::getRedeById);
         app.get("/api/aggregation", ParliamentAPI::getAggregatedData);
+        app.get("/api/aggregation/query", ParliamentAPI::queryAggregation);
+        app.get("/api/aggregation/distinct", ParliamentAPI::getDistinctCounts);
+        app.get("/api/parties", ParliamentAPI::getAvailableParties);
+        app.get("/api/trends", ParliamentAPI::getTrends);
         app.get("/api/sessions", ParliamentAPI::getAvailableSessions);
         app.get("/api/topics", ParliamentAPI::getAvailableTopics);
         app.get("/api/speaker-suggestions", ParliamentAPI::getSpeakerSuggestions);
+        app.get("/api/admin/slow-queries", ParliamentAPI::getSlowQueries);
+        app.get("/api/admin/aggregation-jobs", ParliamentAPI::getAggregationJobs);
 
-        // Export-API Routen registrieren
-        exportAPI.registerRoutes(app);
+        // Export-API Routen registrieren (benötigt MongoDB), im In-Memory-Modus mit 501 beantworten
+        if (exportAPI != null) {
+            exportAPI.registerRoutes(app);
+        } else {
+            app.get("/api/export/*", ctx -> ctx.status(501).result("Exporte sind nur mit MongoDB verfügbar."));
+        }
 
         System.out.println("REST-API läuft auf Port 7070");
     }
@@ -105,6 +208,7 @@ public class ParliamentAPI {
      *
      * @param ctx Javalin Context-Objekt.
      * @author Delia Maniliuc
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Holt alle Reden", description = "Gibt eine Liste aller gespeicherten Reden zurück, mit Paginierung")
     private static void getAllReden(Context ctx) {
@@ -119,15 +223,16 @@ public class ParliamentAPI {
 
             System.out.println("Lade Reden mit Limit: " + limit + ", Skip: " + skip);
 
-            // MongoDB-Abfrage mit Paginierung
-            FindIterable<Document> reden = mongoHandler.findDocuments("rede", new Document())
-                    .skip(skip)
-                    .limit(limit);
-
-            List<Document> redenList = new ArrayList<>();
-            reden.forEach(redenList::add);
-
-            ctx.json(redenList);
+            // Abfrage mit Paginierung, ohne den Request-Thread zu blockieren
+            int finalSkip = skip;
+            int finalLimit = limit;
+            ctx.future(() -> asyncRepository.findSpeeches(new Document(), finalSkip, finalLimit)
+                    .thenAccept(ctx::json)
+                    .exceptionally(e -> {
+                        ctx.status(500).result("Fehler beim Laden der Reden");
+                        e.printStackTrace();
+                        return null;
+                    }));
         } catch (Exception e) {
             ctx.status(500).result("Fehler beim Laden der Reden");
             e.printStackTrace();
@@ -139,14 +244,18 @@ public class ParliamentAPI {
      *
      * @param ctx Javalin Context-Objekt.
      * @author Delia Maniliuc
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Holt alle Kommentare zu einer Rede", description = "Gibt eine Liste von Kommentaren basierend auf einer Rede-ID zurück")
     private static void getKommentareByRedeId(Context ctx) {
         String id = ctx.pathParam("id");
-        FindIterable<Document> kommentare = mongoHandler.findDocuments("kommentare", new Document("redeID", id));
-        List<Document> kommentarList = new ArrayList<>();
-        kommentare.forEach(kommentarList::add);
-        ctx.json(kommentarList);
+        ctx.future(() -> asyncRepository.findKommentareByRedeId(id)
+                .thenAccept(ctx::json)
+                .exceptionally(e -> {
+                    e.printStackTrace();
+                    ctx.status(500).result("Fehler beim Laden der Kommentare");
+                    return null;
+                }));
     }
 
     /**
@@ -154,6 +263,7 @@ public class ParliamentAPI {
      *
      * @param ctx Javalin Context-Objekt.
      * @author Delia Maniliuc
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Holt alle Protokolle", description = "Gibt eine Liste aller gespeicherten Parlamentsprotokolle zurück, mit Paginierung")
     private static void getAllProtokolle(Context ctx) {
@@ -168,13 +278,8 @@ public class ParliamentAPI {
 
             System.out.println("Lade Protokolle mit Limit: " + limit + ", Skip: " + skip);
 
-            // MongoDB-Abfrage mit Paginierung
-            FindIterable<Document> protokolle = mongoHandler.findDocuments("protokolle", new Document())
-                    .skip(skip)
-                    .limit(limit);
-
-            List<Document> protokollList = new ArrayList<>();
-            protokolle.forEach(protokollList::add);
+            // Abfrage mit Paginierung
+            List<Document> protokollList = repository.findProtocols(skip, limit);
 
             ctx.json(protokollList);
         } catch (Exception e) {
@@ -189,13 +294,11 @@ public class ParliamentAPI {
      *
      * @param ctx Javalin Context-Objekt.
      * @author Delia Maniliuc
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Holt alle Abgeordneten", description = "Gibt eine Liste aller gespeicherten Abgeordneten zurück")
     private static void getAllAbgeordnete(Context ctx) {
-        FindIterable<Document> abgeordnete = mongoHandler.findDocuments("abgeordnete", new Document());
-        List<Document> abgeordneteList = new ArrayList<>();
-        abgeordnete.forEach(abgeordneteList::add);
-        ctx.json(abgeordneteList);
+        ctx.json(repository.findAbgeordnete());
     }
 
     /**
@@ -203,16 +306,22 @@ public class ParliamentAPI {
      *
      * @param ctx Javalin Context-Objekt.
      * @author Delia Maniliuc
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Holt ein Bild eines Abgeordneten", description = "Gibt ein Bild basierend auf einer ID zurück")
     private static void getBildById(Context ctx) {
         String id = ctx.pathParam("id");
-        Document bild = mongoHandler.findDocuments("bilder", new Document("_id", id)).first();
-        if (bild != null) {
-            ctx.json(bild);
-        } else {
-            ctx.status(404).result("Bild nicht gefunden");
-        }
+        ctx.future(() -> asyncRepository.findBildById(id).thenAccept(bild -> {
+            if (bild != null) {
+                ctx.json(bild);
+            } else {
+                ctx.status(404).result("Bild nicht gefunden");
+            }
+        }).exceptionally(e -> {
+            e.printStackTrace();
+            ctx.status(500).result("Fehler beim Laden des Bildes");
+            return null;
+        }));
     }
 
     /**
@@ -220,6 +329,7 @@ public class ParliamentAPI {
      *
      * @param ctx Javalin Context-Objekt
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Sucht Reden nach Stichwort", description = "Gibt eine Liste von Reden zurück, die das Stichwort enthalten")
     private static void searchSpeeches(Context ctx) {
@@ -232,34 +342,29 @@ public class ParliamentAPI {
             return;
         }
 
-        Document filter = SpeechUtils.buildSearchFilter(searchQuery);
-
-        try {
-            List<Document> results = new ArrayList<>();
-            FindIterable<Document> searchResults = mongoHandler.findDocuments("rede", filter)
-                    .skip((page - 1) * limit)
-                    .limit(limit);
-
-            searchResults.forEach(results::add);
-
-            // Redner- und Sitzungsinformationen ergänzen
-            for (Document result : results) {
-                SpeechUtils.enrichSpeechWithMetadata(result, mongoHandler);
-            }
-
-            boolean hasMore = results.size() == limit;
-            Integer nextPage = hasMore ? page + 1 : null;
-
-            Map<String, Object> response = new HashMap<>();
-            response.put("results", results.isEmpty() ? List.of() : results);
-            response.put("hasMore", hasMore);
-            if (nextPage != null) response.put("nextPage", nextPage);
-
-            ctx.json(response);
-        } catch (Exception e) {
-            e.printStackTrace();
-            ctx.status(500).result("Fehler bei der Suche: " + e.getMessage());
-        }
+        ctx.future(() -> asyncRepository.searchSpeeches(searchQuery, (page - 1) * limit, limit)
+                .thenAccept(results -> {
+                    // Redner- und Sitzungsinformationen ergänzen
+                    AbgeordnetenDirectory directory = AbgeordnetenDirectory.get(repository);
+                    for (Document result : results) {
+                        SpeechUtils.enrichSpeechWithMetadata(result, directory);
+                    }
+
+                    boolean hasMore = results.size() == limit;
+                    Integer nextPage = hasMore ? page + 1 : null;
+
+                    Map<String, Object> response = new HashMap<>();
+                    response.put("results", results.isEmpty() ? List.of() : results);
+                    response.put("hasMore", hasMore);
+                    if (nextPage != null) response.put("nextPage", nextPage);
+
+                    ctx.json(response);
+                })
+                .exceptionally(e -> {
+                    e.printStackTrace();
+                    ctx.status(500).result("Fehler bei der Suche: " + e.getMessage());
+                    return null;
+                }));
     }
 
     /**
@@ -267,11 +372,12 @@ public class ParliamentAPI {
      *
      * @param ctx Javalin Context-Objekt
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Lädt verfügbare Sitzungen", description = "Gibt eine Liste aller in der Datenbank enthaltenen Sitzungsnummern zurück")
     private static void getAvailableSessions(Context ctx) {
         try {
-            List<String> sessions = SpeechUtils.getUniqueSessions(mongoHandler);
+            List<String> sessions = repository.findSessionIndices().stream().distinct().toList();
             ctx.json(sessions);
         } catch (Exception e) {
             ctx.status(500).result("Fehler beim Abrufen der Sitzungen");
@@ -284,11 +390,12 @@ public class ParliamentAPI {
      *
      * @param ctx Javalin Context-Objekt
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Lädt verfügbare Themen", description = "Gibt eine Liste aller in der Datenbank enthaltenen NLP-Topics zurück")
     private static void getAvailableTopics(Context ctx) {
         try {
-            List<String> topics = SpeechUtils.getUniqueTopics(mongoHandler);
+            List<String> topics = repository.findTopics();
             ctx.json(topics);
         } catch (Exception e) {
             ctx.status(500).result("Fehler beim Abrufen der Themen");
@@ -301,62 +408,50 @@ public class ParliamentAPI {
      *
      * @param ctx Javalin Context-Objekt
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Holt eine bestimmte Rede mit allen zugehörigen Daten", description = "Gibt eine Rede anhand ihrer ID mit Redner-, Bild- und Video-Informationen zurück")
     private static void getRedeById(Context ctx) {
         String id = ctx.pathParam("id");
 
-        // Rede aus der Datenbank abrufen
-        Document rede = mongoHandler.findDocuments("rede", new Document("_id", id)).first();
-        if (rede == null) {
-            ctx.status(404).result("Rede nicht gefunden");
-            return;
-        }
-
-        // Redner-Informationen abrufen
-        String speakerName = rede.getString("speaker");
-        Document redner = (speakerName != null) ? SpeechUtils.getRednerBySpeakerName(speakerName, mongoHandler) : null;
-
-        // Bild-URL abrufen
-        String imageUrl = (redner != null) ? SpeechUtils.getBildUrlForRedner(redner, mongoHandler) : null;
+        // Rede inklusive NLP-Layern und Video-URL gleichzeitig abrufen
+        CompletableFuture<Document> redeFuture = asyncRepository.findSpeechById(id);
+        CompletableFuture<String> videoFuture = asyncRepository.findVideoPath(id);
 
-        // Sitzungsnummer
-        String sessionTitle = SpeechUtils.extractSessionTitle(rede);
-
-        // Video-URL abrufen
-        String videoUrl = SpeechUtils.getVideoUrlForRede(id, mongoHandler);
-
-        // Rede-Text formatieren
-        List<Map<String, String>> speechText = SpeechUtils.formatSpeechText(rede);
-
-        // Named Entities holen
-        List<Map<String, Object>> namedEntities = SpeechUtils.extractNamedEntities(rede);
-
-        // POS-Tags abrufen
-        List<Map<String, Object>> posTags = SpeechUtils.extractPOSTags(rede);
-
-        // Sentiments abrufen
-        List<Map<String, Object>> sentiments = SpeechUtils.extractSentiments(rede);
-
-        // Topics aus der Rede extrahieren
-        List<Document> topics = SpeechUtils.getTopicsFromSpeech(rede);
+        // Die Fortsetzung läuft auf einem Treiber-Thread und kann das Verzeichnis synchron laden
+        ctx.future(() -> redeFuture.thenCombineAsync(videoFuture, (rede, videoUrl) -> {
+            if (rede == null) {
+                ctx.status(404).result("Rede nicht gefunden");
+                return null;
+            }
 
+            // Redner-Informationen und Bild-URL kommen aus dem Verzeichnis im Speicher
+            AbgeordnetenDirectory directory = AbgeordnetenDirectory.get(repository);
+            String speakerName = rede.getString("speaker");
+            Document redner = (speakerName != null) ? directory.findBySpeakerName(speakerName) : null;
+            String imageUrl = (redner != null) ? directory.getPictureUrl(redner.getString("id")) : null;
 
-        // Antwort als JSON zusammenstellen
-        Map<String, Object> response = new HashMap<>();
-        response.put("rede", rede);
-        response.put("sessionTitle", sessionTitle);
-        response.put("speaker", speakerName);
-        response.put("party", (redner != null) ? redner.getString("party") : "Unbekannt");
-        response.put("imageUrl", imageUrl);
-        response.put("videoUrl", videoUrl);
-        response.put("textContent", speechText);
-        response.put("namedEntities", namedEntities);
-        response.put("posTags", posTags);
-        response.put("sentiments", sentiments);
-        response.put("topics", topics);
+            // Antwort als JSON zusammenstellen
+            Map<String, Object> response = new HashMap<>();
+            response.put("rede", rede);
+            response.put("sessionTitle", SpeechUtils.extractSessionTitle(rede));
+            response.put("speaker", speakerName);
+            response.put("party", (redner != null) ? redner.getString("party") : "Unbekannt");
+            response.put("imageUrl", imageUrl);
+            response.put("videoUrl", videoUrl);
+            response.put("textContent", SpeechUtils.formatSpeechText(rede));
+            response.put("namedEntities", SpeechUtils.extractNamedEntities(rede));
+            response.put("posTags", SpeechUtils.extractPOSTags(rede));
+            response.put("sentiments", SpeechUtils.extractSentiments(rede));
+            response.put("topics", SpeechUtils.getTopicsFromSpeech(rede));
 
-        ctx.json(response);
+            ctx.json(response);
+            return null;
+        }, QueryProfiler.routeExecutor(ctx.attribute(QueryProfiler.ROUTE_KEY))).exceptionally(e -> {
+            e.printStackTrace();
+            ctx.status(500).result("Fehler beim Laden der Rede");
+            return null;
+        }));
     }
 
     /**
@@ -364,6 +459,7 @@ public class ParliamentAPI {
      *
      * @param ctx Javalin Context-Objekt
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Holt vorberechnete aggregierte NLP-Daten", description = "Gibt aggregierte Ergebnisse basierend auf Sitzung, Redner oder Topic zurück")
     private static void getAggregatedData(Context ctx) {
@@ -375,20 +471,167 @@ public class ParliamentAPI {
             return;
         }
 
+        ctx.future(() -> asyncRepository.findAggregate(type, value)
+                .thenAccept(aggregationResult -> {
+                    if (aggregationResult == null) {
+                        ctx.status(404).result("Keine aggregierten Daten gefunden.");
+                        return;
+                    }
+                    ctx.json(aggregationResult);
+                })
+                .exceptionally(e -> {
+                    e.printStackTrace();
+                    ctx.status(500).result("Fehler beim Abrufen der aggregierten Daten.");
+                    return null;
+                }));
+    }
+
+
+    /**
+     * Aggregiert die NLP-Daten aller Reden, die den angegebenen Filtern entsprechen. Filter lassen sich
+     * beliebig kombinieren und mehrfach angeben (z.B. zwei Parteien), das Ergebnis wird aus den
+     * Zusammenfassungen pro Rede im Speicher berechnet. Solange diese noch geladen werden, antwortet der
+     * Endpunkt mit 503. Geschätzte Named-Entity-Zählungen enthalten ihren maximalen Fehler unter "error".
+     *
+     * @param ctx Javalin Context-Objekt
+     * @author Ibrahim Garhiou
+     */
+    @Operation(summary = "Aggregiert NLP-Daten für beliebige Filterkombinationen", description = "Filter: session, party, speaker, topic, from, to (yyyy-MM-dd)")
+    private static void queryAggregation(Context ctx) {
+        if (mongoHandler == null) {
+            ctx.status(501).result("Ad-hoc-Aggregationen sind nur mit MongoDB verfügbar.");
+            return;
+        }
+
+        LocalDate from;
+        LocalDate to;
         try {
-            Document filter = new Document("type", type).append("value", value);
-            Document aggregationResult = mongoHandler.findDocuments("aggregated_data", filter).first();
+            from = ctx.queryParam("from") != null ? LocalDate.parse(ctx.queryParam("from")) : null;
+            to = ctx.queryParam("to") != null ? LocalDate.parse(ctx.queryParam("to")) : null;
+        } catch (DateTimeParseException e) {
+            ctx.status(400).result("Ungültiges Datum, erwartet wird yyyy-MM-dd.");
+            return;
+        }
+
+        // Der Schnappschuss wird im Hintergrund geladen, der Request-Thread wartet nicht darauf
+        SpeechSummaryIndex index = SpeechSummaryIndex.getIfLoaded(mongoHandler);
+        if (index == null) {
+            ctx.status(503).header("Retry-After", "10").result("Die Zusammenfassungen werden noch geladen, bitte später erneut versuchen.");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            Document result = index.query(
+                    ctx.queryParams("session"), ctx.queryParams("party"), ctx.queryParams("speaker"),
+                    ctx.queryParams("topic"), from, to);
+            if (result.getInteger("speechCount") == 0) {
+                ctx.status(404).result("Keine Reden für diese Filter gefunden.");
+                return;
+            }
+            result.append("type", "query").append("tookMs", System.currentTimeMillis() - start);
+            ctx.json(result);
+        } catch (Exception e) {
+            e.printStackTrace();
+            ctx.status(500).result("Fehler bei der Aggregation.");
+        }
+    }
 
-            if (aggregationResult == null) {
+    /**
+     * Schätzt die Anzahl verschiedener Lemmata, Named Entities und Bigramme über mehrere Entitäten
+     * zusammen, indem die gespeicherten HyperLogLog-Skizzen vereinigt werden. Entitäten ohne Skizzen werden
+     * unter "withoutSketches" gemeldet statt als 0 gezählt.
+     *
+     * @param ctx Javalin Context-Objekt
+     * @author Ibrahim Garhiou
+     */
+    @Operation(summary = "Schätzt verschiedene Lemmata, Entities und Bigramme", description = "Parameter: type (all, sessions, speakers, topics, party), value (mehrfach angebbar)")
+    private static void getDistinctCounts(Context ctx) {
+        if (mongoHandler == null) {
+            ctx.status(501).result("Distinct-Schätzungen sind nur mit MongoDB verfügbar.");
+            return;
+        }
+
+        String type = ctx.queryParam("type");
+        List<String> values = ctx.queryParams("value");
+        if (type == null || values.isEmpty()) {
+            ctx.status(400).result("Bitte geben Sie 'type' und mindestens einen 'value' an.");
+            return;
+        }
+
+        try {
+            Document result = DistinctSketches.unionOf(mongoHandler, type, values);
+            if (result == null) {
                 ctx.status(404).result("Keine aggregierten Daten gefunden.");
                 return;
             }
+            ctx.json(result);
+        } catch (Exception e) {
+            e.printStackTrace();
+            ctx.status(500).result("Fehler beim Berechnen der Distinct-Schätzungen.");
+        }
+    }
 
-            ctx.json(aggregationResult);
+    /**
+     * Gibt eine Zeitreihe von Sentiment, Topic-Scores und Named-Entity-Typen zurück, zusammengesetzt aus
+     * den vorberechneten Tages-, Wochen- und Monats-Rollups.
+     *
+     * @param ctx Javalin Context-Objekt
+     * @author Ibrahim Garhiou
+     */
+    @Operation(summary = "Holt Trends über einen Zeitraum", description = "Parameter: granularity (day, week, month, wp), from, to (yyyy-MM-dd), topic")
+    private static void getTrends(Context ctx) {
+        if (mongoHandler == null) {
+            ctx.status(501).result("Trends sind nur mit MongoDB verfügbar.");
+            return;
+        }
+
+        TrendRollups.Level granularity;
+        LocalDate from;
+        LocalDate to;
+        try {
+            String granularityParam = ctx.queryParam("granularity");
+            granularity = TrendRollups.Level.valueOf(granularityParam != null ? granularityParam.toUpperCase() : "MONTH");
+            from = ctx.queryParam("from") != null ? LocalDate.parse(ctx.queryParam("from")) : null;
+            to = ctx.queryParam("to") != null ? LocalDate.parse(ctx.queryParam("to")) : null;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            ctx.status(400).result("Ungültige Parameter: granularity muss day, week, month oder wp sein, Datumsangaben yyyy-MM-dd.");
+            return;
+        }
+
+        try {
+            Document result = new TrendRollups(mongoHandler).trend(granularity, from, to, ctx.queryParam("topic"));
+            if (result == null) {
+                ctx.status(404).result("Keine Trenddaten gefunden.");
+                return;
+            }
+            ctx.json(result);
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(e.getMessage());
         } catch (Exception e) {
             e.printStackTrace();
-            ctx.status(500).result("Fehler beim Abrufen der aggregierten Daten.");
+            ctx.status(500).result("Fehler beim Abrufen der Trends.");
+        }
+    }
+
+    /**
+     * Gibt alle Parteien zurück, für die Reden vorliegen.
+     *
+     * @param ctx Javalin Context-Objekt
+     * @author Ibrahim Garhiou
+     */
+    @Operation(summary = "Holt verfügbare Parteien", description = "Gibt alle Parteien der Redner zurück")
+    private static void getAvailableParties(Context ctx) {
+        if (mongoHandler == null) {
+            ctx.status(501).result("Die Parteiliste ist nur mit MongoDB verfügbar.");
+            return;
+        }
+        SpeechSummaryIndex index = SpeechSummaryIndex.getIfLoaded(mongoHandler);
+        if (index == null) {
+            ctx.status(503).header("Retry-After", "10").result("Die Parteien werden noch geladen, bitte später erneut versuchen.");
+            return;
         }
+        ctx.json(index.getParties());
     }
 
 
@@ -397,6 +640,7 @@ public class ParliamentAPI {
      *
      * @param ctx Javalin Context-Objekt
      * @author Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     @Operation(summary = "Holt Redner-Vorschläge mit NLP-Daten", description = "Gibt Rednernamen aus der Aggregation zurück")
     private static void getSpeakerSuggestions(Context ctx) {
@@ -409,9 +653,7 @@ public class ParliamentAPI {
         Document filter = new Document("type", "speakers")
                 .append("value", new Document("$regex", ".*" + query + ".*").append("$options", "i"));
 
-        List<Document> results = mongoHandler.findDocuments("aggregated_data", filter)
-                .limit(10)
-                .into(new ArrayList<>());
+        List<Document> results = repository.findAggregates(filter, 10);
 
         List<String> suggestions = new ArrayList<>();
         for (Document doc : results) {
@@ -419,4 +661,67 @@ public class ParliamentAPI {
         }
         ctx.json(suggestions);
     }
+
+    /**
+     * Prüft das Admin-Token im Header "X-Admin-Token" gegen "admin_token" aus der Konfiguration.
+     * Ist kein Token konfiguriert (oder läuft die API ohne MongoDB), sind die Admin-Endpunkte gesperrt.
+     *
+     * @param ctx Javalin Context-Objekt
+     * @author Ibrahim Garhiou
+     */
+    private static void requireAdmin(Context ctx) {
+        String expected = (mongoHandler != null) ? mongoHandler.getConfig().getAdminToken() : null;
+        String given = ctx.header("X-Admin-Token");
+        if (expected == null || expected.isBlank() || given == null
+                || !MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8))) {
+            throw new UnauthorizedResponse("Admin-Token fehlt oder ist ungültig.");
+        }
+    }
+
+    /**
+     * Gibt die Latenzstatistik pro Befehl und Collection sowie die langsamsten Query-Shapes zurück.
+     *
+     * @param ctx Javalin Context-Objekt
+     * @author Ibrahim Garhiou
+     */
+    @Operation(summary = "Holt die langsamsten Datenbankabfragen", description = "Gibt die Top-N der langsamen Query-Shapes und die Latenz pro Collection zurück")
+    private static void getSlowQueries(Context ctx) {
+        int limit = 20;
+        String limitParam = ctx.queryParam("limit");
+        if (limitParam != null && limitParam.matches("\\d+")) {
+            limit = Math.min(Integer.parseInt(limitParam), 100);
+        }
+
+        if (mongoHandler == null) {
+            ctx.status(501).result("Der Query-Profiler ist nur mit MongoDB verfügbar.");
+            return;
+        }
+        QueryProfiler profiler = mongoHandler.getQueryProfiler();
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("slowQueries", profiler.getTopSlowQueries(limit));
+        response.put("latencyByCollection", profiler.getLatencyStats());
+        ctx.json(response);
+    }
+
+    /**
+     * Gibt die zuletzt gestarteten Aggregations-Jobs mit Fortschritt, Durchsatz und Restdauer zurück.
+     *
+     * @param ctx Javalin Context-Objekt
+     * @author Ibrahim Garhiou
+     */
+    @Operation(summary = "Holt den Fortschritt der Aggregations-Jobs", description = "Gibt Fortschritt, Durchsatz und geschätzte Restdauer der letzten Jobs zurück")
+    private static void getAggregationJobs(Context ctx) {
+        int limit = 10;
+        String limitParam = ctx.queryParam("limit");
+        if (limitParam != null && limitParam.matches("\\d+")) {
+            limit = Math.min(Integer.parseInt(limitParam), 100);
+        }
+
+        if (mongoHandler == null) {
+            ctx.status(501).result("Aggregations-Jobs sind nur mit MongoDB verfügbar.");
+            return;
+        }
+        ctx.json(AggregationJobRunner.recentJobs(mongoHandler, limit));
+    }
 }
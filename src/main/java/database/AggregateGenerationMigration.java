@@ -0,0 +1,80 @@
+package database;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Migration 3: Überführt die bisherigen Einträge in "aggregated_data" in Generation 0.
+ * Durch wiederholte Läufe mehrfach vorhandene Einträge werden entfernt, es bleibt jeweils der zuletzt
+ * geschriebene. Danach wird der eindeutige Index aus {@link AggregateGenerations} angelegt und der
+ * Zeiger auf Generation 0 gesetzt, falls noch keine Generation veröffentlicht wurde.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class AggregateGenerationMigration implements Migration {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Override
+    public int getVersion() {
+        return 3;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Generationen für aggregated_data";
+    }
+
+    @Override
+    public void apply(MongoDatabaseHandler mongoHandler) {
+        Bson legacy = Filters.exists(AggregateGenerations.GENERATION, false);
+        Set<List<Object>> seen = new HashSet<>();
+        List<Object> duplicates = new ArrayList<>();
+        int removed = 0;
+
+        // Neueste zuerst: die ObjectId enthält den Zeitpunkt des Einfügens
+        try (MongoCursor<Document> cursor = mongoHandler.findDocuments(AggregateGenerations.COLLECTION, legacy)
+                .projection(Projections.include("type", "value"))
+                .sort(Sorts.descending("_id"))
+                .batchSize(BATCH_SIZE)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document entry = cursor.next();
+                if (!seen.add(List.of(String.valueOf(entry.get("type")), String.valueOf(entry.get("value"))))) {
+                    duplicates.add(entry.get("_id"));
+                }
+                if (duplicates.size() == BATCH_SIZE) {
+                    removed += deleteBatch(mongoHandler, duplicates);
+                }
+            }
+        }
+        removed += deleteBatch(mongoHandler, duplicates);
+
+        mongoHandler.getCollection(AggregateGenerations.COLLECTION).updateMany(legacy, Updates.set(AggregateGenerations.GENERATION, 0L));
+        new AggregateGenerations(mongoHandler).ensureIndexes();
+        mongoHandler.getCollection(AggregateGenerations.POINTER_COLLECTION).updateOne(AggregateGenerations.pointerFilter(),
+                Updates.setOnInsert(AggregateGenerations.GENERATION, 0L), new UpdateOptions().upsert(true));
+
+        System.out.println("[AggregateGenerationMigration] " + removed + " doppelte Einträge entfernt, "
+                + seen.size() + " Einträge in Generation 0 übernommen.");
+    }
+
+    private static int deleteBatch(MongoDatabaseHandler mongoHandler, List<Object> ids) {
+        if (ids.isEmpty()) return 0;
+        int count = ids.size();
+        mongoHandler.getCollection(AggregateGenerations.COLLECTION).deleteMany(Filters.in("_id", ids));
+        ids.clear();
+        return count;
+    }
+}
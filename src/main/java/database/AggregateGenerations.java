@@ -0,0 +1,407 @@
+package database;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Field;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.MergeOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generationen für "aggregated_data".
+ *
+ * Jeder Aggregationslauf schreibt seine Einträge in eine neue Generation ("generation"), abgesichert durch
+ * einen eindeutigen Index auf (generation, type, value). Erst wenn der Lauf vollständig ist, wird das
+ * Zeiger-Dokument in "aggregated_data_pointer" atomar auf die neue Generation umgestellt. Leser sehen
+ * dadurch immer einen vollständigen Stand und finden einen Eintrag mit einer einzigen indizierten Abfrage.
+ *
+ * Jede Generation ist in "aggregated_data_generations" eingetragen: offen, solange ihr Lauf schreibt,
+ * danach veröffentlicht und nach dem nächsten Umschalten abgelöst. Beim Aufräumen bleiben erhalten:
+ * die vorherige Generation für noch laufende Anfragen, offene Generationen anderer Läufe und abgelöste
+ * Generationen, bis alle Leser ihren zwischengespeicherten Zeiger ({@link #POINTER_CACHE_MS}) neu gelesen
+ * haben. Alle übrigen älteren sowie abgebrochene Generationen werden gelöscht.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class AggregateGenerations {
+
+    public static final String COLLECTION = "aggregated_data";
+    public static final String POINTER_COLLECTION = "aggregated_data_pointer";
+    public static final String GENERATIONS_COLLECTION = "aggregated_data_generations";
+    public static final String GENERATION = "generation";
+    // Serialisierte Distinct-Count-Skizzen, werden von den Lese-Routen nicht ausgeliefert
+    public static final String SKETCHES = "distinctSketches";
+
+    private static final String POINTER_ID = "current";
+    private static final String COUNTER_ID = "aggregated_generation";
+    // So lange wird der Zeiger im Speicher gehalten, bevor er neu gelesen wird
+    public static final long POINTER_CACHE_MS = 2000;
+    // So lange bleibt eine abgelöste Generation erhalten: Cache-Fenster plus Reserve für langsame Anfragen
+    private static final long RETIRED_RETENTION_MS = 10 * POINTER_CACHE_MS;
+    // Danach gilt ein offener Lauf als abgebrochen und seine Generation wird beim Aufräumen entfernt
+    private static final long OPEN_RUN_TIMEOUT_MS = 6 * 60 * 60 * 1000L;
+
+    private static final String STATE_OPEN = "open";
+    private static final String STATE_PUBLISHED = "published";
+    private static final String STATE_RETIRED = "retired";
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoDatabaseHandler mongoHandler;
+
+    private volatile Document cachedPointer;
+    private volatile long pointerLoadedAt;
+
+    /**
+     * Konstruktor für die Generationsverwaltung.
+     *
+     * @param mongoHandler Die MongoDB-Verbindung
+     * @author Ibrahim Garhiou
+     */
+    public AggregateGenerations(MongoDatabaseHandler mongoHandler) {
+        this.mongoHandler = mongoHandler;
+    }
+
+    /**
+     * Legt den eindeutigen Index auf (generation, type, value) an.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void ensureIndexes() {
+        mongoHandler.getCollection(COLLECTION).createIndex(
+                Indexes.ascending(GENERATION, "type", "value"),
+                new IndexOptions().unique(true).name("generation_type_value"));
+    }
+
+    /**
+     * Beginnt eine neue, leere Generation. Gibt es noch keinen Zeiger, weil Migration 3 noch nicht
+     * gelaufen ist, werden die bisherigen Einträge zuerst in Generation 0 übernommen.
+     *
+     * @return Nummer der neuen Generation
+     * @author Ibrahim Garhiou
+     */
+    public long begin() {
+        if (loadPointer() == null) {
+            new AggregateGenerationMigration().apply(mongoHandler);
+        }
+        Document counter = mongoHandler.getCollection("counters").findOneAndUpdate(
+                Filters.eq("_id", COUNTER_ID),
+                Updates.inc("seq", 1L),
+                new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+        long generation = counter.getLong("seq");
+
+        Date now = new Date();
+        mongoHandler.getCollection(GENERATIONS_COLLECTION).insertOne(new Document("_id", generation)
+                .append("state", STATE_OPEN)
+                .append("openedAt", now)
+                .append("expiresAt", new Date(now.getTime() + OPEN_RUN_TIMEOUT_MS)));
+        return generation;
+    }
+
+    /**
+     * Beginnt eine neue Generation und übernimmt die passenden Einträge der aktuellen Generation.
+     * Die Kopie läuft vollständig auf dem Server. So kann ein Lauf, der nur einen Teil der Einträge
+     * neu berechnet, trotzdem eine vollständige Generation veröffentlichen.
+     *
+     * @param keep Filter auf die zu übernehmenden Einträge
+     * @return Nummer der neuen Generation
+     * @author Ibrahim Garhiou
+     */
+    public long beginFrom(Bson keep) {
+        long generation = begin();
+        Document pointer = loadPointer();
+        if (pointer == null) return generation;
+
+        copy(pointer.get(GENERATION), generation, keep);
+        // Ausgangsstand merken, siehe publishOwned
+        mongoHandler.getCollection(GENERATIONS_COLLECTION).updateOne(Filters.eq("_id", generation),
+                Updates.set("base", pointer.get(GENERATION)));
+        return generation;
+    }
+
+    /**
+     * Hält eine offene Generation ohne Ablaufzeit, z.B. für einen fortsetzbaren Job. Sie wird erst mit
+     * {@link #publish} oder {@link #discard} freigegeben.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void retain(long generation) {
+        mongoHandler.getCollection(GENERATIONS_COLLECTION).updateOne(
+                Filters.and(Filters.eq("_id", generation), Filters.eq("state", STATE_OPEN)),
+                Updates.unset("expiresAt"));
+    }
+
+    /**
+     * Prüft, ob eine Generation noch offen ist und ihre Einträge damit erhalten bleiben.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public boolean isOpen(long generation) {
+        Document run = mongoHandler.getCollection(GENERATIONS_COLLECTION)
+                .find(Filters.and(Filters.eq("_id", generation), Filters.eq("state", STATE_OPEN)))
+                .first();
+        return run != null && (run.getDate("expiresAt") == null || run.getDate("expiresAt").after(new Date()));
+    }
+
+    /**
+     * Übernimmt die passenden Einträge einer Generation in eine andere, vollständig auf dem Server.
+     */
+    private void copy(Object source, long target, Bson filter) {
+        List<Bson> copy = Arrays.asList(
+                Aggregates.match(Filters.and(Filters.eq(GENERATION, source), filter)),
+                Aggregates.project(Projections.exclude("_id")),
+                Aggregates.set(new Field<>(GENERATION, target)),
+                Aggregates.merge(COLLECTION, new MergeOptions()
+                        .uniqueIdentifier(Arrays.asList(GENERATION, "type", "value"))
+                        .whenMatched(MergeOptions.WhenMatched.REPLACE)
+                        .whenNotMatched(MergeOptions.WhenNotMatched.INSERT)));
+        // Schreibende Pipeline immer auf dem Primary
+        mongoHandler.getCollection(COLLECTION).aggregate(copy).toCollection();
+    }
+
+    /**
+     * Schreibt oder ersetzt einen Eintrag innerhalb einer Generation.
+     *
+     * @param generation Die Generation des laufenden Aggregationslaufs
+     * @param entry Eintrag mit "type" und "value"
+     * @return Das Upsert für einen Bulk-Write
+     * @author Ibrahim Garhiou
+     */
+    public static WriteModel<Document> upsert(long generation, Document entry) {
+        return new ReplaceOneModel<>(prepare(generation, entry), entry, new ReplaceOptions().upsert(true));
+    }
+
+    /**
+     * Wie {@link #upsert}, schreibt den Eintrag aber sofort.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void put(long generation, Document entry) {
+        mongoHandler.getCollection(COLLECTION).replaceOne(prepare(generation, entry), entry, new ReplaceOptions().upsert(true));
+    }
+
+    /**
+     * Ersetzt einen einzelnen Eintrag: neue Generation mit allen übrigen Einträgen, Eintrag schreiben,
+     * veröffentlichen. Für vollständige Läufe ist {@link #beginFrom} mit einem Bulk-Write günstiger.
+     *
+     * @param entry Eintrag mit "type" und "value"
+     * @return false, wenn der Eintrag nicht veröffentlicht werden konnte
+     * @author Ibrahim Garhiou
+     */
+    public boolean replaceEntry(Document entry) {
+        return replaceEntries(List.of(entry));
+    }
+
+    /**
+     * Ersetzt mehrere Einträge mit einer einzigen neuen Generation, die übrigen Einträge werden nur
+     * einmal kopiert. Veröffentlicht wird mit {@link #publishOwned}, ein gleichzeitig fertig gewordener
+     * Lauf geht dadurch nicht verloren.
+     *
+     * @param entries Einträge mit "type" und "value"
+     * @return false, wenn die Einträge nicht veröffentlicht werden konnten
+     * @author Ibrahim Garhiou
+     */
+    public boolean replaceEntries(List<Document> entries) {
+        if (entries.isEmpty()) return true;
+        List<Bson> replaced = new ArrayList<>();
+        for (Document entry : entries) {
+            replaced.add(Filters.and(Filters.eq("type", entry.get("type")), Filters.eq("value", entry.get("value"))));
+        }
+        long generation = beginFrom(Filters.nor(replaced));
+
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        for (Document entry : entries) writes.add(upsert(generation, entry));
+        mongoHandler.getCollection(COLLECTION).bulkWrite(writes);
+        return publishOwned(generation, Filters.or(replaced));
+    }
+
+    private static Bson prepare(long generation, Document entry) {
+        entry.remove("_id");
+        entry.put(GENERATION, generation);
+        return Filters.and(Filters.eq(GENERATION, generation),
+                Filters.eq("type", entry.get("type")), Filters.eq("value", entry.get("value")));
+    }
+
+    /**
+     * Schaltet den Zeiger atomar auf die angegebene Generation um und räumt alte Generationen auf.
+     * Ist bereits eine neuere Generation veröffentlicht, wird die angegebene verworfen.
+     *
+     * @param generation Die fertig geschriebene Generation
+     * @return true, wenn die Generation jetzt aktuell ist
+     * @author Ibrahim Garhiou
+     */
+    public boolean publish(long generation) {
+        Document previous;
+        try {
+            previous = mongoHandler.getCollection(POINTER_COLLECTION).findOneAndUpdate(
+                    Filters.and(Filters.eq("_id", POINTER_ID), Filters.lt(GENERATION, generation)),
+                    // Update-Pipeline, damit die vorherige Generation im selben Schritt festgehalten wird
+                    List.of(Aggregates.set(
+                            new Field<>("previous", "$" + GENERATION),
+                            new Field<>(GENERATION, generation),
+                            new Field<>("publishedAt", new Date()))),
+                    new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.BEFORE));
+        } catch (MongoException e) {
+            if (e.getCode() != DUPLICATE_KEY) throw e;
+            // Der Zeiger steht bereits auf einer neueren Generation
+            System.out.println("[AggregateGenerations] Generation " + generation + " ist überholt und wird verworfen.");
+            discard(generation);
+            return false;
+        }
+
+        long previousGeneration = previous != null ? previous.getLong(GENERATION) : -1L;
+
+        // Serverzeit, damit abgelöste Generationen unabhängig von der Uhr des Lesers verglichen werden
+        mongoHandler.getCollection(GENERATIONS_COLLECTION).updateOne(Filters.eq("_id", generation),
+                List.of(Aggregates.set(new Field<>("state", STATE_PUBLISHED), new Field<>("publishedAt", "$$NOW")),
+                        Aggregates.unset("expiresAt")),
+                new UpdateOptions().upsert(true));
+        if (previous != null) {
+            mongoHandler.getCollection(GENERATIONS_COLLECTION).updateOne(Filters.eq("_id", previousGeneration),
+                    List.of(Aggregates.set(new Field<>("state", STATE_RETIRED), new Field<>("retiredAt", "$$NOW"))),
+                    new UpdateOptions().upsert(true));
+        }
+        long removed = cleanup(generation, previousGeneration);
+
+        pointerLoadedAt = 0;
+        System.out.println("[AggregateGenerations] Generation " + generation + " veröffentlicht, "
+                + removed + " alte Einträge entfernt.");
+        return true;
+    }
+
+    /**
+     * Veröffentlicht eine Generation, deren Lauf nur die Einträge zu owned berechnet hat. Wurde seit
+     * ihrem Beginn eine andere Generation veröffentlicht, wären deren übrige Einträge veraltet: dann
+     * werden sie in eine neue Generation übernommen, die eigenen Einträge dazukopiert und diese
+     * veröffentlicht. Lange Läufe gehen so nicht verloren, wenn zwischendurch ein anderer Lauf fertig wird.
+     *
+     * @param generation Die fertig geschriebene Generation
+     * @param owned Filter auf die Einträge, die der Lauf selbst geschrieben hat
+     * @return true, wenn der Stand des Laufs jetzt aktuell ist
+     * @author Ibrahim Garhiou
+     */
+    public boolean publishOwned(long generation, Bson owned) {
+        Document pointer = loadPointer();
+        Document run = mongoHandler.getCollection(GENERATIONS_COLLECTION).find(Filters.eq("_id", generation)).first();
+        Object base = run != null ? run.get("base") : null;
+        if (pointer == null || pointer.get(GENERATION).equals(base)) {
+            return publish(generation);
+        }
+
+        System.out.println("[AggregateGenerations] Generation " + generation + " wird auf Generation "
+                + pointer.get(GENERATION) + " übertragen.");
+        long rebased = beginFrom(Filters.nor(owned));
+        copy(generation, rebased, owned);
+        discard(generation);
+        return publish(rebased);
+    }
+
+    /**
+     * Löscht alle Generationen unterhalb der aktuellen, die weder die vorherige sind noch von einem
+     * offenen Lauf beschrieben werden noch erst vor kurzem abgelöst wurden.
+     *
+     * @return Anzahl der gelöschten Einträge
+     */
+    private long cleanup(long current, long previous) {
+        Set<Long> keep = new HashSet<>(List.of(current, previous));
+        Bson open = Filters.and(Filters.eq("state", STATE_OPEN),
+                Filters.or(Filters.eq("expiresAt", null), Filters.gt("expiresAt", new Date())));
+        Bson recentlyRetired = Filters.and(Filters.eq("state", STATE_RETIRED), Filters.expr(new Document("$gt", List.of(
+                "$retiredAt", new Document("$subtract", List.of("$$NOW", RETIRED_RETENTION_MS))))));
+        for (Document retained : mongoHandler.getCollection(GENERATIONS_COLLECTION)
+                .find(Filters.and(Filters.lt("_id", current), Filters.or(open, recentlyRetired)))
+                .projection(Projections.include("_id"))) {
+            keep.add(retained.getLong("_id"));
+        }
+
+        long removed = mongoHandler.getCollection(COLLECTION).deleteMany(Filters.or(
+                Filters.exists(GENERATION, false),
+                Filters.and(Filters.lt(GENERATION, current), Filters.nin(GENERATION, keep)))).getDeletedCount();
+        mongoHandler.getCollection(GENERATIONS_COLLECTION).deleteMany(
+                Filters.and(Filters.lt("_id", current), Filters.nin("_id", keep)));
+        return removed;
+    }
+
+    /**
+     * Löscht eine nicht veröffentlichte Generation, z.B. nach einem Fehler im Lauf.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void discard(long generation) {
+        mongoHandler.getCollection(COLLECTION).deleteMany(Filters.eq(GENERATION, generation));
+        mongoHandler.getCollection(GENERATIONS_COLLECTION).deleteOne(
+                Filters.and(Filters.eq("_id", generation), Filters.eq("state", STATE_OPEN)));
+    }
+
+    /**
+     * Liefert das Zeiger-Dokument, höchstens {@link #POINTER_CACHE_MS} alt. Gelesen wird vom Primary,
+     * damit ein Leser nie auf eine Generation zurückfällt, die bereits aufgeräumt sein kann.
+     *
+     * @return Der Zeiger oder null, falls noch keine Generation veröffentlicht wurde
+     * @author Ibrahim Garhiou
+     */
+    public Document currentPointer() {
+        long now = System.currentTimeMillis();
+        if (now - pointerLoadedAt > POINTER_CACHE_MS) {
+            cachedPointer = mongoHandler.findDocuments(POINTER_COLLECTION, pointerFilter(), Workload.CONSISTENT).first();
+            pointerLoadedAt = now;
+        }
+        return cachedPointer;
+    }
+
+    /**
+     * Schränkt einen Filter auf die aktuell veröffentlichte Generation ein.
+     *
+     * @param filter Filter auf "type" und "value"
+     * @author Ibrahim Garhiou
+     */
+    public Document current(Document filter) {
+        return inGeneration(currentPointer(), filter);
+    }
+
+    /**
+     * Filter auf das Zeiger-Dokument.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static Bson pointerFilter() {
+        return Filters.eq("_id", POINTER_ID);
+    }
+
+    /**
+     * Schränkt einen Filter auf die Generation des Zeigers ein. Ohne Zeiger (vor der Migration)
+     * bleibt der Filter unverändert.
+     *
+     * @param pointer Das Zeiger-Dokument, darf null sein
+     * @param filter Der ursprüngliche Filter, wird nicht verändert
+     * @author Ibrahim Garhiou
+     */
+    public static Document inGeneration(Document pointer, Document filter) {
+        Document result = new Document(filter);
+        if (pointer != null && pointer.get(GENERATION) != null) {
+            result.append(GENERATION, pointer.get(GENERATION));
+        }
+        return result;
+    }
+
+    private Document loadPointer() {
+        return mongoHandler.getCollection(POINTER_COLLECTION).find(pointerFilter()).first();
+    }
+}
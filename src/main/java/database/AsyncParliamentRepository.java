@@ -0,0 +1,77 @@
+package database;
+
+import org.bson.Document;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Nicht blockierender Datenzugriff für die API-Routen mit hoher Last. Die Methoden entsprechen
+ * denen von {@link ParliamentRepository}, liefern aber CompletableFutures, sodass unabhängige
+ * Abfragen parallel laufen und kein Request-Thread auf das Netzwerk wartet.
+ *
+ * @author Ibrahim Garhiou
+ */
+public interface AsyncParliamentRepository {
+
+    CompletableFuture<List<Document>> findSpeeches(Document filter, int skip, int limit);
+
+    CompletableFuture<List<Document>> searchSpeeches(String text, int skip, int limit);
+
+    CompletableFuture<Document> findSpeechById(String id);
+
+    CompletableFuture<String> findVideoPath(String redeId);
+
+    CompletableFuture<List<Document>> findKommentareByRedeId(String redeId);
+
+    CompletableFuture<Document> findBildById(String id);
+
+    CompletableFuture<Document> findAggregate(String type, String value);
+
+    /**
+     * Stellt ein synchrones Repository über die asynchrone Schnittstelle bereit. Gedacht für
+     * Speicher ohne Netzwerkzugriff (In-Memory), bei denen die Ergebnisse sofort vorliegen.
+     *
+     * @param repository Das synchrone Repository
+     * @return Adapter mit bereits abgeschlossenen Futures
+     * @author Ibrahim Garhiou
+     */
+    static AsyncParliamentRepository of(ParliamentRepository repository) {
+        return new AsyncParliamentRepository() {
+            @Override
+            public CompletableFuture<List<Document>> findSpeeches(Document filter, int skip, int limit) {
+                return CompletableFuture.completedFuture(repository.findSpeeches(filter, skip, limit));
+            }
+
+            @Override
+            public CompletableFuture<List<Document>> searchSpeeches(String text, int skip, int limit) {
+                return CompletableFuture.completedFuture(repository.searchSpeeches(text, skip, limit));
+            }
+
+            @Override
+            public CompletableFuture<Document> findSpeechById(String id) {
+                return CompletableFuture.completedFuture(repository.findSpeechById(id));
+            }
+
+            @Override
+            public CompletableFuture<String> findVideoPath(String redeId) {
+                return CompletableFuture.completedFuture(repository.findVideoPath(redeId));
+            }
+
+            @Override
+            public CompletableFuture<List<Document>> findKommentareByRedeId(String redeId) {
+                return CompletableFuture.completedFuture(repository.findKommentareByRedeId(redeId));
+            }
+
+            @Override
+            public CompletableFuture<Document> findBildById(String id) {
+                return CompletableFuture.completedFuture(repository.findBildById(id));
+            }
+
+            @Override
+            public CompletableFuture<Document> findAggregate(String type, String value) {
+                return CompletableFuture.completedFuture(repository.findAggregate(type, value));
+            }
+        };
+    }
+}
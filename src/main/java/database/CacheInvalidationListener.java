@@ -0,0 +1,18 @@
+package database;
+
+/**
+ * Schnittstelle für In-Process-Caches, die bei Änderungen an der Datenbank invalidiert werden müssen.
+ * Implementierungen werden beim {@link ChangeStreamWatcher} für eine oder mehrere Collections registriert.
+ *
+ * @author Ibrahim Garhiou
+ */
+public interface CacheInvalidationListener {
+
+    /**
+     * Wird für jede Änderung an einer beobachteten Collection aufgerufen.
+     * Die Methode läuft im Thread des Watchers und sollte daher schnell zurückkehren.
+     *
+     * @param event Beschreibung der Änderung
+     */
+    void onInvalidate(InvalidationEvent event);
+}
@@ -0,0 +1,103 @@
+package database;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Migration 2: Versieht bereits gespeicherte Reden mit canonicalKey, contentHash und superseded.
+ * Pro Redner und Sitzung bleibt die Rede mit den meisten Textabschnitten gültig, die übrigen werden
+ * als überholt markiert. Danach wird der eindeutige Index aus {@link SpeechDeduplicator} angelegt.
+ *
+ * Es werden alle Reden ohne Schlüssel oder mit Legacy-Schlüssel neu bewertet, ein abgebrochener Lauf
+ * kann daher einfach wiederholt werden.
+ *
+ * Die Legacy-Schlüssel bleiben bis zum nächsten Import des Protokolls bestehen, erst dann sind Redner-ID
+ * und Position bekannt. {@link SpeechDeduplicator} stuft die Legacy-Fassung dabei zurück.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class CanonicalSpeechMigration implements Migration {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Override
+    public int getVersion() {
+        return 2;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Kanonische Schlüssel und Inhalts-Hashes für Reden";
+    }
+
+    @Override
+    public void apply(MongoDatabaseHandler mongoHandler) {
+        Bson withoutKey = Filters.or(
+                Filters.exists(SpeechDeduplicator.CANONICAL_KEY, false),
+                Filters.regex(SpeechDeduplicator.CANONICAL_KEY, "^" + SpeechDeduplicator.LEGACY_PREFIX));
+
+        // Erster Durchlauf: Schlüssel und Hash je Rede bestimmen, beste Fassung je Schlüssel merken
+        Map<Object, String> keys = new HashMap<>();
+        Map<Object, String> hashes = new HashMap<>();
+        Map<String, Object> bestId = new HashMap<>();
+        Map<String, Integer> bestSize = new HashMap<>();
+
+        try (MongoCursor<Document> cursor = mongoHandler.findDocuments("rede", withoutKey)
+                .projection(Projections.include("speaker", "protocol.index", "protocol.wp", "text", "textContent.type", "textContent.text"))
+                .batchSize(BATCH_SIZE)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document rede = cursor.next();
+                Document protocol = rede.get("protocol", new Document());
+                String key = SpeechDeduplicator.legacyKey(protocol.get("wp"), protocol.get("index"), rede.getString("speaker"));
+                int size = SpeechDeduplicator.textSize(rede);
+
+                keys.put(rede.get("_id"), key);
+                hashes.put(rede.get("_id"), SpeechDeduplicator.contentHash(rede));
+                if (!bestSize.containsKey(key) || size > bestSize.get(key)) {
+                    bestSize.put(key, size);
+                    bestId.put(key, rede.get("_id"));
+                }
+            }
+        }
+
+        // Zweiter Durchlauf: Ergebnis in Stapeln zurückschreiben
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        int superseded = 0;
+        for (Map.Entry<Object, String> entry : keys.entrySet()) {
+            Object id = entry.getKey();
+            Object canonicalId = bestId.get(entry.getValue());
+            boolean isCanonical = canonicalId.equals(id);
+            if (!isCanonical) superseded++;
+
+            writes.add(new UpdateOneModel<>(Filters.eq("_id", id), Updates.combine(
+                    Updates.set(SpeechDeduplicator.CANONICAL_KEY, entry.getValue()),
+                    Updates.set(SpeechDeduplicator.CONTENT_HASH, hashes.get(id)),
+                    Updates.set(SpeechDeduplicator.SUPERSEDED, !isCanonical),
+                    isCanonical ? Updates.unset(SpeechDeduplicator.SUPERSEDED_BY) : Updates.set(SpeechDeduplicator.SUPERSEDED_BY, canonicalId))));
+
+            if (writes.size() == BATCH_SIZE) {
+                mongoHandler.getCollection("rede").bulkWrite(writes, new BulkWriteOptions().ordered(false));
+                writes.clear();
+            }
+        }
+        if (!writes.isEmpty()) {
+            mongoHandler.getCollection("rede").bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        }
+
+        new SpeechDeduplicator(mongoHandler).ensureIndexes();
+        System.out.println("[CanonicalSpeechMigration] " + keys.size() + " Reden geprüft, " + superseded + " als Duplikat markiert");
+    }
+}
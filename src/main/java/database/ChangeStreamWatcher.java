@@ -0,0 +1,321 @@
+package database;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Beobachtet Änderungen an den Collections, aus denen die API Caches aufbaut, über einen
+ * einzigen Change Stream auf Datenbankebene. Jede Änderung wird als {@link InvalidationEvent}
+ * an die für die Collection registrierten Listener verteilt. Der Stream umfasst nur Collections mit
+ * mindestens einem Listener, Änderungen an den übrigen filtert bereits der Server heraus. So werden Caches auf allen API-Knoten
+ * auch dann invalidiert, wenn die Ingestion aus einem anderen Prozess nach MongoDB schreibt.
+ *
+ * Der Resume-Token wird pro Knoten in der Collection "change_stream_tokens" gespeichert,
+ * damit nach einem Neustart ab der letzten verarbeiteten Änderung weitergelesen wird. Stammt der Token
+ * aus einem "invalidate"-Ereignis, wird mit startAfter statt resumeAfter fortgesetzt, da der Server
+ * resumeAfter für solche Tokens ablehnt.
+ * Change Streams setzen ein Replica Set voraus.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class ChangeStreamWatcher {
+
+    public static final List<String> WATCHED_COLLECTIONS = List.of("rede", "abgeordnete", "bilder", "VideoLinks", "aggregated_data", "rede_summary");
+
+    private static final String TOKEN_COLLECTION = "change_stream_tokens";
+    private static final long TOKEN_PERSIST_INTERVAL_MS = 1000;
+    private static final long RETRY_DELAY_MS = 5000;
+
+    // Fehlercodes, bei denen ein Fortsetzen mit dem gespeicherten Token nicht mehr möglich ist
+    private static final Set<Integer> HISTORY_LOST_CODES = Set.of(136, 260, 280, 286);
+
+    // Fehlercode, wenn der Server keine Change Streams unterstützt (Standalone ohne Replica Set)
+    private static final int CHANGE_STREAMS_NOT_SUPPORTED = 40573;
+
+    private final MongoDatabaseHandler mongoHandler;
+    private final String nodeId;
+    private final List<String> collections;
+    private final Map<String, List<CacheInvalidationListener>> listeners = new HashMap<>();
+
+    private volatile boolean running;
+    private Thread thread;
+    private BsonDocument resumeToken;
+    // true, wenn resumeToken der Token eines invalidate-Ereignisses ist
+    private boolean startAfter;
+    private long lastPersistedAt;
+    private boolean tokenDirty;
+
+    /**
+     * Konstruktor für den Watcher.
+     *
+     * @param mongoHandler Die MongoDB-Verbindung
+     * @param nodeId Eindeutige Kennung des API-Knotens, unter der der Resume-Token gespeichert wird
+     * @author Ibrahim Garhiou
+     */
+    public ChangeStreamWatcher(MongoDatabaseHandler mongoHandler, String nodeId) {
+        this(mongoHandler, nodeId, WATCHED_COLLECTIONS);
+    }
+
+    public ChangeStreamWatcher(MongoDatabaseHandler mongoHandler, String nodeId, List<String> collections) {
+        this.mongoHandler = mongoHandler;
+        this.nodeId = nodeId;
+        this.collections = collections;
+        for (String collection : collections) {
+            listeners.put(collection, new CopyOnWriteArrayList<>());
+        }
+    }
+
+    /**
+     * Registriert einen Listener für die angegebenen Collections. Listener werden vor {@link #start}
+     * registriert, da der Stream nur die Collections mit Listenern umfasst.
+     *
+     * @param listener Der zu benachrichtigende Cache
+     * @param collectionNames Collections, deren Änderungen den Cache betreffen
+     * @author Ibrahim Garhiou
+     */
+    public void register(CacheInvalidationListener listener, String... collectionNames) {
+        for (String collection : collectionNames) {
+            List<CacheInvalidationListener> list = listeners.get(collection);
+            if (list == null) {
+                throw new IllegalArgumentException("Collection wird nicht beobachtet: " + collection);
+            }
+            list.add(listener);
+        }
+    }
+
+    /**
+     * Startet den Watcher in einem eigenen Daemon-Thread.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public synchronized void start() {
+        if (running) return;
+        if (listenedCollections().isEmpty()) {
+            System.out.println("[ChangeStreamWatcher] Keine Listener registriert, Watcher wird nicht gestartet.");
+            return;
+        }
+        running = true;
+        resumeToken = loadResumeToken();
+        thread = new Thread(this::run, "change-stream-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("[ChangeStreamWatcher] Gestartet für " + listenedCollections()
+                + (resumeToken != null ? " (Fortsetzung ab gespeichertem Token)" : ""));
+    }
+
+    /**
+     * Stoppt den Watcher und speichert den letzten Resume-Token.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        persistResumeToken(true);
+    }
+
+    /**
+     * Hauptschleife: Liest Änderungen, verteilt sie und verbindet sich nach Fehlern neu.
+     *
+     * @author Ibrahim Garhiou
+     */
+    private void run() {
+        while (running) {
+            try {
+                watchOnce();
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() == CHANGE_STREAMS_NOT_SUPPORTED) {
+                    System.err.println("[ChangeStreamWatcher] Change Streams werden nicht unterstützt (kein Replica Set), Watcher wird beendet.");
+                    running = false;
+                    return;
+                }
+                if (HISTORY_LOST_CODES.contains(e.getErrorCode())) {
+                    System.err.println("[ChangeStreamWatcher] Resume-Token nicht mehr gültig, alle Caches werden invalidiert.");
+                    resumeToken = null;
+                    startAfter = false;
+                    tokenDirty = true;
+                    persistResumeToken(true);
+                    invalidateAll("historyLost");
+                } else {
+                    System.err.println("[ChangeStreamWatcher] Fehler im Change Stream: " + e.getMessage());
+                }
+                sleepBeforeRetry();
+            } catch (MongoException e) {
+                System.err.println("[ChangeStreamWatcher] Verbindung zum Change Stream verloren: " + e.getMessage());
+                sleepBeforeRetry();
+            }
+        }
+    }
+
+    private void watchOnce() {
+        ChangeStreamIterable<Document> stream = mongoHandler.getDatabase()
+                .watch(List.of(Aggregates.match(Filters.in("ns.coll", listenedCollections()))))
+                .maxAwaitTime(1, TimeUnit.SECONDS);
+
+        if (resumeToken != null) {
+            stream = startAfter ? stream.startAfter(resumeToken) : stream.resumeAfter(resumeToken);
+        }
+
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = stream.cursor()) {
+            while (running) {
+                ChangeStreamDocument<Document> change = cursor.tryNext();
+                if (change != null) {
+                    dispatch(change);
+                    if (change.getOperationType() == OperationType.INVALIDATE) {
+                        // Der Server schließt den Stream, neu öffnen mit startAfter
+                        resumeToken = change.getResumeToken();
+                        startAfter = true;
+                        tokenDirty = true;
+                        persistResumeToken(true);
+                        return;
+                    }
+                }
+
+                // Auch ohne Änderungen rückt der Token vor (Post-Batch-Resume-Token)
+                BsonDocument token = cursor.getResumeToken();
+                if (token != null && !token.equals(resumeToken)) {
+                    resumeToken = token;
+                    startAfter = false;
+                    tokenDirty = true;
+                }
+                persistResumeToken(false);
+            }
+        }
+    }
+
+    /**
+     * Wandelt einen Change-Stream-Eintrag in ein InvalidationEvent um und verteilt es.
+     *
+     * @author Ibrahim Garhiou
+     */
+    private void dispatch(ChangeStreamDocument<Document> change) {
+        String operation = change.getOperationTypeString();
+        String collection = change.getNamespace() != null ? change.getNamespace().getCollectionName() : null;
+
+        if (collection == null) {
+            // dropDatabase oder invalidate ohne Namespace betreffen alle Collections
+            invalidateAll(operation);
+            return;
+        }
+
+        boolean full = "drop".equals(operation) || "rename".equals(operation) || "invalidate".equals(operation);
+        String documentId = null;
+        if (change.getDocumentKey() != null && change.getDocumentKey().containsKey("_id")) {
+            documentId = toIdString(change.getDocumentKey().get("_id"));
+        }
+
+        Set<String> changedFields = new HashSet<>();
+        UpdateDescription update = change.getUpdateDescription();
+        if (update != null) {
+            if (update.getUpdatedFields() != null) changedFields.addAll(update.getUpdatedFields().keySet());
+            if (update.getRemovedFields() != null) changedFields.addAll(update.getRemovedFields());
+        }
+
+        publish(new InvalidationEvent(collection, operation, documentId, changedFields, full));
+    }
+
+    /**
+     * Collections, für die mindestens ein Listener registriert ist.
+     */
+    private List<String> listenedCollections() {
+        List<String> result = new ArrayList<>();
+        for (String collection : collections) {
+            if (!listeners.get(collection).isEmpty()) result.add(collection);
+        }
+        return result;
+    }
+
+    private void invalidateAll(String reason) {
+        for (String collection : listenedCollections()) {
+            publish(InvalidationEvent.full(collection, reason));
+        }
+    }
+
+    private void publish(InvalidationEvent event) {
+        List<CacheInvalidationListener> targets = listeners.get(event.getCollection());
+        if (targets == null) return;
+
+        for (CacheInvalidationListener listener : targets) {
+            try {
+                listener.onInvalidate(event);
+            } catch (Exception e) {
+                System.err.println("[ChangeStreamWatcher] Listener-Fehler bei " + event + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static String toIdString(BsonValue id) {
+        if (id.isString()) return id.asString().getValue();
+        if (id.isObjectId()) return id.asObjectId().getValue().toHexString();
+        return id.toString();
+    }
+
+    /**
+     * Lädt den zuletzt gespeicherten Resume-Token dieses Knotens.
+     *
+     * @author Ibrahim Garhiou
+     */
+    private BsonDocument loadResumeToken() {
+        Document stored = mongoHandler.findDocuments(TOKEN_COLLECTION, new Document("_id", nodeId)).first();
+        if (stored == null || !(stored.get("token") instanceof Document)) {
+            return null;
+        }
+        startAfter = stored.getBoolean("startAfter", false);
+        return ((Document) stored.get("token")).toBsonDocument();
+    }
+
+    /**
+     * Speichert den Resume-Token, höchstens einmal pro Intervall, außer force ist gesetzt.
+     *
+     * @author Ibrahim Garhiou
+     */
+    private void persistResumeToken(boolean force) {
+        long now = System.currentTimeMillis();
+        if (!tokenDirty || (!force && now - lastPersistedAt < TOKEN_PERSIST_INTERVAL_MS)) {
+            return;
+        }
+
+        try {
+            Document doc = new Document("_id", nodeId)
+                    .append("token", resumeToken)
+                    .append("startAfter", startAfter)
+                    .append("updatedAt", new Date(now));
+            mongoHandler.getCollection(TOKEN_COLLECTION)
+                    .replaceOne(new Document("_id", nodeId), doc, new ReplaceOptions().upsert(true));
+            tokenDirty = false;
+            lastPersistedAt = now;
+        } catch (MongoException e) {
+            System.err.println("[ChangeStreamWatcher] Resume-Token konnte nicht gespeichert werden: " + e.getMessage());
+        }
+    }
+
+    private void sleepBeforeRetry() {
+        try {
+            Thread.sleep(RETRY_DELAY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
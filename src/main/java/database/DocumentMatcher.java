@@ -0,0 +1,286 @@
+package database;
+
+import org.bson.BsonRegularExpression;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Wertet MongoDB-Filter auf Dokumenten im Speicher aus. Unterstützt werden Gleichheit (auch auf
+ * Arrays und über Punkt-Pfade in eingebettete Dokumente und Listen), $eq, $ne, $gt, $gte, $lt, $lte,
+ * $in, $nin, $exists, $regex/$options, $not, $size, $elemMatch, $and, $or, $nor sowie $text.
+ *
+ * $text arbeitet ohne Stemming: Ein Dokument trifft zu, wenn eines der Suchwörter als Wortanfang
+ * in einem der Textfelder vorkommt und keines der mit "-" ausgeschlossenen Wörter.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class DocumentMatcher {
+
+    private static final Pattern WORD_SPLIT = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final List<String> textFields;
+
+    /**
+     * Konstruktor für den Matcher.
+     *
+     * @param textFields Felder, die von $text durchsucht werden (entspricht dem Textindex)
+     * @author Ibrahim Garhiou
+     */
+    public DocumentMatcher(List<String> textFields) {
+        this.textFields = textFields;
+    }
+
+    /**
+     * Prüft, ob ein Dokument den Filter erfüllt.
+     *
+     * @param doc Das zu prüfende Dokument
+     * @param filter Filter in MongoDB-Syntax, null oder leer trifft immer zu
+     * @return true, wenn alle Bedingungen erfüllt sind
+     * @author Ibrahim Garhiou
+     */
+    public boolean matches(Document doc, Document filter) {
+        if (filter == null) return true;
+
+        for (Map.Entry<String, Object> entry : filter.entrySet()) {
+            String key = entry.getKey();
+            Object condition = entry.getValue();
+
+            boolean result;
+            switch (key) {
+                case "$and":
+                    result = asFilters(condition).stream().allMatch(sub -> matches(doc, sub));
+                    break;
+                case "$or":
+                    result = asFilters(condition).stream().anyMatch(sub -> matches(doc, sub));
+                    break;
+                case "$nor":
+                    result = asFilters(condition).stream().noneMatch(sub -> matches(doc, sub));
+                    break;
+                case "$text":
+                    result = matchesText(doc, ((Document) condition).getString("$search"));
+                    break;
+                default:
+                    result = matchesField(resolve(doc, key), condition);
+            }
+            if (!result) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Liest alle Werte eines Punkt-Pfads aus. Listen auf dem Pfad werden aufgefächert,
+     * ein fehlendes Feld ergibt eine leere Liste.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static List<Object> resolve(Document doc, String path) {
+        List<Object> values = new ArrayList<>();
+        collect(doc, path.split("\\."), 0, values);
+        return values;
+    }
+
+    private static void collect(Object current, String[] parts, int index, List<Object> out) {
+        if (index == parts.length) {
+            out.add(current);
+            return;
+        }
+        if (current instanceof Document) {
+            Document document = (Document) current;
+            if (document.containsKey(parts[index])) {
+                collect(document.get(parts[index]), parts, index + 1, out);
+            }
+        } else if (current instanceof List) {
+            List<?> list = (List<?>) current;
+            if (parts[index].matches("\\d+")) {
+                int position = Integer.parseInt(parts[index]);
+                if (position < list.size()) {
+                    collect(list.get(position), parts, index + 1, out);
+                }
+                return;
+            }
+            for (Object element : list) {
+                if (element instanceof Document) {
+                    collect(element, parts, index, out);
+                }
+            }
+        }
+    }
+
+    private boolean matchesField(List<Object> values, Object condition) {
+        if (condition instanceof Document && isOperatorDocument((Document) condition)) {
+            for (Map.Entry<String, Object> op : ((Document) condition).entrySet()) {
+                if (!matchesOperator(values, op.getKey(), op.getValue(), (Document) condition)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (condition instanceof Pattern || condition instanceof BsonRegularExpression) {
+            Pattern pattern = toPattern(condition, null);
+            return anyLeaf(values, value -> value instanceof String && pattern.matcher((String) value).find());
+        }
+        return equalsAny(values, condition);
+    }
+
+    private boolean matchesOperator(List<Object> values, String operator, Object argument, Document condition) {
+        switch (operator) {
+            case "$eq":
+                return equalsAny(values, argument);
+            case "$ne":
+                return !equalsAny(values, argument);
+            case "$gt":
+                return anyLeaf(values, value -> isComparable(value, argument) && compare(value, argument) > 0);
+            case "$gte":
+                return anyLeaf(values, value -> isComparable(value, argument) && compare(value, argument) >= 0);
+            case "$lt":
+                return anyLeaf(values, value -> isComparable(value, argument) && compare(value, argument) < 0);
+            case "$lte":
+                return anyLeaf(values, value -> isComparable(value, argument) && compare(value, argument) <= 0);
+            case "$in":
+                return ((Collection<?>) argument).stream().anyMatch(candidate -> candidate instanceof Pattern || candidate instanceof BsonRegularExpression
+                        ? matchesField(values, candidate)
+                        : equalsAny(values, candidate));
+            case "$nin":
+                return ((Collection<?>) argument).stream().noneMatch(candidate -> equalsAny(values, candidate));
+            case "$exists":
+                return Boolean.TRUE.equals(argument) != values.isEmpty();
+            case "$regex":
+                Pattern pattern = toPattern(argument, condition.getString("$options"));
+                return anyLeaf(values, value -> value instanceof String && pattern.matcher((String) value).find());
+            case "$options":
+                return true;
+            case "$not":
+                return !matchesField(values, argument);
+            case "$size":
+                int size = ((Number) argument).intValue();
+                return values.stream().anyMatch(value -> value instanceof List && ((List<?>) value).size() == size);
+            case "$elemMatch":
+                Document sub = (Document) argument;
+                return values.stream().anyMatch(value -> value instanceof List && ((List<?>) value).stream().anyMatch(element ->
+                        element instanceof Document && !isOperatorDocument(sub)
+                                ? matches((Document) element, sub)
+                                : matchesField(Collections.singletonList(element), sub)));
+            default:
+                throw new IllegalArgumentException("Operator wird im Speicher nicht unterstützt: " + operator);
+        }
+    }
+
+    private boolean matchesText(Document doc, String search) {
+        if (search == null || search.isBlank()) return false;
+
+        List<String> include = new ArrayList<>();
+        List<String> exclude = new ArrayList<>();
+        for (String term : search.replace("\"", " ").trim().split("\\s+")) {
+            if (term.startsWith("-") && term.length() > 1) {
+                exclude.add(normalizeWord(term.substring(1)));
+            } else {
+                include.add(normalizeWord(term));
+            }
+        }
+
+        Set<String> words = new HashSet<>();
+        for (String field : textFields) {
+            for (Object value : resolve(doc, field)) {
+                if (value instanceof String) {
+                    for (String word : WORD_SPLIT.split(normalizeWord((String) value))) {
+                        if (!word.isEmpty()) words.add(word);
+                    }
+                }
+            }
+        }
+
+        boolean excluded = exclude.stream().anyMatch(term -> words.stream().anyMatch(word -> word.startsWith(term)));
+        return !excluded && include.stream().anyMatch(term -> words.stream().anyMatch(word -> word.startsWith(term)));
+    }
+
+    private static String normalizeWord(String text) {
+        return text.toLowerCase(Locale.GERMAN);
+    }
+
+    private static boolean isOperatorDocument(Document document) {
+        return !document.isEmpty() && document.keySet().stream().allMatch(key -> key.startsWith("$"));
+    }
+
+    private static List<Document> asFilters(Object condition) {
+        List<Document> filters = new ArrayList<>();
+        for (Object element : (List<?>) condition) {
+            filters.add((Document) element);
+        }
+        return filters;
+    }
+
+    /**
+     * Gleichheit wie in MongoDB: null trifft auch auf fehlende Felder zu, Arrays werden sowohl
+     * als Ganzes als auch elementweise verglichen.
+     */
+    private static boolean equalsAny(List<Object> values, Object expected) {
+        if (expected == null && values.isEmpty()) return true;
+        for (Object value : values) {
+            if (valueEquals(value, expected)) return true;
+            if (value instanceof List) {
+                for (Object element : (List<?>) value) {
+                    if (valueEquals(element, expected)) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean anyLeaf(List<Object> values, Predicate<Object> predicate) {
+        for (Object value : values) {
+            if (value instanceof List) {
+                for (Object element : (List<?>) value) {
+                    if (predicate.test(element)) return true;
+                }
+            } else if (predicate.test(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean valueEquals(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        }
+        if (a instanceof ObjectId && b instanceof String || a instanceof String && b instanceof ObjectId) {
+            return false;
+        }
+        return Objects.equals(a, b);
+    }
+
+    /**
+     * Bereichsvergleiche gelten wie in MongoDB nur zwischen Werten desselben Typs.
+     */
+    private static boolean isComparable(Object value, Object argument) {
+        if (value instanceof Number && argument instanceof Number) return true;
+        return value instanceof Comparable && argument != null && value.getClass() == argument.getClass();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(Object value, Object argument) {
+        if (value instanceof Number && argument instanceof Number) {
+            return Double.compare(((Number) value).doubleValue(), ((Number) argument).doubleValue());
+        }
+        return ((Comparable) value).compareTo(argument);
+    }
+
+    private static Pattern toPattern(Object regex, String options) {
+        if (regex instanceof Pattern) return (Pattern) regex;
+        if (regex instanceof BsonRegularExpression) {
+            BsonRegularExpression bsonRegex = (BsonRegularExpression) regex;
+            return toPattern(bsonRegex.getPattern(), options != null ? options : bsonRegex.getOptions());
+        }
+        int flags = 0;
+        if (options != null) {
+            if (options.contains("i")) flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+            if (options.contains("m")) flags |= Pattern.MULTILINE;
+            if (options.contains("s")) flags |= Pattern.DOTALL;
+        }
+        return Pattern.compile(String.valueOf(regex), flags);
+    }
+}
@@ -0,0 +1,125 @@
+package database;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.*;
+
+/**
+ * Materialisiertes Haupt-Topic einer Rede. Beim Speichern der NLP-Ergebnisse werden im Rede-Dokument
+ * "dominantTopic" und "topicScores" (durchschnittlicher Score und Anzahl je Topic, absteigend sortiert)
+ * gesetzt, sodass Topic-Filter und Themen-Exporte den Topic-Layer nicht mehr laden und auswerten müssen.
+ *
+ * Es gilt eine einzige Regel: das Topic mit dem höchsten durchschnittlichen Score. Abfragen auf das Feld
+ * ignorieren Groß- und Kleinschreibung über die {@link #COLLATION} des Index.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class DominantTopic {
+
+    public static final String FIELD = "dominantTopic";
+    public static final String SCORES_FIELD = "topicScores";
+
+    // Groß-/Kleinschreibung ignorieren, Abfragen müssen dieselbe Collation angeben, um den Index zu nutzen
+    public static final Collation COLLATION = Collation.builder()
+            .locale("de")
+            .collationStrength(CollationStrength.SECONDARY)
+            .build();
+
+    private DominantTopic() {
+    }
+
+    /**
+     * Legt die Indizes auf "dominantTopic" und "topicScores.value" in "rede" an.
+     *
+     * @param mongoHandler Die MongoDB-Verbindung
+     * @author Ibrahim Garhiou
+     */
+    public static void ensureIndexes(MongoDatabaseHandler mongoHandler) {
+        mongoHandler.getCollection("rede").createIndex(Indexes.ascending(FIELD),
+                new IndexOptions().collation(COLLATION).sparse(true).name(FIELD));
+        mongoHandler.getCollection("rede").createIndex(Indexes.ascending(SCORES_FIELD + ".value"),
+                new IndexOptions().collation(COLLATION).name(SCORES_FIELD + "_value"));
+    }
+
+    /**
+     * Durchschnittlicher Score und Anzahl je Topic, absteigend nach Score.
+     *
+     * @param topicLayer Der Topic-Layer einer Rede, darf null sein
+     * @return Liste von {value, score, count}, leer ohne auswertbare Topics
+     * @author Ibrahim Garhiou
+     */
+    public static List<Document> scores(Object topicLayer) {
+        if (!(topicLayer instanceof List)) return new ArrayList<>();
+
+        // Reihenfolge des ersten Auftretens, damit Gleichstände immer gleich aufgelöst werden
+        Map<String, double[]> sums = new LinkedHashMap<>();
+        for (Object item : (List<?>) topicLayer) {
+            if (!(item instanceof Document topic)) continue;
+            String value = topic.getString("value");
+            Object score = topic.get("score");
+            if (value == null || value.isEmpty() || !(score instanceof Number)) continue;
+
+            double[] sum = sums.computeIfAbsent(value, k -> new double[2]);
+            sum[0] += ((Number) score).doubleValue();
+            sum[1]++;
+        }
+
+        List<Document> scores = new ArrayList<>();
+        sums.forEach((value, sum) -> scores.add(new Document("value", value)
+                .append("score", sum[0] / sum[1])
+                .append("count", (int) sum[1])));
+        scores.sort(Comparator.comparingDouble((Document doc) -> doc.getDouble("score")).reversed());
+        return scores;
+    }
+
+    /**
+     * Bestimmt das Topic mit dem höchsten durchschnittlichen Score.
+     *
+     * @param topicLayer Der Topic-Layer einer Rede, darf null sein
+     * @return Das dominante Topic oder null, wenn kein Topic einen positiven Score hat
+     * @author Ibrahim Garhiou
+     */
+    public static String of(Object topicLayer) {
+        return fromScores(scores(topicLayer));
+    }
+
+    private static String fromScores(List<Document> scores) {
+        return !scores.isEmpty() && scores.get(0).getDouble("score") > 0.0 ? scores.get(0).getString("value") : null;
+    }
+
+    /**
+     * Update, das die materialisierten Felder einer Rede aus ihrem Topic-Layer setzt bzw. entfernt.
+     *
+     * @param topicLayer Der Topic-Layer einer Rede, darf null sein
+     * @author Ibrahim Garhiou
+     */
+    public static Bson update(Object topicLayer) {
+        List<Document> scores = scores(topicLayer);
+        String dominant = fromScores(scores);
+        return Updates.combine(
+                dominant != null ? Updates.set(FIELD, dominant) : Updates.unset(FIELD),
+                Updates.set(SCORES_FIELD, scores));
+    }
+
+    /**
+     * Sucht Reden mit dem angegebenen Haupt-Topic über den Index, ohne Groß-/Kleinschreibung.
+     *
+     * @param mongoHandler Die MongoDB-Verbindung
+     * @param topic Das gesuchte Topic
+     * @param filter Weitere Bedingungen, z.B. {@link SpeechDeduplicator#canonical()}
+     * @param workload Art der Abfrage
+     * @author Ibrahim Garhiou
+     */
+    public static FindIterable<Document> findSpeeches(MongoDatabaseHandler mongoHandler, String topic, Bson filter, Workload workload) {
+        return mongoHandler.findDocuments("rede", Filters.and(filter, Filters.eq(FIELD, topic)), workload)
+                .collation(COLLATION);
+    }
+}
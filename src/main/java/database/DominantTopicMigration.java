@@ -0,0 +1,58 @@
+package database;
+
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Migration 4: Setzt "dominantTopic" und "topicScores" aus {@link DominantTopic} für alle Reden mit
+ * Topic-Layer, egal ob der Layer in "rede_nlp" oder noch eingebettet gespeichert ist, und legt die
+ * Indizes an. Ein wiederholter Lauf schreibt dieselben Werte erneut.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class DominantTopicMigration implements Migration {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Override
+    public int getVersion() {
+        return 4;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Haupt-Topic je Rede materialisieren";
+    }
+
+    @Override
+    public void apply(MongoDatabaseHandler mongoHandler) {
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        int[] updated = {0};
+
+        new NlpLayerStore(mongoHandler).forEachLayer("topics", (speechId, topics) -> {
+            writes.add(new UpdateOneModel<>(Filters.eq("_id", speechId), DominantTopic.update(topics)));
+            if (writes.size() == BATCH_SIZE) {
+                updated[0] += flush(mongoHandler, writes);
+                System.out.println("[DominantTopicMigration] " + updated[0] + " Reden");
+            }
+        });
+        updated[0] += flush(mongoHandler, writes);
+
+        DominantTopic.ensureIndexes(mongoHandler);
+        System.out.println("[DominantTopicMigration] Haupt-Topic für " + updated[0] + " Reden gesetzt");
+    }
+
+    private static int flush(MongoDatabaseHandler mongoHandler, List<WriteModel<Document>> writes) {
+        if (writes.isEmpty()) return 0;
+        int count = writes.size();
+        mongoHandler.getCollection("rede").bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        writes.clear();
+        return count;
+    }
+}
@@ -0,0 +1,242 @@
+package database;
+
+import org.bson.Document;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reine In-Memory-Implementierung von {@link ParliamentRepository} mit derselben Semantik wie die
+ * Mongo-Variante (Filter, Paginierung, Volltextsuche, NLP-Layer aus "rede_nlp").
+ * Gedacht für Benchmarks, Tests und Offline-Betrieb der API ohne Datenbank.
+ *
+ * Die Daten werden über {@link #insertAll} eingefügt oder mit {@link #loadFromDirectory} aus
+ * mongoexport-Dateien (eine Datei pro Collection, z.B. "rede.json") geladen.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class InMemoryParliamentRepository implements ParliamentRepository {
+
+    // Felder, die der Textindex auf "rede" abdeckt
+    private static final List<String> SPEECH_TEXT_FIELDS = List.of("text");
+
+    private final Map<String, List<Document>> collections = new ConcurrentHashMap<>();
+    private final DocumentMatcher matcher = new DocumentMatcher(SPEECH_TEXT_FIELDS);
+
+    /**
+     * Fügt Dokumente in eine Collection ein.
+     *
+     * @param collection Name der Collection, z.B. "rede"
+     * @param documents Einzufügende Dokumente
+     * @author Ibrahim Garhiou
+     */
+    public void insertAll(String collection, Collection<Document> documents) {
+        collection(collection).addAll(documents);
+    }
+
+    /**
+     * Lädt alle "*.json"-Dateien eines Verzeichnisses. Der Dateiname ohne Endung ist der
+     * Collection-Name. Unterstützt werden JSON-Lines (Standard von mongoexport) und JSON-Arrays.
+     *
+     * @param directory Verzeichnis mit den Exportdateien
+     * @return Das befüllte Repository
+     * @throws IOException Falls eine Datei nicht gelesen werden kann
+     * @author Ibrahim Garhiou
+     * @modifiedBy Ibrahim Garhiou
+     */
+    public static InMemoryParliamentRepository loadFromDirectory(Path directory) throws IOException {
+        InMemoryParliamentRepository repository = new InMemoryParliamentRepository();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path file : files) {
+                String collection = file.getFileName().toString().replaceFirst("\\.json$", "");
+                String content = Files.readString(file, StandardCharsets.UTF_8).trim();
+
+                List<Document> documents = new ArrayList<>();
+                if (content.startsWith("[")) {
+                    documents.addAll(Document.parse("{\"d\": " + content + "}").getList("d", Document.class));
+                } else {
+                    for (String line : content.split("\\R")) {
+                        if (!line.isBlank()) documents.add(Document.parse(line));
+                    }
+                }
+
+                // Exporte älterer Datenbanken enthalten Scores und Sentiments noch als String
+                for (Document document : documents) {
+                    if ("rede".equals(collection)) {
+                        NumericNlpFieldsMigration.normalizeAll(document.get("nlpResults", Document.class));
+                    } else if (NlpLayerStore.COLLECTION.equals(collection)) {
+                        NumericNlpFieldsMigration.normalize(document.getString("layer"), document.get("data"));
+                    }
+                }
+
+                repository.insertAll(collection, documents);
+                System.out.println("[InMemoryParliamentRepository] " + documents.size() + " Dokumente in " + collection + " geladen");
+            }
+        }
+        return repository;
+    }
+
+    @Override
+    public List<Document> findSpeeches(Document filter, int skip, int limit) {
+        // Wie in MongoDB nur gültige Reden, siehe SpeechDeduplicator
+        Document canonicalFilter = new Document("$and", List.of(filter,
+                new Document(SpeechDeduplicator.SUPERSEDED, new Document("$ne", true))));
+        return find("rede", canonicalFilter)
+                .skip(skip)
+                .limit(limit)
+                .map(rede -> {
+                    Document copy = copy(rede);
+                    copy.remove("nlpResults");
+                    return copy;
+                })
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Document> searchSpeeches(String text, int skip, int limit) {
+        return findSpeeches(new Document("$text", new Document("$search", text)), skip, limit);
+    }
+
+    @Override
+    public Document findSpeechById(String id) {
+        Document rede = find("rede", new Document("_id", id)).findFirst().map(InMemoryParliamentRepository::copy).orElse(null);
+        if (rede == null) return null;
+
+        // NLP-Layer wie in NlpLayerStore.attach ergänzen
+        List<Document> layers = find(NlpLayerStore.COLLECTION, new Document("speechId", id)
+                .append("layer", new Document("$exists", true))).collect(Collectors.toList());
+        if (!layers.isEmpty()) {
+            Document results = rede.get("nlpResults", Document.class);
+            if (results == null) {
+                results = new Document();
+                rede.put("nlpResults", results);
+            }
+            for (Document layer : layers) {
+                results.putIfAbsent(layer.getString("layer"), copyValue(layer.get("data")));
+            }
+        }
+        return rede;
+    }
+
+    @Override
+    public List<String> findSessionIndices() {
+        return distinct("rede", "protocol.index", null);
+    }
+
+    @Override
+    public List<String> findTopics() {
+        List<String> topics = new ArrayList<>(distinct(NlpLayerStore.COLLECTION, "data.value", new Document("layer", "topics")));
+        topics.addAll(distinct("rede", "nlpResults.topics.value", null));
+        return topics.stream().distinct().toList();
+    }
+
+    @Override
+    public List<Document> findProtocols(int skip, int limit) {
+        return copies(find("protokolle", null).skip(skip).limit(limit));
+    }
+
+    @Override
+    public List<Document> findAbgeordnete() {
+        return copies(find("abgeordnete", null));
+    }
+
+    @Override
+    public List<Document> findBilder() {
+        return copies(find("bilder", null));
+    }
+
+    @Override
+    public Document findBildById(String id) {
+        return find("bilder", new Document("_id", id)).findFirst().map(InMemoryParliamentRepository::copy).orElse(null);
+    }
+
+    @Override
+    public String findVideoPath(String redeId) {
+        return find("VideoLinks", new Document("RedeId", redeId)).findFirst()
+                .map(video -> video.getString("videoPath"))
+                .orElse(null);
+    }
+
+    @Override
+    public List<Document> findKommentareByRedeId(String redeId) {
+        return copies(find("kommentare", new Document("redeID", redeId)));
+    }
+
+    @Override
+    public Document findAggregate(String type, String value) {
+        return find(AggregateGenerations.COLLECTION, aggregateFilter(new Document("type", type).append("value", value))).findFirst()
+                .map(InMemoryParliamentRepository::copy)
+                .orElse(null);
+    }
+
+    @Override
+    public List<Document> findAggregates(Document filter, int limit) {
+        return copies(find(AggregateGenerations.COLLECTION, aggregateFilter(filter)).limit(limit));
+    }
+
+    // Nur die Generation, auf die der exportierte Zeiger verweist
+    private Document aggregateFilter(Document filter) {
+        Document pointer = collection(AggregateGenerations.POINTER_COLLECTION).stream().findFirst().orElse(null);
+        return AggregateGenerations.inGeneration(pointer, filter);
+    }
+
+    private List<Document> collection(String name) {
+        return collections.computeIfAbsent(name, k -> new CopyOnWriteArrayList<>());
+    }
+
+    private Stream<Document> find(String collection, Document filter) {
+        return collection(collection).stream().filter(doc -> matcher.matches(doc, filter));
+    }
+
+    private List<String> distinct(String collection, String path, Document filter) {
+        Set<String> values = new LinkedHashSet<>();
+        find(collection, filter).forEach(doc -> {
+            for (Object value : DocumentMatcher.resolve(doc, path)) {
+                if (value instanceof List) {
+                    for (Object element : (List<?>) value) {
+                        if (element instanceof String) values.add((String) element);
+                    }
+                } else if (value instanceof String) {
+                    values.add((String) value);
+                }
+            }
+        });
+        return new ArrayList<>(values);
+    }
+
+    private static List<Document> copies(Stream<Document> documents) {
+        return documents.map(InMemoryParliamentRepository::copy).collect(Collectors.toList());
+    }
+
+    /**
+     * Tiefe Kopie, damit Aufrufer die gespeicherten Dokumente nicht verändern können.
+     */
+    private static Document copy(Document document) {
+        Document copy = new Document();
+        document.forEach((key, value) -> copy.put(key, copyValue(value)));
+        return copy;
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof Document) {
+            return copy((Document) value);
+        }
+        if (value instanceof List) {
+            List<Object> list = new ArrayList<>(((List<?>) value).size());
+            for (Object element : (List<?>) value) {
+                list.add(copyValue(element));
+            }
+            return list;
+        }
+        return value;
+    }
+}
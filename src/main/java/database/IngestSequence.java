@@ -0,0 +1,145 @@
+package database;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Fortlaufende Ingest-Nummer für Reden. Jede Rede, die neu gespeichert, ersetzt, zurückgestuft oder mit
+ * neuen NLP-Ergebnissen versehen wird, erhält im Feld "ingestSeq" die nächste Nummer. Die inkrementelle
+ * Aggregation verarbeitet damit nur Reden oberhalb ihres zuletzt gespeicherten Stands.
+ *
+ * Der Zähler liegt in der Collection "counters". Nummern werden vor dem Schreiben der Rede vergeben,
+ * deshalb merkt sich der Zähler jede noch offene {@link Reservation} im Feld "pending". Der Stand der
+ * Aggregation darf nicht über die kleinste offene Nummer hinausgehen (siehe {@link #committed}), sonst
+ * würde eine später fertig geschriebene Rede mit kleinerer Nummer nie eingerechnet.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class IngestSequence {
+
+    public static final String FIELD = "ingestSeq";
+
+    private static final String COUNTERS = "counters";
+    private static final String COUNTER_ID = "rede_ingest";
+    private static final String PENDING = "pending";
+    // Danach gilt eine Reservierung als verwaist (Prozess abgestürzt) und hält den Stand nicht mehr auf
+    private static final long RESERVATION_TIMEOUT_MS = 10 * 60 * 1000;
+
+    private IngestSequence() {
+    }
+
+    /**
+     * Reservierte, aufeinanderfolgende Ingest-Nummern. Wird nach dem Schreiben der Reden geschlossen,
+     * erst dann gelten die Nummern als vergeben. Nicht verbrauchte Nummern bleiben als Lücke frei.
+     */
+    public static final class Reservation implements AutoCloseable {
+        private final MongoDatabaseHandler mongoHandler;
+        private final String token;
+        private final long last;
+        private long next;
+
+        private Reservation(MongoDatabaseHandler mongoHandler, String token, long first, long last) {
+            this.mongoHandler = mongoHandler;
+            this.token = token;
+            this.next = first;
+            this.last = last;
+        }
+
+        /**
+         * Liefert die nächste reservierte Nummer.
+         *
+         * @author Ibrahim Garhiou
+         */
+        public long next() {
+            if (next > last) {
+                throw new IllegalStateException("Keine reservierte Ingest-Nummer mehr frei");
+            }
+            return next++;
+        }
+
+        /**
+         * Update, das einer Rede die nächste reservierte Nummer zuweist.
+         *
+         * @author Ibrahim Garhiou
+         */
+        public Bson stamp() {
+            return Updates.set(FIELD, next());
+        }
+
+        /**
+         * Gibt die Reservierung frei, nachdem die Reden geschrieben wurden. Verwaiste Reservierungen
+         * anderer Prozesse werden dabei mit entfernt.
+         *
+         * @author Ibrahim Garhiou
+         */
+        @Override
+        public void close() {
+            mongoHandler.getCollection(COUNTERS).updateOne(Filters.eq("_id", COUNTER_ID),
+                    Updates.pull(PENDING, Filters.or(Filters.eq("token", token), Filters.lt("expiresAt", new Date()))));
+        }
+    }
+
+    /**
+     * Reserviert atomar einen Block aufeinanderfolgender Ingest-Nummern und trägt ihn als offen ein.
+     * Zähler und offene Reservierung werden in einem Update geschrieben, ein Leser sieht beide oder keins.
+     *
+     * @param mongoHandler Die MongoDB-Verbindung
+     * @param count Anzahl der Nummern, mindestens 1
+     * @return Die Reservierung, nach dem Schreiben mit close() freizugeben
+     * @author Ibrahim Garhiou
+     */
+    public static Reservation reserve(MongoDatabaseHandler mongoHandler, int count) {
+        String token = UUID.randomUUID().toString();
+        Document seq = new Document("$ifNull", List.of("$seq", 0L));
+        Document entry = new Document("token", token)
+                .append("first", new Document("$add", List.of(seq, 1L)))
+                .append("expiresAt", new Date(System.currentTimeMillis() + RESERVATION_TIMEOUT_MS));
+        Document counter = mongoHandler.getCollection(COUNTERS).findOneAndUpdate(
+                Filters.eq("_id", COUNTER_ID),
+                List.of(new Document("$set", new Document("seq", new Document("$add", List.of(seq, (long) count)))
+                        .append(PENDING, new Document("$concatArrays", List.of(
+                                new Document("$ifNull", List.of("$" + PENDING, List.of())), List.of(entry)))))),
+                new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+        long last = counter.getLong("seq");
+        return new Reservation(mongoHandler, token, last - count + 1, last);
+    }
+
+    /**
+     * Liefert die höchste Ingest-Nummer, bis zu der alle Reden fertig geschrieben sind: die zuletzt
+     * vergebene Nummer oder die Nummer vor der kleinsten offenen Reservierung. 0, falls noch keine
+     * vergeben wurde. Gelesen wird vom Primary mit Read Concern "majority".
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static long committed(MongoDatabaseHandler mongoHandler) {
+        Document counter = mongoHandler.getCollection(COUNTERS, Workload.CONSISTENT).find(Filters.eq("_id", COUNTER_ID)).first();
+        if (counter == null) return 0L;
+
+        long committed = counter.getLong("seq");
+        Date now = new Date();
+        for (Document pending : counter.getList(PENDING, Document.class, List.of())) {
+            if (pending.getDate("expiresAt").before(now)) continue;
+            committed = Math.min(committed, pending.getLong("first") - 1);
+        }
+        return committed;
+    }
+
+    /**
+     * Legt den Index auf "ingestSeq" an, über den die Änderungen seit dem letzten Stand gelesen werden.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static void ensureIndex(MongoDatabaseHandler mongoHandler) {
+        mongoHandler.getCollection("rede").createIndex(Indexes.ascending(FIELD), new IndexOptions().sparse(true).name(FIELD));
+    }
+}
@@ -0,0 +1,67 @@
+package database;
+
+import java.util.Set;
+
+/**
+ * Feingranulares Invalidierungsereignis, das aus einem Change-Stream-Eintrag erzeugt wird.
+ * Enthält die betroffene Collection, die Art der Operation, die Dokument-ID sowie die
+ * geänderten Felder bei Updates. Bei drop, rename oder verlorener Historie ist das
+ * Ereignis eine Vollinvalidierung, d.h. der gesamte Cache der Collection ist ungültig.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class InvalidationEvent {
+    private final String collection;
+    private final String operation;
+    private final String documentId;
+    private final Set<String> changedFields;
+    private final boolean fullInvalidation;
+
+    public InvalidationEvent(String collection, String operation, String documentId, Set<String> changedFields, boolean fullInvalidation) {
+        this.collection = collection;
+        this.operation = operation;
+        this.documentId = documentId;
+        this.changedFields = changedFields;
+        this.fullInvalidation = fullInvalidation;
+    }
+
+    /**
+     * Erzeugt eine Vollinvalidierung für eine Collection.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static InvalidationEvent full(String collection, String reason) {
+        return new InvalidationEvent(collection, reason, null, Set.of(), true);
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return ID des geänderten Dokuments oder null bei einer Vollinvalidierung
+     */
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    /**
+     * @return Bei Updates die geänderten und entfernten Felder, sonst leer
+     */
+    public Set<String> getChangedFields() {
+        return changedFields;
+    }
+
+    public boolean isFullInvalidation() {
+        return fullInvalidation;
+    }
+
+    @Override
+    public String toString() {
+        return collection + ":" + operation + (documentId != null ? ":" + documentId : "") + (fullInvalidation ? " (voll)" : "");
+    }
+}
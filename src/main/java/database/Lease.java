@@ -0,0 +1,114 @@
+package database;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zeitlich begrenzte Sperre über mehrere Prozesse in der Collection "leases", ein Dokument
+ * {_id: name, owner, leaseUntil} pro Sperre. Solange der Halter läuft, verlängert ein Daemon-Thread
+ * die Sperre regelmäßig. Stürzt er ab, läuft sie aus und ein anderer Prozess kann sie übernehmen.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class Lease implements AutoCloseable {
+
+    public static final String COLLECTION = "leases";
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoDatabaseHandler mongoHandler;
+    private final String name;
+    private final String owner;
+    private final long leaseMillis;
+    private final ScheduledExecutorService renewer;
+
+    private Lease(MongoDatabaseHandler mongoHandler, String name, String owner, long leaseMillis) {
+        this.mongoHandler = mongoHandler;
+        this.name = name;
+        this.owner = owner;
+        this.leaseMillis = leaseMillis;
+        this.renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lease-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(leaseMillis / 3, 1);
+        renewer.scheduleAtFixedRate(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Versucht, die Sperre zu erhalten. Sie ist frei, wenn es sie nicht gibt oder die Lease des
+     * bisherigen Halters abgelaufen ist.
+     *
+     * @param name Name der Sperre, z.B. "migration"
+     * @param holder Lesbare Kennung des Halters, z.B. die Knoten-ID
+     * @param leaseMillis Dauer der Lease, verlängert wird nach einem Drittel
+     * @return Die gehaltene Sperre oder null, wenn ein anderer Prozess sie hält
+     * @author Ibrahim Garhiou
+     */
+    public static Lease tryAcquire(MongoDatabaseHandler mongoHandler, String name, String holder, long leaseMillis) {
+        String owner = holder + "/" + UUID.randomUUID();
+        Date now = new Date();
+        try {
+            Document acquired = mongoHandler.getCollection(COLLECTION).findOneAndUpdate(
+                    Filters.and(Filters.eq("_id", name), Filters.lt("leaseUntil", now)),
+                    Updates.combine(
+                            Updates.set("owner", owner),
+                            Updates.set("leaseUntil", new Date(now.getTime() + leaseMillis)),
+                            Updates.set("acquiredAt", now)),
+                    new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+            return acquired != null ? new Lease(mongoHandler, name, owner, leaseMillis) : null;
+        } catch (MongoCommandException e) {
+            // Upsert kollidiert mit der noch gültigen Sperre eines anderen Prozesses
+            if (e.getErrorCode() == DUPLICATE_KEY) return null;
+            throw e;
+        }
+    }
+
+    /**
+     * Gibt den aktuellen Halter einer Sperre zurück.
+     *
+     * @return Das Sperr-Dokument oder null, wenn sie frei ist
+     * @author Ibrahim Garhiou
+     */
+    public static Document holder(MongoDatabaseHandler mongoHandler, String name) {
+        return mongoHandler.getCollection(COLLECTION)
+                .find(Filters.and(Filters.eq("_id", name), Filters.gte("leaseUntil", new Date())))
+                .first();
+    }
+
+    private void renew() {
+        try {
+            Document renewed = mongoHandler.getCollection(COLLECTION).findOneAndUpdate(
+                    Filters.and(Filters.eq("_id", name), Filters.eq("owner", owner)),
+                    Updates.set("leaseUntil", new Date(System.currentTimeMillis() + leaseMillis)));
+            if (renewed == null) {
+                System.err.println("[Lease] Sperre " + name + " verloren");
+                renewer.shutdown();
+            }
+        } catch (Exception e) {
+            System.err.println("[Lease] Sperre " + name + " konnte nicht verlängert werden: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gibt die Sperre frei.
+     *
+     * @author Ibrahim Garhiou
+     */
+    @Override
+    public void close() {
+        renewer.shutdownNow();
+        mongoHandler.getCollection(COLLECTION).deleteOne(Filters.and(Filters.eq("_id", name), Filters.eq("owner", owner)));
+    }
+}
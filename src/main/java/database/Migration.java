@@ -0,0 +1,30 @@
+package database;
+
+/**
+ * Eine versionierte Schema-Migration. Migrationen werden vom {@link MigrationRunner} in aufsteigender
+ * Reihenfolge ausgeführt, die angewendete Version wird in "schema_version" festgehalten.
+ *
+ * Eine Migration muss wiederholbar sein: wird sie abgebrochen und erneut gestartet, darf sie
+ * bereits umgestellte Dokumente nicht noch einmal verändern.
+ *
+ * @author Ibrahim Garhiou
+ */
+public interface Migration {
+
+    /**
+     * @return Fortlaufende Versionsnummer, beginnend bei 1
+     */
+    int getVersion();
+
+    /**
+     * @return Kurze Beschreibung für Log und "schema_version"
+     */
+    String getDescription();
+
+    /**
+     * Führt die Migration aus.
+     *
+     * @param mongoHandler Die MongoDB-Verbindung
+     */
+    void apply(MongoDatabaseHandler mongoHandler);
+}
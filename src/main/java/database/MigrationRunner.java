@@ -0,0 +1,139 @@
+package database;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Führt alle noch nicht angewendeten {@link Migration}en aus und protokolliert sie in "schema_version".
+ * Pro Migration gibt es dort ein Dokument {_id: version, description, appliedAt, durationMs}.
+ * Die aktuelle Schema-Version ist die höchste eingetragene Version.
+ *
+ * Es migriert immer nur ein Prozess: der Lauf hält die {@link Lease} "schema_migration". Andere Knoten,
+ * die gleichzeitig starten, überspringen die Migration und warten nicht darauf.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class MigrationRunner {
+
+    public static final String COLLECTION = "schema_version";
+
+    private static final String LOCK_NAME = "schema_migration";
+    private static final long LOCK_LEASE_MS = 60_000;
+
+    private final MongoDatabaseHandler mongoHandler;
+    private final List<Migration> migrations;
+
+    /**
+     * Konstruktor mit allen bekannten Migrationen.
+     *
+     * @param mongoHandler Die MongoDB-Verbindung
+     * @author Ibrahim Garhiou
+     */
+    public MigrationRunner(MongoDatabaseHandler mongoHandler) {
+        this(mongoHandler, defaultMigrations());
+    }
+
+    /**
+     * Konstruktor mit einer eigenen Liste von Migrationen.
+     *
+     * @param mongoHandler Die MongoDB-Verbindung
+     * @param migrations Die auszuführenden Migrationen, Reihenfolge beliebig
+     * @author Ibrahim Garhiou
+     */
+    public MigrationRunner(MongoDatabaseHandler mongoHandler, List<Migration> migrations) {
+        this.mongoHandler = mongoHandler;
+        this.migrations = new ArrayList<>(migrations);
+        this.migrations.sort(Comparator.comparingInt(Migration::getVersion));
+    }
+
+    /**
+     * Alle Migrationen des Projekts. Neue Migrationen werden hier mit der nächsten Versionsnummer ergänzt.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static List<Migration> defaultMigrations() {
+        return List.of(new NumericNlpFieldsMigration(), new CanonicalSpeechMigration(), new AggregateGenerationMigration(),
+                new DominantTopicMigration(), new SpeechIdMigration(), new ProtocolContentMigration());
+    }
+
+    /**
+     * Liefert die aktuell angewendete Schema-Version, 0 falls noch keine Migration gelaufen ist.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public int getCurrentVersion() {
+        Document latest = mongoHandler.getCollection(COLLECTION)
+                .find()
+                .sort(Sorts.descending("_id"))
+                .first();
+        return latest != null ? latest.getInteger("_id") : 0;
+    }
+
+    /**
+     * Führt alle Migrationen mit einer höheren Version als der aktuellen nacheinander aus.
+     * Bricht eine Migration ab, wird ihre Version nicht eingetragen und die folgenden werden übersprungen.
+     * Läuft bereits eine Migration in einem anderen Prozess, wird nichts ausgeführt.
+     *
+     * @return Die Schema-Version nach dem Lauf
+     * @author Ibrahim Garhiou
+     */
+    public int migrate() {
+        try (Lease lease = Lease.tryAcquire(mongoHandler, LOCK_NAME, mongoHandler.getConfig().getNodeId(), LOCK_LEASE_MS)) {
+            if (lease == null) {
+                Document holder = Lease.holder(mongoHandler, LOCK_NAME);
+                System.out.println("[MigrationRunner] Migration läuft bereits"
+                        + (holder != null ? " auf " + holder.getString("owner") : "") + ", übersprungen");
+                return getCurrentVersion();
+            }
+            return migrateLocked();
+        }
+    }
+
+    private int migrateLocked() {
+        int currentVersion = getCurrentVersion();
+
+        for (Migration migration : migrations) {
+            if (migration.getVersion() <= currentVersion) continue;
+
+            System.out.println("[MigrationRunner] Starte Migration " + migration.getVersion() + ": " + migration.getDescription());
+            long start = System.currentTimeMillis();
+            migration.apply(mongoHandler);
+            long duration = System.currentTimeMillis() - start;
+
+            Document entry = new Document("_id", migration.getVersion())
+                    .append("description", migration.getDescription())
+                    .append("appliedAt", new Date())
+                    .append("durationMs", duration);
+            mongoHandler.getCollection(COLLECTION).replaceOne(Filters.eq("_id", migration.getVersion()), entry,
+                    new ReplaceOptions().upsert(true));
+
+            currentVersion = migration.getVersion();
+            System.out.println("[MigrationRunner] Migration " + currentVersion + " abgeschlossen in " + duration + " ms");
+        }
+
+        return currentVersion;
+    }
+
+    /**
+     * Bringt das Schema der konfigurierten Datenbank auf den neuesten Stand.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static void main(String[] args) {
+        try {
+            MongoDatabaseHandler mongoHandler = new MongoDatabaseHandler("mongodb.properties");
+            int version = new MigrationRunner(mongoHandler).migrate();
+            System.out.println("[MigrationRunner] Schema-Version: " + version);
+            mongoHandler.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package database;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -44,4 +48,76 @@ public class MongoDBConfig extends Properties {
     public String getMongoCollection() {
         return getProperty("remote_collection", "collection");
     }
+
+    /**
+     * Liste der Hosts im Format "host:port,host:port". Ohne Angabe wird remote_host/remote_port verwendet.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public List<String> getMongoHosts() {
+        String hosts = getProperty("remote_hosts");
+        if (hosts == null || hosts.isBlank()) {
+            return List.of(getMongoHostname() + ":" + getMongoPort());
+        }
+        List<String> result = new ArrayList<>();
+        for (String host : hosts.split(",")) {
+            if (!host.isBlank()) result.add(host.trim());
+        }
+        return result;
+    }
+
+    public String getReplicaSetName() {
+        return getProperty("replica_set");
+    }
+
+    public long getMaxStalenessSeconds() {
+        return Long.parseLong(getProperty("max_staleness_seconds", "120"));
+    }
+
+    public boolean isHedgedReadsEnabled() {
+        return Boolean.parseBoolean(getProperty("hedged_reads", "true"));
+    }
+
+    public String getNodeId() {
+        String nodeId = getProperty("node_id");
+        if (nodeId != null && !nodeId.isBlank()) {
+            return nodeId;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "api-node";
+        }
+    }
+
+    public boolean isChangeStreamsEnabled() {
+        return Boolean.parseBoolean(getProperty("change_streams_enabled", "true"));
+    }
+
+    public boolean isReactiveApiEnabled() {
+        return Boolean.parseBoolean(getProperty("reactive_api", "true"));
+    }
+
+    /**
+     * Migrationen beim Start der API ausführen. Standardmäßig aus, die Migration läuft über
+     * {@link MigrationRunner#main} oder auf einem dafür konfigurierten Knoten.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public boolean isAutoMigrateEnabled() {
+        return Boolean.parseBoolean(getProperty("auto_migrate", "false"));
+    }
+
+    /**
+     * Token für die Admin-Endpunkte der API. Ohne Token sind die Endpunkte gesperrt.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public String getAdminToken() {
+        return getProperty("admin_token");
+    }
+
+    public long getSlowQueryThresholdMs() {
+        return Long.parseLong(getProperty("slow_query_threshold_ms", "100"));
+    }
 }
@@ -1,14 +1,20 @@
 package database;
 
+import com.mongodb.ContextProvider;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.MongoCredential;
+import com.mongodb.ReadPreference;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.*;
 import com.mongodb.client.result.UpdateResult;
+import com.mongodb.event.CommandListener;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -24,6 +30,8 @@ public class MongoDatabaseHandler {
     private MongoDBConfig config;
     private MongoClient client;
     private MongoDatabase database;
+    private QueryProfiler queryProfiler;
+    private final Map<Workload, ReadPreference> readPreferences = new EnumMap<>(Workload.class);
 
     /**
      * Konstruktor, der die Konfiguration lädt und die Verbindung zur MongoDB initialisiert.
@@ -42,20 +50,49 @@ public class MongoDatabaseHandler {
      * Initialisiert die MongoDB-Verbindung mit den konfigurierten Zugangsdaten.
      *
      * @author Delia Maniliuc
+     * @modifiedBy Ibrahim Garhiou
      */
     private void init() {
-        ServerAddress address = new ServerAddress(config.getMongoHostname(), config.getMongoPort());
+        // Misst Laufzeiten pro Befehl und Collection und loggt langsame Abfragen
+        queryProfiler = new QueryProfiler(config.getSlowQueryThresholdMs());
+
+        client = MongoClients.create(createSettings(config, queryProfiler, QueryProfiler.synchronousContextProvider()));
+        database = client.getDatabase(config.getMongoDatabase());
+
+        for (Workload workload : Workload.values()) {
+            readPreferences.put(workload, workload.toReadPreference(config));
+        }
+    }
+
+    /**
+     * Erstellt die Client-Einstellungen aus der Konfiguration. Ist ein Replica Set konfiguriert,
+     * verbindet sich der Treiber mit allen Knoten, sodass Read Preferences wirksam werden.
+     *
+     * @param contextProvider Liefert den RequestContext je Befehl, passend zum synchronen bzw. reaktiven Treiber
+     * @author Ibrahim Garhiou
+     */
+    static MongoClientSettings createSettings(MongoDBConfig config, CommandListener commandListener,
+                                              ContextProvider contextProvider) {
+        List<ServerAddress> addresses = new ArrayList<>();
+        for (String host : config.getMongoHosts()) {
+            addresses.add(new ServerAddress(host));
+        }
         MongoCredential credential = MongoCredential.createCredential(
                 config.getMongoUsername(), config.getMongoDatabase(), config.getMongoPassword().toCharArray());
+        String replicaSet = config.getReplicaSetName();
 
-        MongoClientSettings settings = MongoClientSettings.builder()
-                .applyToClusterSettings(builder -> builder.hosts(List.of(address)))
+        return MongoClientSettings.builder()
+                .applyToClusterSettings(builder -> {
+                    builder.hosts(addresses);
+                    if (replicaSet != null && !replicaSet.isBlank()) {
+                        builder.requiredReplicaSetName(replicaSet);
+                    }
+                })
                 .applyToSocketSettings(builder -> builder.connectTimeout(5, TimeUnit.SECONDS))
+                .addCommandListener(commandListener)
+                .contextProvider(contextProvider)
                 .credential(credential)
                 .build();
-
-        client = MongoClients.create(settings);
-        database = client.getDatabase(config.getMongoDatabase());
     }
 
     /**
@@ -68,6 +105,26 @@ public class MongoDatabaseHandler {
         return this.database;
     }
 
+    /**
+     * Gibt die geladene Konfiguration zurück.
+     *
+     * @author Ibrahim Garhiou
+     * @return Die MongoDB-Konfiguration.
+     */
+    public MongoDBConfig getConfig() {
+        return this.config;
+    }
+
+    /**
+     * Gibt den Profiler zurück, der die Laufzeiten aller Datenbankbefehle aufzeichnet.
+     *
+     * @author Ibrahim Garhiou
+     * @return Der registrierte QueryProfiler.
+     */
+    public QueryProfiler getQueryProfiler() {
+        return this.queryProfiler;
+    }
+
     /**
      * Fügt ein Dokument in die angegebene Collection ein.
      *
@@ -92,6 +149,20 @@ public class MongoDatabaseHandler {
         return database.getCollection(collectionName).find(filter);
     }
 
+    /**
+     * Sucht Dokumente und leitet die Abfrage entsprechend der Workload an Primary, Secondary
+     * oder den nächstgelegenen Knoten weiter.
+     *
+     * @author Ibrahim Garhiou
+     * @param collectionName Name der Collection, in der gesucht wird.
+     * @param filter         Der Suchfilter.
+     * @param workload       Art der Abfrage.
+     * @return Eine Iterable-Liste der gefundenen Dokumente.
+     */
+    public FindIterable<Document> findDocuments(String collectionName, Bson filter, Workload workload) {
+        return getCollection(collectionName, workload).find(filter);
+    }
+
     /**
      * Aktualisiert ein einzelnes Dokument in der angegebenen Collection.
      *
@@ -129,6 +200,19 @@ public class MongoDatabaseHandler {
         return database.getCollection(collectionName).aggregate(pipeline);
     }
 
+    /**
+     * Führt eine Aggregation mit der Read Preference der angegebenen Workload aus.
+     *
+     * @author Ibrahim Garhiou
+     * @param collectionName Name der Collection
+     * @param pipeline Liste von Aggregationsstufen
+     * @param workload Art der Abfrage, für Auswertungen in der Regel ANALYTIC
+     * @return Die Aggregationsergebnisse
+     */
+    public AggregateIterable<Document> aggregateDocuments(String collectionName, List<Bson> pipeline, Workload workload) {
+        return getCollection(collectionName, workload).aggregate(pipeline);
+    }
+
 
     /**
      * Zählt die Anzahl der Dokumente in einer Collection, die einem bestimmten Filter entsprechen.
@@ -193,4 +277,18 @@ public class MongoDatabaseHandler {
         return database.getCollection(collectionName);
     }
 
+    /**
+     * Holt eine Collection mit der Read Preference und dem Read Concern der angegebenen Workload.
+     *
+     * @param collectionName Name der Collection.
+     * @param workload Art der Abfrage.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public MongoCollection<Document> getCollection(String collectionName, Workload workload) {
+        return database.getCollection(collectionName)
+                .withReadPreference(readPreferences.get(workload))
+                .withReadConcern(workload.toReadConcern());
+    }
+
 }
@@ -0,0 +1,125 @@
+package database;
+
+import com.mongodb.client.model.Projections;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implementierung von {@link ParliamentRepository} auf MongoDB.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class MongoParliamentRepository implements ParliamentRepository {
+
+    private final MongoDatabaseHandler mongoHandler;
+    private final NlpLayerStore nlpLayerStore;
+    private final AggregateGenerations generations;
+
+    /**
+     * Konstruktor für das Mongo-Repository.
+     *
+     * @param mongoHandler Die MongoDB-Verbindung
+     * @author Ibrahim Garhiou
+     */
+    public MongoParliamentRepository(MongoDatabaseHandler mongoHandler) {
+        this.mongoHandler = mongoHandler;
+        this.nlpLayerStore = new NlpLayerStore(mongoHandler);
+        this.generations = new AggregateGenerations(mongoHandler);
+    }
+
+    public MongoDatabaseHandler getMongoHandler() {
+        return mongoHandler;
+    }
+
+    @Override
+    public List<Document> findSpeeches(Document filter, int skip, int limit) {
+        return mongoHandler.findDocuments("rede", SpeechDeduplicator.canonical(filter), Workload.INTERACTIVE)
+                .projection(NlpLayerStore.withoutNlpResults())
+                .skip(skip)
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+
+    @Override
+    public List<Document> searchSpeeches(String text, int skip, int limit) {
+        return findSpeeches(new Document("$text", new Document("$search", text)), skip, limit);
+    }
+
+    @Override
+    public Document findSpeechById(String id) {
+        Document rede = mongoHandler.findDocuments("rede", new Document("_id", id), Workload.LATENCY_CRITICAL).first();
+        return rede != null ? nlpLayerStore.attach(rede) : null;
+    }
+
+    @Override
+    public List<String> findSessionIndices() {
+        return mongoHandler.getCollection("rede", Workload.ANALYTIC)
+                .distinct("protocol.index", String.class)
+                .into(new ArrayList<>());
+    }
+
+    @Override
+    public List<String> findTopics() {
+        List<String> topics = mongoHandler.getCollection(NlpLayerStore.COLLECTION, Workload.ANALYTIC)
+                .distinct("data.value", new Document("layer", "topics"), String.class)
+                .into(new ArrayList<>());
+
+        // Noch nicht migrierte Reden mit eingebetteten Topics
+        mongoHandler.getCollection("rede", Workload.ANALYTIC)
+                .distinct("nlpResults.topics.value", String.class)
+                .into(topics);
+        return topics.stream().distinct().toList();
+    }
+
+    @Override
+    public List<Document> findProtocols(int skip, int limit) {
+        return mongoHandler.findDocuments("protokolle", new Document(), Workload.INTERACTIVE)
+                .skip(skip)
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+
+    @Override
+    public List<Document> findAbgeordnete() {
+        return mongoHandler.findDocuments("abgeordnete", new Document(), Workload.ANALYTIC).into(new ArrayList<>());
+    }
+
+    @Override
+    public List<Document> findBilder() {
+        return mongoHandler.findDocuments("bilder", new Document(), Workload.INTERACTIVE).into(new ArrayList<>());
+    }
+
+    @Override
+    public Document findBildById(String id) {
+        return mongoHandler.findDocuments("bilder", new Document("_id", id), Workload.LATENCY_CRITICAL).first();
+    }
+
+    @Override
+    public String findVideoPath(String redeId) {
+        Document videoDoc = mongoHandler.findDocuments("VideoLinks", new Document("RedeId", redeId), Workload.LATENCY_CRITICAL).first();
+        return videoDoc != null ? videoDoc.getString("videoPath") : null;
+    }
+
+    @Override
+    public List<Document> findKommentareByRedeId(String redeId) {
+        return mongoHandler.findDocuments("kommentare", new Document("redeID", redeId), Workload.INTERACTIVE).into(new ArrayList<>());
+    }
+
+    @Override
+    public Document findAggregate(String type, String value) {
+        Document filter = generations.current(new Document("type", type).append("value", value));
+        return mongoHandler.findDocuments(AggregateGenerations.COLLECTION, filter, Workload.INTERACTIVE)
+                .projection(Projections.exclude(AggregateGenerations.SKETCHES))
+                .first();
+    }
+
+    @Override
+    public List<Document> findAggregates(Document filter, int limit) {
+        return mongoHandler.findDocuments(AggregateGenerations.COLLECTION, generations.current(filter), Workload.INTERACTIVE)
+                .projection(Projections.exclude(AggregateGenerations.SKETCHES))
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+}
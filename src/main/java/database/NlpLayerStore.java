@@ -0,0 +1,362 @@
+package database;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.*;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Speichert die NLP-Ergebnisse einer Rede getrennt vom Rede-Dokument.
+ * Pro Rede und Layer (tokens, sentiment, namedEntities, topics, vadersentiment) gibt es ein Dokument
+ * in "rede_nlp" der Form {_id: "redeId:layer", speechId, layer, data}. Das Rede-Dokument enthält nur
+ * noch die Liste der vorhandenen Layer in "nlpLayers".
+ *
+ * Abfragen, die nur Metadaten oder Text brauchen, laden so keine Annotationen mehr. Wer NLP-Daten
+ * benötigt, lädt die Layer mit {@link #attach} bzw. {@link #attachAll} nach oder hängt in Pipelines
+ * {@link #lookupStages} an. Beide Wege liefern das gewohnte Feld "nlpResults", sodass noch nicht
+ * migrierte Reden mit eingebetteten Ergebnissen weiterhin funktionieren.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class NlpLayerStore {
+
+    public static final String COLLECTION = "rede_nlp";
+    public static final List<String> LAYERS = List.of("tokens", "sentiment", "namedEntities", "topics", "vadersentiment");
+
+    // Maximale Anzahl an Rede-IDs pro $in-Abfrage beim Nachladen
+    private static final int ATTACH_BATCH_SIZE = 500;
+
+    private final MongoDatabaseHandler mongoHandler;
+
+    /**
+     * Konstruktor für den Layer-Speicher.
+     *
+     * @param mongoHandler Die MongoDB-Verbindung
+     * @author Ibrahim Garhiou
+     */
+    public NlpLayerStore(MongoDatabaseHandler mongoHandler) {
+        this.mongoHandler = mongoHandler;
+    }
+
+    /**
+     * Legt den Index auf (speechId, layer) an. Der Index ist partiell, da "rede_nlp" auch die vom
+     * XmiImporter geschriebenen Dokumente ohne Layer-Feld enthalten kann. Dazu kommen die Indizes
+     * auf das beim Speichern gesetzte Haupt-Topic, siehe {@link DominantTopic}.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void ensureIndexes() {
+        mongoHandler.getCollection(COLLECTION).createIndex(
+                Indexes.ascending("speechId", "layer"),
+                new IndexOptions()
+                        .unique(true)
+                        .partialFilterExpression(Filters.exists("layer"))
+                        .name("speechId_layer"));
+        DominantTopic.ensureIndexes(mongoHandler);
+    }
+
+    /**
+     * Speichert alle Layer einer Rede und entfernt die eingebetteten Ergebnisse aus dem Rede-Dokument.
+     * Wird von {@link nlp.RedenNLP#saveResults} nach jeder NLP-Verarbeitung aufgerufen. Die Rede erhält eine neue {@link IngestSequence}, damit die Aggregation die neuen Ergebnisse übernimmt,
+     * und bei einem Topic-Layer die Felder aus {@link DominantTopic}.
+     *
+     * @param speechId _id der Rede
+     * @param nlpResults NLP-Ergebnisse im bisherigen Format
+     * @author Ibrahim Garhiou
+     */
+    public void saveLayers(Object speechId, Document nlpResults) {
+        List<WriteModel<Document>> layerWrites = new ArrayList<>();
+        List<String> layerNames = collectLayerWrites(speechId, nlpResults, layerWrites);
+        // Layer eines früheren Laufs, die diesmal fehlen, dürfen nicht mehr nachgeladen werden
+        layerWrites.add(new DeleteManyModel<>(Filters.and(Filters.eq("speechId", speechId),
+                Filters.exists("layer"), Filters.nin("layer", layerNames))));
+
+        mongoHandler.getCollection(COLLECTION).bulkWrite(layerWrites, new BulkWriteOptions().ordered(false));
+        try (IngestSequence.Reservation seq = IngestSequence.reserve(mongoHandler, 1)) {
+            mongoHandler.getCollection("rede").updateOne(Filters.eq("_id", speechId),
+                    Updates.combine(layerReference(nlpResults, layerNames), seq.stamp()));
+        }
+    }
+
+    /**
+     * Lädt die angeforderten Layer einer Rede nach und legt sie unter "nlpResults" ab.
+     *
+     * @param rede Das Rede-Dokument
+     * @param layers Gewünschte Layer, ohne Angabe alle
+     * @return Dieselbe Rede mit ergänztem "nlpResults"
+     * @author Ibrahim Garhiou
+     */
+    public Document attach(Document rede, String... layers) {
+        attachAll(Collections.singletonList(rede), layers);
+        return rede;
+    }
+
+    /**
+     * Lädt die angeforderten Layer für mehrere Reden mit möglichst wenigen Abfragen nach.
+     * Bereits vorhandene (z.B. noch eingebettete) Layer werden nicht erneut geladen.
+     *
+     * @param reden Rede-Dokumente
+     * @param layers Gewünschte Layer, ohne Angabe alle
+     * @return Dieselbe Liste
+     * @author Ibrahim Garhiou
+     */
+    public List<Document> attachAll(List<Document> reden, String... layers) {
+        List<String> wanted = layers.length == 0 ? LAYERS : Arrays.asList(layers);
+        Map<Object, Document> pending = new LinkedHashMap<>();
+
+        for (Document rede : reden) {
+            Object nlpResults = rede.get("nlpResults");
+            if (nlpResults != null && !(nlpResults instanceof Document)) {
+                continue;
+            }
+            Document results = (Document) nlpResults;
+            boolean missing = wanted.stream().anyMatch(layer -> results == null || !results.containsKey(layer));
+            if (missing && hasStoredLayers(rede, wanted)) {
+                pending.put(rede.get("_id"), rede);
+            }
+        }
+
+        List<Object> ids = new ArrayList<>(pending.keySet());
+        for (int from = 0; from < ids.size(); from += ATTACH_BATCH_SIZE) {
+            List<Object> batch = ids.subList(from, Math.min(from + ATTACH_BATCH_SIZE, ids.size()));
+            Bson filter = Filters.and(Filters.in("speechId", batch), Filters.in("layer", wanted));
+
+            for (Document layerDoc : mongoHandler.findDocuments(COLLECTION, filter)) {
+                Document rede = pending.get(layerDoc.get("speechId"));
+                if (rede == null) continue;
+
+                Document results = rede.get("nlpResults", Document.class);
+                if (results == null) {
+                    results = new Document();
+                    rede.put("nlpResults", results);
+                }
+                results.putIfAbsent(layerDoc.getString("layer"), layerDoc.get("data"));
+            }
+        }
+
+        attachEmbedded(pending.values(), wanted);
+        return reden;
+    }
+
+    /**
+     * Ergänzt Layer noch nicht migrierter Reden aus dem Rede-Dokument selbst, falls sie beim
+     * ursprünglichen Laden wegprojiziert wurden.
+     *
+     * @author Ibrahim Garhiou
+     */
+    private void attachEmbedded(Collection<Document> reden, List<String> wanted) {
+        Map<Object, Document> legacy = new LinkedHashMap<>();
+        for (Document rede : reden) {
+            if (rede.get("nlpLayers") instanceof List) continue;
+            Document results = rede.get("nlpResults", Document.class);
+            if (results == null || wanted.stream().anyMatch(layer -> !results.containsKey(layer))) {
+                legacy.put(rede.get("_id"), rede);
+            }
+        }
+        if (legacy.isEmpty()) return;
+
+        List<String> paths = new ArrayList<>();
+        for (String layer : wanted) paths.add("nlpResults." + layer);
+
+        List<Object> ids = new ArrayList<>(legacy.keySet());
+        for (int from = 0; from < ids.size(); from += ATTACH_BATCH_SIZE) {
+            List<Object> batch = ids.subList(from, Math.min(from + ATTACH_BATCH_SIZE, ids.size()));
+            for (Document stored : mongoHandler.findDocuments("rede", Filters.in("_id", batch))
+                    .projection(Projections.include(paths))) {
+                Document embedded = stored.get("nlpResults", Document.class);
+                Document rede = legacy.get(stored.get("_id"));
+                if (embedded == null || rede == null) continue;
+
+                Document results = rede.get("nlpResults", Document.class);
+                if (results == null) {
+                    results = new Document();
+                    rede.put("nlpResults", results);
+                }
+                for (Map.Entry<String, Object> entry : embedded.entrySet()) {
+                    results.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Iteriert über einen Layer aller Reden, sowohl aus "rede_nlp" als auch aus noch nicht
+     * migrierten Rede-Dokumenten.
+     *
+     * @param layer Name des Layers
+     * @param consumer Erhält die Rede-ID und die Layer-Daten
+     * @author Ibrahim Garhiou
+     */
+    public void forEachLayer(String layer, BiConsumer<Object, Object> consumer) {
+        try (MongoCursor<Document> cursor = mongoHandler.findDocuments(COLLECTION, Filters.eq("layer", layer), Workload.ANALYTIC)
+                .projection(Projections.include("speechId", "data"))
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document layerDoc = cursor.next();
+                consumer.accept(layerDoc.get("speechId"), layerDoc.get("data"));
+            }
+        }
+
+        String embeddedPath = "nlpResults." + layer;
+        try (MongoCursor<Document> cursor = mongoHandler.findDocuments("rede", Filters.exists(embeddedPath), Workload.ANALYTIC)
+                .projection(Projections.include(embeddedPath))
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document rede = cursor.next();
+                consumer.accept(rede.get("_id"), rede.get("nlpResults", Document.class).get(layer));
+            }
+        }
+    }
+
+    /**
+     * Pipeline-Stufen, die die angegebenen Layer per $lookup an jede Rede anhängen und als
+     * "nlpResults" bereitstellen. Noch eingebettete Ergebnisse haben Vorrang.
+     * Die Stufen sollten nach dem ersten $match eingefügt werden, damit nur die benötigten Reden
+     * nachgeladen werden.
+     *
+     * @param layers Gewünschte Layer, ohne Angabe alle
+     * @return Liste von Pipeline-Stufen
+     * @author Ibrahim Garhiou
+     */
+    public static List<Bson> lookupStages(String... layers) {
+        List<String> wanted = layers.length == 0 ? LAYERS : Arrays.asList(layers);
+
+        Document lookup = new Document("$lookup", new Document("from", COLLECTION)
+                .append("let", new Document("sid", "$_id"))
+                .append("pipeline", Arrays.asList(
+                        new Document("$match", new Document("$expr", new Document("$eq", Arrays.asList("$speechId", "$$sid")))
+                                .append("layer", new Document("$in", wanted))),
+                        new Document("$project", new Document("_id", 0).append("k", "$layer").append("v", "$data"))))
+                .append("as", "_nlpLayers"));
+
+        Document merge = new Document("$addFields", new Document("nlpResults",
+                new Document("$ifNull", Arrays.asList("$nlpResults", new Document("$arrayToObject", "$_nlpLayers")))));
+
+        return Arrays.asList(lookup, merge, Aggregates.project(Projections.exclude("_nlpLayers")));
+    }
+
+    /**
+     * Projektion für Abfragen, die nur Metadaten und Text einer Rede benötigen.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static Bson withoutNlpResults() {
+        return Projections.exclude("nlpResults");
+    }
+
+    /**
+     * Projektion, die von eingebetteten Ergebnissen nur die angegebenen Layer lädt.
+     * Fehlende Layer können danach mit {@link #attachAll} ergänzt werden.
+     *
+     * @param keep Layer, die mitgeladen werden sollen
+     * @author Ibrahim Garhiou
+     */
+    public static Bson withOnlyLayers(String... keep) {
+        List<String> excluded = new ArrayList<>();
+        for (String layer : LAYERS) {
+            if (!Arrays.asList(keep).contains(layer)) {
+                excluded.add("nlpResults." + layer);
+            }
+        }
+        return Projections.exclude(excluded);
+    }
+
+    /**
+     * Verschiebt eingebettete NLP-Ergebnisse aller Reden nach "rede_nlp".
+     * Es wird immer der nächste Stapel noch nicht migrierter Reden gelesen, daher kann die Migration
+     * jederzeit abgebrochen und erneut gestartet werden.
+     *
+     * @param batchSize Anzahl der Reden pro Stapel
+     * @return Anzahl der migrierten Reden
+     * @author Ibrahim Garhiou
+     */
+    public int migrateEmbeddedResults(int batchSize) {
+        ensureIndexes();
+        Bson embedded = Filters.type("nlpResults", "object");
+        int migrated = 0;
+
+        while (true) {
+            List<Document> batch = mongoHandler.findDocuments("rede", embedded)
+                    .projection(Projections.include("nlpResults"))
+                    .limit(batchSize)
+                    .into(new ArrayList<>());
+            if (batch.isEmpty()) break;
+
+            List<WriteModel<Document>> layerWrites = new ArrayList<>();
+            List<WriteModel<Document>> redeWrites = new ArrayList<>();
+            for (Document rede : batch) {
+                Object speechId = rede.get("_id");
+                List<String> layerNames = collectLayerWrites(speechId, rede.get("nlpResults", Document.class), layerWrites);
+                redeWrites.add(new UpdateOneModel<>(Filters.eq("_id", speechId),
+                        layerReference(rede.get("nlpResults", Document.class), layerNames)));
+            }
+
+            // Erst die Layer schreiben, dann die Rede umstellen: bei einem Abbruch bleibt die Rede unverändert
+            if (!layerWrites.isEmpty()) {
+                mongoHandler.getCollection(COLLECTION).bulkWrite(layerWrites, new BulkWriteOptions().ordered(false));
+            }
+            mongoHandler.getCollection("rede").bulkWrite(redeWrites, new BulkWriteOptions().ordered(false));
+
+            migrated += batch.size();
+            System.out.println("[NlpLayerStore] Migriert: " + migrated + " Reden");
+        }
+
+        System.out.println("[NlpLayerStore] Migration abgeschlossen, " + migrated + " Reden umgestellt.");
+        return migrated;
+    }
+
+    private static List<String> collectLayerWrites(Object speechId, Document nlpResults, List<WriteModel<Document>> writes) {
+        List<String> layerNames = new ArrayList<>();
+        if (nlpResults == null) return layerNames;
+
+        for (Map.Entry<String, Object> entry : nlpResults.entrySet()) {
+            String layer = entry.getKey();
+            NumericNlpFieldsMigration.normalize(layer, entry.getValue());
+            Document layerDoc = new Document("_id", speechId + ":" + layer)
+                    .append("speechId", speechId)
+                    .append("layer", layer)
+                    .append("data", entry.getValue());
+            writes.add(new ReplaceOneModel<>(Filters.eq("_id", layerDoc.get("_id")), layerDoc,
+                    new ReplaceOptions().upsert(true)));
+            layerNames.add(layer);
+        }
+        return layerNames;
+    }
+
+    private static Bson layerReference(Document nlpResults, List<String> layerNames) {
+        Bson reference = Updates.combine(Updates.set("nlpLayers", layerNames), Updates.unset("nlpResults"));
+        return layerNames.contains("topics")
+                ? Updates.combine(reference, DominantTopic.update(nlpResults.get("topics")))
+                : reference;
+    }
+
+    private static boolean hasStoredLayers(Document rede, List<String> wanted) {
+        Object nlpLayers = rede.get("nlpLayers");
+        if (!(nlpLayers instanceof List)) {
+            // Ohne Referenz (z.B. bei Projektionen) muss nachgeschaut werden
+            return true;
+        }
+        for (Object layer : (List<?>) nlpLayers) {
+            if (wanted.contains(layer)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Startet die Migration der eingebetteten NLP-Ergebnisse.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static void main(String[] args) {
+        try {
+            MongoDatabaseHandler mongoHandler = new MongoDatabaseHandler("mongodb.properties");
+            new NlpLayerStore(mongoHandler).migrateEmbeddedResults(200);
+            mongoHandler.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
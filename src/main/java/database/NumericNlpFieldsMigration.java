@@ -0,0 +1,207 @@
+package database;
+
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Migration 1: Speichert Topic-Scores und Sentiment-Werte als Double statt als String.
+ * Betroffen sind die Layer in "rede_nlp" sowie noch eingebettete Ergebnisse in "rede".
+ *
+ * Gelesen werden immer nur Dokumente, die in einem der Felder noch keinen Double enthalten.
+ * Nicht lesbare Werte werden auf null gesetzt, damit sie beim nächsten Stapel nicht erneut auftauchen.
+ * Dokumente, deren Layer-Daten keine Liste von Annotationen sind, erhalten den Pfad in
+ * "numericMigrationSkipped" und werden nicht erneut gelesen.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class NumericNlpFieldsMigration implements Migration {
+
+    // Numerische Felder je Layer
+    static final Map<String, List<String>> NUMERIC_FIELDS = Map.of(
+            "topics", List.of("score"),
+            "sentiment", List.of("sentiment", "subjectivity"),
+            "vadersentiment", List.of("sentiment", "subjectivity"));
+
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    // Pfade, deren Daten sich nicht umwandeln ließen
+    static final String SKIPPED_FIELD = "numericMigrationSkipped";
+
+    private final int batchSize;
+
+    public NumericNlpFieldsMigration() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    public NumericNlpFieldsMigration(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Topic-Scores und Sentiments als Double speichern";
+    }
+
+    @Override
+    public void apply(MongoDatabaseHandler mongoHandler) {
+        int layers = 0;
+        int reden = 0;
+        for (Map.Entry<String, List<String>> entry : NUMERIC_FIELDS.entrySet()) {
+            String layer = entry.getKey();
+            layers += convertBatches(mongoHandler, NlpLayerStore.COLLECTION,
+                    Filters.and(Filters.eq("layer", layer), notDoubleFilter("data", entry.getValue())), "data", layer);
+            reden += convertBatches(mongoHandler, "rede",
+                    notDoubleFilter("nlpResults." + layer, entry.getValue()), "nlpResults." + layer, layer);
+        }
+        System.out.println("[NumericNlpFieldsMigration] " + layers + " Layer-Dokumente und " + reden + " Reden umgestellt");
+    }
+
+    /**
+     * Wandelt die numerischen Felder eines Layers im Speicher um. Wird auch beim Schreiben neuer
+     * Layer und beim Laden von Exportdateien verwendet, damit diese nicht mehr als String ankommen.
+     *
+     * @param layer Name des Layers
+     * @param layerData Die Layer-Daten, in der Regel eine Liste von Annotationen
+     * @return true, wenn mindestens ein Wert geändert wurde
+     * @author Ibrahim Garhiou
+     */
+    public static boolean normalize(String layer, Object layerData) {
+        List<String> fields = NUMERIC_FIELDS.get(layer);
+        if (fields == null || !(layerData instanceof List)) return false;
+
+        boolean changed = false;
+        for (Object item : (List<?>) layerData) {
+            if (!(item instanceof Document annotation)) continue;
+            for (String field : fields) {
+                Object value = annotation.get(field);
+                if (value == null || value instanceof Double) continue;
+                annotation.put(field, toDouble(value));
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Wandelt eingebettete NLP-Ergebnisse einer Rede um.
+     *
+     * @param nlpResults Das Feld "nlpResults" einer Rede, darf null sein
+     * @author Ibrahim Garhiou
+     */
+    public static void normalizeAll(Document nlpResults) {
+        if (nlpResults == null) return;
+        for (String layer : NUMERIC_FIELDS.keySet()) {
+            normalize(layer, nlpResults.get(layer));
+        }
+    }
+
+    private int convertBatches(MongoDatabaseHandler mongoHandler, String collection, Bson filter, String path, String layer) {
+        int converted = 0;
+        int skipped = 0;
+        // Dokumente, deren Daten sich nicht umwandeln lassen (z.B. kein Array), werden markiert und übersprungen
+        Bson pending = Filters.and(filter, Filters.ne(SKIPPED_FIELD, path));
+        Set<Object> previousIds = Set.of();
+
+        while (true) {
+            List<Document> batch = mongoHandler.findDocuments(collection, pending)
+                    .projection(Projections.include(path))
+                    .limit(batchSize)
+                    .into(new ArrayList<>());
+            if (batch.isEmpty()) break;
+
+            Set<Object> ids = new HashSet<>();
+            for (Document doc : batch) ids.add(doc.get("_id"));
+            if (ids.equals(previousIds)) {
+                // Derselbe Stapel wie zuvor: die Schreibvorgänge haben nichts bewirkt
+                System.err.println("[NumericNlpFieldsMigration] Kein Fortschritt in " + collection + "/" + path
+                        + ", Abbruch nach " + converted + " Dokumenten");
+                break;
+            }
+            previousIds = ids;
+
+            List<WriteModel<Document>> writes = new ArrayList<>();
+            for (Document doc : batch) {
+                Object layerData = readPath(doc, path);
+                if (normalize(layer, layerData)) {
+                    writes.add(new UpdateOneModel<>(Filters.eq("_id", doc.get("_id")), Updates.set(path, layerData)));
+                    converted++;
+                } else {
+                    writes.add(new UpdateOneModel<>(Filters.eq("_id", doc.get("_id")), Updates.addToSet(SKIPPED_FIELD, path)));
+                    skipped++;
+                }
+            }
+            mongoHandler.getCollection(collection).bulkWrite(writes, new BulkWriteOptions().ordered(false));
+
+            System.out.println("[NumericNlpFieldsMigration] " + collection + "/" + path + ": " + converted + " Dokumente");
+        }
+        if (skipped > 0) {
+            System.err.println("[NumericNlpFieldsMigration] " + collection + "/" + path + ": " + skipped
+                    + " Dokumente nicht umwandelbar, markiert in \"" + SKIPPED_FIELD + "\"");
+        }
+        return converted;
+    }
+
+    // Findet Dokumente, in denen eines der Felder noch als String oder Ganzzahl gespeichert ist
+    private static Bson notDoubleFilter(String path, List<String> fields) {
+        List<Bson> filters = new ArrayList<>();
+        for (String field : fields) {
+            filters.add(Filters.type(path + "." + field, "string"));
+            filters.add(Filters.type(path + "." + field, "int"));
+            filters.add(Filters.type(path + "." + field, "long"));
+        }
+        return Filters.or(filters);
+    }
+
+    private static Object readPath(Document doc, String path) {
+        Object current = doc;
+        for (String part : path.split("\\.")) {
+            if (!(current instanceof Document)) return null;
+            current = ((Document) current).get(part);
+        }
+        return current;
+    }
+
+    private static Double toDouble(Object value) {
+        Double number = numberOf(value);
+        if (number == null) {
+            System.err.println("[NumericNlpFieldsMigration] Wert nicht lesbar, wird auf null gesetzt: " + value);
+        }
+        return number;
+    }
+
+    /**
+     * Liest einen Topic-Score oder Sentiment-Wert, egal ob er bereits migriert ist: Zahlen direkt,
+     * Strings aus der Zeit vor dieser Migration werden geparst. So funktionieren Leser auch auf einer
+     * Datenbank, auf der die Migration (z.B. wegen auto_migrate=false) noch nicht gelaufen ist.
+     *
+     * @param value Der gespeicherte Wert
+     * @return Der Wert oder null, wenn er fehlt oder nicht lesbar ist
+     * @author Ibrahim Garhiou
+     */
+    public static Double numberOf(Object value) {
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        if (value == null) return null;
+        try {
+            return Double.parseDouble(value.toString().trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package database;
+
+import org.bson.Document;
+
+import java.util.List;
+
+/**
+ * Datenzugriff der REST-API auf Reden, Protokolle, Abgeordnete, Bilder, Videos, Kommentare
+ * und vorberechnete Aggregationen. Die API arbeitet nur gegen dieses Interface, sodass neben
+ * MongoDB auch ein reiner In-Memory-Speicher (z.B. für Benchmarks oder Offline-Betrieb)
+ * eingesetzt werden kann.
+ *
+ * Filter werden in MongoDB-Abfragesyntax übergeben. Zurückgegebene Dokumente sind Kopien
+ * und dürfen vom Aufrufer verändert werden.
+ *
+ * @author Ibrahim Garhiou
+ */
+public interface ParliamentRepository {
+
+    /**
+     * Sucht Reden ohne NLP-Ergebnisse.
+     *
+     * @param filter Filter in MongoDB-Syntax
+     * @param skip Anzahl zu überspringender Treffer
+     * @param limit Maximale Anzahl Treffer
+     */
+    List<Document> findSpeeches(Document filter, int skip, int limit);
+
+    /**
+     * Volltextsuche über die Reden (Semantik wie der MongoDB-Operator $text).
+     */
+    List<Document> searchSpeeches(String text, int skip, int limit);
+
+    /**
+     * Gibt eine Rede inklusive aller NLP-Layer unter "nlpResults" zurück, oder null.
+     */
+    Document findSpeechById(String id);
+
+    List<String> findSessionIndices();
+
+    List<String> findTopics();
+
+    List<Document> findProtocols(int skip, int limit);
+
+    List<Document> findAbgeordnete();
+
+    List<Document> findBilder();
+
+    Document findBildById(String id);
+
+    /**
+     * Gibt den Video-Pfad einer Rede zurück, oder null.
+     */
+    String findVideoPath(String redeId);
+
+    List<Document> findKommentareByRedeId(String redeId);
+
+    /**
+     * Gibt das Aggregationsergebnis zu Typ (all, sessions, speakers, topics) und Wert zurück, oder null.
+     */
+    Document findAggregate(String type, String value);
+
+    List<Document> findAggregates(Document filter, int limit);
+}
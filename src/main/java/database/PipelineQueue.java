@@ -0,0 +1,304 @@
+package database;
+
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.*;
+
+/**
+ * Persistente Warteschlange der Ingest-Pipeline in der Collection "pipeline_queue".
+ *
+ * Jeder Eintrag gehört zu einer Stufe ("stage") und trägt die ID, die die vorherige Stufe erzeugt hat
+ * (Protokoll-ID, Rede-ID). Pro Stufe und ID gibt es genau einen Eintrag. Ein Worker holt sich einen
+ * offenen Eintrag mit {@link #claim} und erhält dafür eine Lease. Läuft sie ab, ohne dass der Eintrag
+ * mit {@link #ack} oder {@link #fail} abgeschlossen wurde, weil der Prozess abgestürzt ist, wird der
+ * Eintrag erneut vergeben. Die Stufen müssen daher idempotent sein.
+ *
+ * Wird eine ID erneut eingereiht, während sie noch bearbeitet wird, erhöht sich ihre "version" und sie
+ * wird mit "requeued" markiert, bleibt aber vergeben. Erst {@link #ack} oder {@link #fail} der laufenden
+ * Bearbeitung öffnet sie wieder, so bearbeiten nie zwei Worker dieselbe ID gleichzeitig.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class PipelineQueue {
+
+    public static final String COLLECTION = "pipeline_queue";
+
+    /**
+     * Status eines Eintrags.
+     */
+    public enum Status {
+        PENDING, CLAIMED, DONE, FAILED
+    }
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoDatabaseHandler mongoHandler;
+
+    /**
+     * Konstruktor für die Warteschlange.
+     *
+     * @param mongoHandler Die MongoDB-Verbindung
+     * @author Ibrahim Garhiou
+     */
+    public PipelineQueue(MongoDatabaseHandler mongoHandler) {
+        this.mongoHandler = mongoHandler;
+    }
+
+    /**
+     * Legt den Index an, über den offene und abgelaufene Einträge einer Stufe gefunden werden.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void ensureIndexes() {
+        mongoHandler.getCollection(COLLECTION).createIndex(
+                Indexes.ascending("stage", "status", "enqueuedAt"),
+                new IndexOptions().name("stage_status_enqueuedAt"));
+    }
+
+    /**
+     * Reiht eine ID für eine Stufe ein. Ein bereits abgeschlossener oder fehlgeschlagener Eintrag wird
+     * wieder geöffnet, ein laufender bleibt vergeben und wird nach seinem Abschluss erneut geöffnet.
+     *
+     * @param stage Name der Stufe
+     * @param itemId Die zu bearbeitende ID
+     * @author Ibrahim Garhiou
+     */
+    public void enqueue(String stage, String itemId) {
+        Date now = new Date();
+        // Update-Pipeline, damit der Status abhängig vom bisherigen Status in einem Schritt gesetzt wird
+        Document claimed = new Document("$eq", List.of("$status", Status.CLAIMED.name()));
+        List<Bson> update = List.of(new Document("$set", new Document("stage", ifNull("$stage", stage))
+                .append("itemId", ifNull("$itemId", itemId))
+                .append("enqueuedAt", ifNull("$enqueuedAt", now))
+                .append("version", new Document("$add", List.of(ifNull("$version", 0L), 1L)))
+                .append("updatedAt", now)
+                .append("requeued", claimed)
+                .append("status", cond(claimed, Status.CLAIMED.name(), Status.PENDING.name()))
+                .append("attempts", cond(claimed, "$attempts", 0))
+                .append("error", cond(claimed, "$error", "$$REMOVE"))));
+        try {
+            mongoHandler.getCollection(COLLECTION).updateOne(Filters.eq("_id", key(stage, itemId)), update, new UpdateOptions().upsert(true));
+        } catch (MongoWriteException e) {
+            // Gleichzeitiges Upsert derselben ID, der Eintrag existiert jetzt
+            if (e.getError().getCode() != DUPLICATE_KEY) throw e;
+            mongoHandler.getCollection(COLLECTION).updateOne(Filters.eq("_id", key(stage, itemId)), update);
+        }
+    }
+
+    /**
+     * Reiht eine ID nur ein, wenn es für diese Stufe noch keinen Eintrag gibt.
+     *
+     * @return true, wenn ein neuer Eintrag angelegt wurde
+     * @author Ibrahim Garhiou
+     */
+    public boolean enqueueIfAbsent(String stage, String itemId) {
+        Date now = new Date();
+        try {
+            return mongoHandler.getCollection(COLLECTION).updateOne(Filters.eq("_id", key(stage, itemId)), Updates.combine(
+                    Updates.setOnInsert("stage", stage),
+                    Updates.setOnInsert("itemId", itemId),
+                    Updates.setOnInsert("enqueuedAt", now),
+                    Updates.setOnInsert("status", Status.PENDING.name()),
+                    Updates.setOnInsert("attempts", 0),
+                    Updates.setOnInsert("updatedAt", now),
+                    Updates.setOnInsert("version", 1L)), new UpdateOptions().upsert(true)).getUpsertedId() != null;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCode() != DUPLICATE_KEY) throw e;
+            return false;
+        }
+    }
+
+    /**
+     * Vergibt den ältesten offenen Eintrag einer Stufe oder einen, dessen Lease abgelaufen ist.
+     *
+     * @param stage Name der Stufe
+     * @param owner Kennung des Workers
+     * @param leaseMillis Dauer der Lease
+     * @return Der vergebene Eintrag oder null, wenn nichts offen ist
+     * @author Ibrahim Garhiou
+     */
+    public Document claim(String stage, String owner, long leaseMillis) {
+        Date now = new Date();
+        return mongoHandler.getCollection(COLLECTION).findOneAndUpdate(
+                Filters.and(Filters.eq("stage", stage), Filters.or(
+                        Filters.eq("status", Status.PENDING.name()),
+                        Filters.and(Filters.eq("status", Status.CLAIMED.name()), Filters.lt("leaseUntil", now)))),
+                Updates.combine(
+                        Updates.set("status", Status.CLAIMED.name()),
+                        Updates.set("owner", owner),
+                        Updates.set("leaseUntil", new Date(now.getTime() + leaseMillis)),
+                        Updates.set("updatedAt", now),
+                        Updates.unset("requeued"),
+                        Updates.inc("attempts", 1)),
+                new FindOneAndUpdateOptions().sort(Sorts.ascending("enqueuedAt")).returnDocument(ReturnDocument.AFTER));
+    }
+
+    /**
+     * Vergibt bis zu {@code limit} Einträge einer Stufe, z.B. um sie gemeinsam zu bearbeiten.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public List<Document> claimBatch(String stage, String owner, long leaseMillis, int limit) {
+        List<Document> claimed = new ArrayList<>();
+        Document entry;
+        while (claimed.size() < limit && (entry = claim(stage, owner, leaseMillis)) != null) {
+            claimed.add(entry);
+        }
+        return claimed;
+    }
+
+    /**
+     * Verlängert die Lease vergebener Einträge, z.B. während eines langen gemeinsamen Laufs. Einträge,
+     * die der Worker inzwischen nicht mehr hält, bleiben unverändert.
+     *
+     * @param owner Kennung des Workers aus {@link #claim}
+     * @param entries Die vergebenen Einträge
+     * @param leaseMillis Neue Dauer der Lease ab jetzt
+     * @return Anzahl verlängerter Einträge
+     * @author Ibrahim Garhiou
+     */
+    public long extend(String owner, List<Document> entries, long leaseMillis) {
+        if (entries.isEmpty()) return 0;
+        List<Object> ids = new ArrayList<>();
+        for (Document entry : entries) ids.add(entry.get("_id"));
+        Date now = new Date();
+        return mongoHandler.getCollection(COLLECTION).updateMany(
+                Filters.and(Filters.in("_id", ids), Filters.eq("owner", owner), Filters.eq("status", Status.CLAIMED.name())),
+                Updates.combine(
+                        Updates.set("leaseUntil", new Date(now.getTime() + leaseMillis)),
+                        Updates.set("updatedAt", now))).getModifiedCount();
+    }
+
+    /**
+     * Schließt einen vergebenen Eintrag ab. Wurde er inzwischen neu eingereiht, wird er stattdessen
+     * wieder geöffnet.
+     *
+     * @param entry Der mit {@link #claim} erhaltene Eintrag
+     * @author Ibrahim Garhiou
+     */
+    public void ack(Document entry) {
+        long done = mongoHandler.getCollection(COLLECTION).updateOne(
+                Filters.and(Filters.eq("_id", entry.get("_id")), Filters.eq("version", entry.get("version")),
+                        Filters.eq("status", Status.CLAIMED.name())),
+                Updates.combine(
+                        Updates.set("status", Status.DONE.name()),
+                        Updates.set("updatedAt", new Date()),
+                        Updates.unset("owner"),
+                        Updates.unset("leaseUntil"))).getModifiedCount();
+        if (done == 0) reopenRequeued(entry);
+    }
+
+    /**
+     * Gibt einen vergebenen Eintrag unbearbeitet zurück, der Versuch wird nicht gezählt.
+     *
+     * @param entry Der mit {@link #claim} erhaltene Eintrag
+     * @author Ibrahim Garhiou
+     */
+    public void release(Document entry) {
+        mongoHandler.getCollection(COLLECTION).updateOne(
+                Filters.and(Filters.eq("_id", entry.get("_id")), Filters.eq("owner", entry.get("owner")),
+                        Filters.eq("status", Status.CLAIMED.name())),
+                Updates.combine(
+                        Updates.set("status", Status.PENDING.name()),
+                        Updates.set("updatedAt", new Date()),
+                        Updates.inc("attempts", -1),
+                        Updates.unset("requeued"),
+                        Updates.unset("owner"),
+                        Updates.unset("leaseUntil")));
+    }
+
+    /**
+     * Öffnet einen noch von diesem Worker gehaltenen Eintrag, der während der Bearbeitung neu eingereiht wurde.
+     */
+    private void reopenRequeued(Document entry) {
+        mongoHandler.getCollection(COLLECTION).updateOne(
+                Filters.and(Filters.eq("_id", entry.get("_id")), Filters.eq("owner", entry.get("owner")),
+                        Filters.eq("status", Status.CLAIMED.name()), Filters.eq("requeued", true)),
+                Updates.combine(
+                        Updates.set("status", Status.PENDING.name()),
+                        Updates.set("attempts", 0),
+                        Updates.set("updatedAt", new Date()),
+                        Updates.unset("requeued"),
+                        Updates.unset("error"),
+                        Updates.unset("owner"),
+                        Updates.unset("leaseUntil")));
+    }
+
+    /**
+     * Vermerkt einen Fehler. Bis {@code maxAttempts} Versuche wird der Eintrag erneut vergeben,
+     * danach bleibt er mit Status FAILED liegen, bis die ID neu eingereiht wird.
+     *
+     * @param entry Der mit {@link #claim} erhaltene Eintrag
+     * @param error Fehlermeldung
+     * @param maxAttempts Maximale Anzahl an Versuchen
+     * @author Ibrahim Garhiou
+     */
+    public void fail(Document entry, String error, int maxAttempts) {
+        boolean exhausted = entry.getInteger("attempts", 0) >= maxAttempts;
+        long failed = mongoHandler.getCollection(COLLECTION).updateOne(
+                Filters.and(Filters.eq("_id", entry.get("_id")), Filters.eq("version", entry.get("version")),
+                        Filters.eq("status", Status.CLAIMED.name())),
+                Updates.combine(
+                        Updates.set("status", (exhausted ? Status.FAILED : Status.PENDING).name()),
+                        Updates.set("error", error),
+                        Updates.set("updatedAt", new Date()),
+                        Updates.unset("owner"),
+                        Updates.unset("leaseUntil"))).getModifiedCount();
+        // Neu eingereiht: mit frischen Versuchen wieder öffnen
+        if (failed == 0) reopenRequeued(entry);
+    }
+
+    /**
+     * Anzahl noch nicht abgeschlossener Einträge (offen oder in Bearbeitung) einer Stufe.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public long backlog(String stage) {
+        return mongoHandler.getCollection(COLLECTION).countDocuments(Filters.and(Filters.eq("stage", stage),
+                Filters.in("status", Status.PENDING.name(), Status.CLAIMED.name())));
+    }
+
+    /**
+     * Anzahl der Einträge je Stufe und Status.
+     *
+     * @return Dokument der Form {stage: {status: Anzahl}}
+     * @author Ibrahim Garhiou
+     */
+    public Document stats() {
+        Document stats = new Document();
+        for (Document group : mongoHandler.getCollection(COLLECTION).aggregate(List.of(
+                new Document("$group", new Document("_id", new Document("stage", "$stage").append("status", "$status"))
+                        .append("count", new Document("$sum", 1)))))) {
+            Document id = group.get("_id", Document.class);
+            Document stage = stats.get(id.getString("stage"), Document.class);
+            if (stage == null) {
+                stage = new Document();
+                stats.put(id.getString("stage"), stage);
+            }
+            stage.put(id.getString("status"), group.getInteger("count"));
+        }
+        return stats;
+    }
+
+    private static Document ifNull(String field, Object fallback) {
+        return new Document("$ifNull", Arrays.asList(field, fallback));
+    }
+
+    private static Document cond(Document condition, Object then, Object otherwise) {
+        return new Document("$cond", Arrays.asList(condition, then, otherwise));
+    }
+
+    private static String key(String stage, String itemId) {
+        return stage + ":" + itemId;
+    }
+}
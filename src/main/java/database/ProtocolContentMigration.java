@@ -0,0 +1,103 @@
+package database;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.jsoup.Jsoup;
+import org.jsoup.parser.Parser;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+
+/**
+ * Migration 6: Speichert Protokolle in "protokolle" als wohlgeformtes XML.
+ *
+ * Der Scraper hat Protokolle bisher über den HTML-Parser von Jsoup gespeichert ("outerHtml"), mit
+ * HTML-Entitäten wie &amp;nbsp; und nicht geschlossenen Tags. Solche Inhalte liest der StAX-Parser nicht,
+ * jedes Parsen lief über den langsameren Umweg mit dem XML-Parser von Jsoup. Die Migration prüft jedes
+ * Protokoll mit denselben Einstellungen wie {@code parser.PlenarprotokollStreamReader} und ersetzt nicht
+ * lesbare Inhalte durch die Ausgabe des XML-Parsers von Jsoup, also genau das, was der Umweg sonst bei
+ * jedem Parsen erzeugt. Wohlgeformte Protokolle bleiben unverändert, ein wiederholter Lauf ändert nichts.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class ProtocolContentMigration implements Migration {
+
+    // Protokolle sind mehrere MB groß, daher nur wenige pro Abfrage
+    private static final int BATCH_SIZE = 10;
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    @Override
+    public int getVersion() {
+        return 6;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Protokolle als wohlgeformtes XML speichern";
+    }
+
+    @Override
+    public void apply(MongoDatabaseHandler mongoHandler) {
+        int checked = 0;
+        int rewritten = 0;
+        try (MongoCursor<Document> cursor = mongoHandler.getCollection("protokolle").find()
+                .projection(Projections.include("content"))
+                .batchSize(BATCH_SIZE)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document protokoll = cursor.next();
+                String content = protokoll.getString("content");
+                checked++;
+                if (content == null || isWellFormed(content)) continue;
+
+                mongoHandler.getCollection("protokolle").updateOne(Filters.eq("_id", protokoll.get("_id")),
+                        Updates.set("content", toXml(content)));
+                rewritten++;
+            }
+        }
+        System.out.println("[ProtocolContentMigration] " + checked + " Protokolle geprüft, " + rewritten + " als XML neu gespeichert");
+    }
+
+    /**
+     * Prüft, ob der StAX-Parser den Inhalt vollständig lesen kann.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static boolean isWellFormed(String content) {
+        try {
+            XMLStreamReader reader = FACTORY.createXMLStreamReader(new StringReader(content));
+            try {
+                while (reader.hasNext()) reader.next();
+            } finally {
+                reader.close();
+            }
+            return true;
+        } catch (XMLStreamException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Liest den Inhalt mit dem XML-Parser von Jsoup und gibt ihn als wohlgeformtes XML aus.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static String toXml(String content) {
+        return Jsoup.parse(content, "", Parser.xmlParser()).outerHtml();
+    }
+
+    // Wie im PlenarprotokollStreamReader: ohne DTD und externe Entitäten
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        return factory;
+    }
+}
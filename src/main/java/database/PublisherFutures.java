@@ -0,0 +1,123 @@
+package database;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.util.context.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Wandelt Publisher des Reactive-Streams-Treibers in CompletableFutures um, damit sie in
+ * Javalin über ctx.future(...) verwendet und miteinander kombiniert werden können.
+ * Die Subscriber übernehmen beim Erzeugen die Route der aktuellen Anfrage in ihren Reactor-Context,
+ * daraus setzt der Treiber den RequestContext für den {@link QueryProfiler}.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class PublisherFutures {
+
+    private PublisherFutures() {
+    }
+
+    /**
+     * Sammelt alle Elemente eines Publishers in einer Liste.
+     *
+     * @param publisher Der Publisher, z.B. ein FindPublisher
+     * @return Future, das mit allen Elementen abgeschlossen wird
+     * @author Ibrahim Garhiou
+     */
+    public static <T> CompletableFuture<List<T>> toList(Publisher<T> publisher) {
+        CompletableFuture<List<T>> future = new CompletableFuture<>();
+        publisher.subscribe(new RouteSubscriber<T>(QueryProfiler.getCurrentRoute()) {
+            private final List<T> items = new ArrayList<>();
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(T item) {
+                items.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(items);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Liefert das erste Element eines Publishers oder null, falls er leer ist.
+     *
+     * @param publisher Der Publisher, z.B. find(...).first()
+     * @return Future mit dem ersten Element oder null
+     * @author Ibrahim Garhiou
+     */
+    public static <T> CompletableFuture<T> first(Publisher<T> publisher) {
+        return first(publisher, QueryProfiler.getCurrentRoute());
+    }
+
+    /**
+     * Wie {@link #first(Publisher)}, aber mit einer vorher gemerkten Route. Für Abfragen, die erst in
+     * einem Callback auf einem Treiber-Thread abgesetzt werden.
+     *
+     * @param route Route der auslösenden Anfrage oder null
+     * @author Ibrahim Garhiou
+     */
+    public static <T> CompletableFuture<T> first(Publisher<T> publisher, String route) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        publisher.subscribe(new RouteSubscriber<T>(route) {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(T item) {
+                future.complete(item);
+                subscription.cancel();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(null);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Subscriber mit der Route der Anfrage, in der er erzeugt wurde.
+     */
+    private abstract static class RouteSubscriber<T> implements CoreSubscriber<T> {
+        private final Context context;
+
+        RouteSubscriber(String route) {
+            this.context = route != null ? Context.of(QueryProfiler.ROUTE_KEY, route) : Context.empty();
+        }
+
+        @Override
+        public Context currentContext() {
+            return context;
+        }
+    }
+}
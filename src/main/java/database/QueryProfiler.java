@@ -0,0 +1,442 @@
+package database;
+
+import com.mongodb.RequestContext;
+import com.mongodb.client.SynchronousContextProvider;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.reactivestreams.client.ReactiveContextProvider;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import reactor.core.CoreSubscriber;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Misst die Laufzeit aller Befehle, die über den MongoDB-Treiber abgesetzt werden.
+ * Die Dauer wird pro Befehl und Collection gesammelt. Befehle oberhalb eines konfigurierbaren
+ * Schwellwerts werden zusammen mit der Filterstruktur (ohne Werte) und der aufrufenden Route geloggt
+ * und als "Slow Query Shape" gezählt, damit sie über einen Admin-Endpunkt abgefragt werden können.
+ *
+ * Die Route wird beim Absetzen des Befehls im {@link RequestContext} des Treibers mitgegeben, damit sie
+ * auch bei Befehlen des Reactive-Streams-Treibers ankommt, die auf Treiber-Threads abgeschlossen werden.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class QueryProfiler implements CommandListener {
+
+    // Maximale Anzahl unterschiedlicher Slow-Query-Shapes, damit der Speicher begrenzt bleibt
+    private static final int MAX_SHAPES = 1000;
+
+    // Schlüssel der Route im RequestContext des Treibers und im Reactor-Context
+    public static final String ROUTE_KEY = "queryProfiler.route";
+
+    // Befehle ohne Abschluss-Ereignis (z.B. bei abgebrochenen Verbindungen) werden danach verworfen
+    private static final long STALE_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final int SWEEP_INTERVAL = 1024;
+
+    // Route der HTTP-Anfrage im Request-Thread. Sie wird nur beim Absetzen eines Befehls gelesen und
+    // von dort im RequestContext weitergegeben. Auf Treiber-Threads ist sie nur innerhalb von
+    // routeExecutor gesetzt, Fortsetzungen von Futures erhalten sie sonst nicht.
+    private static final ThreadLocal<String> REQUEST_ROUTE = new ThreadLocal<>();
+
+    private final long thresholdNanos;
+    private final AtomicLong startedCount = new AtomicLong();
+    private final Map<Integer, StartedCommand> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, LatencyStats> latencyByCommand = new ConcurrentHashMap<>();
+    private final Map<String, SlowShape> slowShapes = new ConcurrentHashMap<>();
+
+    /**
+     * Konstruktor mit Schwellwert für langsame Befehle.
+     *
+     * @param thresholdMillis Ab dieser Dauer (in ms) wird ein Befehl als langsam geloggt.
+     * @author Ibrahim Garhiou
+     */
+    public QueryProfiler(long thresholdMillis) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Setzt die Route, die den folgenden Datenbankzugriffen im aktuellen Thread zugeordnet wird.
+     *
+     * @param route z.B. "GET /api/rede/{id}", null entfernt die Zuordnung
+     * @author Ibrahim Garhiou
+     */
+    public static void setCurrentRoute(String route) {
+        if (route == null) {
+            REQUEST_ROUTE.remove();
+        } else {
+            REQUEST_ROUTE.set(route);
+        }
+    }
+
+    /**
+     * Gibt die Route der HTTP-Anfrage zurück, die im aktuellen Thread bearbeitet wird.
+     *
+     * @return Die Route oder null außerhalb einer Anfrage
+     * @author Ibrahim Garhiou
+     */
+    public static String getCurrentRoute() {
+        return REQUEST_ROUTE.get();
+    }
+
+    /**
+     * Executor, der Aufgaben sofort im aufrufenden Thread ausführt und ihnen dabei die Route zuordnet.
+     * Für Fortsetzungen von Futures (z.B. thenApplyAsync), die auf Treiber-Threads laufen und dort
+     * synchron auf die Datenbank zugreifen. Danach gilt wieder die vorherige Route des Threads.
+     *
+     * @param route Route der auslösenden Anfrage oder null
+     * @author Ibrahim Garhiou
+     */
+    public static Executor routeExecutor(String route) {
+        return command -> {
+            String previous = REQUEST_ROUTE.get();
+            setCurrentRoute(route);
+            try {
+                command.run();
+            } finally {
+                setCurrentRoute(previous);
+            }
+        };
+    }
+
+    /**
+     * Context-Provider für den synchronen Treiber. Er wird im aufrufenden Thread ausgewertet, also
+     * im Request-Thread der API.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static SynchronousContextProvider synchronousContextProvider() {
+        return () -> routeContext(getCurrentRoute());
+    }
+
+    /**
+     * Context-Provider für den Reactive-Streams-Treiber. Die Route kommt aus dem Reactor-Context des
+     * Subscribers, den {@link PublisherFutures} beim Erzeugen im Request-Thread füllt.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static ReactiveContextProvider reactiveContextProvider() {
+        return subscriber -> {
+            if (subscriber instanceof CoreSubscriber<?> coreSubscriber) {
+                String route = coreSubscriber.currentContext().getOrDefault(ROUTE_KEY, null);
+                if (route != null) {
+                    return routeContext(route);
+                }
+            }
+            return routeContext(getCurrentRoute());
+        };
+    }
+
+    private static RequestContext routeContext(String route) {
+        if (route == null) {
+            return null;
+        }
+        RouteContext context = new RouteContext();
+        context.put(ROUTE_KEY, route);
+        return context;
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        BsonDocument command = event.getCommand();
+        String collection = extractCollection(event.getCommandName(), command);
+        String shape = redact(extractFilter(event.getCommandName(), command)).toString();
+        RequestContext context = event.getRequestContext();
+        String route = (context != null && context.hasKey(ROUTE_KEY)) ? context.get(ROUTE_KEY) : null;
+
+        long now = System.nanoTime();
+        inFlight.put(event.getRequestId(), new StartedCommand(collection, shape, route != null ? route : "intern", now));
+        if (startedCount.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            evictStale(now);
+        }
+    }
+
+    /**
+     * Entfernt Befehle, für die nach {@link #STALE_NANOS} weder Erfolg noch Fehler gemeldet wurde.
+     *
+     * @author Ibrahim Garhiou
+     */
+    private void evictStale(long now) {
+        inFlight.values().removeIf(started -> now - started.startedAt > STALE_NANOS);
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        record(event.getRequestId(), event.getCommandName(), event.getElapsedTime(TimeUnit.NANOSECONDS), false);
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        record(event.getRequestId(), event.getCommandName(), event.getElapsedTime(TimeUnit.NANOSECONDS), true);
+    }
+
+    /**
+     * Verbucht die Dauer eines abgeschlossenen Befehls und loggt ihn, falls er den Schwellwert überschreitet.
+     *
+     * @author Ibrahim Garhiou
+     */
+    private void record(int requestId, String commandName, long elapsedNanos, boolean failed) {
+        StartedCommand started = inFlight.remove(requestId);
+        String collection = started != null ? started.collection : "?";
+
+        latencyByCommand
+                .computeIfAbsent(commandName + ":" + collection, k -> new LatencyStats(commandName, collection))
+                .add(elapsedNanos);
+
+        if (started == null || elapsedNanos < thresholdNanos) {
+            return;
+        }
+
+        String key = commandName + ":" + collection + ":" + started.shape;
+        SlowShape slowShape = slowShapes.get(key);
+        if (slowShape == null && slowShapes.size() < MAX_SHAPES) {
+            slowShape = slowShapes.computeIfAbsent(key, k -> new SlowShape(commandName, collection, started.shape));
+        }
+        if (slowShape != null) {
+            slowShape.add(elapsedNanos, started.route);
+        }
+
+        System.out.println("[QueryProfiler] Langsamer Befehl" + (failed ? " (fehlgeschlagen)" : "") + ": "
+                + commandName + " auf " + collection + " dauerte " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+                + " ms, Route: " + started.route + ", Filter: " + started.shape);
+    }
+
+    /**
+     * Gibt die Latenzstatistik pro Befehl und Collection zurück, sortiert nach Gesamtdauer.
+     *
+     * @return Liste von Dokumenten mit command, collection, count, avgMs, maxMs und totalMs
+     * @author Ibrahim Garhiou
+     */
+    public List<Document> getLatencyStats() {
+        List<Document> result = new ArrayList<>();
+        latencyByCommand.values().stream()
+                .sorted(Comparator.comparingLong(LatencyStats::totalNanos).reversed())
+                .forEach(stats -> result.add(stats.toDocument()));
+        return result;
+    }
+
+    /**
+     * Gibt die langsamsten Query-Shapes zurück, sortiert nach aufsummierter Dauer.
+     *
+     * @param limit Anzahl der zurückgegebenen Einträge
+     * @return Top-N der Slow-Query-Shapes
+     * @author Ibrahim Garhiou
+     */
+    public List<Document> getTopSlowQueries(int limit) {
+        List<Document> result = new ArrayList<>();
+        slowShapes.values().stream()
+                .sorted(Comparator.comparingLong(SlowShape::totalNanos).reversed())
+                .limit(limit)
+                .forEach(shape -> result.add(shape.toDocument()));
+        return result;
+    }
+
+    /**
+     * Setzt alle gesammelten Statistiken zurück.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void reset() {
+        latencyByCommand.clear();
+        slowShapes.clear();
+    }
+
+    /**
+     * Ermittelt die Collection eines Befehls. Bei den meisten Befehlen steht sie als Wert des
+     * Befehlsnamens, bei getMore im Feld "collection".
+     *
+     * @author Ibrahim Garhiou
+     */
+    private static String extractCollection(String commandName, BsonDocument command) {
+        if ("getMore".equals(commandName) && command.isString("collection")) {
+            return command.getString("collection").getValue();
+        }
+        BsonValue value = command.get(commandName);
+        return (value != null && value.isString()) ? value.asString().getValue() : "-";
+    }
+
+    /**
+     * Liest den Filterteil eines Befehls aus (find, aggregate, count, distinct, update, delete).
+     *
+     * @author Ibrahim Garhiou
+     */
+    private static BsonValue extractFilter(String commandName, BsonDocument command) {
+        switch (commandName) {
+            case "find":
+                return command.get("filter", new BsonDocument());
+            case "aggregate":
+                return command.get("pipeline", new BsonArray());
+            case "count":
+            case "distinct":
+                return command.get("query", new BsonDocument());
+            case "update":
+            case "delete":
+                String arrayField = commandName.equals("update") ? "updates" : "deletes";
+                BsonArray statements = command.getArray(arrayField, new BsonArray());
+                if (!statements.isEmpty() && statements.get(0).isDocument()) {
+                    return statements.get(0).asDocument().get("q", new BsonDocument());
+                }
+                return new BsonDocument();
+            case "findAndModify":
+                return command.get("query", new BsonDocument());
+            default:
+                return new BsonDocument();
+        }
+    }
+
+    /**
+     * Ersetzt alle konkreten Werte durch "?", behält aber Feldnamen und Operatoren bei.
+     * Arrays werden auf ein Element reduziert, damit z.B. $in-Listen unterschiedlicher Länge
+     * dieselbe Shape ergeben.
+     *
+     * @author Ibrahim Garhiou
+     */
+    private static Object redact(BsonValue value) {
+        if (value == null) {
+            return "?";
+        }
+        if (value.isDocument()) {
+            Document redacted = new Document();
+            for (Map.Entry<String, BsonValue> entry : value.asDocument().entrySet()) {
+                redacted.append(entry.getKey(), redact(entry.getValue()));
+            }
+            return redacted;
+        }
+        if (value.isArray()) {
+            BsonArray array = value.asArray();
+            boolean containsStructure = array.stream().anyMatch(v -> v.isDocument() || v.isArray());
+            if (!containsStructure) {
+                return List.of("?");
+            }
+            List<Object> redacted = new ArrayList<>();
+            for (BsonValue element : array) {
+                redacted.add(redact(element));
+            }
+            return redacted;
+        }
+        return "?";
+    }
+
+    private static class StartedCommand {
+        final String collection;
+        final String shape;
+        final String route;
+        final long startedAt;
+
+        StartedCommand(String collection, String shape, String route, long startedAt) {
+            this.collection = collection;
+            this.shape = shape;
+            this.route = route;
+            this.startedAt = startedAt;
+        }
+    }
+
+    /**
+     * Einfacher RequestContext für die Route eines Befehls.
+     */
+    private static class RouteContext implements RequestContext {
+        private final Map<Object, Object> values = new HashMap<>();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T get(Object key) {
+            return (T) values.get(key);
+        }
+
+        @Override
+        public boolean hasKey(Object key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return values.isEmpty();
+        }
+
+        @Override
+        public void put(Object key, Object value) {
+            values.put(key, value);
+        }
+
+        @Override
+        public void delete(Object key) {
+            values.remove(key);
+        }
+
+        @Override
+        public int size() {
+            return values.size();
+        }
+
+        @Override
+        public java.util.stream.Stream<Map.Entry<Object, Object>> stream() {
+            return values.entrySet().stream();
+        }
+    }
+
+    private static class LatencyStats {
+        final String command;
+        final String collection;
+        final LongAdder count = new LongAdder();
+        final LongAdder total = new LongAdder();
+        final AtomicLong max = new AtomicLong();
+
+        LatencyStats(String command, String collection) {
+            this.command = command;
+            this.collection = collection;
+        }
+
+        void add(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        long totalNanos() {
+            return total.sum();
+        }
+
+        Document toDocument() {
+            long n = count.sum();
+            return new Document("command", command)
+                    .append("collection", collection)
+                    .append("count", n)
+                    .append("avgMs", n > 0 ? total.sum() / 1_000_000.0 / n : 0.0)
+                    .append("maxMs", max.get() / 1_000_000.0)
+                    .append("totalMs", total.sum() / 1_000_000.0);
+        }
+    }
+
+    private static class SlowShape extends LatencyStats {
+        final String shape;
+        final Map<String, LongAdder> routes = new ConcurrentHashMap<>();
+
+        SlowShape(String command, String collection, String shape) {
+            super(command, collection);
+            this.shape = shape;
+        }
+
+        void add(long nanos, String route) {
+            add(nanos);
+            routes.computeIfAbsent(route, k -> new LongAdder()).increment();
+        }
+
+        @Override
+        Document toDocument() {
+            Document routeCounts = new Document();
+            routes.forEach((route, n) -> routeCounts.append(route, n.sum()));
+            return super.toDocument()
+                    .append("shape", shape)
+                    .append("routes", routeCounts);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package database;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import org.bson.Document;
+
+/**
+ * Verbindung zu MongoDB über den Reactive-Streams-Treiber. Abfragen blockieren keinen Thread,
+ * die Ergebnisse werden über {@link PublisherFutures} als CompletableFuture bereitgestellt.
+ * Verwendet dieselbe Konfiguration und denselben QueryProfiler wie der {@link MongoDatabaseHandler}.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class ReactiveMongoDatabaseHandler {
+
+    private final MongoClient client;
+    private final MongoDatabase database;
+    private final MongoDBConfig config;
+
+    /**
+     * Baut die Verbindung mit den Einstellungen des synchronen Handlers auf.
+     *
+     * @param config Die geladene MongoDB-Konfiguration
+     * @param queryProfiler Profiler, der auch die asynchronen Befehle erfassen soll
+     * @author Ibrahim Garhiou
+     */
+    public ReactiveMongoDatabaseHandler(MongoDBConfig config, QueryProfiler queryProfiler) {
+        this.config = config;
+        this.client = MongoClients.create(MongoDatabaseHandler.createSettings(config, queryProfiler,
+                QueryProfiler.reactiveContextProvider()));
+        this.database = client.getDatabase(config.getMongoDatabase());
+    }
+
+    public MongoDatabase getDatabase() {
+        return database;
+    }
+
+    public MongoCollection<Document> getCollection(String collectionName) {
+        return database.getCollection(collectionName);
+    }
+
+    /**
+     * Holt eine Collection mit der Read Preference und dem Read Concern der angegebenen Workload.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public MongoCollection<Document> getCollection(String collectionName, Workload workload) {
+        return database.getCollection(collectionName)
+                .withReadPreference(workload.toReadPreference(config))
+                .withReadConcern(workload.toReadConcern());
+    }
+
+    public void close() {
+        client.close();
+    }
+}
@@ -0,0 +1,119 @@
+package database;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Implementierung von {@link AsyncParliamentRepository} auf dem Reactive-Streams-Treiber.
+ * Rede und NLP-Layer werden beim Abruf einer einzelnen Rede parallel geladen.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class ReactiveParliamentRepository implements AsyncParliamentRepository {
+
+    private final ReactiveMongoDatabaseHandler reactiveHandler;
+
+    // Zeiger auf die aktuelle Generation von "aggregated_data", siehe AggregateGenerations
+    private volatile Document aggregatePointer;
+    private volatile long aggregatePointerLoadedAt;
+
+    /**
+     * Konstruktor für das reaktive Repository.
+     *
+     * @param reactiveHandler Die nicht blockierende MongoDB-Verbindung
+     * @author Ibrahim Garhiou
+     */
+    public ReactiveParliamentRepository(ReactiveMongoDatabaseHandler reactiveHandler) {
+        this.reactiveHandler = reactiveHandler;
+    }
+
+    @Override
+    public CompletableFuture<List<Document>> findSpeeches(Document filter, int skip, int limit) {
+        return PublisherFutures.toList(reactiveHandler.getCollection("rede", Workload.INTERACTIVE).find(SpeechDeduplicator.canonical(filter))
+                .projection(NlpLayerStore.withoutNlpResults())
+                .skip(skip)
+                .limit(limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Document>> searchSpeeches(String text, int skip, int limit) {
+        return findSpeeches(new Document("$text", new Document("$search", text)), skip, limit);
+    }
+
+    /**
+     * Lädt Rede und NLP-Layer gleichzeitig und führt sie wie {@link NlpLayerStore#attach} zusammen.
+     *
+     * @author Ibrahim Garhiou
+     */
+    @Override
+    public CompletableFuture<Document> findSpeechById(String id) {
+        CompletableFuture<Document> redeFuture = first("rede", Filters.eq("_id", id), Workload.LATENCY_CRITICAL);
+        CompletableFuture<List<Document>> layersFuture = PublisherFutures.toList(
+                reactiveHandler.getCollection(NlpLayerStore.COLLECTION, Workload.LATENCY_CRITICAL)
+                        .find(Filters.and(Filters.eq("speechId", id), Filters.exists("layer"))));
+
+        return redeFuture.thenCombine(layersFuture, (rede, layers) -> {
+            if (rede == null || layers.isEmpty()) return rede;
+
+            Document results = rede.get("nlpResults", Document.class);
+            if (results == null) {
+                results = new Document();
+                rede.put("nlpResults", results);
+            }
+            for (Document layer : layers) {
+                results.putIfAbsent(layer.getString("layer"), layer.get("data"));
+            }
+            return rede;
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> findVideoPath(String redeId) {
+        return first("VideoLinks", Filters.eq("RedeId", redeId), Workload.LATENCY_CRITICAL)
+                .thenApply(video -> video != null ? video.getString("videoPath") : null);
+    }
+
+    @Override
+    public CompletableFuture<List<Document>> findKommentareByRedeId(String redeId) {
+        return PublisherFutures.toList(reactiveHandler.getCollection("kommentare", Workload.INTERACTIVE).find(Filters.eq("redeID", redeId)));
+    }
+
+    @Override
+    public CompletableFuture<Document> findBildById(String id) {
+        return first("bilder", Filters.eq("_id", id), Workload.LATENCY_CRITICAL);
+    }
+
+    @Override
+    public CompletableFuture<Document> findAggregate(String type, String value) {
+        // Die zweite Abfrage startet auf einem Treiber-Thread, die Route wird deshalb vorher gemerkt
+        String route = QueryProfiler.getCurrentRoute();
+        return aggregatePointer().thenCompose(pointer -> PublisherFutures.first(
+                reactiveHandler.getCollection(AggregateGenerations.COLLECTION, Workload.INTERACTIVE)
+                        .find(AggregateGenerations.inGeneration(pointer, new Document("type", type).append("value", value)))
+                        .projection(Projections.exclude(AggregateGenerations.SKETCHES))
+                        .first(), route));
+    }
+
+    private CompletableFuture<Document> aggregatePointer() {
+        long now = System.currentTimeMillis();
+        if (now - aggregatePointerLoadedAt <= AggregateGenerations.POINTER_CACHE_MS) {
+            return CompletableFuture.completedFuture(aggregatePointer);
+        }
+        // Vom Primary wie in AggregateGenerations.currentPointer, ein nachlaufender Knoten kann aufgeräumte Generationen liefern
+        return first(AggregateGenerations.POINTER_COLLECTION, AggregateGenerations.pointerFilter(), Workload.CONSISTENT)
+                .thenApply(pointer -> {
+                    aggregatePointer = pointer;
+                    aggregatePointerLoadedAt = now;
+                    return pointer;
+                });
+    }
+
+    private CompletableFuture<Document> first(String collection, Bson filter, Workload workload) {
+        return PublisherFutures.first(reactiveHandler.getCollection(collection, workload).find(filter).first());
+    }
+}
@@ -0,0 +1,404 @@
+package database;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Vermeidet doppelte Reden bereits beim Import.
+ *
+ * Jede Rede erhält einen kanonischen Schlüssel "canonicalKey" aus Wahlperiode, Sitzung, Redner-ID und
+ * Position im Protokoll sowie einen Hash über ihren Text ("contentHash"). Pro Schlüssel gibt es genau
+ * eine gültige Rede mit superseded = false, abgesichert durch einen eindeutigen Index. Weitere Fassungen
+ * derselben Rede werden mit superseded = true und "supersededBy" gespeichert. Bleibt die Fassung mit
+ * den meisten Textabschnitten gültig, entspricht das der bisherigen Auswahl in den Exporten.
+ *
+ * Leser verwenden {@link #canonical(Bson)} und müssen keine Duplikate mehr im Speicher entfernen.
+ *
+ * Reden aus der Zeit vor der Deduplizierung tragen einen {@link #legacyKey Legacy-Schlüssel} und eine
+ * andere _id. Wird ihr Protokoll erneut importiert, ersetzt die erste neue Rede desselben Redners die
+ * gültige Legacy-Rede, sonst stünde jede Rede doppelt in den gültigen Reden. Videos, Kommentare und
+ * NLP-Layer der Legacy-Rede werden dabei mit {@link SpeechIdMigration#rekey} auf die neue Rede umgestellt.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class SpeechDeduplicator {
+
+    public static final String CANONICAL_KEY = "canonicalKey";
+    public static final String CONTENT_HASH = "contentHash";
+    public static final String SUPERSEDED = "superseded";
+    public static final String SUPERSEDED_BY = "supersededBy";
+    public static final String LEGACY_PREFIX = "legacy/";
+
+    /**
+     * Ergebnis von {@link #store(Document)}.
+     */
+    public enum Outcome {
+        // Neue Rede gespeichert
+        INSERTED,
+        // Gleicher Inhalt bereits vorhanden, nichts geschrieben
+        UNCHANGED,
+        // Neue Fassung ersetzt die bisher gültige
+        REPLACED,
+        // Neue Fassung als überholt gespeichert, die bisherige bleibt gültig
+        SUPERSEDED
+    }
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoDatabaseHandler mongoHandler;
+
+    /**
+     * Konstruktor für den Deduplizierer.
+     *
+     * @param mongoHandler Die MongoDB-Verbindung
+     * @author Ibrahim Garhiou
+     */
+    public SpeechDeduplicator(MongoDatabaseHandler mongoHandler) {
+        this.mongoHandler = mongoHandler;
+    }
+
+    /**
+     * Legt den eindeutigen Index auf den kanonischen Schlüssel der gültigen Reden sowie den Index
+     * auf die Ingest-Nummer an.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public void ensureIndexes() {
+        IngestSequence.ensureIndex(mongoHandler);
+        mongoHandler.getCollection("rede").createIndex(
+                Indexes.ascending(CANONICAL_KEY),
+                new IndexOptions()
+                        .unique(true)
+                        .partialFilterExpression(Filters.eq(SUPERSEDED, false))
+                        .name("canonicalKey_current"));
+    }
+
+    /**
+     * Bildet den kanonischen Schlüssel einer Rede.
+     *
+     * @param wahlperiode Wahlperiode des Protokolls
+     * @param sitzung Sitzungsnummer
+     * @param speakerId ID des Redners aus dem Protokoll
+     * @param order Position der Rede innerhalb des Protokolls, beginnend bei 0
+     * @return Schlüssel der Form "wp/sitzung/speakerId/order"
+     * @author Ibrahim Garhiou
+     */
+    public static String canonicalKey(Object wahlperiode, Object sitzung, String speakerId, int order) {
+        return wahlperiode + "/" + sitzung + "/" + speakerId + "/" + order;
+    }
+
+    /**
+     * Schlüssel für Reden, die vor Einführung der Deduplizierung importiert wurden. Für sie sind weder
+     * Redner-ID noch Position bekannt, daher wird wie in den bisherigen Exporten pro Redner und Sitzung
+     * nur eine Rede als gültig betrachtet.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static String legacyKey(Object wahlperiode, Object sitzung, String speakerName) {
+        return LEGACY_PREFIX + wahlperiode + "/" + sitzung + "/" + speakerName;
+    }
+
+    /**
+     * Legacy-Schlüssel, unter dem eine vor der Deduplizierung importierte Fassung dieser Rede liegen würde.
+     *
+     * @author Ibrahim Garhiou
+     */
+    static String legacyKeyOf(Document rede) {
+        Document protocol = rede.get("protocol", new Document());
+        return legacyKey(protocol.get("wp"), protocol.get("index"), rede.getString("speaker"));
+    }
+
+    /**
+     * Berechnet einen SHA-256-Hash über den Text und die Textabschnitte einer Rede.
+     * Leerzeichen werden vereinheitlicht, damit reine Formatierungsunterschiede keine neue Fassung ergeben.
+     *
+     * @param rede Das Rede-Dokument
+     * @return Hash als Hex-String
+     * @author Ibrahim Garhiou
+     */
+    public static String contentHash(Document rede) {
+        StringBuilder content = new StringBuilder();
+        content.append(rede.get("text")).append('\n');
+
+        Object textContent = rede.get("textContent");
+        if (textContent instanceof List) {
+            for (Object entry : (List<?>) textContent) {
+                if (entry instanceof Document block) {
+                    content.append(block.get("type")).append(':').append(block.get("text")).append('\n');
+                }
+            }
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String normalized = content.toString().replaceAll("\\s+", " ").trim();
+            return HexFormat.of().formatHex(digest.digest(normalized.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 nicht verfügbar", e);
+        }
+    }
+
+    /**
+     * Filter auf gültige Reden. Reden ohne Kennzeichnung (vor der Migration) gelten als gültig.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static Bson canonical() {
+        return Filters.ne(SUPERSEDED, true);
+    }
+
+    /**
+     * Ergänzt einen Filter um die Bedingung, dass nur gültige Reden geliefert werden.
+     *
+     * @param filter Der ursprüngliche Filter
+     * @author Ibrahim Garhiou
+     */
+    public static Bson canonical(Bson filter) {
+        return Filters.and(filter, canonical());
+    }
+
+    /**
+     * Wie {@link #canonical(Bson)}, zusätzlich nur Reden mit mindestens einem Textabschnitt.
+     *
+     * @param filter Der ursprüngliche Filter
+     * @author Ibrahim Garhiou
+     */
+    public static Bson canonicalWithText(Bson filter) {
+        return Filters.and(filter, canonical(), Filters.exists("textContent.0"));
+    }
+
+    /**
+     * Speichert eine Rede unter Berücksichtigung bereits vorhandener Fassungen.
+     * Die Rede muss das Feld "canonicalKey" enthalten, der Hash wird hier berechnet. Jede geschriebene
+     * Fassung erhält eine neue {@link IngestSequence}, eine zurückgestufte Fassung ebenfalls.
+     *
+     * @param rede Die zu speichernde Rede
+     * @return Was mit der Rede geschehen ist
+     * @author Ibrahim Garhiou
+     */
+    public Outcome store(Document rede) {
+        MongoCollection<Document> collection = mongoHandler.getCollection("rede");
+        String key = rede.getString(CANONICAL_KEY);
+        if (key == null) {
+            throw new IllegalArgumentException("Rede ohne canonicalKey: " + rede.get("_id"));
+        }
+        rede.put(CONTENT_HASH, contentHash(rede));
+
+        Document current = collection.find(Filters.and(Filters.eq(CANONICAL_KEY, key), Filters.eq(SUPERSEDED, false))).first();
+        if (current == null) {
+            // Eine gültige Legacy-Fassung wird unabhängig vom Inhalt ersetzt, sie trägt den alten Schlüssel
+            Document legacy = collection.find(Filters.and(Filters.eq(CANONICAL_KEY, legacyKeyOf(rede)), Filters.eq(SUPERSEDED, false)))
+                    .projection(Projections.include("_id"))
+                    .first();
+            try (IngestSequence.Reservation seq = IngestSequence.reserve(mongoHandler, 2)) {
+                if (legacy != null && !legacy.get("_id").equals(rede.get("_id"))) {
+                    collection.updateOne(Filters.eq("_id", legacy.get("_id")),
+                            Updates.combine(Updates.set(SUPERSEDED, true), Updates.set(SUPERSEDED_BY, rede.get("_id")), seq.stamp()));
+                }
+                rede.put(SUPERSEDED, false);
+                rede.put(IngestSequence.FIELD, seq.next());
+                collection.replaceOne(Filters.eq("_id", rede.get("_id")), rede, new ReplaceOptions().upsert(true));
+            }
+            if (legacy != null) SpeechIdMigration.rekey(mongoHandler, legacy.get("_id"), rede.get("_id"));
+            return legacy != null ? Outcome.REPLACED : Outcome.INSERTED;
+        }
+        if (rede.getString(CONTENT_HASH).equals(current.getString(CONTENT_HASH))) {
+            return Outcome.UNCHANGED;
+        }
+
+        boolean sameId = rede.get("_id").equals(current.get("_id"));
+        if (textSize(rede) > textSize(current)) {
+            rede.put(SUPERSEDED, false);
+            try (IngestSequence.Reservation seq = IngestSequence.reserve(mongoHandler, 2)) {
+                if (!sameId) {
+                    // Erst die alte Fassung zurückstufen, sonst verletzt die neue den eindeutigen Index
+                    collection.updateOne(Filters.eq("_id", current.get("_id")),
+                            Updates.combine(Updates.set(SUPERSEDED, true), Updates.set(SUPERSEDED_BY, rede.get("_id")), seq.stamp()));
+                }
+                rede.put(IngestSequence.FIELD, seq.next());
+                collection.replaceOne(Filters.eq("_id", rede.get("_id")), rede, new ReplaceOptions().upsert(true));
+            }
+            return Outcome.REPLACED;
+        }
+
+        if (sameId) {
+            // Die gespeicherte Fassung ist umfangreicher und belegt dieselbe _id
+            return Outcome.UNCHANGED;
+        }
+        rede.put(SUPERSEDED, true);
+        rede.put(SUPERSEDED_BY, current.get("_id"));
+        try (IngestSequence.Reservation seq = IngestSequence.reserve(mongoHandler, 1)) {
+            rede.put(IngestSequence.FIELD, seq.next());
+            collection.replaceOne(Filters.eq("_id", rede.get("_id")), rede, new ReplaceOptions().upsert(true));
+        }
+        return Outcome.SUPERSEDED;
+    }
+
+    /**
+     * Speichert alle Reden eines Protokolls wie {@link #store(Document)}, aber mit einer Abfrage der
+     * bisherigen Fassungen und einem geordneten Bulk-Write. Die Ingest-Nummern werden als Block reserviert
+     * und erst nach dem Bulk-Write freigegeben.
+     *
+     * Schreibt ein anderer Worker gleichzeitig eine Rede mit demselben Schlüssel (z.B. dasselbe Protokoll
+     * unter zwei URLs), schlägt der eindeutige Index an; die betroffenen und alle folgenden Reden werden
+     * dann einzeln mit {@link #store(Document)} gespeichert, das den aktuellen Stand neu liest.
+     *
+     * @param reden Die zu speichernden Reden, jeweils mit "canonicalKey"
+     * @return Ergebnis je Rede in derselben Reihenfolge
+     * @author Ibrahim Garhiou
+     */
+    public List<Outcome> storeAll(List<Document> reden) {
+        List<Outcome> outcomes = new ArrayList<>(reden.size());
+        Set<Object> keys = new HashSet<>();
+        Set<Object> ids = new HashSet<>();
+        for (Document rede : reden) {
+            String key = rede.getString(CANONICAL_KEY);
+            if (key == null) {
+                throw new IllegalArgumentException("Rede ohne canonicalKey: " + rede.get("_id"));
+            }
+            if (!keys.add(key) || !ids.add(rede.get("_id"))) {
+                // Doppelte Schlüssel oder IDs im selben Aufruf hängen voneinander ab
+                for (Document each : reden) outcomes.add(store(each));
+                return outcomes;
+            }
+            rede.put(CONTENT_HASH, contentHash(rede));
+        }
+        if (reden.isEmpty()) return outcomes;
+
+        Map<String, Document> currents = new HashMap<>();
+        for (Document current : mongoHandler.getCollection("rede").aggregate(List.of(
+                Aggregates.match(Filters.and(Filters.in(CANONICAL_KEY, keys), Filters.eq(SUPERSEDED, false))),
+                Aggregates.project(Projections.fields(
+                        Projections.include(CANONICAL_KEY, CONTENT_HASH),
+                        Projections.computed("textSize", new Document("$cond", List.of(
+                                new Document("$isArray", List.of("$textContent")), new Document("$size", "$textContent"), 0)))))))) {
+            currents.put(current.getString(CANONICAL_KEY), current);
+        }
+
+        // Gültige Legacy-Fassungen der Reden, die noch keinen kanonischen Eintrag haben
+        Set<String> legacyKeys = new HashSet<>();
+        for (Document rede : reden) {
+            if (!currents.containsKey(rede.getString(CANONICAL_KEY))) legacyKeys.add(legacyKeyOf(rede));
+        }
+        Map<String, Document> legacies = new HashMap<>();
+        if (!legacyKeys.isEmpty()) {
+            for (Document legacy : mongoHandler.getCollection("rede")
+                    .find(Filters.and(Filters.in(CANONICAL_KEY, legacyKeys), Filters.eq(SUPERSEDED, false)))
+                    .projection(Projections.include(CANONICAL_KEY))) {
+                legacies.put(legacy.getString(CANONICAL_KEY), legacy);
+            }
+        }
+
+        // Zuerst entscheiden, dann die benötigten Ingest-Nummern auf einmal reservieren
+        int stamps = 0;
+        // Index der Rede und ersetzte Legacy-Rede, deren Verweise nach dem Schreiben umgestellt werden
+        Map<Integer, Object> replacedLegacies = new LinkedHashMap<>();
+        for (Document rede : reden) {
+            Document current = currents.get(rede.getString(CANONICAL_KEY));
+            // Die erste Rede eines Redners übernimmt dessen Legacy-Fassung und stuft sie zurück
+            Document legacy = current == null ? legacies.remove(legacyKeyOf(rede)) : null;
+            Outcome outcome;
+            if (legacy != null) {
+                currents.put(rede.getString(CANONICAL_KEY), legacy);
+                outcome = Outcome.REPLACED;
+                if (!rede.get("_id").equals(legacy.get("_id"))) {
+                    stamps++;
+                    replacedLegacies.put(outcomes.size(), legacy.get("_id"));
+                }
+            } else if (current == null) {
+                outcome = Outcome.INSERTED;
+            } else if (rede.getString(CONTENT_HASH).equals(current.getString(CONTENT_HASH))) {
+                outcome = Outcome.UNCHANGED;
+            } else if (textSize(rede) > current.getInteger("textSize", 0)) {
+                outcome = Outcome.REPLACED;
+                if (!rede.get("_id").equals(current.get("_id"))) stamps++;
+            } else {
+                outcome = rede.get("_id").equals(current.get("_id")) ? Outcome.UNCHANGED : Outcome.SUPERSEDED;
+            }
+            if (outcome != Outcome.UNCHANGED) stamps++;
+            outcomes.add(outcome);
+        }
+        if (stamps == 0) return outcomes;
+
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        // Index der Rede zu jedem Write, für die Fortsetzung nach einem Konflikt
+        List<Integer> writeOwners = new ArrayList<>();
+        int firstRetry = -1;
+        try (IngestSequence.Reservation seq = IngestSequence.reserve(mongoHandler, stamps)) {
+            for (int i = 0; i < reden.size(); i++) {
+                Document rede = reden.get(i);
+                Document current = currents.get(rede.getString(CANONICAL_KEY));
+                switch (outcomes.get(i)) {
+                    case INSERTED, REPLACED -> {
+                        rede.put(SUPERSEDED, false);
+                        if (current != null && !rede.get("_id").equals(current.get("_id"))) {
+                            // Erst die alte Fassung zurückstufen, sonst verletzt die neue den eindeutigen Index
+                            writes.add(new UpdateOneModel<>(Filters.eq("_id", current.get("_id")),
+                                    Updates.combine(Updates.set(SUPERSEDED, true), Updates.set(SUPERSEDED_BY, rede.get("_id")),
+                                            seq.stamp())));
+                            writeOwners.add(i);
+                        }
+                    }
+                    case SUPERSEDED -> {
+                        rede.put(SUPERSEDED, true);
+                        rede.put(SUPERSEDED_BY, current.get("_id"));
+                    }
+                    default -> {
+                        continue;
+                    }
+                }
+                rede.put(IngestSequence.FIELD, seq.next());
+                writes.add(new ReplaceOneModel<>(Filters.eq("_id", rede.get("_id")), rede, new ReplaceOptions().upsert(true)));
+                writeOwners.add(i);
+            }
+
+            try {
+                mongoHandler.getCollection("rede").bulkWrite(writes, new BulkWriteOptions().ordered(true));
+            } catch (MongoBulkWriteException e) {
+                BulkWriteError error = e.getWriteErrors().get(0);
+                if (error.getCode() != DUPLICATE_KEY) throw e;
+                firstRetry = writeOwners.get(error.getIndex());
+            }
+        }
+        for (Map.Entry<Integer, Object> replaced : replacedLegacies.entrySet()) {
+            // Nach einem Konflikt sind nur die Reden vor der ersten Wiederholung geschrieben, store übernimmt den Rest
+            if (firstRetry >= 0 && replaced.getKey() >= firstRetry) break;
+            SpeechIdMigration.rekey(mongoHandler, replaced.getValue(), reden.get(replaced.getKey()).get("_id"));
+        }
+        if (firstRetry >= 0) {
+            // Die Reservierung ist freigegeben, store reserviert für jede Rede neu
+            System.out.println("[SpeechDeduplicator] Konflikt bei " + reden.get(firstRetry).getString(CANONICAL_KEY)
+                    + ", speichere " + (reden.size() - firstRetry) + " Reden einzeln");
+            for (int i = firstRetry; i < reden.size(); i++) {
+                // Felder der verworfenen Planung entfernen, store entscheidet neu
+                reden.get(i).remove(SUPERSEDED_BY);
+                outcomes.set(i, store(reden.get(i)));
+            }
+        }
+        return outcomes;
+    }
+
+    static int textSize(Document rede) {
+        Object textContent = rede.get("textContent");
+        return textContent instanceof List ? ((List<?>) textContent).size() : 0;
+    }
+}
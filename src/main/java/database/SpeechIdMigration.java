@@ -0,0 +1,155 @@
+package database;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Migration 5: Stellt Verweise auf Legacy-Reden auf die neue Rede-ID um.
+ *
+ * Vor der Deduplizierung hatte eine Rede die ID "ID" + Sitzung + Redner-ID, heute die ID aus dem Attribut
+ * &lt;rede id&gt; des Protokolls. Wird ein Protokoll erneut importiert, stuft {@link SpeechDeduplicator} die
+ * Legacy-Rede zurück und vermerkt die neue Rede in "supersededBy". Die Verweise darauf werden umgestellt:
+ * <ul>
+ *     <li>"VideoLinks.RedeId" zeigt auf die neue Rede.</li>
+ *     <li>"kommentare.redeID", auch in der Form "ID&lt;Sitzung&gt;-&lt;Redner-ID&gt;" des alten KommentareParsers,
+ *     zeigt auf die neue Rede. Hat die neue Rede bereits eigene Kommentare, werden die alten gelöscht.</li>
+ *     <li>Die Layer in "rede_nlp" werden übernommen, wenn beide Fassungen denselben Inhalt haben und die
+ *     neue Rede noch keine Layer hat. Sonst beschreiben sie einen anderen Text und bleiben bei der
+ *     Legacy-Rede, die neue Rede erhält ihre Layer aus der NLP-Stufe.</li>
+ * </ul>
+ *
+ * Die Migration erfasst die bis dahin zurückgestuften Legacy-Reden, {@link SpeechDeduplicator} ruft
+ * {@link #rekey} für jede später zurückgestufte auf. Ein wiederholter Lauf findet keine alten Verweise mehr.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class SpeechIdMigration implements Migration {
+
+    @Override
+    public int getVersion() {
+        return 5;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Verweise auf Legacy-Reden-IDs umstellen";
+    }
+
+    @Override
+    public void apply(MongoDatabaseHandler mongoHandler) {
+        Map<Object, Object> replacements = new LinkedHashMap<>();
+        for (Document legacy : mongoHandler.getCollection("rede")
+                .find(Filters.and(
+                        Filters.regex(SpeechDeduplicator.CANONICAL_KEY, "^" + SpeechDeduplicator.LEGACY_PREFIX),
+                        Filters.eq(SpeechDeduplicator.SUPERSEDED, true),
+                        Filters.exists(SpeechDeduplicator.SUPERSEDED_BY)))
+                .projection(Projections.include(SpeechDeduplicator.SUPERSEDED_BY))) {
+            replacements.put(legacy.get("_id"), legacy.get(SpeechDeduplicator.SUPERSEDED_BY));
+        }
+
+        // Nur Legacy-Reden, die von einer neu importierten Rede abgelöst wurden, nicht von einer anderen Legacy-Rede
+        Map<Object, String> targetKeys = new HashMap<>();
+        for (Document target : mongoHandler.getCollection("rede")
+                .find(Filters.in("_id", new ArrayList<>(replacements.values())))
+                .projection(Projections.include(SpeechDeduplicator.CANONICAL_KEY))) {
+            targetKeys.put(target.get("_id"), target.getString(SpeechDeduplicator.CANONICAL_KEY));
+        }
+
+        int rekeyed = 0;
+        for (Map.Entry<Object, Object> entry : replacements.entrySet()) {
+            String targetKey = targetKeys.get(entry.getValue());
+            if (targetKey == null || targetKey.startsWith(SpeechDeduplicator.LEGACY_PREFIX)) continue;
+            rekey(mongoHandler, entry.getKey(), entry.getValue());
+            rekeyed++;
+        }
+        System.out.println("[SpeechIdMigration] Verweise für " + rekeyed + " Legacy-Reden umgestellt");
+    }
+
+    /**
+     * Stellt die Verweise einer zurückgestuften Legacy-Rede auf die Rede um, die sie ersetzt.
+     *
+     * @param legacyId _id der Legacy-Rede
+     * @param speechId _id der neuen Rede
+     * @author Ibrahim Garhiou
+     */
+    public static void rekey(MongoDatabaseHandler mongoHandler, Object legacyId, Object speechId) {
+        if (legacyId.equals(speechId)) return;
+        Document legacy = mongoHandler.getCollection("rede").find(Filters.eq("_id", legacyId))
+                .projection(Projections.include("protocol.index", SpeechDeduplicator.CONTENT_HASH, "nlpLayers",
+                        DominantTopic.FIELD, DominantTopic.SCORES_FIELD))
+                .first();
+        Document speech = mongoHandler.getCollection("rede").find(Filters.eq("_id", speechId))
+                .projection(Projections.include(SpeechDeduplicator.CONTENT_HASH, "nlpLayers"))
+                .first();
+        if (legacy == null || speech == null) return;
+
+        mongoHandler.getCollection("VideoLinks").updateMany(Filters.eq("RedeId", legacyId), Updates.set("RedeId", speechId));
+
+        Bson legacyComments = Filters.in("redeID", legacyCommentIds(legacy));
+        if (mongoHandler.getCollection("kommentare").find(Filters.eq("redeID", speechId)).first() != null) {
+            mongoHandler.getCollection("kommentare").deleteMany(legacyComments);
+        } else {
+            mongoHandler.getCollection("kommentare").updateMany(legacyComments, Updates.set("redeID", speechId));
+        }
+
+        boolean sameContent = legacy.getString(SpeechDeduplicator.CONTENT_HASH) != null
+                && legacy.getString(SpeechDeduplicator.CONTENT_HASH).equals(speech.getString(SpeechDeduplicator.CONTENT_HASH));
+        if (sameContent && legacy.get("nlpLayers") instanceof List && !(speech.get("nlpLayers") instanceof List)) {
+            moveLayers(mongoHandler, legacy, speechId);
+        }
+    }
+
+    /**
+     * IDs, unter denen Kommentare auf die Legacy-Rede verweisen: ihre _id und die Form des alten
+     * KommentareParsers mit Bindestrich zwischen Sitzung und Redner-ID.
+     */
+    private static List<Object> legacyCommentIds(Document legacy) {
+        List<Object> ids = new ArrayList<>(List.of(legacy.get("_id")));
+        String id = String.valueOf(legacy.get("_id"));
+        String sitzung = legacy.get("protocol", new Document()).getString("index");
+        if (sitzung != null && id.startsWith("ID" + sitzung)) {
+            String rednerId = id.substring(("ID" + sitzung).length());
+            ids.add("ID" + sitzung.replaceAll("[^a-zA-Z0-9]", "") + "-" + rednerId.replaceAll("[^a-zA-Z0-9]", ""));
+        }
+        return ids;
+    }
+
+    /**
+     * Verschiebt die Layer der Legacy-Rede zur neuen Rede und übernimmt Layer-Liste und Haupt-Topic.
+     * Die neue Rede erhält eine neue {@link IngestSequence}, damit die Aggregation die Layer einrechnet.
+     */
+    private static void moveLayers(MongoDatabaseHandler mongoHandler, Document legacy, Object speechId) {
+        for (Document layerDoc : mongoHandler.getCollection(NlpLayerStore.COLLECTION)
+                .find(Filters.and(Filters.eq("speechId", legacy.get("_id")), Filters.exists("layer")))) {
+            Document moved = new Document(layerDoc)
+                    .append("_id", speechId + ":" + layerDoc.getString("layer"))
+                    .append("speechId", speechId);
+            mongoHandler.getCollection(NlpLayerStore.COLLECTION).replaceOne(Filters.eq("_id", moved.get("_id")), moved,
+                    new ReplaceOptions().upsert(true));
+        }
+
+        List<Bson> updates = new ArrayList<>(List.of(Updates.set("nlpLayers", legacy.get("nlpLayers"))));
+        if (legacy.containsKey(DominantTopic.FIELD)) {
+            updates.add(Updates.set(DominantTopic.FIELD, legacy.get(DominantTopic.FIELD)));
+            updates.add(Updates.set(DominantTopic.SCORES_FIELD, legacy.get(DominantTopic.SCORES_FIELD)));
+        }
+        try (IngestSequence.Reservation seq = IngestSequence.reserve(mongoHandler, 1)) {
+            updates.add(seq.stamp());
+            mongoHandler.getCollection("rede").updateOne(Filters.eq("_id", speechId), Updates.combine(updates));
+        }
+
+        mongoHandler.getCollection(NlpLayerStore.COLLECTION).deleteMany(
+                Filters.and(Filters.eq("speechId", legacy.get("_id")), Filters.exists("layer")));
+        mongoHandler.getCollection("rede").updateOne(Filters.eq("_id", legacy.get("_id")), Updates.unset("nlpLayers"));
+    }
+}
@@ -0,0 +1,65 @@
+package database;
+
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
+import com.mongodb.ReadPreferenceHedgeOptions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Art einer Leseabfrage. Daraus ergibt sich, an welche Knoten des Replica Sets sie gesendet wird:
+ *
+ * INTERACTIVE: Seitenaufrufe der API, gehen an den Knoten mit der geringsten Latenz.
+ * ANALYTIC: Scans für Aggregationen, Exporte und distinct-Abfragen, gehen bevorzugt an Secondaries
+ * mit begrenzter Verzögerung (max_staleness_seconds), damit sie den Primary nicht belasten.
+ * LATENCY_CRITICAL: Einzelabrufe, bei denen Ausreißer spürbar sind. Wie INTERACTIVE, zusätzlich mit
+ * Hedged Reads (nur wirksam hinter mongos in einem Sharded Cluster).
+ * CONSISTENT: Lesen von Ständen, die nicht zurückfallen dürfen (z.B. Ingest-Nummern für die inkrementelle
+ * Aggregation), geht an den Primary mit Read Concern "majority".
+ *
+ * @author Ibrahim Garhiou
+ */
+public enum Workload {
+    INTERACTIVE,
+    ANALYTIC,
+    LATENCY_CRITICAL,
+    CONSISTENT;
+
+    // Kleinster von MongoDB akzeptierter Wert für maxStalenessSeconds
+    private static final long MIN_STALENESS_SECONDS = 90;
+
+    /**
+     * Bildet die Workload auf eine Read Preference ab.
+     *
+     * @param config Konfiguration mit max_staleness_seconds und hedged_reads
+     * @return Die zu verwendende Read Preference
+     * @author Ibrahim Garhiou
+     */
+    public ReadPreference toReadPreference(MongoDBConfig config) {
+        switch (this) {
+            case CONSISTENT:
+                return ReadPreference.primary();
+            case ANALYTIC:
+                long staleness = Math.max(MIN_STALENESS_SECONDS, config.getMaxStalenessSeconds());
+                return ReadPreference.secondaryPreferred(staleness, TimeUnit.SECONDS);
+            case LATENCY_CRITICAL:
+                if (config.isHedgedReadsEnabled()) {
+                    return ReadPreference.nearest()
+                            .withHedgeOptions(ReadPreferenceHedgeOptions.builder().enabled(true).build());
+                }
+                return ReadPreference.nearest();
+            case INTERACTIVE:
+            default:
+                return ReadPreference.nearest();
+        }
+    }
+
+    /**
+     * Read Concern der Workload, nur CONSISTENT weicht vom Standard des Servers ab.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public ReadConcern toReadConcern() {
+        return this == CONSISTENT ? ReadConcern.MAJORITY : ReadConcern.DEFAULT;
+    }
+}
@@ -3,6 +3,7 @@ package latex;
 import latex.impl.LaTeXComponent;
 import database.MongoDatabaseHandler;
 import org.bson.Document;
+import utils.AbgeordnetenDirectory;
 import utils.SpeechUtils;
 
 import java.io.InputStream;
@@ -60,8 +61,7 @@ class AbgeordnetenInfoComponent implements LaTeXComponent {
             String[] nameParts = rednerName.split(" ");
             if (nameParts.length > 1) {
                 String lastName = nameParts[nameParts.length - 1];
-                Document filter = new Document("name", lastName);
-                rednerDoc = mongoHandler.findDocuments("abgeordnete", filter).first();
+                rednerDoc = AbgeordnetenDirectory.get(mongoHandler).findFirstBySurname(lastName);
             }
         }
 
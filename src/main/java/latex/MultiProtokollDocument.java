@@ -2,8 +2,12 @@ package latex;
 
 import latex.impl.LaTeXComponent;
 import database.MongoDatabaseHandler;
+import database.SpeechDeduplicator;
+import database.Workload;
 import org.bson.Document;
 import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.Filters;
+import org.bson.conversions.Bson;
 
 import java.util.*;
 
@@ -59,6 +63,7 @@ public class MultiProtokollDocument extends LaTeXDocument {
      * verarbeitet jedes Protokoll einzeln.
      *
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     private void processProtocols() {
         // Protokoll-IDs nach Index sortieren
@@ -91,8 +96,8 @@ public class MultiProtokollDocument extends LaTeXDocument {
         System.out.println("  Verarbeite Protokoll mit ID: " + protokollId);
 
         // Alle Reden für dieses Protokoll finden
-        Document filter = new Document("protocol.index", protokollId);
-        FindIterable<Document> redenForProtokoll = mongoHandler.findDocuments("rede", filter);
+        Bson filter = SpeechDeduplicator.canonical(Filters.eq("protocol.index", protokollId));
+        FindIterable<Document> redenForProtokoll = mongoHandler.findDocuments("rede", filter, Workload.ANALYTIC);
 
         List<Document> redenList = new ArrayList<>();
         redenForProtokoll.forEach(redenList::add);
@@ -2,6 +2,7 @@ package latex;
 
 import latex.impl.LaTeXComponent;
 import database.MongoDatabaseHandler;
+import database.NlpLayerStore;
 import org.bson.Document;
 
 import java.nio.file.Path;
@@ -44,6 +45,7 @@ public class SpeechComponent implements LaTeXComponent {
      *
      * @return Der formatierte LaTeX-Code für die Rede
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     @Override
     public String toTex() {
@@ -195,6 +197,7 @@ public class SpeechComponent implements LaTeXComponent {
         latex.append("\\textbf{\\Large Sprachanalyse}\n\n");
         latex.append("\\vspace{1.0cm}\n\n");
 
+        new NlpLayerStore(mongoHandler).attach(rede);
         Document nlpResults = (Document) rede.get("nlpResults");
         if (nlpResults != null) {
             SpeechNLPComponent nlpComponent = new SpeechNLPComponent(nlpResults);
@@ -1,5 +1,6 @@
 package latex;
 
+import database.NumericNlpFieldsMigration;
 import latex.impl.LaTeXComponent;
 import org.bson.Document;
 
@@ -34,6 +35,7 @@ class SpeechNLPComponent implements LaTeXComponent {
      *
      * @return Der kombinierte LaTeX-Code für alle NLP-Visualisierungen
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     @Override
     public String toTex() {
@@ -187,6 +189,7 @@ class SpeechNLPComponent implements LaTeXComponent {
      * @param vaderSentiment Liste von Sentiment-Werten aus der VADER-Analyse (Fallback)
      * @return LaTeX-Code für die Sentiment-Visualisierung
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     private String generateSentimentVisualization(List<Document> sentiment, List<Document> vaderSentiment) {
         System.out.println("        Generiere verbesserte Sentiment-Visualisierung");
@@ -199,17 +202,7 @@ class SpeechNLPComponent implements LaTeXComponent {
         // Normale Sentiment-Analyse
         if (sentiment != null && !sentiment.isEmpty()) {
             for (Document s : sentiment) {
-                Double value = null;
-                try {
-                    Object sentObj = s.get("sentiment");
-                    if (sentObj instanceof Double) {
-                        value = (Double) sentObj;
-                    } else if (sentObj instanceof String) {
-                        value = Double.parseDouble((String) sentObj);
-                    }
-                } catch (Exception e) {
-                    continue;
-                }
+                Double value = NumericNlpFieldsMigration.numberOf(s.get("sentiment"));
 
                 if (value != null) {
                     if (value > 0.05) positiveCounts++;
@@ -222,17 +215,7 @@ class SpeechNLPComponent implements LaTeXComponent {
         // Fallback auf VADER Sentiment wenn keine normalen Sentiments gefunden
         if ((positiveCounts + neutralCounts + negativeCounts < 1) && vaderSentiment != null && !vaderSentiment.isEmpty()) {
             for (Document s : vaderSentiment) {
-                Double value = null;
-                try {
-                    Object sentObj = s.get("sentiment");
-                    if (sentObj instanceof Double) {
-                        value = (Double) sentObj;
-                    } else if (sentObj instanceof String) {
-                        value = Double.parseDouble((String) sentObj);
-                    }
-                } catch (Exception e) {
-                    continue;
-                }
+                Double value = NumericNlpFieldsMigration.numberOf(s.get("sentiment"));
 
                 if (value != null) {
                     if (value > 0.05) positiveCounts++;
@@ -320,6 +303,7 @@ class SpeechNLPComponent implements LaTeXComponent {
      * @param topics Liste von Themen aus der NLP-Analyse
      * @return LaTeX-Code für die Themen-Visualisierung
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     private String generateTopicsVisualization(List<Document> topics) {
         System.out.println("        Generiere Topics-Visualisierung aus " + topics.size() + " Topics");
@@ -330,18 +314,7 @@ class SpeechNLPComponent implements LaTeXComponent {
         for (Document topic : topics) {
             String value = topic.getString("value");
 
-            Double score = 0.0;
-            try {
-                Object scoreObj = topic.get("score");
-                if (scoreObj instanceof Double) {
-                    score = (Double) scoreObj;
-                } else if (scoreObj instanceof String) {
-                    score = Double.parseDouble((String) scoreObj);
-                }
-            } catch (Exception e) {
-                System.out.println("        Fehler bei der Score-Konvertierung: " + e.getMessage());
-                continue;
-            }
+            Double score = NumericNlpFieldsMigration.numberOf(topic.get("score"));
 
             if (value != null && score != null) {
                 topicScores.put(value, topicScores.getOrDefault(value, 0.0) + score);
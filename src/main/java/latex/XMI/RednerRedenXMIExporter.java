@@ -2,6 +2,7 @@ package latex.XMI;
 
 import latex.impl.LaTeXComponent;
 import database.MongoDatabaseHandler;
+import database.NlpLayerStore;
 import org.bson.Document;
 import com.mongodb.client.FindIterable;
 import java.util.*;
@@ -35,17 +36,17 @@ public class RednerRedenXMIExporter {
 
     /**
      * Generiert eine XMI-Repräsentation aller Reden des Redners.
-     * Filtert zunächst die gültigen Reden und erstellt dann eine XMI-Datei mit
-     * Rednerinformationen, Reden-Metadaten und NLP-Annotationen.
+     * Erwartet nur gültige Reden mit Textinhalt (siehe SpeechDeduplicator) und erstellt eine
+     * XMI-Datei mit Rednerinformationen, Reden-Metadaten und NLP-Annotationen.
      *
      * @return String mit dem generierten XMI-Inhalt
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     public String generateXMI() {
         System.out.println("Generiere XMI für " + reden.size() + " Reden von " + redner.getString("name"));
 
-        List<Document> filteredReden = filterValidSpeeches(reden);
-        System.out.println("Nach Filterung: " + filteredReden.size() + " gültige Reden");
+        List<Document> filteredReden = new NlpLayerStore(mongoHandler).attachAll(reden);
 
         if (filteredReden.isEmpty()) {
             return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<xmi:XMI xmlns:xmi=\"http://www.omg.org/XMI\"><e>Keine Reden gefunden</e></xmi:XMI>";
@@ -194,53 +195,6 @@ public class RednerRedenXMIExporter {
         return xmi.toString();
     }
 
-    /**
-     * Filtert gültige Reden aus einer Liste von Rede-Dokumenten.
-     * Entfernt Reden ohne Textinhalt und wählt bei Duplikaten die Version
-     * mit dem umfangreichsten Textinhalt.
-     *
-     * @param speeches Liste der zu filternden Rede-Dokumente
-     * @return Gefilterte Liste mit gültigen, eindeutigen Reden
-     * @author Maik Kitzmann
-     */
-    private List<Document> filterValidSpeeches(List<Document> speeches) {
-        List<Document> validSpeeches = new ArrayList<>();
-
-        // Erster Filter: Reden müssen textContent haben
-        for (Document rede : speeches) {
-            List<Document> textContent = (List<Document>) rede.get("textContent");
-            if (textContent != null && !textContent.isEmpty()) {
-                validSpeeches.add(rede);
-            }
-        }
-
-        // Zweiter Filter: Wähle die Rede mit meisten textContent
-        Map<String, Document> bestRedePerProtokoll = new HashMap<>();
-
-        for (Document rede : validSpeeches) {
-            Document protocol = (Document) rede.get("protocol");
-            if (protocol == null || protocol.getString("index") == null) continue;
-
-            String protocolIndex = protocol.getString("index");
-            List<Document> textContent = (List<Document>) rede.get("textContent");
-            int textSize = (textContent != null) ? textContent.size() : 0;
-
-            Document bestRede = bestRedePerProtokoll.get(protocolIndex);
-            if (bestRede == null) {
-                bestRedePerProtokoll.put(protocolIndex, rede);
-            } else {
-                List<Document> bestTextContent = (List<Document>) bestRede.get("textContent");
-                int bestSize = (bestTextContent != null) ? bestTextContent.size() : 0;
-
-                if (textSize > bestSize) {
-                    bestRedePerProtokoll.put(protocolIndex, rede);
-                }
-            }
-        }
-
-        return new ArrayList<>(bestRedePerProtokoll.values());
-    }
-
     /**
      * Extrahiert den Textinhalt aus einem Rede-Dokument.
      * Kombiniert alle Textblöcke aus dem textContent-Array zu einem
@@ -1,7 +1,10 @@
 package latex.XMI;
 
 import latex.impl.LaTeXComponent;
+import database.DominantTopic;
 import database.MongoDatabaseHandler;
+import database.NlpLayerStore;
+import database.NumericNlpFieldsMigration;
 import org.bson.Document;
 import java.util.*;
 
@@ -23,72 +26,28 @@ public class ThemaRedenXMIExporter {
      * Initialisiert den Exporter und filtert die übergebenen Reden nach Relevanz zum Thema.
      *
      * @param thema Das Thema, zu dem relevante Reden exportiert werden sollen
-     * @param reden Liste aller zu durchsuchenden Reden (ungefiltert)
+     * @param reden Liste der zu durchsuchenden Reden, nur gültige Reden mit Textinhalt
      * @param mongoHandler Handler für den Zugriff auf die MongoDB-Datenbank
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     public ThemaRedenXMIExporter(String thema, List<Document> reden, MongoDatabaseHandler mongoHandler) {
         this.thema = thema;
         this.reden = reden;
         this.mongoHandler = mongoHandler;
 
-        // Zuerst Reden mit leerem textContent und Duplikate filtern
-        List<Document> validReden = filterValidSpeeches(reden);
-        System.out.println("Nach Basisfilterung: " + validReden.size() + " von " + reden.size() + " Reden behalten.");
-
-        // Dann relevante Reden nach Thema filtern
-        this.relevantReden = filterRelevantSpeeches(validReden);
-    }
-
-    /**
-     * Filtert gültige Reden aus der übergebenen Liste.
-     * Entfernt Reden ohne Textinhalt und wählt bei Duplikaten (Reden aus demselben Protokoll)
-     * die Version mit dem umfangreichsten Textinhalt.
-     *
-     * @param speeches Liste der zu filternden Rede-Dokumente
-     * @return Gefilterte Liste mit nur gültigen, eindeutigen Reden
-     * @author Maik Kitzmann
-     */
-    private List<Document> filterValidSpeeches(List<Document> speeches) {
-        List<Document> validSpeeches = new ArrayList<>();
-
-        // Erster Filter: Reden müssen textContent haben wegen Duplikaten
-        for (Document rede : speeches) {
-            List<Document> textContent = (List<Document>) rede.get("textContent");
-            if (textContent != null && !textContent.isEmpty()) {
-                validSpeeches.add(rede);
-            }
+        // Reden ohne Text und Duplikate werden bereits in der Abfrage ausgeschlossen.
+        // Für die Themenauswahl reicht das gespeicherte Haupt-Topic, den Topic-Layer nur für Reden ohne
+        // dieses Feld laden, die übrigen Layer nur für die relevanten Reden
+        NlpLayerStore nlpLayerStore = new NlpLayerStore(mongoHandler);
+        List<Document> withoutDominantTopic = new ArrayList<>();
+        for (Document rede : reden) {
+            if (!rede.containsKey(DominantTopic.FIELD)) withoutDominantTopic.add(rede);
         }
+        nlpLayerStore.attachAll(withoutDominantTopic, "topics");
 
-        System.out.println("Reden mit Textinhalt: " + validSpeeches.size());
-
-        // Zweiter Filter Wähle die Rede mit meisten textContent wegen Duplikaten
-        Map<String, Document> bestRedePerProtokoll = new HashMap<>();
-
-        for (Document rede : validSpeeches) {
-            Document protocol = (Document) rede.get("protocol");
-            if (protocol == null || protocol.getString("index") == null) continue;
-
-            String protocolIndex = protocol.getString("index");
-            List<Document> textContent = (List<Document>) rede.get("textContent");
-            int textSize = (textContent != null) ? textContent.size() : 0;
-
-            Document bestRede = bestRedePerProtokoll.get(protocolIndex);
-            if (bestRede == null) {
-                bestRedePerProtokoll.put(protocolIndex, rede);
-            } else {
-                List<Document> bestTextContent = (List<Document>) bestRede.get("textContent");
-                int bestSize = (bestTextContent != null) ? bestTextContent.size() : 0;
-
-                if (textSize > bestSize) {
-                    bestRedePerProtokoll.put(protocolIndex, rede);
-                }
-            }
-        }
-
-        System.out.println("Eindeutige Protokolle nach Filterung: " + bestRedePerProtokoll.size());
-
-        return new ArrayList<>(bestRedePerProtokoll.values());
+        // Dann relevante Reden nach Thema filtern
+        this.relevantReden = nlpLayerStore.attachAll(filterRelevantSpeeches(reden));
     }
 
     /**
@@ -115,36 +74,23 @@ public class ThemaRedenXMIExporter {
 
     /**
      * Prüft, ob eine Rede für das angegebene Thema relevant ist.
-     * Analysiert die NLP-Ergebnisse und prüft, ob das Thema als
-     * eines der Hauptthemen der Rede identifiziert wurde.
+     * Verwendet das gespeicherte Haupt-Topic der Rede und berechnet es nur für Reden ohne
+     * dieses Feld aus den NLP-Ergebnissen, siehe {@link DominantTopic}.
      *
      * @param rede Das zu prüfende Rede-Dokument
      * @param thema Das Thema, auf das geprüft werden soll
      * @return true, wenn die Rede für das Thema relevant ist, sonst false
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     private boolean isRelevantToTheme(Document rede, String thema) {
-        Document nlpResults = (Document) rede.get("nlpResults");
-        if (nlpResults == null) {
-            return false;
-        }
-
-        List<Document> topics = (List<Document>) nlpResults.get("topics");
-        if (topics == null || topics.isEmpty()) {
-            return false;
-        }
-
-        // Finde das Thema mit dem höchsten Score in Rede
-        Document topTopic = topics.stream()
-                .max(Comparator.comparingDouble(doc -> doc.getDouble("score") != null ? doc.getDouble("score") : 0.0))
-                .orElse(null);
-
-        if (topTopic == null) {
-            return false;
+        String topValue = rede.getString(DominantTopic.FIELD);
+        if (topValue == null) {
+            Document nlpResults = (Document) rede.get("nlpResults");
+            topValue = nlpResults != null ? DominantTopic.of(nlpResults.get("topics")) : null;
         }
 
-        String topValue = topTopic.getString("value");
-        // Prüfe, ob der größte Topic-Wert mit dem Thema übereinstimmt
+        // Prüfe, ob das Haupt-Topic mit dem Thema übereinstimmt
         return topValue != null && topValue.equalsIgnoreCase(thema);
     }
 
@@ -351,7 +297,7 @@ public class ThemaRedenXMIExporter {
 
         if (matchingTopic.isPresent()) {
             Document topic = matchingTopic.get();
-            Double score = topic.getDouble("score");
+            Double score = NumericNlpFieldsMigration.numberOf(topic.get("score"));
 
             xmi.append("      <topic:TopicMetadata xmi:id=\"_topicmeta" + sofaCounter + "\" ");
             xmi.append("sofa=\"_sofa" + sofaCounter + "\" ");
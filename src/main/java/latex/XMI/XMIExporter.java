@@ -3,7 +3,12 @@ package latex.XMI;
 import latex.impl.LaTeXComponent;
 import org.bson.Document;
 import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.Filters;
+import org.bson.conversions.Bson;
 import database.MongoDatabaseHandler;
+import database.SpeechDeduplicator;
+import database.Workload;
+import database.NlpLayerStore;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -28,11 +33,12 @@ public class XMIExporter {
      * @param redenList Liste der Reden im Protokoll
      * @param mongoHandler Handler für den Zugriff auf die MongoDB-Datenbank
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     public XMIExporter(List<Document> redenList, MongoDatabaseHandler mongoHandler) {
         this.rede = null;
         this.nlpData = null;
-        this.redenList = redenList;
+        this.redenList = new NlpLayerStore(mongoHandler).attachAll(redenList);
         this.mongoHandler = mongoHandler;
     }
 
@@ -44,13 +50,14 @@ public class XMIExporter {
      * @param mongoHandler Handler für den Zugriff auf die MongoDB-Datenbank
      * @return Ein neuer XMIExporter für das angegebene Protokoll
      * @author Maik Kitzmann
+     * @modifiedBy Ibrahim Garhiou
      */
     public static XMIExporter createForProtokoll(String protokollId, MongoDatabaseHandler mongoHandler) {
         System.out.println("Erstelle XMI-Exporter für Protokoll mit ID: " + protokollId);
 
         // Suche alle Reden für dieses Protokoll
-        Document filter = new Document("protocol.index", protokollId);
-        FindIterable<Document> redenDocs = mongoHandler.findDocuments("rede", filter);
+        Bson filter = SpeechDeduplicator.canonical(Filters.eq("protocol.index", protokollId));
+        FindIterable<Document> redenDocs = mongoHandler.findDocuments("rede", filter, Workload.ANALYTIC);
 
         List<Document> redenList = new ArrayList<>();
         redenDocs.forEach(redenList::add);
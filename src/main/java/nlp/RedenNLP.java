@@ -4,16 +4,19 @@ import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Filters;
 import database.MongoDatabaseHandler;
+import database.NlpLayerStore;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.factory.JCasFactory;
 import org.apache.uima.jcas.JCas;
-import org.apache.uima.util.XmlCasSerializer;
 import org.bson.Document;
 import org.texttechnologylab.DockerUnifiedUIMAInterface.DUUIComposer;
 import org.texttechnologylab.DockerUnifiedUIMAInterface.driver.DUUIRemoteDriver;
 import org.texttechnologylab.DockerUnifiedUIMAInterface.lua.DUUILuaContext;
 
-import java.io.ByteArrayOutputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -24,7 +27,13 @@ import java.util.List;
  * @author Ibrahim Garhiou
  */
 public class RedenNLP {
+    private static final String TOKEN_TYPE = "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token";
+    private static final String NAMED_ENTITY_TYPE = "de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity";
+    private static final String SENTIMENT_TYPE = "org.hucompute.textimager.uima.type.Sentiment";
+    private static final String TOPIC_TYPE = "org.hucompute.textimager.uima.type.category.CategoryCoveredTagged";
+
     private MongoDatabaseHandler mongoHandler;
+    private NlpLayerStore layerStore;
     private DUUIComposer composer;
 
     /**
@@ -35,6 +44,7 @@ public class RedenNLP {
      */
     public RedenNLP(MongoDatabaseHandler handler) throws Exception {
         this.mongoHandler = handler;
+        this.layerStore = new NlpLayerStore(handler);
 
         int iWorkers = 1;
         DUUILuaContext ctx = new DUUILuaContext().withJsonLibrary();
@@ -108,16 +118,17 @@ public class RedenNLP {
     }
 
     /**
-     * Speichert die NLP-Ergebnisse in die MongoDB.
+     * Speichert die NLP-Ergebnisse in die MongoDB. Die Annotationen werden als Layer nach "rede_nlp"
+     * geschrieben ({@link NlpLayerStore#saveLayers}), dort werden Scores als Double gespeichert und das
+     * Haupt-Topic der Rede gesetzt.
      *
      * @param speechId ID der Rede in MongoDB.
      * @param jcas JCas-Objekt mit NLP-Ergebnissen.
+     * @modifiedBy Ibrahim Garhiou
      */
     public void saveResults(String speechId, JCas jcas) {
         try {
-            MongoCollection<Document> collection = mongoHandler.getDatabase().getCollection("rede");
-            Document update = new Document("$set", new Document("nlpResults", serializeCasToXMI(jcas)));
-            collection.updateOne(Filters.eq("_id", speechId), update);
+            layerStore.saveLayers(speechId, toLayers(jcas));
         } catch (Exception e) {
             System.err.println("Fehler beim Speichern der NLP-Ergebnisse: " + e.getMessage());
             e.printStackTrace();
@@ -125,20 +136,100 @@ public class RedenNLP {
     }
 
     /**
-     * Serialisiert ein JCas-Objekt in einen XMI-String.
+     * Wandelt die Annotationen eines CAS in die Layer von {@link NlpLayerStore#LAYERS} um, im Format,
+     * das die API und die Exporte lesen. Layer, deren Typ im Typsystem fehlt, werden weggelassen.
      *
-     * @param jcas JCas-Objekt.
-     * @return XMI-String.
+     * @param jcas JCas-Objekt mit NLP-Ergebnissen.
+     * @return NLP-Ergebnisse je Layer
+     * @author Ibrahim Garhiou
      */
-    private String serializeCasToXMI(JCas jcas) {
-        try {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            XmlCasSerializer.serialize(jcas.getCas(), outputStream);
-            return outputStream.toString(StandardCharsets.UTF_8);
-        } catch (Exception e) {
-            System.err.println("Fehler beim Serialisieren des CAS: " + e.getMessage());
-            return null;
+    static Document toLayers(JCas jcas) {
+        CAS cas = jcas.getCas();
+        Document layers = new Document();
+
+        Type tokenType = cas.getTypeSystem().getType(TOKEN_TYPE);
+        if (tokenType != null) {
+            List<Document> tokens = new ArrayList<>();
+            for (AnnotationFS token : cas.getAnnotationIndex(tokenType)) {
+                tokens.add(span(token)
+                        .append("pos", featureString(token, "pos", "PosValue"))
+                        .append("lemma", featureString(token, "lemma", "value")));
+            }
+            layers.append("tokens", tokens);
+        }
+
+        Type entityType = cas.getTypeSystem().getType(NAMED_ENTITY_TYPE);
+        if (entityType != null) {
+            List<Document> entities = new ArrayList<>();
+            for (AnnotationFS entity : cas.getAnnotationIndex(entityType)) {
+                entities.add(span(entity).append("type", featureString(entity, "value", null)));
+            }
+            layers.append("namedEntities", entities);
+        }
+
+        // Der erste Eintrag ist die Bewertung der ganzen Rede (Index sortiert nach Anfang, längere zuerst)
+        Type sentimentType = cas.getTypeSystem().getType(SENTIMENT_TYPE);
+        if (sentimentType != null) {
+            List<Document> sentiments = new ArrayList<>();
+            for (AnnotationFS sentiment : cas.getAnnotationIndex(sentimentType)) {
+                sentiments.add(span(sentiment)
+                        .append("sentiment", featureString(sentiment, "sentiment", null))
+                        .append("subjectivity", featureString(sentiment, "subjectivity", null)));
+            }
+            layers.append("sentiment", sentiments);
+        }
+
+        Type topicType = cas.getTypeSystem().getType(TOPIC_TYPE);
+        if (topicType != null) {
+            List<Document> topics = new ArrayList<>();
+            for (AnnotationFS topic : cas.getAnnotationIndex(topicType)) {
+                topics.add(span(topic)
+                        .append("value", featureString(topic, "value", null))
+                        .append("score", featureString(topic, "score", null)));
+            }
+            layers.append("topics", topics);
+        }
+        return layers;
+    }
+
+    private static Document span(AnnotationFS annotation) {
+        return new Document("text", annotation.getCoveredText())
+                .append("begin", annotation.getBegin())
+                .append("end", annotation.getEnd());
+    }
+
+    /**
+     * Liest ein Feature als Text, bei Verweisen auf andere Feature Structures (z.B. POS) deren Feature
+     * "nested". Fehlende Features ergeben null, Zahlen wandelt {@link NlpLayerStore#saveLayers} in Double um.
+     */
+    private static String featureString(FeatureStructure fs, String name, String nested) {
+        Feature feature = fs.getType().getFeatureByBaseName(name);
+        if (feature == null) return null;
+        if (nested == null) return fs.getFeatureValueAsString(feature);
+
+        FeatureStructure target = fs.getFeatureValue(feature);
+        return target != null ? featureString(target, nested, null) : null;
+    }
+
+    /**
+     * Verarbeitet eine einzelne Rede und speichert die Ergebnisse. Anders als {@link #processJCas} werden
+     * Fehler weitergegeben, damit die Ingest-Pipeline die Rede erneut versuchen kann.
+     *
+     * @param speechId ID der Rede in MongoDB.
+     * @return false, wenn die Rede nicht existiert oder keinen Text hat.
+     * @throws Exception Falls die NLP-Verarbeitung fehlschlägt.
+     */
+    public boolean processSpeech(String speechId) throws Exception {
+        Document speechDoc = mongoHandler.getCollection("rede").find(Filters.eq("_id", speechId)).first();
+        if (speechDoc == null || speechDoc.getString("text") == null) {
+            return false;
         }
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(speechDoc.getString("text"));
+        jcas.setDocumentLanguage("de");
+        composer.run(jcas);
+        layerStore.saveLayers(speechId, toLayers(jcas));
+        return true;
     }
 
     /**
@@ -3,6 +3,7 @@ package nlp;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import database.MongoDatabaseHandler;
+import database.NumericNlpFieldsMigration;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
@@ -217,6 +218,8 @@ public class VideosNLP {
                         .append("end", annotation.getEnd());
                 topics.add(topicData);
             }
+            // Scores als Double speichern wie in rede_nlp
+            NumericNlpFieldsMigration.normalize("topics", topics);
         } catch (Exception e) {
             System.err.println("Fehler beim Extrahieren der Topic-Annotationen: " + e.getMessage());
             e.printStackTrace();
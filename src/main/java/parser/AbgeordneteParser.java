@@ -1,6 +1,7 @@
 package parser;
 
 import database.MongoDatabaseHandler;
+import utils.AbgeordnetenDirectory;
 import org.bson.Document;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Element;
@@ -86,6 +87,9 @@ public class AbgeordneteParser {
                     System.out.println("Abgeordneter bereits in DB: " + nachname + ", " + vorname);
                 }
             }
+
+            // In-Memory-Verzeichnis der Abgeordneten mit den neuen Daten ersetzen
+            AbgeordnetenDirectory.refresh(mongoHandler);
         } catch (Exception e) {
             System.err.println(" Fehler beim Parsen der Abgeordneten-XML!");
             e.printStackTrace();
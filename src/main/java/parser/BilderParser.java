@@ -3,6 +3,7 @@ package parser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import database.MongoDatabaseHandler;
+import utils.AbgeordnetenDirectory;
 import org.bson.Document;
 
 import java.io.File;
@@ -61,6 +62,9 @@ public class BilderParser {
                 }
             }
             System.out.println("Bilder-Parsing abgeschlossen!");
+
+            // In-Memory-Verzeichnis der Abgeordneten mit den neuen Daten ersetzen
+            AbgeordnetenDirectory.refresh(mongoHandler);
         } catch (Exception e) {
             System.err.println("Fehler beim Parsen der Bilder-JSON!");
             e.printStackTrace();
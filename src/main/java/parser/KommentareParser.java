@@ -1,10 +1,13 @@
 package parser;
 
 import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
 import org.bson.Document;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import database.MongoDatabaseHandler;
 import java.util.ArrayList;
 import java.util.List;
@@ -44,16 +47,6 @@ public class KommentareParser {
         }
     }
 
-    /**
-     * Holt den Text eines Elements sicher und verhindert NullPointerException.
-     *
-     * @author Ibrahim Garhiou
-     */
-    private String getElementText(Element parent, String tag) {
-        Element element = parent.selectFirst(tag);
-        return (element != null) ? element.text() : "keines";
-    }
-
     /**
      * Parst die Kommentare aus einem XML-Protokoll und speichert sie in die Collection 'kommentare'.
      *
@@ -61,47 +54,53 @@ public class KommentareParser {
      */
     private void parseKommentare(String xmlContent) {
         try {
-            org.jsoup.nodes.Document doc = Jsoup.parse(xmlContent, "", org.jsoup.parser.Parser.xmlParser());
-
-            // Sitzungs-Infos erfassen
-            Element kopf = doc.selectFirst("kopfdaten");
-            String sitzungNr = (kopf != null) ? getElementText(kopf, "sitzungsnr") : "unknown-" + System.nanoTime();
-
-            System.out.println("Parsing Kommentare für Sitzung Nr. " + sitzungNr);
-
-            // Reden erfassen und ihre Kommentare
-            Elements redeElements = doc.select("rede");
-            for (Element rede : redeElements) {
-                Element rednerElement = rede.selectFirst("redner");
-                if (rednerElement == null) {
-                    System.out.println("Kein <redner>-Tag in der Rede gefunden!");
-                    continue;
-                }
-
-                String rednerID = rednerElement.attr("id");
-                String redeID = "ID" + sitzungNr.replaceAll("[^a-zA-Z0-9]", "") + "-" + rednerID.replaceAll("[^a-zA-Z0-9]", "");
-
-                // Kommentare in der aktuellen Rede erfassen
-                Elements kommentarElements = rede.select("kommentar");
-                for (Element kommentar : kommentarElements) {
-                    String kommentarText = kommentar.text();
-                    String kommentarID = "ID" + System.nanoTime();
-
-                    Document kommentarDoc = new Document("_id", kommentarID)
-                            .append("text", kommentarText)
-                            .append("speakerID", rednerID)
-                            .append("redeID", redeID);
-
-                    mongoHandler.insertDocument("kommentare", kommentarDoc);
-                    System.out.println("Kommentar gespeichert: " + kommentarText);
-                }
-            }
+            parseAndStore(xmlContent);
         } catch (Exception e) {
             System.out.println("Fehler beim Parsen der Kommentare!");
             e.printStackTrace();
         }
     }
 
+    /**
+     * Parst die Kommentare eines XML-Protokolls mit dem {@link ProtokollExtractor} und speichert sie in
+     * 'kommentare'. Fehler werden an den Aufrufer weitergegeben.
+     *
+     * @param xmlContent Inhalt des Protokolls
+     * @return Anzahl der gespeicherten Kommentare
+     * @author Ibrahim Garhiou
+     */
+    public int parseAndStore(String xmlContent) {
+        ProtokollExtractor.Protokoll protokoll = ProtokollExtractor.extract(xmlContent);
+        storeAll(protokoll.reden(), protokoll.kommentare());
+        System.out.println("Kommentare für Sitzung " + (protokoll.session() != null ? protokoll.session().get("_id") : "?")
+                + " gespeichert: " + protokoll.kommentare().size());
+        return protokoll.kommentare().size();
+    }
+
+    /**
+     * Speichert die Kommentare der angegebenen Reden. Da die IDs aus Rede und Position gebildet werden,
+     * ersetzt ein erneuter Lauf die Einträge; Kommentare, die es in einer Rede nicht mehr gibt, werden entfernt.
+     *
+     * @param reden Die Reden, deren Kommentare vollständig in {@code kommentare} enthalten sind
+     * @param kommentare Kommentar-Dokumente aus dem {@link ProtokollExtractor}
+     * @author Ibrahim Garhiou
+     */
+    public void storeAll(List<Document> reden, List<Document> kommentare) {
+        if (reden.isEmpty()) return;
+        List<WriteModel<Document>> writes = new ArrayList<>(kommentare.size() + 1);
+        List<Object> redeIds = new ArrayList<>(reden.size());
+        List<Object> kommentarIds = new ArrayList<>(kommentare.size());
+        for (Document rede : reden) {
+            redeIds.add(rede.get("_id"));
+        }
+        for (Document kommentar : kommentare) {
+            kommentarIds.add(kommentar.get("_id"));
+            writes.add(new ReplaceOneModel<>(Filters.eq("_id", kommentar.get("_id")), kommentar, new ReplaceOptions().upsert(true)));
+        }
+        writes.add(new DeleteManyModel<>(Filters.and(Filters.in("redeID", redeIds), Filters.nin("_id", kommentarIds))));
+        mongoHandler.getCollection("kommentare").bulkWrite(writes, new BulkWriteOptions().ordered(false));
+    }
+
     /**
      * Hauptmethode für den manuellen Test.
      *
@@ -1,24 +1,38 @@
 package parser;
 
 import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import org.bson.Document;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
+import aggregation.IncrementalAggregation;
 import database.MongoDatabaseHandler;
-import java.util.ArrayList;
-import java.util.List;
+import database.SpeechDeduplicator;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import javax.xml.stream.XMLStreamException;
 
 /**
  * Parser für Plenarprotokolle aus der MongoDB
  *
  * @author Delia Maniliuc
+ * @modifiedBy Ibrahim Garhiou
  */
 public class PlenarprotokollParser {
     private MongoDatabaseHandler mongoHandler;
+    private SpeechDeduplicator deduplicator;
+    private KommentareParser kommentare;
 
     public PlenarprotokollParser(MongoDatabaseHandler handler) {
         this.mongoHandler = handler;
+        this.deduplicator = new SpeechDeduplicator(handler);
+        this.kommentare = new KommentareParser(handler);
     }
 
     /**
@@ -36,6 +50,7 @@ public class PlenarprotokollParser {
         }
 
         System.out.println("Anzahl der geladenen Protokolle: " + protokolle.size());
+        deduplicator.ensureIndexes();
 
         for (Document protokoll : protokolle) {
             String xmlContent = protokoll.getString("content");
@@ -63,81 +78,206 @@ public class PlenarprotokollParser {
      */
     private void parseProtokoll(String xmlContent) {
         try {
-            org.jsoup.nodes.Document doc = Jsoup.parse(xmlContent, "", org.jsoup.parser.Parser.xmlParser());
+            parseAndStore(xmlContent);
+        } catch (Exception e) {
+            System.out.println("Fehler beim Parsen der XML-Datei!");
+            e.printStackTrace();
+        }
+    }
 
-            // Sitzungs-Infos erfassen
-            Element kopf = doc.selectFirst("kopfdaten");
-            String sitzungNr = (kopf != null) ? getElementText(kopf, "sitzungsnr") : "unknown-" + System.nanoTime();
-            String datum = getElementText(kopf, "datum");
-            String wahlperiode = getElementText(kopf, "wahlperiode");
-            String ort = getElementText(kopf, "ort");
+    /**
+     * Parst ein XML-Protokoll und speichert seine Reden in 'rede' und seine Kommentare in 'kommentare'.
+     * Fehler werden an den Aufrufer weitergegeben, damit z.B. die Ingest-Pipeline das Protokoll
+     * erneut versuchen kann.
+     *
+     * @param xmlContent Inhalt des Protokolls
+     * @return Ergebnis des Speicherns je Rede-ID, in der Reihenfolge des Protokolls
+     * @author Ibrahim Garhiou
+     */
+    public Map<String, SpeechDeduplicator.Outcome> parseAndStore(String xmlContent) {
+        ProtokollExtractor.Protokoll protokoll = ProtokollExtractor.extract(xmlContent);
+        List<SpeechDeduplicator.Outcome> results = store(protokoll);
 
+        Map<String, SpeechDeduplicator.Outcome> outcomes = new LinkedHashMap<>();
+        for (int i = 0; i < protokoll.reden().size(); i++) {
+            Document rede = protokoll.reden().get(i);
+            outcomes.put(rede.getString("_id"), results.get(i));
+            System.out.println("Rede für Abgeordneten " + rede.getString("speaker") + ": " + results.get(i));
+        }
+        return outcomes;
+    }
 
-            System.out.println("Parsing Sitzung Nr. " + sitzungNr + " (" + datum + ")");
+    // Ergebnisse, bei denen die Rede geschrieben wurde und ihre Kommentare mitgespeichert werden
+    private static final Set<SpeechDeduplicator.Outcome> WRITTEN = EnumSet.of(
+            SpeechDeduplicator.Outcome.INSERTED, SpeechDeduplicator.Outcome.REPLACED, SpeechDeduplicator.Outcome.SUPERSEDED);
 
-            // Tagesordnungspunkte erfassen
-            Elements topElements = doc.select("ivz-block");
-            List<Document> agendaList = new ArrayList<>();
-            for (Element top : topElements) {
-                String topIndex = getElementText(top, "ivz-block-titel");
-                String topTitle = getElementText(top.selectFirst("ivz-eintrag-inhalt"), "ivz-eintrag-inhalt");
-                agendaList.add(new Document("index", topIndex).append("title", topTitle));
+    /**
+     * Speichert Reden und Kommentare eines gelesenen Protokolls. Kommentare werden nur für Reden
+     * geschrieben, die dabei selbst gespeichert wurden; bei unveränderten Reden bleiben sie unberührt.
+     *
+     * @return Ergebnis je Rede in der Reihenfolge des Protokolls
+     */
+    private List<SpeechDeduplicator.Outcome> store(ProtokollExtractor.Protokoll protokoll) {
+        List<SpeechDeduplicator.Outcome> results = deduplicator.storeAll(protokoll.reden());
+
+        List<Document> written = new ArrayList<>();
+        Set<Object> writtenIds = new HashSet<>();
+        for (int i = 0; i < protokoll.reden().size(); i++) {
+            if (WRITTEN.contains(results.get(i))) {
+                written.add(protokoll.reden().get(i));
+                writtenIds.add(protokoll.reden().get(i).get("_id"));
             }
+        }
+        List<Document> writtenKommentare = new ArrayList<>();
+        for (Document kommentar : protokoll.kommentare()) {
+            if (writtenIds.contains(kommentar.get("redeID"))) writtenKommentare.add(kommentar);
+        }
+        kommentare.storeAll(written, writtenKommentare);
+        return results;
+    }
+
+    /**
+     * Parst alle Protokolle parallel auf einem Pool mit {@code parallelism} Threads. Jeder Worker lädt sein
+     * Protokoll, parst es und schreibt dessen Reden mit einem eigenen Bulk-Write
+     * ({@link SpeechDeduplicator#storeAll}). Es sind höchstens doppelt so viele Protokolle in Arbeit wie
+     * Threads, der Fortschritt wird in der Reihenfolge der Protokolle ausgegeben.
+     *
+     * @param parallelism Anzahl der Worker-Threads
+     * @return Anzahl der fehlgeschlagenen Protokolle
+     * @author Ibrahim Garhiou
+     */
+    public int parseAndStoreAllProtokolleParallel(int parallelism) {
+        List<Object> protokollIds = new ArrayList<>();
+        for (Document doc : mongoHandler.findDocuments("protokolle", new Document()).projection(Projections.include("_id"))) {
+            protokollIds.add(doc.get("_id"));
+        }
+        System.out.println("Anzahl der Protokolle: " + protokollIds.size() + ", " + parallelism + " Threads");
+        deduplicator.ensureIndexes();
 
-            // Reden erfassen
-            Elements redeElements = doc.select("rede");
-            for (Element rede : redeElements) {
-                Element rednerElement = rede.selectFirst("redner");
-                if (rednerElement == null) {
-                    System.out.println("Kein <redner>-Tag in der Rede gefunden!");
+        long start = System.currentTimeMillis();
+        Map<SpeechDeduplicator.Outcome, Integer> totals = new EnumMap<>(SpeechDeduplicator.Outcome.class);
+        int failed = 0;
+        int reported = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        Deque<Future<Map<SpeechDeduplicator.Outcome, Integer>>> window = new ArrayDeque<>();
+        try {
+            for (int next = 0; next < protokollIds.size() || !window.isEmpty(); ) {
+                if (next < protokollIds.size() && window.size() < 2 * parallelism) {
+                    Object protokollId = protokollIds.get(next++);
+                    window.add(pool.submit(() -> parseAndStoreProtokoll(protokollId)));
                     continue;
                 }
 
-                String rednerID = rednerElement.attr("id");
-                String name = getElementText(rednerElement, "vorname") + " " + getElementText(rednerElement, "nachname");
-                String fraktion = getElementText(rednerElement, "fraktion");
-                String redeID = "ID" + sitzungNr +  rednerID;
-
-                // Rede-Text extrahieren
-                Elements textAbschnitte = rede.select("p, kommentar");
-                List<Document> textContent = new ArrayList<>();
-                StringBuilder fullText = new StringBuilder();
-
-                for (Element abschnitt : textAbschnitte) {
-                    String text = abschnitt.text();
-                    fullText.append(text).append(" ");
-                    String type = abschnitt.tagName().equals("kommentar") ? "comment" : "text";
-                    Document textEntry = new Document("id", redeID + "--" + System.nanoTime())
-                            .append("speaker", name)
-                            .append("text", text)
-                            .append("type", type);
-                    textContent.add(textEntry);
+                // Ältestes Protokoll abwarten, damit der Fortschritt geordnet bleibt
+                Object protokollId = protokollIds.get(reported++);
+                String result;
+                try {
+                    Map<SpeechDeduplicator.Outcome, Integer> counts = window.poll().get();
+                    counts.forEach((outcome, count) -> totals.merge(outcome, count, Integer::sum));
+                    result = counts.toString();
+                } catch (ExecutionException e) {
+                    failed++;
+                    result = "Fehler: " + e.getCause().getMessage();
+                    e.getCause().printStackTrace();
                 }
+                double seconds = Math.max(System.currentTimeMillis() - start, 1) / 1000.0;
+                System.out.printf("[PlenarprotokollParser] %d/%d Protokoll %s: %s (%.1f Protokolle/s)%n",
+                        reported, protokollIds.size(), protokollId, result, reported / seconds);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
 
-                // Falls keine Inhalte gefunden wurden, Platzhalter hinzufügen
-                if (textContent.isEmpty()) {
-                    fullText.append("Keine Redeinhalte gefunden");
-                }
+        System.out.println("[PlenarprotokollParser] " + reported + " Protokolle in "
+                + (System.currentTimeMillis() - start) + " ms, Reden: " + totals + ", fehlgeschlagen: " + failed);
+        return failed;
+    }
 
-                Document redeDoc = new Document("_id", redeID)
-                        .append("text", fullText.toString().trim())
-                        .append("speaker", name)
-                        .append("protocol", new Document("date", datum)
-                                //.append("starttime", starttime)
-                                //.append("endtime", endtime)
-                                .append("index", sitzungNr)
-                                .append("title", "Plenarprotokoll " + wahlperiode + "/" + sitzungNr)
-                                .append("place", ort)
-                                .append("wp", wahlperiode))
-                        .append("textContent", textContent)
-                        .append("agenda", agendaList);
-
-                mongoHandler.insertDocument("rede", redeDoc);
-                System.out.println("Rede gespeichert für Abgeordneten " + name);
+    /**
+     * Lädt, parst und speichert ein einzelnes Protokoll.
+     *
+     * @return Anzahl der Reden je Ergebnis
+     */
+    private Map<SpeechDeduplicator.Outcome, Integer> parseAndStoreProtokoll(Object protokollId) {
+        Map<SpeechDeduplicator.Outcome, Integer> counts = new EnumMap<>(SpeechDeduplicator.Outcome.class);
+        Document protokoll = mongoHandler.findDocuments("protokolle", Filters.eq("_id", protokollId)).first();
+        if (protokoll == null || protokoll.getString("content") == null) {
+            return counts;
+        }
+        for (SpeechDeduplicator.Outcome outcome : store(ProtokollExtractor.extract(protokoll.getString("content")))) {
+            counts.merge(outcome, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * Liest die Reden eines Protokolls in einem Durchlauf mit StAX und übergibt jede sofort an {@code sink}.
+     *
+     * @param xmlContent Inhalt des Protokolls
+     * @param sink Empfänger der Rede-Dokumente
+     * @throws XMLStreamException Wenn der Inhalt kein wohlgeformtes XML ist
+     * @author Ibrahim Garhiou
+     */
+    public void extractStreaming(String xmlContent, Consumer<Document> sink) throws XMLStreamException {
+        ProtokollExtractor.stream(xmlContent, new ArrayList<>(), sink, kommentar -> {
+        });
+    }
+
+    /**
+     * Liest die Reden eines Protokolls über einen Jsoup-DOM und übergibt sie an {@code sink}.
+     * Bisheriger Weg, dient dem {@link PlenarprotokollParserBenchmark} als Referenz.
+     *
+     * @param xmlContent Inhalt des Protokolls
+     * @param sink Empfänger der Rede-Dokumente
+     * @author Delia Maniliuc
+     * @modifiedBy Ibrahim Garhiou
+     */
+    public void extractJsoup(String xmlContent, Consumer<Document> sink) {
+        org.jsoup.nodes.Document doc = Jsoup.parse(xmlContent, "", org.jsoup.parser.Parser.xmlParser());
+
+        // Sitzungs-Infos erfassen
+        Element kopf = doc.selectFirst("kopfdaten");
+        String sitzungNr = (kopf != null) ? getElementText(kopf, "sitzungsnr") : "unknown-" + System.nanoTime();
+        String datum = getElementText(kopf, "datum");
+        String wahlperiode = getElementText(kopf, "wahlperiode");
+        String ort = getElementText(kopf, "ort");
+
+
+        System.out.println("Parsing Sitzung Nr. " + sitzungNr + " (" + datum + ")");
+
+        // Tagesordnungspunkte erfassen
+        Elements topElements = doc.select("ivz-block");
+        List<Document> agendaList = new ArrayList<>();
+        for (Element top : topElements) {
+            String topIndex = getElementText(top, "ivz-block-titel");
+            String topTitle = getElementText(top.selectFirst("ivz-eintrag-inhalt"), "ivz-eintrag-inhalt");
+            agendaList.add(new Document("index", topIndex).append("title", topTitle));
+        }
+
+        // Reden erfassen, die Position im Protokoll geht in den kanonischen Schlüssel ein
+        Elements redeElements = doc.select("rede");
+        for (int order = 0; order < redeElements.size(); order++) {
+            Element rede = redeElements.get(order);
+            Element rednerElement = rede.selectFirst("redner");
+            if (rednerElement == null) {
+                System.out.println("Kein <redner>-Tag in der Rede gefunden!");
+                continue;
             }
-        } catch (Exception e) {
-            System.out.println("Fehler beim Parsen der XML-Datei!");
-            e.printStackTrace();
+
+            String rednerID = rednerElement.attr("id");
+            String name = getElementText(rednerElement, "vorname") + " " + getElementText(rednerElement, "nachname");
+
+            // Rede-Text extrahieren
+            List<String[]> abschnitte = new ArrayList<>();
+            for (Element abschnitt : rede.select("p, kommentar")) {
+                String type = abschnitt.tagName().equals("kommentar") ? "comment" : "text";
+                abschnitte.add(new String[]{type, abschnitt.text()});
+            }
+
+            sink.accept(ProtokollExtractor.speechDocument(rede.attr("id"), rednerID, order, name, datum, sitzungNr, wahlperiode, ort,
+                    abschnitte, agendaList));
         }
     }
 
@@ -153,8 +293,17 @@ public class PlenarprotokollParser {
             MongoDatabaseHandler mongoHandler = new MongoDatabaseHandler("mongodb.properties");
             PlenarprotokollParser parser = new PlenarprotokollParser(mongoHandler);
 
-            // Starte das Parsing nur für gespeicherte Protokolle
-            parser.parseAndStoreAllProtokolle();
+            // Starte das Parsing nur für gespeicherte Protokolle, mit -Dparser.threads=1 nacheinander
+            int threads = Integer.parseInt(System.getProperty("parser.threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            if (threads > 1) {
+                parser.parseAndStoreAllProtokolleParallel(threads);
+            } else {
+                parser.parseAndStoreAllProtokolle();
+            }
+
+            // Nur die von neuen oder geänderten Reden berührten Aggregationen aktualisieren
+            new IncrementalAggregation(mongoHandler).aggregate();
 
             System.out.println("Test abgeschlossen!");
 
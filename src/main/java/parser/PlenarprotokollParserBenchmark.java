@@ -0,0 +1,214 @@
+package parser;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Projections;
+import database.MongoDatabaseHandler;
+import database.ProtocolContentMigration;
+import database.Workload;
+import org.bson.Document;
+
+import javax.xml.stream.XMLStreamException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Vergleicht den Jsoup-DOM ({@link PlenarprotokollParser#extractJsoup}) mit dem StAX-Durchlauf
+ * ({@link PlenarprotokollParser#extractStreaming}) auf den gespeicherten Protokollen in "protokolle".
+ * Nicht wohlgeformte Protokolle (noch nicht mit {@link ProtocolContentMigration} umgestellt) misst der
+ * StAX-Weg wie im Betrieb über {@link ProtokollExtractor#extract} mit dem Jsoup-Umweg und zählt sie getrennt.
+ * Für jedes Protokoll laufen beide Wege abwechselnd zuerst, gemessen werden Laufzeit, CPU-Zeit und
+ * allokierte Bytes des Threads. Die erzeugten Rede-Dokumente werden ohne die zufälligen Abschnitts-IDs
+ * verglichen. Es wird nichts geschrieben.
+ *
+ * Start über das Maven-Profil: mvn -P parser-benchmark verify -Dbenchmark.config=mongodb.properties
+ *
+ * @author Ibrahim Garhiou
+ */
+public class PlenarprotokollParserBenchmark {
+
+    private static final int MAX_REPORTED_DIFFERENCES = 20;
+
+    /**
+     * Summen eines Parsers über alle Protokolle.
+     */
+    static class Totals {
+        final String name;
+        long wallNanos;
+        long cpuNanos;
+        long allocatedBytes;
+        long maxAllocatedBytes;
+        int speeches;
+
+        Totals(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-8s Laufzeit %7d ms | CPU %7d ms | allokiert %7d MB (max. %4d MB je Protokoll) | %d Reden",
+                    name, wallNanos / 1_000_000, cpuNanos / 1_000_000, allocatedBytes >> 20, maxAllocatedBytes >> 20, speeches);
+        }
+    }
+
+    /**
+     * Ein Parser als messbarer Aufruf.
+     */
+    @FunctionalInterface
+    private interface Extraction {
+        void run(String xmlContent, List<Document> sink) throws XMLStreamException;
+    }
+
+    private final PlenarprotokollParser parser;
+    private final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Konstruktor für den Benchmark.
+     *
+     * @param dbHandler Verbindung zur MongoDB
+     * @author Ibrahim Garhiou
+     */
+    public PlenarprotokollParserBenchmark(MongoDatabaseHandler dbHandler) {
+        this.parser = new PlenarprotokollParser(dbHandler);
+    }
+
+    /**
+     * Misst beide Parser auf einem Protokoll und vergleicht die Ergebnisse.
+     *
+     * @param swap true, um den StAX-Durchlauf zuerst auszuführen
+     * @return Beschreibung der Abweichung oder null, wenn beide dieselben Reden liefern
+     * @author Ibrahim Garhiou
+     */
+    String measure(String xmlContent, Totals jsoup, Totals stax, boolean swap) {
+        List<Document> jsoupSpeeches = new ArrayList<>();
+        List<Document> staxSpeeches = new ArrayList<>();
+        Extraction viaJsoup = (xml, sink) -> parser.extractJsoup(xml, sink::add);
+        // Wie im Betrieb: ohne wohlgeformtes XML über den Jsoup-Umweg in ProtokollExtractor.extract
+        Extraction viaStax = ProtocolContentMigration.isWellFormed(xmlContent)
+                ? (xml, sink) -> parser.extractStreaming(xml, sink::add)
+                : (xml, sink) -> sink.addAll(ProtokollExtractor.extract(xml).reden());
+
+        try {
+            if (swap) {
+                time(viaStax, xmlContent, staxSpeeches, stax);
+                time(viaJsoup, xmlContent, jsoupSpeeches, jsoup);
+            } else {
+                time(viaJsoup, xmlContent, jsoupSpeeches, jsoup);
+                time(viaStax, xmlContent, staxSpeeches, stax);
+            }
+        } catch (XMLStreamException e) {
+            return "StAX-Fehler: " + e.getMessage();
+        }
+
+        if (jsoupSpeeches.size() != staxSpeeches.size()) {
+            return jsoupSpeeches.size() + " != " + staxSpeeches.size() + " Reden";
+        }
+        for (int i = 0; i < jsoupSpeeches.size(); i++) {
+            Document left = comparable(jsoupSpeeches.get(i));
+            Document right = comparable(staxSpeeches.get(i));
+            if (!left.equals(right)) {
+                return "Rede " + left.get("_id") + " unterscheidet sich";
+            }
+        }
+        return null;
+    }
+
+    private void time(Extraction extraction, String xmlContent, List<Document> sink, Totals totals) throws XMLStreamException {
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long cpuBefore = threadBean.getCurrentThreadCpuTime();
+        long start = System.nanoTime();
+
+        extraction.run(xmlContent, sink);
+
+        totals.wallNanos += System.nanoTime() - start;
+        totals.cpuNanos += threadBean.getCurrentThreadCpuTime() - cpuBefore;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        totals.allocatedBytes += allocated;
+        totals.maxAllocatedBytes = Math.max(totals.maxAllocatedBytes, allocated);
+        totals.speeches += sink.size();
+    }
+
+    // Die Abschnitts-IDs enthalten System.nanoTime() und werden nicht verglichen
+    private static Document comparable(Document speech) {
+        Document copy = new Document(speech);
+        List<Document> textContent = new ArrayList<>();
+        for (Document entry : speech.getList("textContent", Document.class)) {
+            Document entryCopy = new Document(entry);
+            entryCopy.remove("id");
+            textContent.add(entryCopy);
+        }
+        copy.put("textContent", textContent);
+        return copy;
+    }
+
+    /**
+     * Durchläuft alle gespeicherten Protokolle. Parameter als System-Properties: benchmark.config
+     * (Konfigurationsdatei im Classpath), benchmark.limit (Anzahl Protokolle, 0 für alle) und
+     * benchmark.warmup (Protokolle zum Aufwärmen, nicht gemessen).
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static void main(String[] args) {
+        try {
+            MongoDatabaseHandler dbHandler = new MongoDatabaseHandler(System.getProperty("benchmark.config", "mongodb.properties"));
+            PlenarprotokollParserBenchmark benchmark = new PlenarprotokollParserBenchmark(dbHandler);
+            int limit = Integer.parseInt(System.getProperty("benchmark.limit", "0"));
+            int warmup = Integer.parseInt(System.getProperty("benchmark.warmup", "10"));
+
+            Totals jsoup = new Totals("Jsoup");
+            Totals stax = new Totals("StAX");
+            Totals ignored = new Totals("warmup");
+            List<String> differences = new ArrayList<>();
+            int protocols = 0;
+            int notWellFormed = 0;
+            long notWellFormedNanos = 0;
+
+            try (MongoCursor<Document> cursor = dbHandler.findDocuments("protokolle", new Document(), Workload.ANALYTIC)
+                    .projection(Projections.include("url", "content"))
+                    .limit(limit > 0 ? limit + warmup : 0)
+                    .iterator()) {
+                int index = 0;
+                while (cursor.hasNext()) {
+                    Document protokoll = cursor.next();
+                    String content = protokoll.getString("content");
+                    if (content == null) continue;
+
+                    boolean measured = index++ >= warmup;
+                    long staxBefore = stax.wallNanos;
+                    String difference = measured
+                            ? benchmark.measure(content, jsoup, stax, protocols % 2 == 1)
+                            : benchmark.measure(content, ignored, ignored, false);
+                    if (!measured) continue;
+
+                    protocols++;
+                    if (!ProtocolContentMigration.isWellFormed(content)) {
+                        notWellFormed++;
+                        notWellFormedNanos += stax.wallNanos - staxBefore;
+                    }
+                    if (difference != null) {
+                        differences.add(protokoll.get("url") + ": " + difference);
+                    }
+                }
+            }
+
+            System.out.println("[PlenarprotokollParserBenchmark] " + protocols + " Protokolle gemessen ("
+                    + warmup + " zum Aufwärmen)");
+            System.out.println("  " + jsoup);
+            System.out.println("  " + stax);
+            if (stax.wallNanos > 0) {
+                System.out.printf("  Faktor Laufzeit %.2f, Allokation %.2f%n",
+                        (double) jsoup.wallNanos / stax.wallNanos, (double) jsoup.allocatedBytes / Math.max(stax.allocatedBytes, 1));
+            }
+            System.out.println("  Nicht wohlgeformt (StAX über Jsoup-Umweg): " + notWellFormed + " Protokolle, "
+                    + notWellFormedNanos / 1_000_000 + " ms der StAX-Laufzeit");
+            System.out.println("  Abweichungen: " + differences.size());
+            differences.stream().limit(MAX_REPORTED_DIFFERENCES).forEach(difference -> System.out.println("    " + difference));
+            dbHandler.close();
+        } catch (Exception e) {
+            System.err.println("[PlenarprotokollParserBenchmark] Fehler: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
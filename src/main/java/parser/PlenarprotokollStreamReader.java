@@ -0,0 +1,364 @@
+package parser;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Liest ein Plenarprotokoll mit StAX in einem einzigen Durchlauf, ohne einen DOM-Baum aufzubauen.
+ *
+ * Der Handler erhält nacheinander die Sitzungsdaten aus "kopfdaten", die Tagesordnungspunkte ("ivz-block")
+ * und jede Rede mit ihren Abschnitten ("p" und "kommentar") sobald ihr schließendes Tag gelesen ist.
+ * Im Speicher liegt dadurch immer nur die aktuelle Rede.
+ *
+ * Die Texte entsprechen {@code Element.text()} von Jsoup im XML-Modus: Leerzeichen (auch geschützte)
+ * werden zusammengefasst, weiche Trennstriche und Null-Breite-Leerzeichen entfernt, "br" wird zu einem
+ * Leerzeichen und das Ergebnis getrimmt. Fehlende Elemente ergeben wie bisher "kein".
+ *
+ * @author Ibrahim Garhiou
+ */
+public class PlenarprotokollStreamReader {
+
+    public static final String MISSING = "kein";
+
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    /**
+     * Sitzungsdaten aus "kopfdaten".
+     */
+    public record Session(String sitzungNr, String datum, String wahlperiode, String ort) {
+    }
+
+    /**
+     * Tagesordnungspunkt aus "ivz-block".
+     */
+    public record AgendaItem(String index, String title) {
+    }
+
+    /**
+     * Abschnitt einer Rede, "text" für "p" und "comment" für "kommentar".
+     */
+    public record Abschnitt(String type, String text) {
+    }
+
+    /**
+     * Eine Rede. Ohne "redner"-Element ist {@link #hasRedner()} false.
+     *
+     * @param id "id"-Attribut der Rede, leer falls nicht vorhanden
+     * @param order Position unter allen Reden des Protokolls, beginnend bei 0
+     */
+    public record Speech(String id, int order, boolean hasRedner, String rednerId, String vorname, String nachname,
+                         String fraktion, List<Abschnitt> abschnitte) {
+    }
+
+    /**
+     * Empfänger der gelesenen Teile, alle Methoden sind optional.
+     */
+    public interface Handler {
+        default void session(Session session) {
+        }
+
+        default void agendaItem(AgendaItem item) {
+        }
+
+        default void speech(Speech speech) {
+        }
+    }
+
+    private PlenarprotokollStreamReader() {
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // Die DTD der Protokolle wird weder geladen noch benötigt
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        // CDATA als eigenes Ereignis melden, Jsoup übernimmt es ohne Leerzeichen-Normalisierung
+        if (factory.isPropertySupported(REPORT_CDATA)) {
+            factory.setProperty(REPORT_CDATA, true);
+        }
+        return factory;
+    }
+
+    /**
+     * Liest ein Protokoll und ruft für jeden Teil den Handler auf.
+     *
+     * @param xmlContent Inhalt des Protokolls
+     * @param handler Empfänger der Sitzungsdaten, Tagesordnungspunkte und Reden
+     * @throws XMLStreamException Wenn der Inhalt kein wohlgeformtes XML ist, z.B. weil er mit dem
+     *                            HTML-Parser von Jsoup gespeichert wurde
+     * @author Ibrahim Garhiou
+     */
+    public static void read(String xmlContent, Handler handler) throws XMLStreamException {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(new StringReader(xmlContent));
+        try {
+            new State(handler).run(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Zustand eines Durchlaufs.
+     */
+    private static final class State {
+        private final Handler handler;
+        // Offene Textabschnitte, jeder Text wird an alle angehängt
+        private final List<Capture> captures = new ArrayList<>();
+        private int depth;
+
+        private boolean kopfSeen;
+        private int kopfDepth = -1;
+        private String sitzungNr, datum, wahlperiode, ort;
+
+        private final List<String[]> agendaBlocks = new ArrayList<>();
+
+        private int speechOrder;
+        private int redeDepth = -1;
+        private String redeId;
+        private int rednerDepth = -1;
+        private boolean hasRedner;
+        private String rednerId, vorname, nachname, fraktion;
+        private List<String> abschnittTypes;
+        private String[] abschnittTexts;
+
+        State(Handler handler) {
+            this.handler = handler;
+        }
+
+        void run(XMLStreamReader reader) throws XMLStreamException {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> start(reader);
+                    case XMLStreamConstants.END_ELEMENT -> end(reader.getLocalName());
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE -> {
+                        if (!captures.isEmpty()) {
+                            String text = reader.getText();
+                            for (Capture capture : captures) capture.text.appendNormalised(text);
+                        }
+                    }
+                    case XMLStreamConstants.CDATA -> {
+                        // Jsoup übernimmt CDATA unverändert
+                        String text = reader.getText();
+                        for (Capture capture : captures) capture.text.append(text);
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        private void start(XMLStreamReader reader) {
+            depth++;
+            String name = reader.getLocalName();
+            if (name.equals("br")) {
+                for (Capture capture : captures) capture.text.appendBreak();
+            }
+
+            if (!kopfSeen && name.equals("kopfdaten")) {
+                kopfSeen = true;
+                kopfDepth = depth;
+            } else if (kopfDepth > 0) {
+                switch (name) {
+                    case "sitzungsnr" -> {
+                        if (sitzungNr == null) {
+                            sitzungNr = "";
+                            capture(text -> sitzungNr = text);
+                        }
+                    }
+                    case "datum" -> {
+                        if (datum == null) {
+                            datum = "";
+                            capture(text -> datum = text);
+                        }
+                    }
+                    case "wahlperiode" -> {
+                        if (wahlperiode == null) {
+                            wahlperiode = "";
+                            capture(text -> wahlperiode = text);
+                        }
+                    }
+                    case "ort" -> {
+                        if (ort == null) {
+                            ort = "";
+                            capture(text -> ort = text);
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+
+            if (name.equals("ivz-block")) {
+                String[] block = new String[2];
+                agendaBlocks.add(block);
+            } else if (!agendaBlocks.isEmpty()) {
+                String[] block = agendaBlocks.get(agendaBlocks.size() - 1);
+                if (name.equals("ivz-block-titel") && block[0] == null) {
+                    block[0] = "";
+                    capture(text -> block[0] = text);
+                } else if (name.equals("ivz-eintrag-inhalt") && block[1] == null) {
+                    block[1] = "";
+                    capture(text -> block[1] = text);
+                }
+            }
+
+            if (redeDepth < 0) {
+                if (name.equals("rede")) {
+                    redeDepth = depth;
+                    String id = reader.getAttributeValue(null, "id");
+                    redeId = id != null ? id : "";
+                    hasRedner = false;
+                    rednerId = vorname = nachname = fraktion = null;
+                    abschnittTypes = new ArrayList<>();
+                    abschnittTexts = new String[16];
+                }
+                return;
+            }
+
+            if (!hasRedner && name.equals("redner")) {
+                hasRedner = true;
+                rednerDepth = depth;
+                String id = reader.getAttributeValue(null, "id");
+                rednerId = id != null ? id : "";
+            } else if (rednerDepth > 0) {
+                switch (name) {
+                    case "vorname" -> {
+                        if (vorname == null) {
+                            vorname = "";
+                            capture(text -> vorname = text);
+                        }
+                    }
+                    case "nachname" -> {
+                        if (nachname == null) {
+                            nachname = "";
+                            capture(text -> nachname = text);
+                        }
+                    }
+                    case "fraktion" -> {
+                        if (fraktion == null) {
+                            fraktion = "";
+                            capture(text -> fraktion = text);
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+
+            if (name.equals("p") || name.equals("kommentar")) {
+                // Platz in Dokumentreihenfolge reservieren, der Text steht erst am Ende fest
+                int slot = abschnittTypes.size();
+                abschnittTypes.add(name.equals("kommentar") ? "comment" : "text");
+                if (slot == abschnittTexts.length) {
+                    abschnittTexts = Arrays.copyOf(abschnittTexts, slot * 2);
+                }
+                capture(text -> abschnittTexts[slot] = text);
+            }
+        }
+
+        private void end(String name) {
+            // Zuerst die Textabschnitte dieses Elements abschließen
+            while (!captures.isEmpty() && captures.get(captures.size() - 1).depth == depth) {
+                Capture capture = captures.remove(captures.size() - 1);
+                if (capture.onEnd != null) capture.onEnd.accept(capture.text.result());
+            }
+
+            if (depth == kopfDepth) {
+                kopfDepth = -1;
+                handler.session(new Session(orMissing(sitzungNr), orMissing(datum), orMissing(wahlperiode), orMissing(ort)));
+            }
+            if (name.equals("ivz-block") && !agendaBlocks.isEmpty()) {
+                String[] block = agendaBlocks.remove(agendaBlocks.size() - 1);
+                handler.agendaItem(new AgendaItem(orMissing(block[0]), orMissing(block[1])));
+            }
+            if (depth == rednerDepth) {
+                rednerDepth = -1;
+            }
+            if (depth == redeDepth) {
+                redeDepth = -1;
+                List<Abschnitt> abschnitte = new ArrayList<>(abschnittTypes.size());
+                for (int i = 0; i < abschnittTypes.size(); i++) {
+                    abschnitte.add(new Abschnitt(abschnittTypes.get(i), abschnittTexts[i]));
+                }
+                handler.speech(new Speech(redeId, speechOrder++, hasRedner, rednerId, orMissing(vorname),
+                        orMissing(nachname), orMissing(fraktion), abschnitte));
+                abschnittTypes = null;
+                abschnittTexts = null;
+            }
+            depth--;
+        }
+
+        private void capture(Consumer<String> onEnd) {
+            captures.add(new Capture(depth, onEnd));
+        }
+
+        private static String orMissing(String value) {
+            return value != null ? value : MISSING;
+        }
+    }
+
+    /**
+     * Text eines offenen Elements.
+     */
+    private static final class Capture {
+        final int depth;
+        final Consumer<String> onEnd;
+        final TextAccumulator text = new TextAccumulator();
+
+        Capture(int depth, Consumer<String> onEnd) {
+            this.depth = depth;
+            this.onEnd = onEnd;
+        }
+    }
+
+    /**
+     * Baut den Text eines Elements wie {@code Element.text()} von Jsoup auf.
+     */
+    static final class TextAccumulator {
+        private final StringBuilder accum = new StringBuilder();
+
+        void appendNormalised(String text) {
+            boolean lastWasWhite = false;
+            boolean reachedNonWhite = false;
+            boolean stripLeading = endsWithSpace();
+            for (int i = 0; i < text.length(); ) {
+                int c = text.codePointAt(i);
+                i += Character.charCount(c);
+                if (c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == 160) {
+                    if ((stripLeading && !reachedNonWhite) || lastWasWhite) continue;
+                    accum.append(' ');
+                    lastWasWhite = true;
+                } else if (c != 8203 && c != 173) {
+                    accum.appendCodePoint(c);
+                    lastWasWhite = false;
+                    reachedNonWhite = true;
+                }
+            }
+        }
+
+        void append(String text) {
+            accum.append(text);
+        }
+
+        void appendBreak() {
+            if (accum.length() > 0 && !endsWithSpace()) accum.append(' ');
+        }
+
+        String result() {
+            return accum.toString().trim();
+        }
+
+        private boolean endsWithSpace() {
+            return accum.length() > 0 && accum.charAt(accum.length() - 1) == ' ';
+        }
+    }
+}
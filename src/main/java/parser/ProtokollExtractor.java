@@ -0,0 +1,194 @@
+package parser;
+
+import database.SpeechDeduplicator;
+import org.bson.Document;
+import org.jsoup.Jsoup;
+
+import javax.xml.stream.XMLStreamException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Liest ein Plenarprotokoll einmal und liefert aus demselben Durchlauf die Sitzungsdaten, die
+ * Tagesordnungspunkte, die Reden für 'rede' und die Kommentare für 'kommentare'.
+ *
+ * Die IDs passen zusammen: "redeID" eines Kommentars ist die "_id" seiner Rede, die Kommentar-ID
+ * "&lt;redeID&gt;-k&lt;n&gt;" ergibt sich aus der Position in der Rede und bleibt bei erneutem Parsen gleich.
+ * Die Sitzung hat die ID "&lt;Wahlperiode&gt;/&lt;Sitzung&gt;", den Anfang des kanonischen Schlüssels der Reden.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class ProtokollExtractor {
+
+    /**
+     * Ergebnis für ein Protokoll.
+     */
+    public record Protokoll(Document session, List<Document> agenda, List<Document> reden, List<Document> kommentare) {
+    }
+
+    private ProtokollExtractor() {
+    }
+
+    /**
+     * Liest ein Protokoll. Ist der Inhalt kein wohlgeformtes XML (z.B. mit dem HTML-Parser gespeichert),
+     * wird er zuerst mit dem XML-Parser von Jsoup bereinigt; die Texte entsprechen dann denen des
+     * bisherigen Jsoup-Parsers.
+     *
+     * @param xmlContent Inhalt des Protokolls
+     * @return Sitzung, Tagesordnung, Reden und Kommentare, noch nicht gespeichert
+     * @author Ibrahim Garhiou
+     */
+    public static Protokoll extract(String xmlContent) {
+        try {
+            return extractStrict(xmlContent);
+        } catch (XMLStreamException e) {
+            System.out.println("[ProtokollExtractor] Kein wohlgeformtes XML (" + e.getMessage() + "), bereinige mit Jsoup");
+        }
+        try {
+            return extractStrict(Jsoup.parse(xmlContent, "", org.jsoup.parser.Parser.xmlParser()).outerHtml());
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Protokoll nicht lesbar: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Liest ein wohlgeformtes Protokoll in einem Durchlauf.
+     *
+     * @throws XMLStreamException Wenn der Inhalt kein wohlgeformtes XML ist
+     * @author Ibrahim Garhiou
+     */
+    public static Protokoll extractStrict(String xmlContent) throws XMLStreamException {
+        List<Document> agenda = new ArrayList<>();
+        List<Document> reden = new ArrayList<>();
+        List<Document> kommentare = new ArrayList<>();
+        Document session = stream(xmlContent, agenda, reden::add, kommentare::add);
+        return new Protokoll(session, agenda, reden, kommentare);
+    }
+
+    /**
+     * Liest ein Protokoll und übergibt jede Rede und jeden Kommentar, sobald die Rede gelesen ist.
+     *
+     * @param agenda Wird mit den Tagesordnungspunkten gefüllt, alle Reden verweisen auf diese Liste
+     * @param reden Empfänger der Rede-Dokumente
+     * @param kommentare Empfänger der Kommentar-Dokumente
+     * @return Die Sitzungsdaten
+     * @throws XMLStreamException Wenn der Inhalt kein wohlgeformtes XML ist
+     * @author Ibrahim Garhiou
+     */
+    public static Document stream(String xmlContent, List<Document> agenda, Consumer<Document> reden,
+                                  Consumer<Document> kommentare) throws XMLStreamException {
+        PlenarprotokollStreamReader.Session[] session = new PlenarprotokollStreamReader.Session[1];
+
+        PlenarprotokollStreamReader.read(xmlContent, new PlenarprotokollStreamReader.Handler() {
+            @Override
+            public void session(PlenarprotokollStreamReader.Session value) {
+                session[0] = value;
+                System.out.println("Parsing Sitzung Nr. " + value.sitzungNr() + " (" + value.datum() + ")");
+            }
+
+            @Override
+            public void agendaItem(PlenarprotokollStreamReader.AgendaItem item) {
+                agenda.add(new Document("index", item.index()).append("title", item.title()));
+            }
+
+            @Override
+            public void speech(PlenarprotokollStreamReader.Speech speech) {
+                if (session[0] == null) {
+                    // Wie beim Jsoup-Parser: ohne Kopfdaten wird nichts gespeichert
+                    throw new IllegalStateException("Protokoll ohne <kopfdaten>");
+                }
+                if (!speech.hasRedner()) {
+                    System.out.println("Kein <redner>-Tag in der Rede gefunden!");
+                    return;
+                }
+                List<String[]> abschnitte = new ArrayList<>(speech.abschnitte().size());
+                for (PlenarprotokollStreamReader.Abschnitt abschnitt : speech.abschnitte()) {
+                    abschnitte.add(new String[]{abschnitt.type(), abschnitt.text()});
+                }
+                PlenarprotokollStreamReader.Session kopf = session[0];
+                Document rede = speechDocument(speech.id(), speech.rednerId(), speech.order(),
+                        speech.vorname() + " " + speech.nachname(), kopf.datum(), kopf.sitzungNr(),
+                        kopf.wahlperiode(), kopf.ort(), abschnitte, agenda);
+                reden.accept(rede);
+
+                int index = 0;
+                for (String[] abschnitt : abschnitte) {
+                    if (abschnitt[0].equals("comment")) {
+                        kommentare.accept(commentDocument(rede.getString("_id"), speech.rednerId(), ++index, abschnitt[1]));
+                    }
+                }
+            }
+        });
+
+        if (session[0] == null) return null;
+        PlenarprotokollStreamReader.Session kopf = session[0];
+        return new Document("_id", kopf.wahlperiode() + "/" + kopf.sitzungNr())
+                .append("wahlperiode", kopf.wahlperiode())
+                .append("sitzungNr", kopf.sitzungNr())
+                .append("title", "Plenarprotokoll " + kopf.wahlperiode() + "/" + kopf.sitzungNr())
+                .append("date", kopf.datum())
+                .append("place", kopf.ort())
+                .append("agenda", agenda);
+    }
+
+    /**
+     * Baut das Rede-Dokument für 'rede'.
+     *
+     * @param abschnitte Abschnitte als {Typ, Text} in der Reihenfolge des Protokolls
+     * @author Delia Maniliuc
+     * @modifiedBy Ibrahim Garhiou
+     */
+    static Document speechDocument(String redeAttrId, String rednerID, int order, String name, String datum,
+                                   String sitzungNr, String wahlperiode, String ort, List<String[]> abschnitte,
+                                   List<Document> agendaList) {
+        // Offizielle Rede-ID aus dem Protokoll, sonst eindeutig über die Position
+        String redeID = !redeAttrId.isBlank() ? redeAttrId : "ID" + sitzungNr + rednerID + "-" + order;
+
+        List<Document> textContent = new ArrayList<>();
+        StringBuilder fullText = new StringBuilder();
+        for (String[] abschnitt : abschnitte) {
+            String text = abschnitt[1];
+            fullText.append(text).append(" ");
+            Document textEntry = new Document("id", redeID + "--" + System.nanoTime())
+                    .append("speaker", name)
+                    .append("text", text)
+                    .append("type", abschnitt[0]);
+            textContent.add(textEntry);
+        }
+
+        // Falls keine Inhalte gefunden wurden, Platzhalter hinzufügen
+        if (textContent.isEmpty()) {
+            fullText.append("Keine Redeinhalte gefunden");
+        }
+
+        return new Document("_id", redeID)
+                .append("text", fullText.toString().trim())
+                .append("speaker", name)
+                .append("protocol", new Document("date", datum)
+                        //.append("starttime", starttime)
+                        //.append("endtime", endtime)
+                        .append("index", sitzungNr)
+                        .append("title", "Plenarprotokoll " + wahlperiode + "/" + sitzungNr)
+                        .append("place", ort)
+                        .append("wp", wahlperiode))
+                .append("textContent", textContent)
+                .append("agenda", agendaList)
+                .append(SpeechDeduplicator.CANONICAL_KEY, SpeechDeduplicator.canonicalKey(wahlperiode, sitzungNr, rednerID, order));
+    }
+
+    /**
+     * Baut ein Kommentar-Dokument für 'kommentare'.
+     *
+     * @param redeID "_id" der Rede
+     * @param index Position unter den Kommentaren der Rede, beginnend bei 1
+     * @author Ibrahim Garhiou
+     */
+    static Document commentDocument(String redeID, String rednerID, int index, String text) {
+        return new Document("_id", redeID + "-k" + index)
+                .append("text", text)
+                .append("speakerID", rednerID)
+                .append("redeID", redeID)
+                .append("index", index);
+    }
+}
@@ -0,0 +1,445 @@
+package pipeline;
+
+import aggregation.IncrementalAggregation;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import database.IngestSequence;
+import database.MigrationRunner;
+import database.MongoDatabaseHandler;
+import database.PipelineQueue;
+import database.SpeechDeduplicator;
+import database.Workload;
+import nlp.RedenNLP;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import parser.PlenarprotokollParser;
+import scraper.BundestagScraper;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingest-Pipeline: Scraper → Parser → NLP → inkrementelle Aggregation.
+ *
+ * Jede Stufe läuft in eigenen Threads und liest die IDs, die die vorherige Stufe erzeugt hat, aus der
+ * persistenten {@link PipelineQueue}: der Scraper reiht neu gespeicherte Protokolle für "parse" ein,
+ * der Parser neue oder geänderte Reden für "nlp", die NLP-Stufe fertig annotierte Reden für "aggregate".
+ * Die Aggregation fasst alle offenen Einträge zu einem Lauf von {@link IncrementalAggregation} zusammen,
+ * der nur die seit dem letzten Stand geänderten Reden einrechnet. Pro Lauf werden höchstens
+ * "aggregateBatchSize" Einträge vergeben, ihre Leases werden verlängert, solange der Lauf dauert.
+ *
+ * Gegendruck: Eine Stufe holt sich keine neue Arbeit, solange die Warteschlange der nachfolgenden Stufe
+ * mehr als "maxBacklog" offene Einträge hat. Ist z.B. NLP der Engpass, ruhen Parser und Scraper.
+ * Nach einem Absturz werden vergebene Einträge nach Ablauf ihrer Lease erneut bearbeitet.
+ *
+ * Einstellungen über System-Properties "pipeline.*" (siehe {@link #main}).
+ *
+ * @author Ibrahim Garhiou
+ */
+public class IngestPipeline {
+
+    /**
+     * Stufen mit eigener Warteschlange.
+     */
+    public enum Stage {
+        PARSE("parse"),
+        NLP("nlp"),
+        AGGREGATE("aggregate");
+
+        private final String queueName;
+
+        Stage(String queueName) {
+            this.queueName = queueName;
+        }
+
+        public String getQueueName() {
+            return queueName;
+        }
+    }
+
+    /**
+     * Verarbeitung einer ID in einer Stufe.
+     */
+    @FunctionalInterface
+    private interface StageHandler {
+        void process(String itemId) throws Exception;
+    }
+
+    private final MongoDatabaseHandler dbHandler;
+    private final PipelineQueue queue;
+    private final List<Thread> threads = new ArrayList<>();
+    private final ScheduledExecutorService leaseRenewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pipeline-lease-renew");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean running;
+
+    private long scrapeIntervalMs = TimeUnit.MINUTES.toMillis(15);
+    private long pollIntervalMs = TimeUnit.SECONDS.toMillis(5);
+    private long aggregateIntervalMs = TimeUnit.SECONDS.toMillis(30);
+    private long leaseMs = TimeUnit.MINUTES.toMillis(10);
+    private int maxBacklog = 200;
+    private int aggregateBatchSize = 1000;
+    private int maxAttempts = 3;
+    private int nlpWorkers = 1;
+    private boolean scrape = true;
+    private boolean nlp = true;
+
+    /**
+     * Konstruktor für die Pipeline.
+     *
+     * @param dbHandler Verbindung zur MongoDB
+     * @author Ibrahim Garhiou
+     */
+    public IngestPipeline(MongoDatabaseHandler dbHandler) {
+        this.dbHandler = dbHandler;
+        this.queue = new PipelineQueue(dbHandler);
+    }
+
+    /**
+     * Übernimmt die Einstellungen aus den System-Properties "pipeline.*".
+     *
+     * @return diese Pipeline
+     * @author Ibrahim Garhiou
+     */
+    public IngestPipeline configureFromSystemProperties() {
+        scrapeIntervalMs = TimeUnit.MINUTES.toMillis(longProperty("pipeline.scrapeIntervalMinutes", TimeUnit.MILLISECONDS.toMinutes(scrapeIntervalMs)));
+        pollIntervalMs = longProperty("pipeline.pollIntervalMs", pollIntervalMs);
+        aggregateIntervalMs = longProperty("pipeline.aggregateIntervalMs", aggregateIntervalMs);
+        leaseMs = longProperty("pipeline.leaseMs", leaseMs);
+        maxBacklog = (int) longProperty("pipeline.maxBacklog", maxBacklog);
+        aggregateBatchSize = Math.max(1, (int) longProperty("pipeline.aggregateBatchSize", aggregateBatchSize));
+        maxAttempts = (int) longProperty("pipeline.maxAttempts", maxAttempts);
+        nlpWorkers = Math.max(1, (int) longProperty("pipeline.nlpWorkers", nlpWorkers));
+        scrape = Boolean.parseBoolean(System.getProperty("pipeline.scrape", String.valueOf(scrape)));
+        nlp = Boolean.parseBoolean(System.getProperty("pipeline.nlp", String.valueOf(nlp)));
+        return this;
+    }
+
+    /**
+     * Startet alle Stufen.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        queue.ensureIndexes();
+        new SpeechDeduplicator(dbHandler).ensureIndexes();
+
+        if (scrape) {
+            // Setzt die Verbindung, die die statischen Methoden des Scrapers verwenden
+            new BundestagScraper(dbHandler);
+            startThread("pipeline-scrape", this::scrapeLoop);
+        }
+
+        PlenarprotokollParser redenParser = new PlenarprotokollParser(dbHandler);
+        startThread("pipeline-parse", () -> workerLoop(Stage.PARSE, nlp ? Stage.NLP : Stage.AGGREGATE,
+                protokollId -> parse(redenParser, protokollId)));
+
+        if (nlp) {
+            for (int i = 0; i < nlpWorkers; i++) {
+                startThread("pipeline-nlp-" + i, this::nlpLoop);
+            }
+        }
+
+        IncrementalAggregation aggregation = new IncrementalAggregation(dbHandler);
+        startThread("pipeline-aggregate", () -> aggregateLoop(aggregation));
+
+        System.out.println("[IngestPipeline] Gestartet mit " + threads.size() + " Threads, Warteschlangen: " + queue.stats().toJson());
+    }
+
+    /**
+     * Stoppt alle Stufen. Laufende Einträge werden abgebrochen und nach Ablauf ihrer Lease erneut vergeben.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public synchronized void stop() {
+        running = false;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        threads.clear();
+        System.out.println("[IngestPipeline] Gestoppt.");
+    }
+
+    /**
+     * Reiht alle gespeicherten Protokolle ohne Eintrag in der Warteschlange zum Parsen ein, z.B. beim
+     * ersten Start auf einer bestehenden Datenbank.
+     *
+     * @return Anzahl neu eingereihter Protokolle
+     * @author Ibrahim Garhiou
+     */
+    public int seedProtocols() {
+        int seeded = 0;
+        for (Document protokoll : dbHandler.getCollection("protokolle").find().projection(new Document("_id", 1))) {
+            if (queue.enqueueIfAbsent(Stage.PARSE.getQueueName(), protokoll.get("_id").toString())) seeded++;
+        }
+        System.out.println("[IngestPipeline] " + seeded + " gespeicherte Protokolle zum Parsen eingereiht");
+        return seeded;
+    }
+
+    /**
+     * Anzahl der Einträge je Stufe und Status.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public Document stats() {
+        return queue.stats();
+    }
+
+    private void startThread(String name, Runnable loop) {
+        Thread thread = new Thread(loop, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    private void scrapeLoop() {
+        while (running) {
+            if (queue.backlog(Stage.PARSE.getQueueName()) < maxBacklog) {
+                try {
+                    List<String> stored = BundestagScraper.downloadNewXmlFiles();
+                    for (String protokollId : stored) {
+                        queue.enqueue(Stage.PARSE.getQueueName(), protokollId);
+                    }
+                    System.out.println("[IngestPipeline] Scraper: " + stored.size() + " neue Protokolle");
+                } catch (Exception e) {
+                    System.err.println("[IngestPipeline] Fehler beim Scrapen: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            } else {
+                System.out.println("[IngestPipeline] Scraper wartet, Parser-Warteschlange voll");
+            }
+            if (!sleep(scrapeIntervalMs)) return;
+        }
+    }
+
+    private void nlpLoop() {
+        RedenNLP redenNLP;
+        try {
+            redenNLP = new RedenNLP(dbHandler);
+        } catch (Exception e) {
+            System.err.println("[IngestPipeline] NLP-Worker konnte nicht starten: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+        workerLoop(Stage.NLP, Stage.AGGREGATE, speechId -> {
+            if (redenNLP.processSpeech(speechId)) {
+                queue.enqueue(Stage.AGGREGATE.getQueueName(), speechId);
+            }
+        });
+    }
+
+    /**
+     * Holt Einträge einer Stufe einzeln und bearbeitet sie, solange die nachfolgende Stufe nicht überlastet ist.
+     */
+    private void workerLoop(Stage stage, Stage downstream, StageHandler handler) {
+        String owner = owner();
+        while (running) {
+            if (queue.backlog(downstream.getQueueName()) >= maxBacklog) {
+                if (!sleep(pollIntervalMs)) return;
+                continue;
+            }
+
+            Document entry;
+            try {
+                entry = queue.claim(stage.getQueueName(), owner, leaseMs);
+            } catch (Exception e) {
+                System.err.println("[IngestPipeline] Warteschlange " + stage.getQueueName() + " nicht erreichbar: " + e.getMessage());
+                if (!sleep(pollIntervalMs)) return;
+                continue;
+            }
+            if (entry == null) {
+                if (!sleep(pollIntervalMs)) return;
+                continue;
+            }
+
+            String itemId = entry.getString("itemId");
+            try {
+                handler.process(itemId);
+                queue.ack(entry);
+            } catch (Exception e) {
+                System.err.println("[IngestPipeline] " + stage.getQueueName() + " fehlgeschlagen für " + itemId
+                        + " (Versuch " + entry.getInteger("attempts") + "): " + e.getMessage());
+                e.printStackTrace();
+                queue.fail(entry, String.valueOf(e.getMessage()), maxAttempts);
+            }
+        }
+    }
+
+    /**
+     * Parst ein Protokoll in einem Durchlauf (Reden und Kommentare) und reiht neue oder ersetzte Reden
+     * für NLP ein. Zurückgestufte Reden müssen nur aus den Aggregaten entfernt werden und gehen direkt
+     * zur Aggregation.
+     */
+    private void parse(PlenarprotokollParser redenParser, String protokollId) {
+        Object id = ObjectId.isValid(protokollId) ? new ObjectId(protokollId) : protokollId;
+        Document protokoll = dbHandler.getCollection("protokolle").find(new Document("_id", id)).first();
+        if (protokoll == null || protokoll.getString("content") == null) {
+            System.out.println("[IngestPipeline] Protokoll " + protokollId + " ohne Inhalt, übersprungen");
+            return;
+        }
+
+        Map<String, SpeechDeduplicator.Outcome> outcomes = redenParser.parseAndStore(protokoll.getString("content"));
+
+        int forwarded = 0;
+        for (Map.Entry<String, SpeechDeduplicator.Outcome> outcome : outcomes.entrySet()) {
+            if (outcome.getValue() == SpeechDeduplicator.Outcome.INSERTED || outcome.getValue() == SpeechDeduplicator.Outcome.REPLACED) {
+                queue.enqueue((nlp ? Stage.NLP : Stage.AGGREGATE).getQueueName(), outcome.getKey());
+                forwarded++;
+            } else if (outcome.getValue() == SpeechDeduplicator.Outcome.SUPERSEDED) {
+                queue.enqueue(Stage.AGGREGATE.getQueueName(), outcome.getKey());
+                forwarded++;
+            }
+        }
+        System.out.println("[IngestPipeline] Protokoll " + protokollId + ": " + outcomes.size() + " Reden, "
+                + forwarded + " weitergereicht");
+    }
+
+    /**
+     * Sammelt die offenen Einträge und rechnet sie in einem gemeinsamen Lauf ein. Zwischen zwei Läufen
+     * liegen mindestens "aggregateIntervalMs", damit viele einzeln fertig werdende Reden zusammengefasst werden.
+     */
+    private void aggregateLoop(IncrementalAggregation aggregation) {
+        String owner = owner();
+        long lastRun = 0;
+        while (running) {
+            long wait = lastRun + aggregateIntervalMs - System.currentTimeMillis();
+            if (!sleep(Math.max(wait, pollIntervalMs))) return;
+
+            List<Document> entries;
+            try {
+                entries = queue.claimBatch(Stage.AGGREGATE.getQueueName(), owner, leaseMs, aggregateBatchSize);
+            } catch (Exception e) {
+                System.err.println("[IngestPipeline] Warteschlange aggregate nicht erreichbar: " + e.getMessage());
+                continue;
+            }
+            if (entries.isEmpty()) continue;
+
+            lastRun = System.currentTimeMillis();
+            // Ein Lauf kann länger als die Lease dauern, ohne Verlängerung würden die Einträge erneut vergeben
+            long renewInterval = Math.max(leaseMs / 3, 1);
+            List<Document> claimed = entries;
+            ScheduledFuture<?> renewal = leaseRenewer.scheduleAtFixedRate(() -> {
+                try {
+                    queue.extend(owner, claimed, leaseMs);
+                } catch (Exception e) {
+                    System.err.println("[IngestPipeline] Leases der Aggregation nicht verlängert: " + e.getMessage());
+                }
+            }, renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+            try {
+                int written = aggregation.aggregate();
+                int covered = 0;
+                Set<String> pending = uncoveredSpeeches(entries, aggregation.getCoveredUpTo());
+                for (Document entry : entries) {
+                    if (pending.contains(entry.getString("itemId"))) {
+                        // Noch nicht im Stand des Laufs enthalten, kommt im nächsten Lauf wieder
+                        queue.release(entry);
+                    } else {
+                        queue.ack(entry);
+                        covered++;
+                    }
+                }
+                System.out.println("[IngestPipeline] Aggregation für " + covered + " von " + entries.size() + " Reden: " + written
+                        + " Einträge in " + (System.currentTimeMillis() - lastRun) + " ms");
+            } catch (Exception e) {
+                System.err.println("[IngestPipeline] Aggregation fehlgeschlagen: " + e.getMessage());
+                e.printStackTrace();
+                for (Document entry : entries) {
+                    queue.fail(entry, String.valueOf(e.getMessage()), maxAttempts);
+                }
+            } finally {
+                renewal.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Reden der Einträge, deren Ingest-Nummer über dem Stand des Laufs liegt.
+     */
+    private Set<String> uncoveredSpeeches(List<Document> entries, long coveredUpTo) {
+        List<String> speechIds = new ArrayList<>();
+        for (Document entry : entries) speechIds.add(entry.getString("itemId"));
+
+        Set<String> uncovered = new HashSet<>();
+        for (Document rede : dbHandler.getCollection("rede", Workload.CONSISTENT)
+                .find(Filters.and(Filters.in("_id", speechIds), Filters.gt(IngestSequence.FIELD, coveredUpTo)))
+                .projection(Projections.include("_id"))) {
+            uncovered.add(String.valueOf(rede.get("_id")));
+        }
+        return uncovered;
+    }
+
+    private static String owner() {
+        return ProcessHandle.current().pid() + "/" + Thread.currentThread().getName();
+    }
+
+    // false, wenn der Thread unterbrochen wurde
+    private boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return running;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static long longProperty(String name, long defaultValue) {
+        return Long.parseLong(System.getProperty(name, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * Startet die Pipeline bis zum Beenden des Prozesses.
+     *
+     * System-Properties:
+     * pipeline.config (mongodb.properties), pipeline.seed (false, gespeicherte Protokolle einreihen),
+     * pipeline.scrape (true), pipeline.scrapeIntervalMinutes (15), pipeline.nlp (true), pipeline.nlpWorkers (1),
+     * pipeline.maxBacklog (200), pipeline.maxAttempts (3), pipeline.leaseMs (600000), pipeline.aggregateBatchSize (1000),
+     * pipeline.pollIntervalMs (5000), pipeline.aggregateIntervalMs (30000).
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static void main(String[] args) {
+        try {
+            MongoDatabaseHandler dbHandler = new MongoDatabaseHandler(System.getProperty("pipeline.config", "mongodb.properties"));
+            if (dbHandler.getConfig().isAutoMigrateEnabled()) {
+                new MigrationRunner(dbHandler).migrate();
+            }
+
+            IngestPipeline pipeline = new IngestPipeline(dbHandler).configureFromSystemProperties();
+            if (Boolean.getBoolean("pipeline.seed")) {
+                pipeline.seedProtocols();
+            }
+            pipeline.start();
+
+            Thread mainThread = Thread.currentThread();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                pipeline.stop();
+                mainThread.interrupt();
+            }, "pipeline-shutdown"));
+
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                System.out.println("[IngestPipeline] Warteschlangen: " + pipeline.stats().toJson());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("[IngestPipeline] Fehler: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
@@ -32,6 +32,14 @@ public class BundestagScraper {
         mongoHandler = new MongoDatabaseHandler(configPath);
     }
 
+    /**
+     * Verwendet eine bestehende MongoDB-Verbindung, z.B. die der Ingest-Pipeline.
+     * @author Ibrahim Garhiou
+     */
+    public BundestagScraper(MongoDatabaseHandler handler) {
+        mongoHandler = handler;
+    }
+
     /**
      * Holt alle XML-Links der Bundestagsprotokolle durch Pagination.
      *
@@ -85,15 +93,34 @@ public class BundestagScraper {
      * @modifiedBy Ibrahim Garhiou
      */
     public static void downloadAndStoreXmlFiles() {
+        downloadNewXmlFiles();
+    }
+
+    /**
+     * Lädt alle noch nicht gespeicherten XML-Dateien und speichert sie in "protokolle".
+     * Gespeichert wird die unveränderte Antwort: über den HTML-Parser ausgegeben wäre der Inhalt kein
+     * wohlgeformtes XML mehr und der StAX-Parser müsste jedes Mal auf Jsoup ausweichen.
+     *
+     * @return IDs der neu gespeicherten Protokolle, z.B. für die Ingest-Pipeline
+     * @author Ibrahim Garhiou
+     */
+    public static List<String> downloadNewXmlFiles() {
+        List<String> stored = new ArrayList<>();
         List<String> xmlLinks = fetchXmlLinks();
         for (String link : xmlLinks) {
             if (!mongoHandler.documentExists("protokolle", "url", link)) {
                 try {
-                    Document xmlDoc = Jsoup.connect(link).get();
-                    String xmlContent = xmlDoc.outerHtml();
+                    String xmlContent = Jsoup.connect(link)
+                            .ignoreContentType(true)
+                            .maxBodySize(0)
+                            .timeout(30000)
+                            .execute()
+                            .body();
                     org.bson.Document mongoDoc = new org.bson.Document("url", link);
                     mongoDoc.append("content", xmlContent);
+                    // insertOne ergänzt die generierte _id im Dokument
                     mongoHandler.insertDocument("protokolle", mongoDoc);
+                    stored.add(mongoDoc.get("_id").toString());
                     System.out.println(" Gespeichert: " + link);
                 } catch (IOException e) {
                     System.out.println(" Fehler beim Abrufen der XML-Datei: " + link);
@@ -102,6 +129,7 @@ public class BundestagScraper {
                 System.out.println("️ Bereits vorhanden: " + link);
             }
         }
+        return stored;
     }
 
     /**
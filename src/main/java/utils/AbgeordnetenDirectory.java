@@ -0,0 +1,312 @@
+package utils;
+
+import database.CacheInvalidationListener;
+import database.MongoDatabaseHandler;
+import database.ParliamentRepository;
+import database.Workload;
+import org.bson.Document;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Unveränderlicher In-Memory-Schnappschuss aller Abgeordneten inklusive aufgelöster Bild-URLs.
+ * Die Collection "abgeordnete" umfasst nur wenige tausend Einträge, daher werden alle Namenssuchen
+ * über Hash-Indizes (ID, normalisierter Name, Nachname, Name ohne Titel) im Speicher beantwortet
+ * statt mit exakten, Regex- oder Fallback-Filtern auf der Datenbank.
+ *
+ * Ein Refresh baut einen neuen Schnappschuss auf und tauscht ihn atomar aus. Zurückgegebene
+ * Dokumente gehören zum Schnappschuss und dürfen nicht verändert werden.
+ *
+ * @author Ibrahim Garhiou
+ */
+public class AbgeordnetenDirectory {
+
+    private static volatile AbgeordnetenDirectory current;
+
+    // Wartezeit, damit ein Import mit vielen Einzeländerungen nur einen Refresh auslöst
+    private static final long REFRESH_DEBOUNCE_MS = 2000;
+
+    // Akademische Titel und Namenszusätze, die in Rednernamen vorkommen können
+    private static final Pattern TITLE_PATTERN = Pattern.compile(
+            "^(dr\\.?|prof\\.?|h\\.?\\s?c\\.?|dipl\\.?-?\\S*|mult\\.?|med\\.?|rer\\.?|nat\\.?|phil\\.?|jur\\.?|pol\\.?|oec\\.?|ing\\.?)$",
+            Pattern.CASE_INSENSITIVE);
+
+    private final Map<String, Document> byId;
+    private final Map<String, Document> byVornameName;
+    private final Map<String, List<Document>> byFullName;
+    private final Map<String, List<Document>> bySurname;
+    private final Map<String, List<Document>> byStrippedName;
+    private final Map<String, String> pictureUrlById;
+    private final long loadedAt;
+
+    private AbgeordnetenDirectory(List<Document> abgeordnete, List<Document> bilder) {
+        Map<String, Document> ids = new HashMap<>();
+        Map<String, Document> exact = new HashMap<>();
+        Map<String, List<Document>> fullNames = new HashMap<>();
+        Map<String, List<Document>> surnames = new HashMap<>();
+        Map<String, List<Document>> strippedNames = new HashMap<>();
+
+        for (Document mp : abgeordnete) {
+            String id = mp.getString("id");
+            String vorname = mp.getString("vorname") != null ? mp.getString("vorname") : "";
+            String name = mp.getString("name") != null ? mp.getString("name") : "";
+
+            if (id != null) ids.putIfAbsent(id, mp);
+            exact.putIfAbsent(vorname + "|" + name, mp);
+            addTo(fullNames, normalize(vorname + " " + name), mp);
+            addTo(surnames, normalize(name), mp);
+            addTo(strippedNames, stripTitles(vorname + " " + name), mp);
+        }
+
+        Map<String, String> pictures = new HashMap<>();
+        for (Document bild : bilder) {
+            String url = resolvePictureUrl(bild);
+            if (url != null) {
+                pictures.put(String.valueOf(bild.get("_id")), url);
+            }
+        }
+
+        this.byId = Collections.unmodifiableMap(ids);
+        this.byVornameName = Collections.unmodifiableMap(exact);
+        this.byFullName = freeze(fullNames);
+        this.bySurname = freeze(surnames);
+        this.byStrippedName = freeze(strippedNames);
+        this.pictureUrlById = Collections.unmodifiableMap(pictures);
+        this.loadedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Gibt den aktuellen Schnappschuss zurück und lädt ihn beim ersten Zugriff aus der Datenbank.
+     *
+     * @param mongoHandler MongoDB-Verbindung für den initialen Ladevorgang
+     * @return Der aktuelle Schnappschuss
+     * @author Ibrahim Garhiou
+     */
+    public static AbgeordnetenDirectory get(MongoDatabaseHandler mongoHandler) {
+        AbgeordnetenDirectory directory = current;
+        if (directory == null) {
+            synchronized (AbgeordnetenDirectory.class) {
+                directory = current;
+                if (directory == null) {
+                    directory = refresh(mongoHandler);
+                }
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Wie {@link #get(MongoDatabaseHandler)}, lädt aber aus einem beliebigen Repository.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static AbgeordnetenDirectory get(ParliamentRepository repository) {
+        AbgeordnetenDirectory directory = current;
+        if (directory == null) {
+            synchronized (AbgeordnetenDirectory.class) {
+                directory = current;
+                if (directory == null) {
+                    directory = refresh(repository);
+                }
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Lädt Abgeordnete und Bilder neu und ersetzt den Schnappschuss atomar.
+     * Laufende Zugriffe arbeiten bis zum Ende mit dem alten Schnappschuss weiter.
+     * Gelesen wird vom Primary mit Read Concern "majority", da der Refresh meist direkt nach den
+     * Parsern läuft und ein Secondary deren Writes noch nicht haben kann.
+     *
+     * @param mongoHandler MongoDB-Verbindung
+     * @return Der neu aufgebaute Schnappschuss
+     * @author Ibrahim Garhiou
+     */
+    public static AbgeordnetenDirectory refresh(MongoDatabaseHandler mongoHandler) {
+        return install(new AbgeordnetenDirectory(
+                mongoHandler.findDocuments("abgeordnete", new Document(), Workload.CONSISTENT).into(new ArrayList<>()),
+                mongoHandler.findDocuments("bilder", new Document(), Workload.CONSISTENT).into(new ArrayList<>())));
+    }
+
+    /**
+     * Wie {@link #refresh(MongoDatabaseHandler)}, lädt aber aus einem beliebigen Repository.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public static AbgeordnetenDirectory refresh(ParliamentRepository repository) {
+        return install(new AbgeordnetenDirectory(repository.findAbgeordnete(), repository.findBilder()));
+    }
+
+    private static AbgeordnetenDirectory install(AbgeordnetenDirectory directory) {
+        current = directory;
+        System.out.println("[AbgeordnetenDirectory] Schnappschuss geladen: " + directory.byId.size()
+                + " Abgeordnete, " + directory.pictureUrlById.size() + " Bilder");
+        return directory;
+    }
+
+    /**
+     * Erzeugt einen Listener für den ChangeStreamWatcher, der den Schnappschuss bei Änderungen an
+     * "abgeordnete" oder "bilder" neu lädt. Mehrere Änderungen kurz hintereinander werden zu einem
+     * Refresh zusammengefasst.
+     *
+     * @param mongoHandler MongoDB-Verbindung für den Refresh
+     * @return Listener zur Registrierung für "abgeordnete" und "bilder"
+     * @author Ibrahim Garhiou
+     */
+    public static CacheInvalidationListener invalidationListener(MongoDatabaseHandler mongoHandler) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "abgeordneten-directory-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        return event -> {
+            if (scheduled.compareAndSet(false, true)) {
+                scheduler.schedule(() -> {
+                    scheduled.set(false);
+                    try {
+                        refresh(mongoHandler);
+                    } catch (Exception e) {
+                        System.err.println("[AbgeordnetenDirectory] Refresh fehlgeschlagen: " + e.getMessage());
+                    }
+                }, REFRESH_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+
+    /**
+     * Sucht einen Abgeordneten anhand des Rednernamens aus einem Protokoll.
+     * Reihenfolge: exakter Vor- und Nachname, vollständiger Name ohne Groß-/Kleinschreibung,
+     * Name ohne akademische Titel.
+     *
+     * @param speakerName Name des Redners
+     * @return Dokument des Abgeordneten oder null
+     * @author Ibrahim Garhiou
+     */
+    public Document findBySpeakerName(String speakerName) {
+        if (speakerName == null || speakerName.isBlank()) return null;
+
+        String[] nameParts = speakerName.trim().split("\\s+");
+        String firstName = nameParts.length > 1 ? nameParts[0] : "";
+        String lastName = nameParts[nameParts.length - 1];
+
+        Document mp = byVornameName.get(firstName + "|" + lastName);
+        if (mp != null) return mp;
+
+        mp = first(byFullName.get(normalize(speakerName)));
+        if (mp != null) return mp;
+
+        return first(byStrippedName.get(stripTitles(speakerName)));
+    }
+
+    /**
+     * Sucht einen Abgeordneten anhand von exaktem Vor- und Nachnamen.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public Document findByVornameAndName(String vorname, String name) {
+        return byVornameName.get(vorname + "|" + name);
+    }
+
+    /**
+     * Gibt den ersten Abgeordneten mit dem angegebenen Nachnamen zurück.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public Document findFirstBySurname(String surname) {
+        if (surname == null) return null;
+        return first(bySurname.get(normalize(surname)));
+    }
+
+    /**
+     * Gibt den Abgeordneten mit der angegebenen ID zurück.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public Document findById(String id) {
+        return id != null ? byId.get(id) : null;
+    }
+
+    /**
+     * Gibt die aufgelöste Bild-URL (hq_picture, sonst hp_picture) eines Abgeordneten zurück.
+     *
+     * @param id ID des Abgeordneten
+     * @return Bild-URL oder null
+     * @author Ibrahim Garhiou
+     */
+    public String getPictureUrl(String id) {
+        return id != null ? pictureUrlById.get(id) : null;
+    }
+
+    /**
+     * Gibt alle Abgeordneten des Schnappschusses zurück.
+     *
+     * @author Ibrahim Garhiou
+     */
+    public Collection<Document> getAll() {
+        return byId.values();
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * Normalisiert einen Namen: Leerzeichen zusammenfassen, Kleinschreibung.
+     *
+     * @author Ibrahim Garhiou
+     */
+    static String normalize(String name) {
+        return name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.GERMAN);
+    }
+
+    /**
+     * Entfernt akademische Titel und reduziert den Namen auf ersten Vornamen und Nachnamen.
+     *
+     * @author Ibrahim Garhiou
+     */
+    static String stripTitles(String name) {
+        List<String> parts = new ArrayList<>();
+        for (String part : normalize(name).split(" ")) {
+            if (!part.isEmpty() && !TITLE_PATTERN.matcher(part).matches()) {
+                parts.add(part);
+            }
+        }
+        if (parts.size() > 2) {
+            return parts.get(0) + " " + parts.get(parts.size() - 1);
+        }
+        return String.join(" ", parts);
+    }
+
+    private static String resolvePictureUrl(Document bild) {
+        Object pictures = bild.get("pictures");
+        if (pictures instanceof List && !((List<?>) pictures).isEmpty() && ((List<?>) pictures).get(0) instanceof Document) {
+            Document erstesBild = (Document) ((List<?>) pictures).get(0);
+            return erstesBild.getString("hq_picture") != null ? erstesBild.getString("hq_picture") : erstesBild.getString("hp_picture");
+        }
+        return null;
+    }
+
+    private static void addTo(Map<String, List<Document>> index, String key, Document mp) {
+        if (!key.isEmpty()) {
+            index.computeIfAbsent(key, k -> new ArrayList<>()).add(mp);
+        }
+    }
+
+    private static Map<String, List<Document>> freeze(Map<String, List<Document>> index) {
+        Map<String, List<Document>> frozen = new HashMap<>();
+        index.forEach((key, list) -> frozen.put(key, List.copyOf(list)));
+        return Collections.unmodifiableMap(frozen);
+    }
+
+    private static Document first(List<Document> list) {
+        return (list == null || list.isEmpty()) ? null : list.get(0);
+    }
+}
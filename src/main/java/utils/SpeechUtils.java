@@ -1,6 +1,9 @@
 package utils;
 
 import database.MongoDatabaseHandler;
+import database.NlpLayerStore;
+import database.NumericNlpFieldsMigration;
+import database.Workload;
 import org.bson.Document;
 
 import java.util.ArrayList;
@@ -65,10 +68,21 @@ public class SpeechUtils {
      * Implementiert von Luana Schäfer
      */
     public static void enrichSpeechWithMetadata(Document speech, MongoDatabaseHandler mongoHandler) {
+        enrichSpeechWithMetadata(speech, AbgeordnetenDirectory.get(mongoHandler));
+    }
+
+    /**
+     * Reichert eine Rede mit Partei und Sitzungstitel an, ohne auf eine bestimmte Datenbank angewiesen zu sein.
+     *
+     * @param speech Das ursprüngliche Rede-Dokument
+     * @param directory Verzeichnis der Abgeordneten
+     * @author Ibrahim Garhiou
+     */
+    public static void enrichSpeechWithMetadata(Document speech, AbgeordnetenDirectory directory) {
         String speakerName = speech.getString("speaker");
 
         if (speakerName != null && !speakerName.trim().isEmpty()) {
-            Document mp = getRednerBySpeakerName(speakerName, mongoHandler);
+            Document mp = directory.findBySpeakerName(speakerName);
 
             if (mp != null) {
                 if (mp.containsKey("party")) {
@@ -139,44 +153,20 @@ public class SpeechUtils {
 
 
     /**
-     * Sucht einen Abgeordneten anhand eines Speaker-Namens in der Datenbank.
+     * Sucht einen Abgeordneten anhand eines Speaker-Namens im In-Memory-Verzeichnis der Abgeordneten.
      *
      * @param speakerName  Name des Redners
      * @param mongoHandler Datenbankzugriff
      * @return Dokument des Abgeordneten oder null
      *
      * Implementiert von Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     public static Document getRednerBySpeakerName(String speakerName, MongoDatabaseHandler mongoHandler) {
         if (speakerName == null || speakerName.isBlank()) return null;
 
-        String[] nameParts = speakerName.trim().split("\\s+");
-
-        String firstName = "";
-        String lastName = "";
-
-        if (nameParts.length > 1) {
-            firstName = nameParts[0];
-            lastName = nameParts[nameParts.length - 1];
-        } else {
-            lastName = nameParts[0];
-        }
-
-        // Exakter Match auf Vorname & Nachname
-        Document mpFilter = new Document("vorname", firstName).append("name", lastName);
-        Document mp = mongoHandler.findDocuments("abgeordnete", mpFilter).first();
-
-        if (mp != null) return mp;
-
-        // Fallback: Regex-Match
-        String fullName = speakerName.trim().replaceAll("\\s+", " ");
-        Document regexFilter = new Document("$expr", new Document("$regexMatch", new Document()
-                .append("input", new Document("$concat", List.of("$vorname", " ", "$name")))
-                .append("regex", "^" + fullName + "$")
-                .append("options", "i")
-        ));
-
-        return mongoHandler.findDocuments("abgeordnete", regexFilter).first();
+        // Exakter Match, Match ohne Groß-/Kleinschreibung und Match ohne Titel über Hash-Indizes
+        return AbgeordnetenDirectory.get(mongoHandler).findBySpeakerName(speakerName);
     }
 
 
@@ -189,20 +179,13 @@ public class SpeechUtils {
      * @return Bild-URL oder null
      *
      * Implementiert von Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     public static String getBildUrlForRedner(Document redner, MongoDatabaseHandler mongoHandler) {
         if (redner == null || !redner.containsKey("id")) return null;
 
-        // Bild-Dokument aus der Datenbank abrufen
-        Document bild = mongoHandler.findDocuments("bilder", new Document("_id", redner.getString("id"))).first();
-        if (bild != null && bild.containsKey("pictures")) {
-            List<Document> bilderListe = (List<Document>) bild.get("pictures");
-            if (!bilderListe.isEmpty()) {
-                Document erstesBild = bilderListe.get(0);
-                return erstesBild.getString("hq_picture") != null ? erstesBild.getString("hq_picture") : erstesBild.getString("hp_picture");
-            }
-        }
-        return null;
+        // Bild-URL ist im Verzeichnis bereits aufgelöst
+        return AbgeordnetenDirectory.get(mongoHandler).getPictureUrl(redner.getString("id"));
     }
 
 
@@ -218,7 +201,7 @@ public class SpeechUtils {
     public static String getVideoUrlForRede(String redeId, MongoDatabaseHandler mongoHandler) {
         if (redeId == null) return null;
 
-        Document videoDoc = mongoHandler.findDocuments("VideoLinks", new Document("RedeId", redeId)).first();
+        Document videoDoc = mongoHandler.findDocuments("VideoLinks", new Document("RedeId", redeId), Workload.LATENCY_CRITICAL).first();
         return (videoDoc != null && videoDoc.containsKey("videoPath")) ? videoDoc.getString("videoPath") : null;
     }
 
@@ -353,8 +336,8 @@ public class SpeechUtils {
                     Document sentimentDoc = sentimentList.get(i);
 
                     Map<String, Object> sentimentEntry = new HashMap<>();
-                    sentimentEntry.put("sentiment", sentimentDoc.getDouble("sentiment"));
-                    sentimentEntry.put("subjectivity", sentimentDoc.getDouble("subjectivity"));
+                    sentimentEntry.put("sentiment", NumericNlpFieldsMigration.numberOf(sentimentDoc.get("sentiment")));
+                    sentimentEntry.put("subjectivity", NumericNlpFieldsMigration.numberOf(sentimentDoc.get("subjectivity")));
                     sentimentEntry.put("begin", sentimentDoc.getInteger("begin"));
                     sentimentEntry.put("end", sentimentDoc.getInteger("end"));
 
@@ -379,6 +362,7 @@ public class SpeechUtils {
      * @return Liste mit Topics, Durchschnittsscore und Zählung
      *
      * Implementiert von Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     public static List<Document> getTopicsFromSpeech(Document speech) {
         List<Document> topics = new ArrayList<>();
@@ -394,21 +378,8 @@ public class SpeechUtils {
 
                 for (Document topic : topicList) {
                     String topicName = topic.getString("value");
-                    double score;
-                    Object scoreObj = topic.get("score");
-
-                    if (scoreObj instanceof Double) {
-                        score = (Double) scoreObj;  // Falls es bereits ein Double ist
-                    } else if (scoreObj instanceof String) {
-                        try {
-                            score = Double.parseDouble((String) scoreObj);  // Falls es ein String ist, in Double umwandeln
-                        } catch (NumberFormatException e) {
-                            System.err.println("Fehler bei der Umwandlung von 'score': " + scoreObj);
-                            score = 0.0;
-                        }
-                    } else {
-                        score = 0.0;
-                    }
+                    Double storedScore = NumericNlpFieldsMigration.numberOf(topic.get("score"));
+                    double score = storedScore != null ? storedScore : 0.0;
 
                     topicScores.put(topicName, topicScores.getOrDefault(topicName, 0.0) + score);
                     topicCounts.put(topicName, topicCounts.getOrDefault(topicName, 0) + 1);
@@ -433,12 +404,13 @@ public class SpeechUtils {
      * @return Liste bereinigter Parteiennamen
      *
      * Implementiert von Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
 
     public static List<String> getUniqueParties(MongoDatabaseHandler mongoHandler) {
         try {
-            List<String> rawParties = mongoHandler.getDatabase()
-                    .getCollection("abgeordnete")
+            List<String> rawParties = mongoHandler
+                    .getCollection("abgeordnete", Workload.ANALYTIC)
                     .distinct("party", String.class)
                     .into(new ArrayList<>());
 
@@ -463,11 +435,12 @@ public class SpeechUtils {
      * @return Liste eindeutiger Sitzungsbezeichner
      *
      * Implementiert von Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     public static List<String> getUniqueSessions(MongoDatabaseHandler mongoHandler) {
         try {
-            List<String> rawSessions = mongoHandler.getDatabase()
-                    .getCollection("rede")
+            List<String> rawSessions = mongoHandler
+                    .getCollection("rede", Workload.ANALYTIC)
                     .distinct("protocol.index", String.class)
                     .into(new ArrayList<>());
 
@@ -485,14 +458,21 @@ public class SpeechUtils {
      * @return Liste eindeutiger Topic-Bezeichnungen
      *
      * Implementiert von Luana Schäfer
+     * @modifiedBy Ibrahim Garhiou
      */
     public static List<String> getUniqueTopics(MongoDatabaseHandler mongoHandler) {
         try {
-            List<String> rawTopics = mongoHandler.getDatabase()
-                    .getCollection("rede")
-                    .distinct("nlpResults.topics.value", String.class)
+            List<String> rawTopics = mongoHandler
+                    .getCollection(NlpLayerStore.COLLECTION, Workload.ANALYTIC)
+                    .distinct("data.value", new Document("layer", "topics"), String.class)
                     .into(new ArrayList<>());
 
+            // Noch nicht migrierte Reden mit eingebetteten Topics
+            mongoHandler
+                    .getCollection("rede", Workload.ANALYTIC)
+                    .distinct("nlpResults.topics.value", String.class)
+                    .into(rawTopics);
+
             return rawTopics.stream().distinct().toList();
         } catch (Exception e) {
             System.err.println("Fehler beim Abrufen der Themen: " + e.getMessage());
@@ -1,10 +1,13 @@
 document.addEventListener("DOMContentLoaded", () => {
-    // Implementiert von Luana Schäfer
+    // Implementiert von Luana Schäfer, kombinierbare Filter von Ibrahim Garhiou
 
     // HTML-Elemente abrufen
     const sessionSelect = document.getElementById("sessionSelect");
     const topicsSelect = document.getElementById("topicsSelect");
     const speakerInput = document.getElementById("speakerSearch");
+    const partySelect = document.getElementById("partySelect");
+    const dateFromInput = document.getElementById("dateFrom");
+    const dateToInput = document.getElementById("dateTo");
     const applyFiltersButton = document.getElementById("applyFilters");
     const activeFilterText = document.getElementById("activeFilterText");
 
@@ -17,6 +20,7 @@ document.addEventListener("DOMContentLoaded", () => {
     // Ladefunktionen für Filter
     loadSessions();
     loadTopics();
+    loadParties();
 
     // Button zum Filtern
     applyFiltersButton.addEventListener("click", applyFilters);
@@ -106,6 +110,25 @@ document.addEventListener("DOMContentLoaded", () => {
     }
 
 
+    /**
+     * Lädt Parteien und fügt sie in das Dropdown ein
+     */
+    function loadParties() {
+        fetch("/api/parties")
+            .then(response => response.json())
+            .then(data => {
+                partySelect.innerHTML = '<option value="all">Alle Parteien</option>';
+                data.filter(party => party && party.trim().length > 0).forEach(party => {
+                    const option = document.createElement("option");
+                    option.value = party;
+                    option.textContent = party;
+                    partySelect.appendChild(option);
+                });
+            })
+            .catch(error => console.error("Fehler beim Laden der Parteien:", error));
+    }
+
+
     /**
      * Echtzeit-Redner-Suche mit Vorschlägen
      */
@@ -148,67 +171,51 @@ document.addEventListener("DOMContentLoaded", () => {
         }
     });
 
-    /**
-     * Verhindert, dass mehrere Filter gewählt werden
-     */
-
-    sessionSelect.addEventListener("change", () => {
-        updateFilterStates(sessionSelect);
-    });
-
-    topicsSelect.addEventListener("change", () => {
-        updateFilterStates(topicsSelect);
-    });
-
-    speakerInput.addEventListener("input", () => {
-        updateFilterStates(speakerInput);
-    });
-
-
-    // Filter anwenden
+    // Filter anwenden, beliebig kombinierbar
     function applyFilters() {
         console.log("Filter werden angewendet...");
 
-        const selectedSession = sessionSelect.value !== "all" ? sessionSelect.value : "";
-        const selectedTopic = topicsSelect.value !== "all" ? topicsSelect.value : "";
-        const speakerName = speakerInput.value.trim();
-
-        let filterType = "", filterValue = "";
-
-        // Kein Filter → "alle Reden"
-        if (
-            sessionSelect.value === "all" &&
-            topicsSelect.value === "all" &&
-            speakerName === ""
-        ) {
+        const filters = {
+            session: sessionSelect.value !== "all" ? sessionSelect.value : "",
+            topic: topicsSelect.value !== "all" ? topicsSelect.value : "",
+            speaker: speakerInput.value.trim(),
+            party: partySelect.value !== "all" ? partySelect.value : "",
+            from: dateFromInput.value,
+            to: dateToInput.value
+        };
+        const active = Object.keys(filters).filter(key => filters[key]);
+
+        // Genau ein Filter auf Sitzung, Thema, Redner oder Partei → vorberechnete Aggregation
+        const precomputedTypes = {session: "sessions", topic: "topics", speaker: "speakers", party: "party"};
+        let url;
+        let filterType;
+        let filterValue;
+
+        if (active.length === 0) {
             filterType = "all";
             filterValue = "all speeches";
-        } else if (selectedSession) {
-            filterType = "sessions";
-            filterValue = selectedSession;
-        } else if (selectedTopic) {
-            filterType = "topics";
-            filterValue = selectedTopic;
-        } else if (speakerName) {
-            filterType = "speakers";
-            filterValue = speakerName;
+            url = `/api/aggregation?type=all&value=${encodeURIComponent(filterValue)}`;
+        } else if (active.length === 1 && precomputedTypes[active[0]]) {
+            filterType = precomputedTypes[active[0]];
+            filterValue = filters[active[0]];
+            url = `/api/aggregation?type=${encodeURIComponent(filterType)}&value=${encodeURIComponent(filterValue)}`;
         } else {
-            alert("Bitte wählen Sie einen Filter aus.");
-            return;
+            filterType = "query";
+            filterValue = active.map(key => `${key}=${encodeURIComponent(filters[key])}`).join("&");
+            url = `/api/aggregation/query?${filterValue}`;
         }
 
         // Filter für Export-Buttons merken
         window.currentExportFilterType = filterType;
         window.currentExportFilterValue = filterValue;
 
-
-        console.log(`Anfrage an /api/aggregation → type=${filterType}, value=${filterValue}`);
+        console.log(`Anfrage an ${url}`);
 
         const loader = document.getElementById("loader-container");
         if (loader) loader.style.display = "inline-block";
 
-        fetch(`/api/aggregation?type=${encodeURIComponent(filterType)}&value=${encodeURIComponent(filterValue)}`)
-            .then(res => res.json())
+        fetch(url)
+            .then(res => res.ok ? res.json() : null)
             .then(data => {
                 if (!data || !data.nlpAggregation) {
                     alert("Keine Daten gefunden.");
@@ -218,42 +225,29 @@ document.addEventListener("DOMContentLoaded", () => {
                 // Aktive Filteranzeige
                 if (activeFilterText) {
                     const labels = {
-                        sessions: "Sitzung",
-                        topics: "Thema",
-                        speakers: "Redner",
-                        all: "Alle Reden"
+                        session: "Sitzung",
+                        topic: "Thema",
+                        speaker: "Redner",
+                        party: "Partei",
+                        from: "Von",
+                        to: "Bis"
                     };
-                    activeFilterText.textContent = `Gefiltert nach: ${labels[filterType] || "Unbekannt"} → ${filterValue}`;
+                    activeFilterText.textContent = active.length === 0
+                        ? "Alle Reden"
+                        : "Gefiltert nach: " + active.map(key => `${labels[key]} → ${filters[key]}`).join(", ");
+                    if (data.speechCount) {
+                        activeFilterText.textContent += ` (${data.speechCount} Reden)`;
+                    }
                 }
 
                 updateCharts(data.nlpAggregation);
             })
-            .catch(err => console.error("Fehler bei /api/aggregation:", err))
+            .catch(err => console.error(`Fehler bei ${url}:`, err))
             .finally(() => {
                 if (loader) loader.style.display = "none";
             });
     }
 
-    // Filter-Status aktualisieren
-    function updateFilterStates(changedFilter) {
-        const filters = [sessionSelect, topicsSelect, speakerInput];
-
-        const oneFilterSelected = (
-            sessionSelect.value !== "all" ||
-            topicsSelect.value !== "all" ||
-            speakerInput.value.trim() !== ""
-        );
-
-        filters.forEach(filter => {
-            if (filter === changedFilter) return;
-            filter.disabled = oneFilterSelected;
-        });
-
-        if (!oneFilterSelected) {
-            filters.forEach(filter => filter.disabled = false);
-        }
-    }
-
     function getExportUrl(type, value, format) {
         if (type === "sessions") {
             return `/api/export/${format}/protokoll/${value}`;
@@ -264,7 +258,7 @@ document.addEventListener("DOMContentLoaded", () => {
         } else if (type === "all") {
             return `/api/export/${format}/protokolle`; // ALLE Protokolle exportieren
         } else {
-            alert("Export nur für Sitzung, Thema, Redner oder alle Reden möglich.");
+            alert("Export nur für einen einzelnen Filter (Sitzung, Thema oder Redner) oder alle Reden möglich.");
             return null;
         }
     }
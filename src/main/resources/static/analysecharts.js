@@ -32,8 +32,8 @@ document.addEventListener("DOMContentLoaded", () => {
             count: e.count
         }));
 
-        // Sentiment-Werte vorbereiten (Radar-Chart)
-        const sentimentsRaw = nlpAggregation.sentiment || [];
+        // Sentiment-Werte vorbereiten (Radar-Chart): Histogramm {min, binWidth, counts} oder ältere Liste {_id, count}
+        const sentimentsRaw = sentimentBuckets(nlpAggregation.sentiment);
 
         // Klassifiziere Sentiments nach Score
         let positive = 0, neutral = 0, negative = 0;
@@ -67,6 +67,15 @@ document.addEventListener("DOMContentLoaded", () => {
 
     // ----------------------------
 
+    function sentimentBuckets(sentiment) {
+        if (!sentiment) return [];
+        if (Array.isArray(sentiment)) return sentiment;
+        const counts = sentiment.counts || [];
+        // Auf zwei Nachkommastellen runden, sonst ergibt z.B. -1 + 130 * 0.01 den Wert 0.30000000000000004
+        return counts.map((count, i) => ({_id: Math.round((sentiment.min + i * sentiment.binWidth) * 100) / 100, count: count}))
+            .filter(s => s.count > 0);
+    }
+
     function createBubbleChart(data) {
 
         const container = document.getElementById("topicsBubbleChart");
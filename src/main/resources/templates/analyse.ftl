@@ -42,6 +42,19 @@
             <input type="text" id="speakerSearch" placeholder="Redner suchen">
         </div>
 
+        <div class="filter-item">
+            <label for="partySelect">Partei:</label>
+            <select id="partySelect">
+                <option value="all">Alle Parteien</option>
+            </select>
+        </div>
+
+        <div class="filter-item">
+            <label for="dateFrom">Zeitraum:</label>
+            <input type="date" id="dateFrom">
+            <input type="date" id="dateTo">
+        </div>
+
         <div class="filter-actions">
             <button id="applyFilters">Filtern</button>
             <span id="loader-container" class="loader-container">
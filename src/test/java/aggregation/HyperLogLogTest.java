@@ -0,0 +1,74 @@
+package aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prüft Schätzung und Vereinigung der {@link HyperLogLog}-Skizzen.
+ *
+ * @author Ibrahim Garhiou
+ */
+class HyperLogLogTest {
+
+    // Etwa vier Standardfehler bei 2^12 Registern
+    private static final double TOLERANCE = 0.065;
+
+    private static HyperLogLog of(int from, int to) {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = from; i < to; i++) sketch.add("lemma-" + i);
+        return sketch;
+    }
+
+    private static void assertClose(long expected, long estimate) {
+        assertTrue(Math.abs(estimate - expected) <= expected * TOLERANCE,
+                "Schätzung " + estimate + " weicht zu stark von " + expected + " ab");
+    }
+
+    @Test
+    void emptySketchEstimatesZero() {
+        assertEquals(0, new HyperLogLog().estimate());
+    }
+
+    @Test
+    void smallCardinalitiesAreNearlyExact() {
+        assertEquals(100, of(0, 100).estimate(), 2);
+    }
+
+    @Test
+    void duplicatesDoNotIncreaseTheEstimate() {
+        HyperLogLog sketch = of(0, 1000);
+        long before = sketch.estimate();
+        for (int i = 0; i < 1000; i++) sketch.add("lemma-" + i);
+        assertEquals(before, sketch.estimate());
+    }
+
+    @Test
+    void largeCardinalitiesStayWithinTheErrorBound() {
+        assertClose(50_000, of(0, 50_000).estimate());
+    }
+
+    @Test
+    void mergeEstimatesTheUnionNotTheSum() {
+        HyperLogLog first = of(0, 30_000);
+        HyperLogLog second = of(20_000, 50_000);
+
+        assertClose(50_000, first.merge(second).estimate());
+    }
+
+    @Test
+    void mergeEqualsAddingAllValuesToOneSketch() {
+        HyperLogLog merged = of(0, 5000).merge(of(5000, 10_000));
+        assertArrayEquals(of(0, 10_000).toBytes(), merged.toBytes());
+    }
+
+    @Test
+    void bytesRoundTripAndInvalidDataGivesAnEmptySketch() {
+        HyperLogLog sketch = of(0, 1000);
+        assertEquals(sketch.estimate(), HyperLogLog.fromBytes(sketch.toBytes()).estimate());
+        assertEquals(0, HyperLogLog.fromBytes(new byte[3]).estimate());
+        assertEquals(0, HyperLogLog.fromBytes(null).estimate());
+    }
+}
@@ -0,0 +1,110 @@
+package aggregation;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prüft das Zusammenführen und Abziehen von {@link NlpAccumulator}, auf dem die parallele und die
+ * inkrementelle Aggregation beruhen.
+ *
+ * @author Ibrahim Garhiou
+ */
+class NlpAccumulatorTest {
+
+    private static Document speech(String topic, double score, String entityType, String entityText, String pos, double... sentiments) {
+        List<Document> sentimentLayer = new ArrayList<>();
+        for (double sentiment : sentiments) sentimentLayer.add(new Document("sentiment", sentiment));
+        return new Document("topics", List.of(new Document("value", topic).append("score", score)))
+                .append("namedEntities", List.of(new Document("type", entityType).append("text", entityText)))
+                .append("tokens", List.of(new Document("pos", pos)))
+                .append("sentiment", sentimentLayer);
+    }
+
+    private static NlpAccumulator of(Document... speeches) {
+        NlpAccumulator accumulator = NlpAccumulator.forEntity();
+        for (Document speech : speeches) accumulator.add(speech);
+        return accumulator;
+    }
+
+    @Test
+    void mergeEqualsAccumulatingAllSpeechesAtOnce() {
+        Document first = speech("Haushalt", 0.8, "PER", "Anna", "NN", 0.5, 0.1);
+        Document second = speech("Haushalt", 0.4, "LOC", "Berlin", "VVFIN", 0.9, -0.2);
+        Document third = speech("Bildung", 0.6, "PER", "Anna", "NN", 0.0, 0.3);
+
+        NlpAccumulator merged = of(first).merge(of(second, third));
+
+        assertEquals(of(first, second, third).toState(), merged.toState());
+        assertEquals(3, merged.getSpeechCount());
+    }
+
+    @Test
+    void subtractRemovesAPreviouslyAddedSpeech() {
+        Document kept = speech("Haushalt", 0.8, "PER", "Anna", "NN", 0.5, 0.1);
+        Document removed = speech("Bildung", 0.4, "LOC", "Berlin", "VVFIN", 0.9, -0.2);
+
+        NlpAccumulator accumulator = of(kept, removed).subtract(of(removed));
+
+        assertEquals(of(kept).toState(), accumulator.toState());
+    }
+
+    @Test
+    void subtractDropsEntriesThatFallToZero() {
+        Document removed = speech("Bildung", 0.4, "LOC", "Berlin", "VVFIN", 0.9, -0.2);
+        NlpAccumulator accumulator = of(speech("Haushalt", 0.8, "PER", "Anna", "NN", 0.5), removed).subtract(of(removed));
+
+        Document aggregation = accumulator.toNlpAggregation();
+        List<Document> topics = aggregation.getList("topics", Document.class);
+        assertEquals(1, topics.size());
+        assertEquals("Haushalt", topics.get(0).getString("_id"));
+        assertTrue(aggregation.getList("namedEntitiesByType", Document.class).stream()
+                .noneMatch(entry -> "LOC".equals(entry.get("_id"))));
+        assertTrue(aggregation.getList("pos_tags", Document.class).stream()
+                .noneMatch(entry -> "VVFIN".equals(entry.get("_id"))));
+    }
+
+    @Test
+    void entitiesSkipTheFirstSentimentWhileTopicsCountAll() {
+        Document speech = speech("Haushalt", 0.8, "PER", "Anna", "NN", 0.5, 0.1);
+
+        NlpAccumulator entity = NlpAccumulator.forEntity();
+        entity.add(speech);
+        NlpAccumulator topic = NlpAccumulator.forTopic();
+        topic.add(speech);
+
+        int[] entityHistogram = SentimentHistogram.fromDocument(entity.toNlpAggregation().get("sentiment"));
+        int[] topicHistogram = SentimentHistogram.fromDocument(topic.toNlpAggregation().get("sentiment"));
+        assertEquals(0, entityHistogram[SentimentHistogram.binOf(0.5)]);
+        assertEquals(1, entityHistogram[SentimentHistogram.binOf(0.1)]);
+        assertEquals(1, topicHistogram[SentimentHistogram.binOf(0.5)]);
+        assertEquals(1, topicHistogram[SentimentHistogram.binOf(0.1)]);
+    }
+
+    @Test
+    void nonNumericTopicScoresCountWithoutScore() {
+        NlpAccumulator accumulator = NlpAccumulator.forEntity();
+        accumulator.add(new Document("topics", List.of(new Document("value", "Haushalt").append("score", "0.8"))));
+
+        Document topic = accumulator.toNlpAggregation().getList("topics", Document.class).get(0);
+        assertNull(topic.get("averageScore"));
+        assertEquals(0.0, topic.getDouble("totalScore"));
+    }
+
+    @Test
+    void stateRoundTripKeepsAllCounters() {
+        NlpAccumulator accumulator = of(speech("Haushalt", 0.8, "PER", "Anna", "NN", 0.5, 0.1),
+                speech("Bildung", 0.4, "LOC", "Berlin", "VVFIN", 0.9, -0.2));
+
+        NlpAccumulator restored = NlpAccumulator.fromState(accumulator.toState());
+
+        assertEquals(accumulator.toNlpAggregation(), restored.toNlpAggregation());
+        assertEquals(accumulator.getSpeechCount(), restored.getSpeechCount());
+    }
+}
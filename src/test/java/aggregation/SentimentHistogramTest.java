@@ -0,0 +1,88 @@
+package aggregation;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Prüft die Bin-Zuordnung des {@link SentimentHistogram}, die $round(..., 2) der früheren Pipelines entsprechen muss.
+ *
+ * @author Ibrahim Garhiou
+ */
+class SentimentHistogramTest {
+
+    @Test
+    void boundsAndCenterMapToTheExpectedBins() {
+        assertEquals(0, SentimentHistogram.binOf(-1.0));
+        assertEquals(100, SentimentHistogram.binOf(0.0));
+        assertEquals(200, SentimentHistogram.binOf(1.0));
+        assertEquals(0.0, SentimentHistogram.center(100));
+        assertEquals(-1.0, SentimentHistogram.center(0));
+        assertEquals(0.37, SentimentHistogram.center(SentimentHistogram.binOf(0.37)));
+    }
+
+    @Test
+    void valuesOutsideTheRangeGoToTheOuterBins() {
+        assertEquals(0, SentimentHistogram.binOf(-1.7));
+        assertEquals(200, SentimentHistogram.binOf(3.2));
+        assertEquals(200, SentimentHistogram.binOf(Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    void roundsToTwoDecimalsWithBankersRounding() {
+        assertEquals(100, SentimentHistogram.binOf(0.004));
+        assertEquals(101, SentimentHistogram.binOf(0.006));
+        // Genau auf der Grenze zur geraden Ziffer, wie $round
+        assertEquals(100, SentimentHistogram.binOf(0.005));
+        assertEquals(100, SentimentHistogram.binOf(-0.005));
+        assertEquals(102, SentimentHistogram.binOf(0.015));
+        assertEquals(98, SentimentHistogram.binOf(-0.015));
+        assertEquals(112, SentimentHistogram.binOf(0.125));
+    }
+
+    @Test
+    void nanHasNoBinAndIsSkippedWhenCounting() {
+        assertThrows(IllegalArgumentException.class, () -> SentimentHistogram.binOf(Double.NaN));
+
+        int[] counts = SentimentHistogram.empty();
+        SentimentHistogram.add(counts, Double.NaN, 1);
+        SentimentHistogram.add(counts, 0.2, 2);
+        int[] expected = SentimentHistogram.empty();
+        expected[120] = 2;
+        assertArrayEquals(expected, counts);
+    }
+
+    @Test
+    void mergeAddsAndSubtractsBinwise() {
+        int[] target = SentimentHistogram.empty();
+        int[] source = SentimentHistogram.empty();
+        SentimentHistogram.add(target, 0.5, 3);
+        SentimentHistogram.add(source, 0.5, 1);
+        SentimentHistogram.add(source, -0.5, 1);
+
+        SentimentHistogram.merge(target, source, 1);
+        assertEquals(4, target[150]);
+        assertEquals(1, target[50]);
+
+        SentimentHistogram.merge(target, source, -1);
+        assertEquals(3, target[150]);
+        assertEquals(0, target[50]);
+    }
+
+    @Test
+    void readsHistogramsAndLegacyBucketLists() {
+        int[] counts = SentimentHistogram.empty();
+        SentimentHistogram.add(counts, -0.25, 4);
+        assertArrayEquals(counts, SentimentHistogram.fromDocument(SentimentHistogram.toDocument(counts)));
+
+        List<Document> legacy = List.of(new Document("_id", -0.25).append("count", 4),
+                new Document("_id", "kein Wert").append("count", 7));
+        assertArrayEquals(counts, SentimentHistogram.fromDocument(legacy));
+        assertArrayEquals(SentimentHistogram.empty(), SentimentHistogram.fromDocument(null));
+    }
+}
@@ -0,0 +1,99 @@
+package aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prüft die Schlüsselkodierung der Rollups und die Überdeckung eines Zeitraums durch Buckets.
+ *
+ * @author Ibrahim Garhiou
+ */
+class TrendRollupsTest {
+
+    @Test
+    void encodedKeysAreValidFieldNamesAndDecodeToTheOriginal() {
+        for (String key : List.of("Haushalt", "Dr. Anna Beispiel", "$where", "100%", "%2E", "%24", "a.b.$c%", "$.", "")) {
+            String encoded = TrendRollups.encodeKey(key);
+            assertFalse(encoded.contains("."), encoded);
+            assertFalse(encoded.startsWith("$"), encoded);
+            assertEquals(key, TrendRollups.decodeKey(encoded));
+        }
+    }
+
+    @Test
+    void wholeMonthIsCoveredByOneBucket() {
+        assertEquals(List.of("month:2024-02-01:*"),
+                TrendRollups.cover(LocalDate.of(2024, 2, 1), LocalDate.of(2024, 2, 29), TrendRollups.ALL_TOPICS));
+    }
+
+    @Test
+    void edgesAreCoveredWithWeeksAndDays() {
+        // Mo 15.01. bis Di 05.03.2024
+        List<String> ids = TrendRollups.cover(LocalDate.of(2024, 1, 15), LocalDate.of(2024, 3, 5), "Haushalt");
+
+        assertEquals(List.of(
+                "month:2024-02-01:Haushalt",
+                "week:2024-01-15:Haushalt", "week:2024-01-22:Haushalt",
+                "day:2024-01-29:Haushalt", "day:2024-01-30:Haushalt", "day:2024-01-31:Haushalt",
+                "day:2024-03-01:Haushalt", "day:2024-03-02:Haushalt", "day:2024-03-03:Haushalt",
+                "day:2024-03-04:Haushalt", "day:2024-03-05:Haushalt"), ids);
+    }
+
+    @Test
+    void coverPartitionsEveryRangeWithoutGapsOrOverlaps() {
+        LocalDate start = LocalDate.of(2023, 12, 20);
+        for (int offset = 0; offset < 60; offset += 3) {
+            LocalDate from = start.plusDays(offset);
+            for (int length = 0; length < 120; length += 7) {
+                LocalDate to = from.plusDays(length);
+                assertEquals(days(from, to), expand(TrendRollups.cover(from, to, TrendRollups.ALL_TOPICS)), from + " bis " + to);
+            }
+        }
+    }
+
+    @Test
+    void periodStartUsesMondaysAndFirstOfMonth() {
+        LocalDate sunday = LocalDate.of(2024, 3, 10);
+        assertEquals(LocalDate.of(2024, 3, 4), TrendRollups.periodStart(TrendRollups.Level.WEEK, sunday));
+        assertEquals(DayOfWeek.MONDAY, TrendRollups.periodStart(TrendRollups.Level.WEEK, sunday).getDayOfWeek());
+        assertEquals(LocalDate.of(2024, 3, 1), TrendRollups.periodStart(TrendRollups.Level.MONTH, sunday));
+        assertEquals(sunday, TrendRollups.periodStart(TrendRollups.Level.DAY, sunday));
+    }
+
+    private static List<LocalDate> days(LocalDate from, LocalDate to) {
+        List<LocalDate> days = new ArrayList<>();
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) days.add(day);
+        return days;
+    }
+
+    // Tage aller Buckets in Reihenfolge ihres Beginns
+    private static List<LocalDate> expand(List<String> ids) {
+        List<LocalDate> days = new ArrayList<>();
+        for (String id : ids) {
+            String[] parts = id.split(":");
+            LocalDate start = LocalDate.parse(parts[1]);
+            LocalDate end = switch (parts[0]) {
+                case "month" -> start.plusMonths(1);
+                case "week" -> {
+                    assertEquals(DayOfWeek.MONDAY, start.getDayOfWeek(), id);
+                    yield start.plusWeeks(1);
+                }
+                default -> start.plusDays(1);
+            };
+            for (LocalDate day = start; day.isBefore(end); day = day.plusDays(1)) days.add(day);
+        }
+        days.sort(null);
+        for (int i = 1; i < days.size(); i++) {
+            assertTrue(days.get(i).isAfter(days.get(i - 1)), "Doppelt überdeckt: " + days.get(i));
+        }
+        return days;
+    }
+}
@@ -0,0 +1,147 @@
+package database;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prüft den {@link DocumentMatcher} gegen das bekannte Verhalten von MongoDB-Filtern, damit der
+ * In-Memory-Modus dieselben Reden liefert wie die Datenbank.
+ *
+ * @author Ibrahim Garhiou
+ */
+class DocumentMatcherTest {
+
+    private final DocumentMatcher matcher = new DocumentMatcher(List.of("text", "speaker"));
+
+    private final Document rede = Document.parse("{"
+            + "_id: 'ID20101', speaker: 'Anna Beispiel', text: 'Sehr geehrte Präsidentin, der Haushalt...',"
+            + "protocol: {index: '20/1', wp: 20},"
+            + "tags: ['haushalt', 'finanzen'],"
+            + "scores: [0.2, 0.9],"
+            + "missingValue: null,"
+            + "nlpResults: {namedEntities: [{type: 'PER', text: 'Anna'}, {type: 'LOC', text: 'Berlin'}]}"
+            + "}");
+
+    private boolean matches(String filter) {
+        return matcher.matches(rede, Document.parse(filter));
+    }
+
+    @Test
+    void emptyAndNullFiltersMatchEverything() {
+        assertTrue(matcher.matches(rede, null));
+        assertTrue(matches("{}"));
+    }
+
+    @Test
+    void equalityFollowsDotPathsIntoEmbeddedDocumentsAndArrays() {
+        assertTrue(matches("{'protocol.index': '20/1'}"));
+        assertTrue(matches("{'nlpResults.namedEntities.type': 'LOC'}"));
+        assertFalse(matches("{'nlpResults.namedEntities.type': 'ORG'}"));
+    }
+
+    @Test
+    void equalityOnArraysMatchesElementsAndWholeArray() {
+        assertTrue(matches("{tags: 'finanzen'}"));
+        assertTrue(matches("{tags: ['haushalt', 'finanzen']}"));
+        // Wie in MongoDB kommt es beim ganzen Array auf die Reihenfolge an
+        assertFalse(matches("{tags: ['finanzen', 'haushalt']}"));
+    }
+
+    @Test
+    void numericEqualityIgnoresNumberType() {
+        assertTrue(matches("{'protocol.wp': 20.0}"));
+        assertTrue(matches("{'protocol.wp': {$numberLong: '20'}}"));
+        assertFalse(matches("{'protocol.wp': '20'}"));
+    }
+
+    @Test
+    void nullMatchesMissingAndNullFields() {
+        assertTrue(matches("{missingValue: null}"));
+        assertTrue(matches("{doesNotExist: null}"));
+        assertFalse(matches("{speaker: null}"));
+    }
+
+    @Test
+    void neAndNinMatchMissingFields() {
+        assertTrue(matches("{doesNotExist: {$ne: 'x'}}"));
+        assertTrue(matches("{doesNotExist: {$nin: ['x', 'y']}}"));
+        assertFalse(matches("{doesNotExist: {$ne: null}}"));
+        assertFalse(matches("{tags: {$ne: 'haushalt'}}"));
+    }
+
+    @Test
+    void existsCountsNullAsPresent() {
+        assertTrue(matches("{missingValue: {$exists: true}}"));
+        assertTrue(matches("{doesNotExist: {$exists: false}}"));
+        assertFalse(matches("{speaker: {$exists: false}}"));
+    }
+
+    @Test
+    void rangeOperatorsCompareOnlyValuesOfTheSameType() {
+        assertTrue(matches("{'protocol.wp': {$gte: 20, $lt: 21}}"));
+        assertFalse(matches("{'protocol.wp': {$gt: '1'}}"));
+        // Ein Array-Element genügt
+        assertTrue(matches("{scores: {$gt: 0.5}}"));
+        assertFalse(matches("{scores: {$gt: 0.95}}"));
+    }
+
+    @Test
+    void inSupportsNullAndRegularExpressions() {
+        assertTrue(matches("{doesNotExist: {$in: [null]}}"));
+        assertTrue(matcher.matches(rede, new Document("speaker",
+                new Document("$in", Arrays.asList("x", Pattern.compile("^Anna"))))));
+        assertFalse(matches("{speaker: {$in: ['Berta', 'Carl']}}"));
+    }
+
+    @Test
+    void regexHonorsOptionsAndNot() {
+        assertTrue(matches("{speaker: {$regex: 'beispiel', $options: 'i'}}"));
+        assertFalse(matches("{speaker: {$regex: 'beispiel'}}"));
+        assertTrue(matcher.matches(rede, new Document("speaker", new Document("$not", Pattern.compile("^Berta")))));
+    }
+
+    @Test
+    void sizeAndElemMatchWorkOnArrays() {
+        assertTrue(matches("{tags: {$size: 2}}"));
+        assertFalse(matches("{tags: {$size: 1}}"));
+        assertTrue(matches("{'nlpResults.namedEntities': {$elemMatch: {type: 'PER', text: 'Anna'}}}"));
+        // Beide Bedingungen müssen auf dasselbe Element zutreffen
+        assertFalse(matches("{'nlpResults.namedEntities': {$elemMatch: {type: 'PER', text: 'Berlin'}}}"));
+        assertTrue(matches("{scores: {$elemMatch: {$gt: 0.5, $lt: 1}}}"));
+    }
+
+    @Test
+    void logicalOperatorsCombineSubFilters() {
+        assertTrue(matches("{$or: [{speaker: 'Berta'}, {tags: 'finanzen'}]}"));
+        assertFalse(matches("{$and: [{speaker: 'Anna Beispiel'}, {tags: 'bildung'}]}"));
+        assertTrue(matches("{$nor: [{speaker: 'Berta'}, {tags: 'bildung'}]}"));
+    }
+
+    @Test
+    void positionalPathsSelectArrayElements() {
+        assertTrue(matches("{'tags.0': 'haushalt'}"));
+        assertFalse(matches("{'tags.1': 'haushalt'}"));
+        assertTrue(matches("{'nlpResults.namedEntities.1.text': 'Berlin'}"));
+    }
+
+    @Test
+    void textSearchMatchesWordPrefixesAndExclusions() {
+        assertTrue(matches("{$text: {$search: 'haus'}}"));
+        assertTrue(matches("{$text: {$search: 'bildung PRÄSIDENTIN'}}"));
+        assertFalse(matches("{$text: {$search: 'haushalt -präsidentin'}}"));
+        assertFalse(matches("{$text: {$search: 'aushalt'}}"));
+    }
+
+    @Test
+    void unsupportedOperatorsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> matches("{speaker: {$where: 'true'}}"));
+    }
+}
@@ -0,0 +1,58 @@
+package database;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prüft die Topic-Scores und das dominante Topic, die {@link DominantTopic} an jeder Rede materialisiert.
+ *
+ * @author Ibrahim Garhiou
+ */
+class DominantTopicTest {
+
+    private static Document topic(String value, Object score) {
+        return new Document("value", value).append("score", score);
+    }
+
+    @Test
+    void scoresAverageRepeatedTopicsAndSortDescending() {
+        List<Document> scores = DominantTopic.scores(List.of(
+                topic("Bildung", 0.2), topic("Haushalt", 0.5), topic("Bildung", 0.6), topic("Umwelt", 0.3)));
+
+        assertEquals(List.of("Haushalt", "Bildung", "Umwelt"), scores.stream().map(doc -> doc.getString("value")).toList());
+        assertEquals(0.4, scores.get(1).getDouble("score"), 1e-9);
+        assertEquals(2, scores.get(1).getInteger("count"));
+        assertEquals("Haushalt", DominantTopic.of(List.of(
+                topic("Bildung", 0.2), topic("Haushalt", 0.5), topic("Bildung", 0.6))));
+    }
+
+    @Test
+    void tiesKeepTheOrderOfFirstOccurrence() {
+        List<Object> layer = List.of(topic("Umwelt", 0.5), topic("Haushalt", 0.5));
+        assertEquals("Umwelt", DominantTopic.of(layer));
+        assertEquals("Umwelt", DominantTopic.scores(layer).get(0).getString("value"));
+    }
+
+    @Test
+    void invalidEntriesAreSkipped() {
+        List<Object> layer = List.of(topic("Haushalt", "0.9"), topic(null, 0.8), topic("", 0.7),
+                new Document("value", "Bildung"), "kein Dokument", topic("Umwelt", 0.1));
+
+        List<Document> scores = DominantTopic.scores(layer);
+        assertEquals(1, scores.size());
+        assertEquals("Umwelt", scores.get(0).getString("value"));
+    }
+
+    @Test
+    void noDominantTopicWithoutPositiveScore() {
+        assertNull(DominantTopic.of(List.of(topic("Haushalt", 0.0), topic("Bildung", -0.2))));
+        assertNull(DominantTopic.of(null));
+        assertTrue(DominantTopic.scores("kein Layer").isEmpty());
+    }
+}